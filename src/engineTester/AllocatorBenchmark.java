@@ -0,0 +1,186 @@
+package engineTester;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import toolbox.FreeListAllocator;
+
+//Checks the free list allocator the geometry arenas use without opening a window, then times it. Random allocations
+//(of random sizes and alignments) and frees are run against a copy of the space kept as one flag per unit, and after
+//every one the allocator must agree with the copy:
+//   every allocation starts on its alignment and only covers free space
+//   an allocation only fails when no free run can hold it once lined up
+//   the used space, the number of free blocks (so every free run is exactly one block, ie. neighbours were merged),
+//   the largest free block and the fragmentation all match the copy
+//Freeing everything at the end must leave one free block with no fragmentation.
+public class AllocatorBenchmark {
+
+	private static final int CAPACITY = 4096;
+	private static final int OPERATIONS = 100000;
+	private static final int MAX_SIZE = 256;
+	private static final int[] ALIGNMENTS = {1, 2, 4, 20, 64};
+	//Bigger space the allocator is timed on, with the same mix of allocations.
+	private static final int TIMED_CAPACITY = 1 << 24;
+	private static final int TIMED_LIVE_ALLOCATIONS = 5000;
+	private static final int TIMED_OPERATIONS = 20000;
+	//Runs before timing so the JIT has compiled everything, then the best of the timed runs is reported.
+	private static final int WARMUP_RUNS = 3;
+	private static final int TIMED_RUNS = 5;
+
+	public static void main(String[] args) {
+		checkAllocator(new Random(1));
+		timeAllocator();
+	}
+
+	private static void checkAllocator(Random random) {
+		FreeListAllocator allocator = new FreeListAllocator(CAPACITY);
+		boolean[] used = new boolean[CAPACITY];
+		List<Integer> offsets = new ArrayList<Integer>();
+		List<Integer> sizes = new ArrayList<Integer>();
+		int failed = 0;
+		float worstFragmentation = 0;
+		for (int operation = 0; operation < OPERATIONS; operation++) {
+			//Lean towards allocating until the space is fairly full, then towards freeing
+			boolean allocate = offsets.isEmpty() || random.nextInt(CAPACITY) > allocator.getUsed() / 2 + CAPACITY / 4;
+			if (allocate) {
+				int size = 1 + random.nextInt(random.nextInt(4) == 0 ? MAX_SIZE : MAX_SIZE / 8);
+				int alignment = ALIGNMENTS[random.nextInt(ALIGNMENTS.length)];
+				int offset = allocator.allocate(size, alignment);
+				if (offset < 0) {
+					if (fits(used, size, alignment)) {
+						fail("Allocation of " + size + " aligned to " + alignment + " failed but would fit");
+					}
+					failed++;
+				} else {
+					if (offset % alignment != 0 || offset + size > CAPACITY) {
+						fail("Allocation of " + size + " aligned to " + alignment + " put at " + offset);
+					}
+					for (int i = offset; i < offset + size; i++) {
+						if (used[i]) {
+							fail("Allocation of " + size + " at " + offset + " overlaps another at " + i);
+						}
+						used[i] = true;
+					}
+					offsets.add(offset);
+					sizes.add(size);
+				}
+			} else {
+				int index = random.nextInt(offsets.size());
+				int offset = offsets.get(index);
+				int size = sizes.get(index);
+				if (allocator.getAllocationSize(offset) != size) {
+					fail("Allocation at " + offset + " has size " + allocator.getAllocationSize(offset) + " not "
+							+ size);
+				}
+				allocator.free(offset);
+				for (int i = offset; i < offset + size; i++) {
+					used[i] = false;
+				}
+				//Swap the last one in so removing is quick
+				offsets.set(index, offsets.get(offsets.size() - 1));
+				sizes.set(index, sizes.get(sizes.size() - 1));
+				offsets.remove(offsets.size() - 1);
+				sizes.remove(sizes.size() - 1);
+			}
+			checkMatches(allocator, used, offsets.size());
+			worstFragmentation = Math.max(worstFragmentation, allocator.getFragmentation());
+		}
+		System.out.println(OPERATIONS + " random allocations & frees matched, " + failed + " allocations didn't fit, "
+				+ "worst fragmentation " + String.format("%.1f%%", worstFragmentation * 100));
+		System.out.println("Before freeing everything: " + allocator.getStats());
+		for (int offset : offsets) {
+			allocator.free(offset);
+		}
+		if (allocator.getUsed() != 0 || allocator.getFreeBlockCount() != 1 || allocator.getFragmentation() != 0
+				|| allocator.getLargestFreeBlock() != CAPACITY) {
+			fail("Freeing everything left " + allocator.getStats());
+		}
+		try {
+			allocator.free(0);
+			fail("Freeing the same allocation twice was let through");
+		} catch (IllegalArgumentException e) {
+			//Expected, nothing is allocated
+		}
+		System.out.println("After freeing everything: " + allocator.getStats());
+	}
+
+	//Compares the allocator's counts with the runs of free space in the copy.
+	private static void checkMatches(FreeListAllocator allocator, boolean[] used, int allocationCount) {
+		int usedCount = 0;
+		int freeRuns = 0;
+		int largestRun = 0;
+		int run = 0;
+		for (int i = 0; i < CAPACITY; i++) {
+			if (used[i]) {
+				usedCount++;
+				run = 0;
+			} else {
+				if (run == 0) {
+					freeRuns++;
+				}
+				run++;
+				largestRun = Math.max(largestRun, run);
+			}
+		}
+		int free = CAPACITY - usedCount;
+		float fragmentation = free == 0 ? 0 : 1 - (float) largestRun / free;
+		if (allocator.getUsed() != usedCount || allocator.getAllocationCount() != allocationCount
+				|| allocator.getFreeBlockCount() != freeRuns || allocator.getLargestFreeBlock() != largestRun
+				|| allocator.getFragmentation() != fragmentation) {
+			fail("Allocator doesn't match the space: " + allocator.getStats() + " against " + usedCount + " used in "
+					+ allocationCount + " allocations, " + freeRuns + " free blocks (largest " + largestRun + ")");
+		}
+	}
+
+	//Whether any run of free space in the copy can hold the size once its start is lined up.
+	private static boolean fits(boolean[] used, int size, int alignment) {
+		int runStart = -1;
+		for (int i = 0; i <= CAPACITY; i++) {
+			if (i < CAPACITY && !used[i]) {
+				if (runStart < 0) {
+					runStart = i;
+				}
+			} else if (runStart >= 0) {
+				int start = (runStart + alignment - 1) / alignment * alignment;
+				if (start + size <= i) {
+					return true;
+				}
+				runStart = -1;
+			}
+		}
+		return false;
+	}
+
+	//Times keeping a few thousand live allocations while freeing and allocating random ones.
+	private static void timeAllocator() {
+		long best = Long.MAX_VALUE;
+		String stats = "";
+		for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+			Random random = new Random(2);
+			FreeListAllocator allocator = new FreeListAllocator(TIMED_CAPACITY);
+			int[] live = new int[TIMED_LIVE_ALLOCATIONS];
+			long start = System.nanoTime();
+			for (int i = 0; i < TIMED_LIVE_ALLOCATIONS; i++) {
+				live[i] = allocator.allocate(1 + random.nextInt(MAX_SIZE * 8), ALIGNMENTS[i % ALIGNMENTS.length]);
+			}
+			for (int i = 0; i < TIMED_OPERATIONS; i++) {
+				int index = random.nextInt(TIMED_LIVE_ALLOCATIONS);
+				allocator.free(live[index]);
+				live[index] = allocator.allocate(1 + random.nextInt(MAX_SIZE * 8), ALIGNMENTS[i % ALIGNMENTS.length]);
+			}
+			long time = System.nanoTime() - start;
+			if (run >= WARMUP_RUNS) {
+				best = Math.min(best, time);
+			}
+			stats = allocator.getStats();
+		}
+		System.out.printf("%.2f us per free & allocate with %d live allocations: %s%n", best / 1e3 / TIMED_OPERATIONS,
+				TIMED_LIVE_ALLOCATIONS, stats);
+	}
+
+	private static void fail(String message) {
+		System.out.println(message);
+		System.exit(-1);
+	}
+}
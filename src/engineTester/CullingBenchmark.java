@@ -0,0 +1,206 @@
+package engineTester;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+
+import entities.Entity;
+import models.ModelBounds;
+import models.RawModel;
+import models.TexturedModel;
+import toolbox.EntityCuller;
+import toolbox.Frustum;
+import toolbox.Maths;
+
+//Checks and times the entity culling without opening a window, and checks the transformation matrices the entities
+//keep. Scatters entities like the game's trees, ferns and grass (with random rotations and scales) and looks at them
+//from random cameras. Every entity with a vertex on screen must be let through, and the report says how many of the
+//entities with nothing on screen were culled and how long each test takes.
+public class CullingBenchmark {
+
+	//Same projection as the MainRenderer, for a 16:9 window.
+	private static final float FOV = 70;
+	private static final float ASPECT_RATIO = 16f / 9f;
+	private static final float NEAR_PLANE = 0.1f;
+	private static final float FAR_PLANE = 1000;
+	private static final int ENTITY_COUNT = 600;
+	private static final int CAMERA_COUNT = 200;
+	private static final int VERTICES_PER_MODEL = 200;
+	//Runs before timing so the JIT has compiled everything, then the best of the timed runs is reported.
+	private static final int WARMUP_RUNS = 3;
+	private static final int TIMED_RUNS = 5;
+
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		//A tall thin model like a tree, a low wide one like a fern and a flat one like grass
+		List<float[]> meshes = new ArrayList<float[]>();
+		meshes.add(randomPositions(random, 2, 12, 2));
+		meshes.add(randomPositions(random, 3, 2, 3));
+		meshes.add(randomPositions(random, 4, 0.5f, 1));
+		List<TexturedModel> models = new ArrayList<TexturedModel>();
+		for (float[] positions : meshes) {
+			RawModel rawModel = new RawModel(0, 0);
+			rawModel.setBounds(ModelBounds.fromPositions(positions));
+			models.add(new TexturedModel(rawModel, null));
+		}
+		List<Entity> entities = new ArrayList<Entity>();
+		List<float[]> entityMeshes = new ArrayList<float[]>();
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			int model = i % models.size();
+			//Half of them turned every way, the rest just around y like the game's
+			boolean tumbled = i % 2 == 0;
+			entities.add(new Entity(models.get(model), new Vector3f(random.nextFloat() * 800 - 400,
+					random.nextFloat() * 20, random.nextFloat() * -600), tumbled ? random.nextFloat() * 360 : 0,
+					random.nextFloat() * 360, tumbled ? random.nextFloat() * 360 : 0, 0.5f + random.nextFloat() * 2));
+			entityMeshes.add(meshes.get(model));
+		}
+		//The matrices the entities keep must match making them from scratch, also after being moved, turned, scaled
+		//or moved straight through their position vector
+		checkTransformationMatrices(entities, random);
+		Matrix4f projectionMatrix = Maths.createProjectionMatrix(FOV, ASPECT_RATIO, NEAR_PLANE, FAR_PLANE);
+		Frustum frustum = new Frustum();
+		EntityCuller culler = new EntityCuller(frustum);
+		Matrix4f[] viewMatrices = new Matrix4f[CAMERA_COUNT];
+		for (int i = 0; i < CAMERA_COUNT; i++) {
+			viewMatrices[i] = createViewMatrix(new Vector3f(random.nextFloat() * 800 - 400, 5 + random.nextFloat()
+					* 40, random.nextFloat() * -600), random.nextFloat() * 40 - 10, random.nextFloat() * 360);
+		}
+		//Check every entity against every vertex of its model moved into the world
+		int onScreen = 0;
+		int offScreen = 0;
+		int culled = 0;
+		for (Matrix4f viewMatrix : viewMatrices) {
+			frustum.update(projectionMatrix, viewMatrix);
+			for (int i = 0; i < ENTITY_COUNT; i++) {
+				Entity entity = entities.get(i);
+				boolean visible = culler.isVisible(entity);
+				if (hasVertexOnScreen(entity, entityMeshes.get(i), frustum)) {
+					onScreen++;
+					if (!visible) {
+						System.out.println("Culled an entity with a vertex on screen at " + entity.getPosition());
+						System.exit(-1);
+					}
+				} else {
+					offScreen++;
+					if (!visible) {
+						culled++;
+					}
+				}
+			}
+			culler.endFrame();
+		}
+		System.out.printf("%d entities from %d cameras: every one on screen kept, %d of %d off screen culled (%.1f%%)"
+				+ ", %d drawn last frame%n", ENTITY_COUNT, CAMERA_COUNT, culled, offScreen, 100.0 * culled
+				/ offScreen, culler.getDrawn());
+		System.out.printf("%.1f%% of entities were on screen%n", 100.0 * onScreen / (onScreen + offScreen));
+		//Then time the culling on its own
+		long best = Long.MAX_VALUE;
+		int kept = 0;
+		for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+			long start = System.nanoTime();
+			for (Matrix4f viewMatrix : viewMatrices) {
+				frustum.update(projectionMatrix, viewMatrix);
+				for (Entity entity : entities) {
+					if (culler.isVisible(entity)) {
+						kept++;
+					}
+				}
+				culler.endFrame();
+			}
+			if (run >= WARMUP_RUNS) {
+				best = Math.min(best, System.nanoTime() - start);
+			}
+		}
+		System.out.printf("%.1f ns an entity, %.1f us a frame of %d (%d kept)%n", (double) best / CAMERA_COUNT
+				/ ENTITY_COUNT, best / 1e3 / CAMERA_COUNT, ENTITY_COUNT, kept);
+	}
+
+	//Checks every entity's transformation matrix against Maths.createTransformationMatrix before and after changing
+	//the entities in each way they can be changed. The entities are put back where they were afterwards.
+	private static void checkTransformationMatrices(List<Entity> entities, Random random) {
+		float worst = 0;
+		for (int change = 0; change < 5; change++) {
+			for (Entity entity : entities) {
+				Vector3f position = entity.getPosition();
+				float x = position.x, y = position.y, z = position.z;
+				float rotX = entity.getRotX(), rotY = entity.getRotY(), rotZ = entity.getRotZ();
+				float scale = entity.getScale();
+				worst = Math.max(worst, difference(entity));
+				if (change == 1) {
+					entity.increasePosition(random.nextFloat(), random.nextFloat(), random.nextFloat());
+				} else if (change == 2) {
+					entity.increaseRotation(random.nextFloat() * 90, random.nextFloat() * 90, random.nextFloat() * 90);
+				} else if (change == 3) {
+					entity.setScale(scale * 2);
+				} else if (change == 4) {
+					position.y += 5;
+				}
+				worst = Math.max(worst, difference(entity));
+				position.set(x, y, z);
+				entity.setRotX(rotX);
+				entity.setRotY(rotY);
+				entity.setRotZ(rotZ);
+				entity.setScale(scale);
+			}
+		}
+		if (worst > 1e-4f) {
+			System.out.println("Entity transformation matrices are out by up to " + worst);
+			System.exit(-1);
+		}
+		System.out.println("Entity transformation matrices match, out by up to " + worst);
+	}
+
+	//Biggest difference between an element of an entity's transformation matrix and one made from scratch.
+	private static float difference(Entity entity) {
+		Matrix4f expected = Maths.createTransformationMatrix(entity.getPosition(), entity.getRotX(),
+				entity.getRotY(), entity.getRotZ(), entity.getScale());
+		Matrix4f difference = Matrix4f.sub(entity.getTransformationMatrix(), expected, null);
+		float[] elements = {difference.m00, difference.m01, difference.m02, difference.m03, difference.m10,
+				difference.m11, difference.m12, difference.m13, difference.m20, difference.m21, difference.m22,
+				difference.m23, difference.m30, difference.m31, difference.m32, difference.m33};
+		float worst = 0;
+		for (float element : elements) {
+			worst = Math.max(worst, Math.abs(element));
+		}
+		return worst;
+	}
+
+	//Random positions inside a box width x height x depth, standing on y = 0 and centred on x & z.
+	private static float[] randomPositions(Random random, float width, float height, float depth) {
+		float[] positions = new float[VERTICES_PER_MODEL * 3];
+		for (int i = 0; i < VERTICES_PER_MODEL; i++) {
+			positions[i * 3] = (random.nextFloat() - 0.5f) * width;
+			positions[i * 3 + 1] = random.nextFloat() * height;
+			positions[i * 3 + 2] = (random.nextFloat() - 0.5f) * depth;
+		}
+		return positions;
+	}
+
+	//Whether any vertex of the model, moved by the entity's transformation matrix, is inside the frustum.
+	private static boolean hasVertexOnScreen(Entity entity, float[] positions, Frustum frustum) {
+		Matrix4f transformation = Maths.createTransformationMatrix(entity.getPosition(), entity.getRotX(),
+				entity.getRotY(), entity.getRotZ(), entity.getScale());
+		Vector4f vertex = new Vector4f();
+		for (int i = 0; i < positions.length; i += 3) {
+			vertex.set(positions[i], positions[i + 1], positions[i + 2], 1);
+			Matrix4f.transform(transformation, vertex, vertex);
+			if (frustum.intersectsSphere(vertex.x, vertex.y, vertex.z, 0)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//Same as Maths.createViewMatrix, without needing a camera.
+	private static Matrix4f createViewMatrix(Vector3f position, float pitch, float yaw) {
+		Matrix4f viewMatrix = new Matrix4f();
+		Matrix4f.rotate((float) Math.toRadians(pitch), new Vector3f(1, 0, 0), viewMatrix, viewMatrix);
+		Matrix4f.rotate((float) Math.toRadians(yaw), new Vector3f(0, 1, 0), viewMatrix, viewMatrix);
+		Matrix4f.translate(new Vector3f(-position.x, -position.y, -position.z), viewMatrix, viewMatrix);
+		return viewMatrix;
+	}
+}
@@ -3,6 +3,7 @@ package engineTester;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 import org.lwjgl.opengl.Display;
 import org.lwjgl.util.vector.Vector3f;
@@ -11,53 +12,87 @@ import entities.Camera;
 import entities.Entity;
 import entities.Light;
 import entities.Player;
+import models.LodTexturedModel;
 import models.RawModel;
 import models.TexturedModel;
+import models.VertexFormat;
+import renderEngine.AssetPipeline;
 import renderEngine.DisplayManager;
+import renderEngine.GLStateCache;
 import renderEngine.Loader;
 import renderEngine.MainRenderer;
 import renderEngine.OBJLoader;
+import terrains.HeightSource;
+import terrains.ProceduralHeightSource;
 import terrains.Terrain;
+import terrains.TerrainTileManager;
+import terrains.TerrainWorld;
 import textures.ModelTexture;
 import textures.TerrainTexture;
 import textures.TerrainTexturePack;
+import textures.TextureAtlas;
 
 public class MainGameLoop {
 
+	//Seed the terrain is made from.
+	private static final long WORLD_SEED = 20200607;
+
 	public static void main(String[] args) {
 		//First open the display.
 		DisplayManager.createDisplay();
 		//Open a new loader.  
 		Loader loader = new Loader();
 		
+		//Open the asset pipeline so all the models, textures and terrains can be decoded at the same time on 
+		//worker threads. Each load gives back a future straight away, nothing waits until await is called. 
+		AssetPipeline pipeline = new AssetPipeline(loader);
+		
 		//-----------------------------Terrain Textures-------------------------------
 		//Load each texture for the texture pack
-		TerrainTexture backgroundTexture = new TerrainTexture(loader.loadTexture("GrassGreenTexture0001"));
-		TerrainTexture rTexture = new TerrainTexture(loader.loadTexture("GrassGreenTexture0004"));
-		TerrainTexture gTexture = new TerrainTexture(loader.loadTexture("soil"));
-		TerrainTexture bTexture = new TerrainTexture(loader.loadTexture("brickPath"));
-		//Load the texture pack
-		TerrainTexturePack texturePack = new TerrainTexturePack(backgroundTexture, rTexture, gTexture, bTexture);
+		CompletableFuture<TerrainTexturePack> texturePack = pipeline.loadTerrainTexturePack("GrassGreenTexture0001", 
+				"GrassGreenTexture0004", "soil", "brickPath");
 		//Load the blendMap
-		TerrainTexture blendMap = new TerrainTexture(loader.loadTexture("blendMap"));
+		CompletableFuture<TerrainTexture> blendMap = pipeline.loadTerrainTexture("blendMap");
+		
+		//-----------------------------Terrains----------------------------------------
+		//The world is streamed in tiles around the player, each tile's heights are made from seeded noise when it is 
+		//needed so the tiles join up and the same seed always gives the same world
+		HeightSource heightSource = new ProceduralHeightSource(WORLD_SEED);
+		TerrainTileManager tiles = new TerrainTileManager(pipeline, loader, texturePack, blendMap, 
+				(gridX, gridZ) -> Terrain.generateTerrain(heightSource, gridX, gridZ), 1, 8);
+		//The loaded tiles, for finding the ground under the player and entities wherever they are 
+		TerrainWorld world = tiles.getWorld();
+		world.setHeightSource(heightSource);
 		
 		//-----------------------------Entities----------------------------------------
-		//Load the raw model from obj file passing in the file name 
-		RawModel model = OBJLoader.loadObjModel("ballTreeEdgeSplit", loader);
-		//Creating a textured model object, passing in the rawmodel and the texture. 
-		TexturedModel ballTree = new TexturedModel(model,new ModelTexture(loader.loadTexture("ballTreeTexture")));
+		//Pack the model textures into one atlas page so all the models share a single texture bind
+		CompletableFuture<TextureAtlas> atlas = pipeline.loadTextureAtlas(1024, 8, "ballTreeTexture", "fern", 
+				"longGrassTexture", "furrTexture");
+		//Start loading the raw models from obj files passing in the file name
+		//The trees are simplified into 4 levels of detail as there are so many of them
+		CompletableFuture<LodTexturedModel> ballTreeModel = pipeline.loadLodModel("ballTreeEdgeSplit", 
+				atlas.thenApply(textures -> textures.createTexture("ballTreeTexture")), 4);
+		CompletableFuture<RawModel> fernModel = pipeline.loadObjModelPacked("fern");
+		CompletableFuture<RawModel> grassModel = pipeline.loadObjModelPacked("longGrassModel");
+		CompletableFuture<RawModel> bunnyModel = pipeline.loadObjModelPacked("stanfordBunny");
+		
+		//Creating a textured model object, passing in the rawmodel and the texture from the atlas. Waiting for each 
+		//asset runs the OpenGL uploads of any that have finished decoding. 
+		TextureAtlas modelTextures = pipeline.await(atlas);
+		LodTexturedModel ballTree = pipeline.await(ballTreeModel);
+		System.out.println(modelTextures.getReport());
+		System.out.println("ballTreeEdgeSplit " + ballTree.getReport());
 		ModelTexture ballTreeTexture = ballTree.getTexture();
 		ballTreeTexture.setShineDampener(100000);
 		ballTreeTexture.setReflectivity(0);
-		TexturedModel fern = new TexturedModel(OBJLoader.loadObjModel("fern", loader), 
-				new ModelTexture(loader.loadTexture("fern")));
+		TexturedModel fern = new TexturedModel(pipeline.await(fernModel), modelTextures.createTexture("fern"));
 		ModelTexture fernTexture = fern.getTexture();
 		fernTexture.setShineDampener(100);
 		fernTexture.setReflectivity(0);
 		fernTexture.setHasTransparency(true);
 		fernTexture.setUseFakeLighting(true);
-		TexturedModel grass = new TexturedModel(OBJLoader.loadObjModel("longGrassModel", loader),
-				new ModelTexture(loader.loadTexture("longGrassTexture")));
+		TexturedModel grass = new TexturedModel(pipeline.await(grassModel), 
+				modelTextures.createTexture("longGrassTexture"));
 		ModelTexture grassTexture = grass.getTexture();
 		grassTexture.setShineDampener(100);
 		grassTexture.setReflectivity(0);
@@ -75,9 +110,8 @@ public class MainGameLoop {
 					random.nextFloat() * -600), 0, 0, 0, 1));
 		}
 		//Player entity
-		RawModel bunnyModel = OBJLoader.loadObjModel("stanfordBunny", loader);
-		TexturedModel stanfordBunny = new TexturedModel(bunnyModel, 
-				new ModelTexture(loader.loadTexture("furrTexture")));
+		TexturedModel stanfordBunny = new TexturedModel(pipeline.await(bunnyModel), 
+				modelTextures.createTexture("furrTexture"));
 		Player player = new Player(stanfordBunny, new Vector3f(0, 0, -25), 0, 0, 0, 1);
 		//Creating an entity that takes in the textured model we want it to show, needs position to be rendered at,
 		//Entity entity = new Entity(staticModel, new Vector3f(0,0,-25),0,0,0,1);
@@ -87,15 +121,23 @@ public class MainGameLoop {
 		//Creating the light source, setting position and colour (1,1,1) is white
 		Light light = new Light(new Vector3f(20000,40000,20000),new Vector3f(1,1,0.3294f));		
 		
-		//-----------------------------Terrains----------------------------------------
-		//Creating a terrain 
-		Terrain terrain = new Terrain(0, -1, loader, texturePack, blendMap);
-		Terrain terrain2 = new Terrain(-1, -1, loader, texturePack, blendMap);
+		//Wait for the tiles around the player to load, then put the entities on the ground 
+		tiles.loadNow(player.getPosition());
+		tiles.awaitLoading();
+		world.groundAll(entities);
+		System.out.println(OBJLoader.getStats());
+		System.out.println(loader.getTextureCache().getStats());
+		System.out.println(loader.getArena(VertexFormat.PACKED).getStats());
+		System.out.println(loader.getArena(VertexFormat.FLOAT).getStats());
+		
 		//Creating a camera
 		Camera camera = new Camera(player);
 				
 		//Create the renderer
 		MainRenderer renderer = new MainRenderer();
+		//Entities are drawn instanced where OpenGL 3.3 is available, set to false to draw them one at a time and 
+		//compare 
+		renderer.getEntityRenderer().setInstancing(true);
 		//While in the game loop, objects are updated and rendering is done. Loop will continue until display
 		//is closed.
 		while (!Display.isCloseRequested()) {
@@ -104,24 +146,36 @@ public class MainGameLoop {
 			//Move the camera every frame
 			camera.move();
 			//move the player every frame
-			player.move();
+			player.move(world);
+			//Work out what the camera can see, before anything is processed so it can be culled 
+			renderer.updateFrustum(camera);
 			//send player to be rendered 
 			renderer.processEntity(player);
-			//call any terrains to be rendered
-			renderer.processTerrain(terrain);
-			renderer.processTerrain(terrain2);
-			//Call the renderer every frame
-			renderer.render(light, camera);
+			//load and free terrain tiles around the player and call the loaded ones to be rendered
+			tiles.update(player.getPosition());
+			for (Terrain tile : tiles.getTerrains()) {
+				renderer.processTerrain(tile);
+			}
 			//renderer.processEntity(entity);
-			//for any entities to render need to call that entity in the process entity method.
+			//for any entities to render need to call that entity in the process entity method, this frame's 
+			//entities are processed before the renderer is called so they are drawn where they are now 
 			for (Entity entity : entities) {
 				renderer.processEntity(entity);
 			}
+			//Call the renderer every frame
+			renderer.render(light, camera);
 			//The display is updated every frame.
 			DisplayManager.updateDisplay();
 		}
 		
-		//Cleanup renderer & loader once the game is closed.
+		//Cleanup renderer & loader once the game is closed, the asset pipeline was kept open to stream the terrain.
+		System.out.println(tiles.getStats());
+		System.out.println(renderer.getEntityCuller().getStats());
+		System.out.println("Entity draw calls last frame: " + renderer.getEntityRenderer().getDrawCalls());
+		System.out.println(renderer.getEntityRenderer().getInstanceBuffer().getStats());
+		System.out.println(GLStateCache.getStats());
+		tiles.cleanUp();
+		pipeline.cleanUp();
 		renderer.cleanUp();
 		loader.cleanUp();
 		
@@ -0,0 +1,146 @@
+package engineTester;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import models.MeshData;
+import renderEngine.OBJLoader;
+
+//Checks the obj parser without opening a window, then times it on the game's models. Every number in a made up obj
+//file must be parsed to exactly the float Float.parseFloat gives for it:
+//   numbers written the way modelling tools write them, eg. -13.001788
+//   random floats of every size written by Float.toString, with exponents, nan and infinity
+//   numbers with too many digits for the quick path
+//   numbers just off halfway between two floats, where rounding to a double first and then to a float goes wrong
+//
+//Then each model is timed parsed on its own and with the vertex cache pass loadObjData does after.
+public class ObjBenchmark {
+
+	//How many numbers of each kind are checked.
+	private static final int NUMBER_COUNT = 30000;
+	//Name of the made up obj file written to res/obj for the check.
+	private static final String NUMBERS_MODEL = "objBenchmarkNumbers";
+	//Models timed, the ones in res/obj.
+	private static final String[] MODELS = {"fern", "stall", "ballTreeEdgeSplit", "longGrassModel",
+			"femaleCharacter"};
+	//Runs before timing so the JIT has compiled everything, then the best of the timed runs is reported. The models
+	//are small, so it takes a lot of runs before the timings settle.
+	private static final int WARMUP_RUNS = 50;
+	private static final int TIMED_RUNS = 100;
+
+	public static void main(String[] args) throws IOException {
+		checkNumbers(new Random(1));
+		timeModels();
+	}
+
+	//Writes the numbers as the positions of an obj file, one triangle for each three, and checks each parsed
+	//position against Float.parseFloat.
+	private static void checkNumbers(Random random) throws IOException {
+		List<String> numbers = new ArrayList<String>();
+		for (int i = 0; i < NUMBER_COUNT; i++) {
+			numbers.add(String.format(Locale.ROOT, "%.6f", (random.nextFloat() - 0.5f) * 100));
+			numbers.add(Float.toString(Float.intBitsToFloat(random.nextInt())));
+			numbers.add(random.nextInt(100) + "." + (random.nextLong() >>> 1));
+		}
+		int halfway = 0;
+		int wrongViaDouble = 0;
+		while (halfway < NUMBER_COUNT) {
+			String number = nearHalfway(random);
+			if (number != null) {
+				numbers.add(number);
+				halfway++;
+				float viaDouble = (float) Double.parseDouble(number);
+				if (Float.floatToIntBits(viaDouble) != Float.floatToIntBits(Float.parseFloat(number))) {
+					wrongViaDouble++;
+				}
+			}
+		}
+		while (numbers.size() % 3 != 0) {
+			numbers.add("0");
+		}
+		StringBuilder obj = new StringBuilder();
+		for (int i = 0; i < numbers.size(); i += 3) {
+			obj.append("v ").append(numbers.get(i)).append(' ').append(numbers.get(i + 1)).append(' ')
+					.append(numbers.get(i + 2)).append('\n');
+		}
+		for (int i = 1; i + 2 <= numbers.size() / 3; i += 3) {
+			obj.append("f ").append(i).append(' ').append(i + 1).append(' ').append(i + 2).append('\n');
+		}
+		//A vertex left over past the last whole triangle isn't used by a face, so isn't checked
+		int checked = numbers.size() / 9 * 9;
+		Path path = OBJLoader.getObjPath(NUMBERS_MODEL);
+		MeshData mesh;
+		try {
+			Files.write(path, obj.toString().getBytes(StandardCharsets.US_ASCII));
+			mesh = OBJLoader.parseObjData(NUMBERS_MODEL);
+		} finally {
+			Files.deleteIfExists(path);
+		}
+		float[] positions = mesh.getPositions();
+		if (positions.length != checked) {
+			fail("Parsed " + positions.length + " numbers out of " + checked);
+		}
+		for (int i = 0; i < checked; i++) {
+			float expected = Float.parseFloat(numbers.get(i));
+			if (Float.floatToIntBits(positions[i]) != Float.floatToIntBits(expected)) {
+				fail(numbers.get(i) + " parsed as " + positions[i] + " not " + expected);
+			}
+		}
+		System.out.println("Numbers: all " + checked + " the same as Float.parseFloat, including " + halfway
+				+ " just off halfway between two floats (" + wrongViaDouble + " of them wrong rounded via a double)");
+	}
+
+	//A number of at most 16 digits that is just off exactly halfway between two random floats, but close enough to
+	//be rounded to the halfway double. Null if the float picked doesn't give one.
+	private static String nearHalfway(Random random) {
+		float low = 1 + random.nextFloat() * 999;
+		BigDecimal exact = new BigDecimal(((double) low + Math.nextUp(low)) / 2);
+		BigDecimal rounded = exact.round(new MathContext(16, RoundingMode.HALF_EVEN));
+		String number = rounded.toPlainString();
+		if (rounded.compareTo(exact) == 0 || Double.parseDouble(number) != exact.doubleValue()) {
+			return null;
+		}
+		return number;
+	}
+
+	//Times parsing each of the game's models on its own and with the vertex cache pass after.
+	private static void timeModels() {
+		long totalParse = 0;
+		long totalLoad = 0;
+		for (String model : MODELS) {
+			long bestParse = Long.MAX_VALUE;
+			long bestLoad = Long.MAX_VALUE;
+			for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+				long start = System.nanoTime();
+				OBJLoader.parseObjData(model);
+				long middle = System.nanoTime();
+				OBJLoader.loadObjData(model);
+				long end = System.nanoTime();
+				if (run >= WARMUP_RUNS) {
+					bestParse = Math.min(bestParse, middle - start);
+					bestLoad = Math.min(bestLoad, end - middle);
+				}
+			}
+			System.out.printf("%s: parsed in %.3f ms, %.3f ms with the vertex cache pass%n", model, bestParse / 1e6,
+					bestLoad / 1e6);
+			totalParse += bestParse;
+			totalLoad += bestLoad;
+		}
+		System.out.printf("All models: parsed in %.3f ms, %.3f ms with the vertex cache pass%n", totalParse / 1e6,
+				totalLoad / 1e6);
+	}
+
+	private static void fail(String message) {
+		System.out.println(message);
+		System.exit(-1);
+	}
+}
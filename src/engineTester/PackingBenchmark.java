@@ -0,0 +1,320 @@
+package engineTester;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+
+import models.MeshBuffers;
+import models.PackedMesh;
+import renderEngine.MeshCache;
+import renderEngine.OBJLoader;
+import toolbox.VertexPacking;
+
+//Checks the packed vertex format without opening a window, then times packing the game's models. Every vertex of
+//random meshes is packed and read back out of the interleaved buffer:
+//   positions must come back exactly, as they are stored as plain floats
+//   texture coords must come back within half a step of a half float, ie. 2^-11 of the value (2^-25 for values
+//   small enough to be denormal halves), and floatToHalf must round every half float back to itself
+//   normal components must come back within half a step of the 10 bit format, ie. 0.5 / 511
+//Meshes right on the short index limit are checked too, so no short index is ever 0xFFFF, the restart index.
+//
+//The packed mesh cache is checked to give back exactly what packing the parsed model gives, to still be used after
+//the obj is touched without being changed, and not to be used once the obj is changed. Loading the game's models from
+//it is timed against packing them from the float cache.
+public class PackingBenchmark {
+
+	private static final int VERTEX_COUNT = 100000;
+	//Largest errors allowed, see above.
+	private static final float HALF_RELATIVE_ERROR = 0x1p-11f;
+	private static final float HALF_DENORMAL_ERROR = 0x1p-25f;
+	private static final float NORMAL_ERROR = 0.5f / 511;
+	//Models timed, the ones in res/obj.
+	private static final String[] MODELS = {"fern", "stall", "ballTreeEdgeSplit", "longGrassModel",
+			"femaleCharacter"};
+	//Name of the copy of a model made in res/obj to check a changed obj isn't loaded from its cache.
+	private static final String CHANGED_MODEL = "packingBenchmarkCopy";
+	//Runs before timing so the JIT has compiled everything, then the best of the timed runs is reported.
+	private static final int WARMUP_RUNS = 3;
+	private static final int TIMED_RUNS = 5;
+
+	public static void main(String[] args) throws IOException {
+		Random random = new Random(1);
+		checkHalfFloats(random);
+		checkVertices(random);
+		checkShortIndexLimit();
+		checkPackedCache();
+		timeModels();
+	}
+
+	//Every half float must round trip through a float exactly, and random floats must be rounded to within half a
+	//step of the half format.
+	private static void checkHalfFloats(Random random) {
+		for (int bits = 0; bits <= 0xFFFF; bits++) {
+			short half = (short) bits;
+			float value = VertexPacking.halfToFloat(half);
+			if (!Float.isNaN(value) && VertexPacking.floatToHalf(value) != half) {
+				fail("Half float " + Integer.toHexString(bits) + " (" + value + ") packed back as "
+						+ Integer.toHexString(VertexPacking.floatToHalf(value) & 0xFFFF));
+			}
+		}
+		float worst = 0;
+		for (int i = 0; i < VERTEX_COUNT; i++) {
+			//Texture coords mostly in 0..1, with some repeats, some negative and some tiny
+			float value = i % 10 == 0 ? (random.nextFloat() - 0.5f) * 1e-5f : (random.nextFloat() - 0.25f) * 4;
+			worst = Math.max(worst, checkHalf(value));
+		}
+		System.out.println("Half floats: all 65536 round trip, texture coords out by up to " + worst
+				+ " of the allowed error");
+	}
+
+	//Packs a random mesh and reads every vertex back out of the interleaved buffer.
+	private static void checkVertices(Random random) {
+		float[] positions = new float[VERTEX_COUNT * 3];
+		float[] textureCoords = new float[VERTEX_COUNT * 2];
+		float[] normals = new float[VERTEX_COUNT * 3];
+		for (int i = 0; i < VERTEX_COUNT; i++) {
+			for (int j = 0; j < 3; j++) {
+				positions[i * 3 + j] = (random.nextFloat() - 0.5f) * 1000;
+			}
+			textureCoords[i * 2] = random.nextFloat();
+			textureCoords[i * 2 + 1] = random.nextFloat() * 2 - 0.5f;
+			//Unit normals, with every tenth one straight along an axis
+			float x = (float) random.nextGaussian(), y = (float) random.nextGaussian(), z = (float) random.nextGaussian();
+			if (i % 10 == 0) {
+				x = i % 20 == 0 ? 1 : -1;
+				y = 0;
+				z = 0;
+			}
+			float length = (float) Math.sqrt(x * x + y * y + z * z);
+			normals[i * 3] = x / length;
+			normals[i * 3 + 1] = y / length;
+			normals[i * 3 + 2] = z / length;
+		}
+		int[] indices = new int[VERTEX_COUNT];
+		for (int i = 0; i < VERTEX_COUNT; i++) {
+			indices[i] = VERTEX_COUNT - 1 - i;
+		}
+		PackedMesh mesh = VertexPacking.pack(new MeshBuffers(toBuffer(positions), toBuffer(textureCoords),
+				toBuffer(normals), toBuffer(indices)));
+		ByteBuffer vertices = mesh.getVertices();
+		float worstHalf = 0;
+		float worstNormal = 0;
+		for (int i = 0; i < VERTEX_COUNT; i++) {
+			int start = i * VertexPacking.STRIDE;
+			for (int j = 0; j < 3; j++) {
+				float position = vertices.getFloat(start + VertexPacking.POSITION_OFFSET + j * 4);
+				if (Float.floatToIntBits(position) != Float.floatToIntBits(positions[i * 3 + j])) {
+					fail("Position " + i + " came back as " + position + " not " + positions[i * 3 + j]);
+				}
+			}
+			for (int j = 0; j < 2; j++) {
+				short half = vertices.getShort(start + VertexPacking.TEXTURE_OFFSET + j * 2);
+				if (half != VertexPacking.floatToHalf(textureCoords[i * 2 + j])) {
+					fail("Texture coord " + i + " wasn't packed with floatToHalf");
+				}
+				worstHalf = Math.max(worstHalf, checkHalf(textureCoords[i * 2 + j]));
+			}
+			int normal = vertices.getInt(start + VertexPacking.NORMAL_OFFSET);
+			if (normal != VertexPacking.packNormal(normals[i * 3], normals[i * 3 + 1], normals[i * 3 + 2])) {
+				fail("Normal " + i + " wasn't packed with packNormal");
+			}
+			for (int j = 0; j < 3; j++) {
+				float error = Math.abs(VertexPacking.unpackNormal(normal, j) - normals[i * 3 + j]);
+				if (error > NORMAL_ERROR) {
+					fail("Normal " + i + " component " + j + " out by " + error);
+				}
+				worstNormal = Math.max(worstNormal, error / NORMAL_ERROR);
+			}
+		}
+		//Too many vertices for short indices here
+		if (mesh.getIndexType() != GL11.GL_UNSIGNED_INT || mesh.getIndices().getInt(0) != VERTEX_COUNT - 1) {
+			fail("Indices of " + VERTEX_COUNT + " vertices weren't kept as ints");
+		}
+		System.out.println(VERTEX_COUNT + " packed vertices: positions exact, texture coords out by up to "
+				+ worstHalf + " and normals by up to " + worstNormal + " of the allowed error");
+	}
+
+	//Right on the limit the last index is 65534, one more vertex and the indices have to be ints so 65535 isn't
+	//read as a restart. A strip's restarts must come out as the largest index of the type either way.
+	private static void checkShortIndexLimit() {
+		checkIndices(VertexPacking.MAX_SHORT_VERTICES, GL11.GL_UNSIGNED_SHORT);
+		checkIndices(VertexPacking.MAX_SHORT_VERTICES + 1, GL11.GL_UNSIGNED_INT);
+		System.out.println("Short indices used up to " + VertexPacking.MAX_SHORT_VERTICES + " vertices, never 0xFFFF");
+	}
+
+	//Packs and interleaves a strip over every vertex with a restart in the middle, and checks the index type and
+	//that every index reads back as it went in.
+	private static void checkIndices(int vertexCount, int expectedType) {
+		int[] indices = new int[vertexCount + 1];
+		for (int i = 0; i < vertexCount; i++) {
+			indices[i < vertexCount / 2 ? i : i + 1] = i;
+		}
+		indices[vertexCount / 2] = -1;
+		MeshBuffers buffers = new MeshBuffers(toBuffer(new float[vertexCount * 3]),
+				toBuffer(new float[vertexCount * 2]), toBuffer(new float[vertexCount * 3]), toBuffer(indices));
+		PackedMesh[] meshes = {VertexPacking.pack(buffers), VertexPacking.interleave(buffers,
+				GL11.GL_TRIANGLE_STRIP)};
+		for (PackedMesh mesh : meshes) {
+			if (mesh.getIndexType() != expectedType) {
+				fail(vertexCount + " vertices got the wrong index type");
+			}
+			boolean shortIndices = expectedType == GL11.GL_UNSIGNED_SHORT;
+			int restart = shortIndices ? 0xFFFF : 0xFFFFFFFF;
+			for (int i = 0; i < indices.length; i++) {
+				int index = shortIndices ? mesh.getIndices().getShort(i * 2) & 0xFFFF : mesh.getIndices().getInt(i * 4);
+				int expected = indices[i] < 0 ? restart : indices[i];
+				if (index != expected) {
+					fail("Index " + i + " of " + vertexCount + " vertices came back as " + index + " not " + expected);
+				}
+				if (indices[i] >= 0 && index == restart) {
+					fail("Vertex " + indices[i] + " of " + vertexCount + " vertices is indexed with the restart index");
+				}
+			}
+		}
+	}
+
+	//Loads each of the game's models through the packed cache, with the cache made from scratch, loaded as it is
+	//and loaded after the obj is touched, and checks every one is the same as packing the parsed model. Then checks
+	//a changed copy of a model isn't loaded from its old cache.
+	private static void checkPackedCache() throws IOException {
+		for (String model : MODELS) {
+			PackedMesh expected = VertexPacking.pack(MeshBuffers.fromData(OBJLoader.loadObjData(model)));
+			Files.deleteIfExists(MeshCache.getPackedCachePath(model));
+			checkSame(model + " packed without a cache", OBJLoader.prepareObjModelPacked(model), expected);
+			Path obj = OBJLoader.getObjPath(model);
+			checkSame(model + " from the packed cache", MeshCache.loadPacked(model, new MeshCache.Source(obj)),
+					expected);
+			//The obj's time is put back before checking, as failing exits straight away
+			FileTime modified = Files.getLastModifiedTime(obj);
+			PackedMesh touched;
+			try {
+				Files.setLastModifiedTime(obj, FileTime.fromMillis(modified.toMillis() + 2000));
+				touched = MeshCache.loadPacked(model, new MeshCache.Source(obj));
+			} finally {
+				Files.setLastModifiedTime(obj, modified);
+			}
+			checkSame(model + " from the packed cache once touched", touched, expected);
+			//Put the cache back to the obj's real time
+			MeshCache.loadPacked(model, new MeshCache.Source(obj));
+		}
+		//A copy of a model changed without changing its size, and given a new time
+		Path copy = OBJLoader.getObjPath(CHANGED_MODEL);
+		boolean reused;
+		try {
+			String text = new String(Files.readAllBytes(OBJLoader.getObjPath(MODELS[0])), StandardCharsets.US_ASCII);
+			Files.write(copy, text.getBytes(StandardCharsets.US_ASCII));
+			OBJLoader.prepareObjModelPacked(CHANGED_MODEL);
+			int digit = text.indexOf("v ") + 3;
+			char changed = text.charAt(digit) == '1' ? '2' : '1';
+			text = text.substring(0, digit) + changed + text.substring(digit + 1);
+			Files.write(copy, text.getBytes(StandardCharsets.US_ASCII));
+			Files.setLastModifiedTime(copy, FileTime.fromMillis(Files.getLastModifiedTime(copy).toMillis() + 2000));
+			reused = MeshCache.loadPacked(CHANGED_MODEL, new MeshCache.Source(copy)) != null
+					|| MeshCache.load(CHANGED_MODEL, new MeshCache.Source(copy)) != null;
+		} finally {
+			Files.deleteIfExists(copy);
+			Files.deleteIfExists(MeshCache.getCachePath(CHANGED_MODEL));
+			Files.deleteIfExists(MeshCache.getPackedCachePath(CHANGED_MODEL));
+		}
+		if (reused) {
+			fail("Changed obj was loaded from its old cache");
+		}
+		System.out.println("Packed cache: same as packing the parsed models, kept when touched, dropped when changed");
+	}
+
+	//Fails unless the two meshes have the same counts, types and bytes.
+	private static void checkSame(String name, PackedMesh mesh, PackedMesh expected) {
+		if (mesh == null) {
+			fail(name + ": not loaded");
+		}
+		if (mesh.getFormat() != expected.getFormat() || mesh.getVertexCount() != expected.getVertexCount()
+				|| mesh.getIndexCount() != expected.getIndexCount() || mesh.getIndexType() != expected.getIndexType()
+				|| mesh.getPrimitiveMode() != expected.getPrimitiveMode()
+				|| !mesh.getVertices().equals(expected.getVertices())
+				|| !mesh.getIndices().equals(expected.getIndices())) {
+			fail(name + ": different to packing the parsed model");
+		}
+	}
+
+	//Times packing each of the game's models, and loading them the way the game does: packing them from the float
+	//cache against mapping the packed cache, with only the obj's size and time checked or with its CRC.
+	private static void timeModels() throws IOException {
+		for (String model : MODELS) {
+			MeshBuffers mesh = MeshBuffers.fromData(OBJLoader.loadObjData(model));
+			long best = Long.MAX_VALUE;
+			int bytes = 0;
+			for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+				long start = System.nanoTime();
+				PackedMesh packed = VertexPacking.pack(mesh);
+				long time = System.nanoTime() - start;
+				bytes = packed.getVertices().remaining() + packed.getIndices().remaining();
+				if (run >= WARMUP_RUNS) {
+					best = Math.min(best, time);
+				}
+			}
+			int floatBytes = mesh.getPositions().remaining() * 4 * 8 / 3 + mesh.getIndices().remaining() * 4;
+			System.out.printf("%s: packed in %.3f ms, %d KB against %d KB as floats%n", model, best / 1e6,
+					bytes / 1024, floatBytes / 1024);
+			long bestFloatCache = Long.MAX_VALUE;
+			long bestPackedCache = Long.MAX_VALUE;
+			long bestHash = Long.MAX_VALUE;
+			for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+				long start = System.nanoTime();
+				VertexPacking.pack(OBJLoader.prepareObjModel(model));
+				long middle = System.nanoTime();
+				OBJLoader.prepareObjModelPacked(model);
+				long end = System.nanoTime();
+				new MeshCache.Source(OBJLoader.getObjPath(model)).getHash();
+				long hashed = System.nanoTime();
+				if (run >= WARMUP_RUNS) {
+					bestFloatCache = Math.min(bestFloatCache, middle - start);
+					bestPackedCache = Math.min(bestPackedCache, end - middle);
+					bestHash = Math.min(bestHash, hashed - end);
+				}
+			}
+			System.out.printf("  loaded packing the float cache %.3f ms, from the packed cache %.3f ms "
+					+ "(checking the obj's CRC would add %.3f ms)%n", bestFloatCache / 1e6, bestPackedCache / 1e6,
+					bestHash / 1e6);
+		}
+	}
+
+	//Packs a value into a half float and back, failing if it is out by more than half a step. Gives back the error
+	//as a fraction of the error allowed.
+	private static float checkHalf(float value) {
+		float unpacked = VertexPacking.halfToFloat(VertexPacking.floatToHalf(value));
+		float allowed = Math.max(Math.abs(value) * HALF_RELATIVE_ERROR, HALF_DENORMAL_ERROR);
+		float error = Math.abs(unpacked - value);
+		if (error > allowed) {
+			fail("Half float of " + value + " came back as " + unpacked);
+		}
+		return error / allowed;
+	}
+
+	private static void fail(String message) {
+		System.out.println(message);
+		System.exit(-1);
+	}
+
+	private static FloatBuffer toBuffer(float[] data) {
+		FloatBuffer buffer = BufferUtils.createFloatBuffer(data.length);
+		buffer.put(data);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static IntBuffer toBuffer(int[] data) {
+		IntBuffer buffer = BufferUtils.createIntBuffer(data.length);
+		buffer.put(data);
+		buffer.flip();
+		return buffer;
+	}
+}
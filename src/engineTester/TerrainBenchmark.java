@@ -0,0 +1,711 @@
+package engineTester;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Vector3f;
+
+import models.MeshData;
+import models.PackedMesh;
+import terrains.HeightField;
+import terrains.HeightFieldRaycaster;
+import terrains.HeightSource;
+import terrains.ProceduralHeightSource;
+import terrains.TerrainEditor;
+import terrains.TerrainGenerator;
+import terrains.TerrainQuadtree;
+import toolbox.Maths;
+import toolbox.VertexPacking;
+
+//Times terrain generation without opening a window. First checks that the generator gives exactly the same mesh as
+//the old way of calling getRGB for every vertex (on the game's heightmap and a random one), then times it on random
+//heightmaps of each size. Sizes can be given as arguments, the default is 256 1024 4096. The bigger sizes need a
+//larger heap than the default, eg. -Xmx4g for 4096.
+//
+//Also checks the height queries of the HeightField give exactly the same heights as the old table and Vector3f
+//code (or within half a step when quantised), and times them. Every quantised vertex must be within getMaxError of
+//its height, and normals within what that error can tilt them by. A flat terrain (where the quantised heights have
+//no steps at all) must give back its height and straight up normals exactly. The batch queries are checked
+//against the single one and all are timed on 1 thousand, 100 thousand and 1 million positions, scattered at random
+//and in grids.
+//
+//Edits to a tile made from a height source are checked to end up exactly the same as generating the tile again from
+//the edited heights (mesh, patches and ray casts), and timed against doing that.
+//
+//The patches of the quadtree share one set of indices for each size of patch. Every patch, drawn as strips and as a
+//list, must give exactly the same triangles (facing the same way) as indices made just for that patch.
+public class TerrainBenchmark {
+
+	private static final float SIZE = 800;
+	private static final float MAX_HEIGHT = 40;
+	private static final float MAX_PIXEL_COLOUR = 256 * 256 * 256;
+	//Runs before timing so the JIT has compiled everything, then the best of the timed runs is reported.
+	private static final int WARMUP_RUNS = 3;
+	private static final int TIMED_RUNS = 5;
+	//Random positions the height queries are checked and timed with, some off the edge of the terrain.
+	private static final int QUERY_COUNT = 1000000;
+	//How many scattered positions the batch query is checked and timed on.
+	private static final int[] SCATTER_COUNTS = {1000, 100000, 1000000};
+	//Columns and rows of the grids the grid batch query is checked and timed on.
+	private static final int[][] BATCH_GRIDS = {{40, 25}, {400, 250}, {1000, 1000}};
+	//Where the terrain is put in the world for the batch queries, so the offset is tested too.
+	private static final float OFFSET_X = -800;
+	private static final float OFFSET_Z = 800;
+	//Tile the edits are checked on, how many frames of how many random edits, and how many rays are checked after.
+	private static final int EDIT_VERTICES = 257;
+	private static final int EDIT_FRAMES = 10;
+	private static final int EDITS_PER_FRAME = 5;
+	private static final int EDIT_RAYS = 10000;
+
+	public static void main(String[] args) throws IOException {
+		int[] sizes = {256, 1024, 4096};
+		if (args.length > 0) {
+			sizes = Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+		}
+		//Check the output hasn't changed
+		check("heightmap.png", ImageIO.read(new File("res/heightmap.png")));
+		check("random 512", randomHeightmap(512, 1));
+		checkHeights("heightmap.png", TerrainGenerator.generate(ImageIO.read(new File("res/heightmap.png"))));
+		checkHeights("random 512", TerrainGenerator.generate(randomHeightmap(512, 1)));
+		checkQuantisation("heightmap.png", TerrainGenerator.generate(ImageIO.read(new File("res/heightmap.png"))));
+		checkQuantisation("random 512", TerrainGenerator.generate(randomHeightmap(512, 1)));
+		checkFlat();
+		checkBatches(TerrainGenerator.generate(randomHeightmap(512, 1)));
+		checkSharedIndices("heightmap.png", TerrainGenerator.generate(ImageIO.read(new File("res/heightmap.png"))));
+		checkSharedIndices("random 512", TerrainGenerator.generate(randomHeightmap(512, 1)));
+		checkEdits();
+		//Then time each size
+		for (int size : sizes) {
+			BufferedImage image = randomHeightmap(size, size);
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+				long start = System.nanoTime();
+				TerrainGenerator.generate(image);
+				if (run >= WARMUP_RUNS) {
+					best = Math.min(best, System.nanoTime() - start);
+				}
+			}
+			System.out.printf("%dx%d: %.1f ms (%.1f million vertices a second)%n", size, size, best / 1e6,
+					(double) size * size / (best / 1e9) / 1e6);
+		}
+	}
+
+	//Compare the generator with the old code and report how much quicker it is.
+	private static void check(String name, BufferedImage image) {
+		long start = System.nanoTime();
+		MeshData expected = generateWithGetRGB(image);
+		long oldTime = System.nanoTime() - start;
+		MeshData actual = null;
+		long newTime = Long.MAX_VALUE;
+		for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+			start = System.nanoTime();
+			actual = TerrainGenerator.generate(image);
+			newTime = Math.min(newTime, System.nanoTime() - start);
+		}
+		boolean same = Arrays.equals(expected.getPositions(), actual.getPositions())
+				&& Arrays.equals(expected.getNormals(), actual.getNormals())
+				&& Arrays.equals(expected.getTextureCoords(), actual.getTextureCoords())
+				&& Arrays.equals(expected.getIndices(), actual.getIndices());
+		System.out.printf("%s: %s, getRGB per vertex %.1f ms, generator %.1f ms%n", name,
+				same ? "identical" : "DIFFERENT", oldTime / 1e6, newTime / 1e6);
+		if (!same) {
+			System.exit(-1);
+		}
+	}
+
+	//Compare the height queries of each precision with the old code at random positions, then time them.
+	private static void checkHeights(String name, MeshData mesh) {
+		float[][] table = getHeightTable(mesh);
+		Random random = new Random(2);
+		float[] xs = new float[QUERY_COUNT];
+		float[] zs = new float[QUERY_COUNT];
+		for (int i = 0; i < QUERY_COUNT; i++) {
+			xs[i] = random.nextFloat() * SIZE * 1.2f - SIZE * 0.1f;
+			zs[i] = random.nextFloat() * SIZE * 1.2f - SIZE * 0.1f;
+		}
+		float[] expected = new float[QUERY_COUNT];
+		long oldTime = Long.MAX_VALUE;
+		for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < QUERY_COUNT; i++) {
+				expected[i] = getHeightWithTable(table, xs[i], zs[i]);
+			}
+			oldTime = Math.min(oldTime, System.nanoTime() - start);
+		}
+		System.out.printf("%s heights: table %d KB, %.1f ns a query%n", name, getTableBytes(table) / 1024,
+				(double) oldTime / QUERY_COUNT);
+		for (int bits : new int[] {32, 16, 8}) {
+			HeightField heights = new HeightField(mesh, bits);
+			float worst = 0;
+			long time = Long.MAX_VALUE;
+			for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < QUERY_COUNT; i++) {
+					float height = heights.getHeight(xs[i], zs[i]);
+					if (run == 0) {
+						worst = Math.max(worst, Math.abs(height - expected[i]));
+						if (bits == 32 && Float.floatToIntBits(height) != Float.floatToIntBits(expected[i])) {
+							worst = Float.POSITIVE_INFINITY;
+						}
+					}
+				}
+				time = Math.min(time, System.nanoTime() - start);
+			}
+			//Allow for the rounding of the blend on top of the half step
+			float allowed = heights.getMaxError() * 1.001f + Math.ulp(MAX_HEIGHT);
+			boolean ok = worst <= allowed;
+			System.out.printf("  %d bit: %s (worst %.5f, allowed %.5f), %d KB, %.1f ns a query%n", bits,
+					bits == 32 ? (ok ? "identical" : "DIFFERENT") : (ok ? "within tolerance" : "OUT OF TOLERANCE"),
+					worst, allowed, heights.getMemoryBytes() / 1024, (double) time / QUERY_COUNT);
+			if (!ok) {
+				System.exit(-1);
+			}
+		}
+	}
+
+	//Check every quantised vertex is within getMaxError of the height it was made from, and the normals at random
+	//positions are within what that error can tilt them by from the full precision ones. Each slope of the triangle
+	//is the difference of two heights, so can be out by twice the error along x and z, and dividing by the length of
+	//the unnormalised normal (at least a grid square) means no component moves more than 4 * sqrt(2) * error / grid
+	//square.
+	private static void checkQuantisation(String name, MeshData mesh) {
+		float[] positions = mesh.getPositions();
+		HeightField exact = new HeightField(mesh);
+		int size = exact.getSize();
+		Random random = new Random(4);
+		Vector3f expectedNormal = new Vector3f();
+		Vector3f normal = new Vector3f();
+		for (int bits : new int[] {16, 8}) {
+			HeightField heights = new HeightField(mesh, bits);
+			//The rounding of the step sums on top of the half step
+			float allowed = heights.getMaxError() + 2 * Math.ulp(MAX_HEIGHT);
+			float worst = 0;
+			for (int z = 0; z < size; z++) {
+				for (int x = 0; x < size; x++) {
+					float error = Math.abs(heights.getVertexHeight(x, z) - positions[(z * size + x) * 3 + 1]);
+					if (error > allowed) {
+						fail(name + " " + bits + " bit vertex " + x + "," + z + " out by " + error + ", more than "
+								+ "getMaxError " + heights.getMaxError());
+					}
+					worst = Math.max(worst, error);
+				}
+			}
+			float allowedNormal = 4 * (float) Math.sqrt(2) * allowed / heights.getGridSquareSize() + 1e-6f;
+			float worstNormal = 0;
+			for (int i = 0; i < QUERY_COUNT / 10; i++) {
+				float x = random.nextFloat() * SIZE * 1.2f - SIZE * 0.1f;
+				float z = random.nextFloat() * SIZE * 1.2f - SIZE * 0.1f;
+				exact.getNormal(x, z, expectedNormal);
+				heights.getNormal(x, z, normal);
+				float error = Math.max(Math.abs(normal.x - expectedNormal.x), Math.max(Math.abs(normal.y
+						- expectedNormal.y), Math.abs(normal.z - expectedNormal.z)));
+				if (error > allowedNormal || Math.abs(normal.length() - 1) > 1e-5f) {
+					fail(name + " " + bits + " bit normal at " + x + "," + z + " is " + normal + " not "
+							+ expectedNormal);
+				}
+				worstNormal = Math.max(worstNormal, error);
+			}
+			System.out.printf("  %d bit quantisation of %s: vertices out by up to %.5f (getMaxError %.5f), normals "
+					+ "by up to %.5f (allowed %.5f)%n", bits, name, worst, heights.getMaxError(), worstNormal,
+					allowedNormal);
+		}
+		//The full precision normals against the plane through the corners of each triangle, made the old way
+		for (int i = 0; i < QUERY_COUNT / 10; i++) {
+			float x = random.nextFloat() * SIZE;
+			float z = random.nextFloat() * SIZE;
+			exact.getNormal(x, z, normal);
+			getNormalWithVectors(exact, x, z, expectedNormal);
+			if (Vector3f.sub(normal, expectedNormal, null).length() > 1e-4f) {
+				fail(name + " normal at " + x + "," + z + " is " + normal + " not " + expectedNormal);
+			}
+		}
+	}
+
+	//A flat terrain has no range of heights to quantise, so the scale is 0 and every stored height is the offset.
+	//Every precision must give back exactly the flat height's blend, with no error and straight up normals.
+	private static void checkFlat() {
+		int size = 65;
+		float flatHeight = -12.375f;
+		float[] flat = new float[size * size];
+		Arrays.fill(flat, flatHeight);
+		HeightField exact = new HeightField(flat, size, SIZE, 32);
+		Random random = new Random(5);
+		Vector3f normal = new Vector3f();
+		for (int bits : new int[] {16, 8}) {
+			HeightField heights = new HeightField(flat, size, SIZE, bits);
+			if (heights.getMaxError() != 0 || heights.getVertexHeight(size - 1, size - 1) != flatHeight) {
+				fail(bits + " bit flat terrain has an error of " + heights.getMaxError());
+			}
+			for (int i = 0; i < 10000; i++) {
+				float x = random.nextFloat() * SIZE;
+				float z = random.nextFloat() * SIZE;
+				float height = heights.getHeight(x, z);
+				if (Float.floatToIntBits(height) != Float.floatToIntBits(exact.getHeight(x, z))
+						|| Math.abs(height - flatHeight) > 4 * Math.ulp(flatHeight)) {
+					fail(bits + " bit flat terrain height at " + x + "," + z + " is " + height);
+				}
+				heights.getNormal(x, z, normal);
+				if (normal.x != 0 || normal.y != 1 || normal.z != 0) {
+					fail(bits + " bit flat terrain normal at " + x + "," + z + " is " + normal);
+				}
+			}
+		}
+		System.out.println("  Flat terrain: 16 and 8 bit heights and normals exact");
+	}
+
+	//Compare the batch height queries with one query at a time for each precision, on random scattered positions and
+	//on each size of grid. Some of the scattered positions are off the terrain. The grids start a little off the
+	//terrain's corner and go a little past the far side, with steps that don't line up with the grid squares.
+	private static void checkBatches(MeshData mesh) {
+		for (int bits : new int[] {32, 16}) {
+			HeightField heights = new HeightField(mesh, bits);
+			for (int count : SCATTER_COUNTS) {
+				Random random = new Random(count);
+				float[] xs = new float[count];
+				float[] zs = new float[count];
+				for (int i = 0; i < count; i++) {
+					xs[i] = OFFSET_X + random.nextFloat() * SIZE * 1.2f - SIZE * 0.1f;
+					zs[i] = OFFSET_Z + random.nextFloat() * SIZE * 1.2f - SIZE * 0.1f;
+				}
+				float[] single = new float[count];
+				float[] batch = new float[count];
+				//Enough repeats that each timing covers a few million queries
+				int repeats = Math.max(1, 4000000 / count);
+				long singleTime = Long.MAX_VALUE;
+				long batchTime = Long.MAX_VALUE;
+				for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+					long start = System.nanoTime();
+					for (int repeat = 0; repeat < repeats; repeat++) {
+						for (int i = 0; i < count; i++) {
+							single[i] = heights.getHeight(xs[i] - OFFSET_X, zs[i] - OFFSET_Z);
+						}
+					}
+					singleTime = Math.min(singleTime, System.nanoTime() - start);
+					start = System.nanoTime();
+					for (int repeat = 0; repeat < repeats; repeat++) {
+						heights.getHeights(xs, zs, OFFSET_X, OFFSET_Z, batch);
+					}
+					batchTime = Math.min(batchTime, System.nanoTime() - start);
+				}
+				boolean same = Arrays.equals(single, batch);
+				System.out.printf("%d bit batch of %d scattered: %s, single %.1f ns a query, batch %.1f ns a query%n",
+						bits, count, same ? "identical" : "DIFFERENT", (double) singleTime / repeats / count,
+						(double) batchTime / repeats / count);
+				if (!same) {
+					System.exit(-1);
+				}
+			}
+			for (int[] grid : BATCH_GRIDS) {
+				int columns = grid[0];
+				int rows = grid[1];
+				int count = columns * rows;
+				Random random = new Random(count);
+				float startX = OFFSET_X - random.nextFloat() * SIZE * 0.1f;
+				float startZ = OFFSET_Z - random.nextFloat() * SIZE * 0.1f;
+				float stepX = SIZE * 1.2f / columns * (0.9f + random.nextFloat() * 0.2f);
+				float stepZ = SIZE * 1.2f / rows * (0.9f + random.nextFloat() * 0.2f);
+				float[] single = new float[count];
+				float[] batch = new float[count];
+				//Enough repeats that each timing covers a few million queries
+				int repeats = Math.max(1, 4000000 / count);
+				long singleTime = Long.MAX_VALUE;
+				long batchTime = Long.MAX_VALUE;
+				for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+					long start = System.nanoTime();
+					for (int repeat = 0; repeat < repeats; repeat++) {
+						for (int row = 0; row < rows; row++) {
+							for (int column = 0; column < columns; column++) {
+								single[row * columns + column] = heights.getHeight((startX + column * stepX) - OFFSET_X,
+										(startZ + row * stepZ) - OFFSET_Z);
+							}
+						}
+					}
+					singleTime = Math.min(singleTime, System.nanoTime() - start);
+					start = System.nanoTime();
+					for (int repeat = 0; repeat < repeats; repeat++) {
+						heights.getHeights(startX, startZ, stepX, stepZ, columns, rows, OFFSET_X, OFFSET_Z, batch);
+					}
+					batchTime = Math.min(batchTime, System.nanoTime() - start);
+				}
+				boolean same = Arrays.equals(single, batch);
+				System.out.printf("%d bit batch of %dx%d: %s, single %.1f ns a query, batch %.1f ns a query%n", bits,
+						columns, rows, same ? "identical" : "DIFFERENT", (double) singleTime / repeats / count,
+						(double) batchTime / repeats / count);
+				if (!same) {
+					System.exit(-1);
+				}
+			}
+		}
+	}
+
+	//Build the quadtree of a mesh with strips and with lists, and check the shared indices of every patch give the
+	//same triangles as indices made for that patch on its own, the way each patch had its own before they were shared.
+	private static void checkSharedIndices(String name, MeshData mesh) {
+		List<PackedMesh> strips = TerrainQuadtree.build(mesh, true).getPatches();
+		List<PackedMesh> lists = TerrainQuadtree.build(mesh, false).getPatches();
+		if (strips.size() != lists.size()) {
+			fail(name + ": " + strips.size() + " patches as strips but " + lists.size() + " as lists");
+		}
+		Map<String, Integer> sizes = new HashMap<String, Integer>();
+		long triangles = 0;
+		for (int i = 0; i < strips.size(); i++) {
+			PackedMesh strip = strips.get(i);
+			PackedMesh list = lists.get(i);
+			if (!strip.getVertices().equals(list.getVertices())) {
+				fail(name + ": patch " + i + " has different vertices as strips and as a list");
+			}
+			//The first row of the grid goes along +x, so it ends where x first goes back
+			int columns = 1;
+			while (getX(strip, columns) > getX(strip, columns - 1)) {
+				columns++;
+			}
+			//There are columns * rows grid vertices and one skirt vertex for each one round the edge
+			int rows = (strip.getVertexCount() - 2 * columns + 4) / (columns + 2);
+			if (columns * rows + 2 * (columns - 1) + 2 * (rows - 1) != strip.getVertexCount()) {
+				fail(name + ": patch " + i + " with " + strip.getVertexCount() + " vertices isn't a grid and skirt");
+			}
+			sizes.merge(columns + "x" + rows, 1, Integer::sum);
+			long[] expected = getTriangles(buildOwnIndices(columns, rows));
+			if (strip.getPrimitiveMode() != GL11.GL_TRIANGLE_STRIP || list.getPrimitiveMode() != GL11.GL_TRIANGLES) {
+				fail(name + ": patch " + i + " has the wrong primitive mode");
+			}
+			if (!Arrays.equals(getTriangles(strip), expected)) {
+				fail(name + ": shared strips of patch " + i + " (" + columns + "x" + rows + ") give different "
+						+ "triangles to its own indices");
+			}
+			if (!Arrays.equals(getTriangles(list), expected)) {
+				fail(name + ": shared list of patch " + i + " (" + columns + "x" + rows + ") gives different "
+						+ "triangles to its own indices");
+			}
+			triangles += expected.length;
+		}
+		System.out.println(name + ": shared indices of " + strips.size() + " patches (" + sizes.size() + " sizes, "
+				+ triangles + " triangles) identical to each patch's own, as strips and as lists");
+	}
+
+	//Indices for one patch of columns x rows vertices and its skirt made on their own, two triangles for each quad of
+	//the grid and each quad of the skirt. The skirt vertices follow the grid, one below each vertex round the edge
+	//in the same order as the quadtree goes round: along the top towards -x, down the left, along the bottom and up
+	//the right.
+	private static int[] buildOwnIndices(int columns, int rows) {
+		List<Integer> edge = new ArrayList<Integer>();
+		for (int column = columns - 1; column > 0; column--) {
+			edge.add(column);
+		}
+		for (int row = 0; row < rows - 1; row++) {
+			edge.add(row * columns);
+		}
+		for (int column = 0; column < columns - 1; column++) {
+			edge.add((rows - 1) * columns + column);
+		}
+		for (int row = rows - 1; row > 0; row--) {
+			edge.add(row * columns + columns - 1);
+		}
+		int skirtStart = columns * rows;
+		int[] indices = new int[6 * (columns - 1) * (rows - 1) + 6 * edge.size()];
+		int pointer = 0;
+		for (int gz = 0; gz < rows - 1; gz++) {
+			for (int gx = 0; gx < columns - 1; gx++) {
+				int topLeft = gz * columns + gx;
+				int bottomLeft = topLeft + columns;
+				indices[pointer++] = topLeft;
+				indices[pointer++] = bottomLeft;
+				indices[pointer++] = topLeft + 1;
+				indices[pointer++] = topLeft + 1;
+				indices[pointer++] = bottomLeft;
+				indices[pointer++] = bottomLeft + 1;
+			}
+		}
+		for (int i = 0; i < edge.size(); i++) {
+			int next = (i + 1) % edge.size();
+			indices[pointer++] = edge.get(i);
+			indices[pointer++] = skirtStart + i;
+			indices[pointer++] = edge.get(next);
+			indices[pointer++] = edge.get(next);
+			indices[pointer++] = skirtStart + i;
+			indices[pointer++] = skirtStart + next;
+		}
+		return indices;
+	}
+
+	//The triangles a patch's indices draw, read out of its buffer as strips (split by restarts) or a list.
+	private static long[] getTriangles(PackedMesh mesh) {
+		ByteBuffer buffer = mesh.getIndices();
+		boolean shortIndices = mesh.getIndexType() == GL11.GL_UNSIGNED_SHORT;
+		int[] indices = new int[mesh.getIndexCount()];
+		for (int i = 0; i < indices.length; i++) {
+			int index = shortIndices ? buffer.getShort(i * 2) & 0xFFFF : buffer.getInt(i * 4);
+			if (index == (shortIndices ? 0xFFFF : -1)) {
+				index = -1;
+			} else if (index >= mesh.getVertexCount()) {
+				fail("Index " + index + " is past the " + mesh.getVertexCount() + " vertices of its patch");
+			}
+			indices[i] = index;
+		}
+		if (mesh.getPrimitiveMode() == GL11.GL_TRIANGLES) {
+			return getTriangles(indices);
+		}
+		//Every other triangle of a strip is turned round so they all face the same way, triangles with a repeated
+		//vertex draw nothing
+		List<Long> triangles = new ArrayList<Long>();
+		int stripStart = 0;
+		for (int i = 0; i < indices.length; i++) {
+			if (indices[i] < 0) {
+				stripStart = i + 1;
+			} else if (i - stripStart >= 2) {
+				boolean even = (i - stripStart) % 2 == 0;
+				int a = even ? indices[i - 2] : indices[i - 1];
+				int b = even ? indices[i - 1] : indices[i - 2];
+				int c = indices[i];
+				if (a != b && b != c && a != c) {
+					triangles.add(getTriangle(a, b, c));
+				}
+			}
+		}
+		return triangles.stream().mapToLong(Long::longValue).sorted().toArray();
+	}
+
+	//The triangles of a list of indices, sorted so two lists can be compared whatever order they are drawn in.
+	private static long[] getTriangles(int[] indices) {
+		long[] triangles = new long[indices.length / 3];
+		for (int i = 0; i < triangles.length; i++) {
+			triangles[i] = getTriangle(indices[i * 3], indices[i * 3 + 1], indices[i * 3 + 2]);
+		}
+		Arrays.sort(triangles);
+		return triangles;
+	}
+
+	//One triangle as a number, turned round to start from its smallest index so it is the same wherever it starts
+	//but not if it faces the other way.
+	private static long getTriangle(int a, int b, int c) {
+		while (a > b || a > c) {
+			int first = a;
+			a = b;
+			b = c;
+			c = first;
+		}
+		return ((long) a << 42) | ((long) b << 21) | c;
+	}
+
+	//X of a patch vertex.
+	private static float getX(PackedMesh mesh, int vertex) {
+		return mesh.getVertices().getFloat(vertex * VertexPacking.FLOAT_STRIDE);
+	}
+
+	//Make random edits to a tile a few frames in a row, some along its edges and some to the tile next to it, and
+	//check the tile is exactly the same as one generated from the edited heights.
+	private static void checkEdits() {
+		HeightSource source = new ProceduralHeightSource(7);
+		int gridX = 1;
+		int gridZ = -1;
+		int last = EDIT_VERTICES - 1;
+		//The edited heights of the world, by sample
+		Map<Long, Float> changes = new HashMap<Long, Float>();
+		HeightSource edited = (x, z) -> changes.getOrDefault(((long) x << 32) | (z & 0xFFFFFFFFL),
+				source.getHeight(x, z));
+		MeshData mesh = TerrainGenerator.generate(source, gridX, gridZ, EDIT_VERTICES);
+		HeightField heights = new HeightField(mesh);
+		TerrainQuadtree quadtree = TerrainQuadtree.build(mesh);
+		HeightFieldRaycaster raycaster = new HeightFieldRaycaster(heights);
+		TerrainEditor editor = new TerrainEditor(mesh, heights, quadtree, gridX, gridZ);
+		Random random = new Random(3);
+		int ranges = 0;
+		long applyTime = 0;
+		for (int frame = 0; frame < EDIT_FRAMES; frame++) {
+			for (int edit = 0; edit < EDITS_PER_FRAME; edit++) {
+				int columns = 1 + random.nextInt(40);
+				int rows = 1 + random.nextInt(40);
+				int startX = random.nextInt(EDIT_VERTICES - columns + 1);
+				int startZ = random.nextInt(EDIT_VERTICES - rows + 1);
+				float[] newHeights = new float[columns * rows];
+				for (int row = 0; row < rows; row++) {
+					for (int column = 0; column < columns; column++) {
+						int sampleX = gridX * last + startX + column;
+						int sampleZ = gridZ * last + startZ + row;
+						float height = edited.getHeight(sampleX, sampleZ) - random.nextFloat() * 5;
+						newHeights[row * columns + column] = height;
+						changes.put(((long) sampleX << 32) | (sampleZ & 0xFFFFFFFFL), height);
+					}
+				}
+				editor.setHeights(startX, startZ, columns, rows, newHeights);
+				raycaster.update(startX, startZ, startX + columns - 1, startZ + rows - 1);
+			}
+			//An edit to the tile before this one along x, which changes the normals along this tile's edge
+			int startZ = random.nextInt(EDIT_VERTICES - 10);
+			for (int z = startZ; z < startZ + 10; z++) {
+				int sampleX = gridX * last - 1;
+				int sampleZ = gridZ * last + z;
+				changes.put(((long) sampleX << 32) | (sampleZ & 0xFFFFFFFFL), edited.getHeight(sampleX, sampleZ) + 3);
+			}
+			editor.addRegion(0, startZ, 0, startZ + 9);
+			long start = System.nanoTime();
+			ranges += editor.apply(edited, null);
+			applyTime = Math.max(applyTime, System.nanoTime() - start);
+		}
+		//Generate the tile again from the edited heights and compare everything
+		long start = System.nanoTime();
+		MeshData rebuilt = TerrainGenerator.generate(edited, gridX, gridZ, EDIT_VERTICES);
+		TerrainQuadtree rebuiltQuadtree = TerrainQuadtree.build(rebuilt);
+		long rebuildTime = System.nanoTime() - start;
+		boolean same = Arrays.equals(mesh.getPositions(), rebuilt.getPositions())
+				&& Arrays.equals(mesh.getNormals(), rebuilt.getNormals())
+				&& Arrays.equals(mesh.getTextureCoords(), rebuilt.getTextureCoords());
+		List<PackedMesh> patches = quadtree.getPatches();
+		List<PackedMesh> rebuiltPatches = rebuiltQuadtree.getPatches();
+		same &= patches.size() == rebuiltPatches.size();
+		for (int i = 0; same && i < patches.size(); i++) {
+			same = patches.get(i).getVertices().equals(rebuiltPatches.get(i).getVertices());
+		}
+		HeightFieldRaycaster rebuiltRaycaster = new HeightFieldRaycaster(new HeightField(rebuilt));
+		for (int i = 0; same && i < EDIT_RAYS; i++) {
+			float x = random.nextFloat() * SIZE;
+			float z = random.nextFloat() * SIZE;
+			float dx = random.nextFloat() * 2 - 1;
+			float dz = random.nextFloat() * 2 - 1;
+			same = raycaster.raycast(x, MAX_HEIGHT, z, dx, -0.2f, dz, SIZE) == rebuiltRaycaster.raycast(x,
+					MAX_HEIGHT, z, dx, -0.2f, dz, SIZE);
+		}
+		System.out.printf("%d frames of edits: %s to a full rebuild, %d vertex ranges sent, worst frame %.2f ms, "
+				+ "full rebuild %.1f ms%n", EDIT_FRAMES, same ? "identical" : "DIFFERENT", ranges, applyTime / 1e6,
+				rebuildTime / 1e6);
+		if (!same) {
+			fail("Edited tile isn't the same as the tile generated again from the edited heights");
+		}
+	}
+
+	//Normal of the triangle under a position made from Vector3f corners and a cross product, the way it would be
+	//done without the HeightField.
+	private static void getNormalWithVectors(HeightField heights, float x, float z, Vector3f dest) {
+		float square = heights.getGridSquareSize();
+		int gridX = (int) (x / square);
+		int gridZ = (int) (z / square);
+		float xCoord = (x % square) / square;
+		float zCoord = (z % square) / square;
+		Vector3f a, b, c;
+		if (xCoord <= (1 - zCoord)) {
+			a = corner(heights, gridX, gridZ);
+			b = corner(heights, gridX, gridZ + 1);
+			c = corner(heights, gridX + 1, gridZ);
+		} else {
+			a = corner(heights, gridX + 1, gridZ);
+			b = corner(heights, gridX, gridZ + 1);
+			c = corner(heights, gridX + 1, gridZ + 1);
+		}
+		Vector3f.cross(Vector3f.sub(b, a, null), Vector3f.sub(c, a, null), dest);
+		dest.normalise();
+	}
+
+	private static Vector3f corner(HeightField heights, int gridX, int gridZ) {
+		return new Vector3f(gridX * heights.getGridSquareSize(), heights.getVertexHeight(gridX, gridZ), gridZ
+				* heights.getGridSquareSize());
+	}
+
+	private static void fail(String message) {
+		System.out.println(message);
+		System.exit(-1);
+	}
+
+	//Random smooth-ish heightmap, stored the same way as the png loader stores the game's heightmap.
+	private static BufferedImage randomHeightmap(int size, long seed) {
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_4BYTE_ABGR);
+		Random random = new Random(seed);
+		int value = 0x808080;
+		for (int z = 0; z < size; z++) {
+			for (int x = 0; x < size; x++) {
+				value = Math.max(0, Math.min(0xFFFFFF, value + random.nextInt(0x40000) - 0x20000));
+				image.setRGB(x, z, 0xFF000000 | value);
+			}
+		}
+		return image;
+	}
+
+	//The old generator, kept here to check the new one against. Calls getRGB for the height of every vertex and
+	//four more times for its normal.
+	private static MeshData generateWithGetRGB(BufferedImage image) {
+		int vertexCount = image.getHeight();
+		int count = vertexCount * vertexCount;
+		float[] vertices = new float[count * 3];
+		float[] normals = new float[count * 3];
+		float[] textureCoords = new float[count * 2];
+		int vertexPointer = 0;
+		for (int i = 0; i < vertexCount; i++) {
+			for (int j = 0; j < vertexCount; j++) {
+				vertices[vertexPointer * 3] = (float) j / ((float) vertexCount - 1) * SIZE;
+				vertices[vertexPointer * 3 + 1] = getHeight(j, i, image);
+				vertices[vertexPointer * 3 + 2] = (float) i / ((float) vertexCount - 1) * SIZE;
+				Vector3f normal = new Vector3f(getHeight(j - 1, i, image) - getHeight(j + 1, i, image), 2f,
+						getHeight(j, i - 1, image) - getHeight(j, i + 1, image));
+				normal.normalise();
+				normals[vertexPointer * 3] = normal.x;
+				normals[vertexPointer * 3 + 1] = normal.y;
+				normals[vertexPointer * 3 + 2] = normal.z;
+				textureCoords[vertexPointer * 2] = (float) j / ((float) vertexCount - 1);
+				textureCoords[vertexPointer * 2 + 1] = (float) i / ((float) vertexCount - 1);
+				vertexPointer++;
+			}
+		}
+		return new MeshData(vertices, textureCoords, normals, TerrainGenerator.generateIndices(vertexCount));
+	}
+
+	private static float getHeight(int x, int y, BufferedImage image) {
+		if (x < 0 || x >= image.getHeight() || y < 0 || y >= image.getHeight()) {
+			return 0;
+		}
+		float height = image.getRGB(x, y);
+		height += MAX_PIXEL_COLOUR / 2f;
+		height /= MAX_PIXEL_COLOUR / 2f;
+		height *= MAX_HEIGHT;
+		return height;
+	}
+
+	//The old table of heights, an array for each column.
+	private static float[][] getHeightTable(MeshData mesh) {
+		float[] vertices = mesh.getPositions();
+		int vertexCount = (int) Math.round(Math.sqrt(mesh.getVertexCount()));
+		float[][] heights = new float[vertexCount][vertexCount];
+		for (int i = 0; i < vertexCount; i++) {
+			for (int j = 0; j < vertexCount; j++) {
+				heights[j][i] = vertices[(i * vertexCount + j) * 3 + 1];
+			}
+		}
+		return heights;
+	}
+
+	//Memory used by the table, counting the header of each array (16 bytes on a 64 bit JVM) and the references.
+	private static long getTableBytes(float[][] table) {
+		return 16 + 4L * table.length + table.length * (16 + 4L * table[0].length);
+	}
+
+	//The old height query, makes a Vector3f for each corner of the triangle and a Vector2f for the position.
+	private static float getHeightWithTable(float[][] heights, float terrainX, float terrainZ) {
+		float gridSquareSize = SIZE / ((float) heights.length - 1);
+		int gridX = (int) Math.floor(terrainX / gridSquareSize);
+		int gridZ = (int) Math.floor(terrainZ / gridSquareSize);
+		if (gridX >= heights.length - 1 || gridZ >= heights.length - 1 || gridX < 0 || gridZ < 0) {
+			return 0;
+		}
+		float xCoord = (terrainX % gridSquareSize) / gridSquareSize;
+		float zCoord = (terrainZ % gridSquareSize) / gridSquareSize;
+		if (xCoord <= (1 - zCoord)) {
+			return Maths.barycentricCalc(new Vector3f(0, heights[gridX][gridZ], 0),
+					new Vector3f(1, heights[gridX + 1][gridZ], 0), new Vector3f(0, heights[gridX][gridZ + 1], 1),
+					new Vector2f(xCoord, zCoord));
+		} else {
+			return Maths.barycentricCalc(new Vector3f(1, heights[gridX + 1][gridZ], 0),
+					new Vector3f(1, heights[gridX + 1][gridZ + 1], 1), new Vector3f(0, heights[gridX][gridZ + 1], 1),
+					new Vector2f(xCoord, zCoord));
+		}
+	}
+}
@@ -1,11 +1,14 @@
 package entities;
 
+import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
 
 import models.TexturedModel;
+import toolbox.Maths;
 
 //An entity is basically an instance of a textured model. A single entity can be rendered many times in the world but 
-//the model will only need to be loaded up once. 
+//the model will only need to be loaded up once. Each entity keeps its transformation matrix and only works it out 
+//again after it has been moved, rotated or scaled, so entities that never move cost no matrix maths at all. 
 public class Entity {
 	//Contains a textured model & position, rotation and scale that the model is to be rendered at. 
 	private TexturedModel model;
@@ -14,6 +17,9 @@ public class Entity {
 	private float scale;
 	//Attribute for texture atlas
 	private int textureIndex = 0;
+	//The transformation matrix, and whether the rotation or scale have changed since it was worked out 
+	private Matrix4f transformationMatrix = new Matrix4f();
+	private boolean transformationDirty = true;
 	
 	//Constructor for the entity - set textured model, position, rotation and scale. 
 	public Entity(TexturedModel model, Vector3f position, float rotX, float rotY, float rotZ, float scale) {
@@ -41,12 +47,14 @@ public class Entity {
 		this.position.x += dx;
 		this.position.y += dy;
 		this.position.z += dz;
+		transformationDirty = true;
 	}
 	//Method to rotate the entity, takes in x y & z values of the angle to rotate the entity 
 	public void increaseRotation(float dx, float dy, float dz) {
 		this.rotX += dx;
 		this.rotY += dy;
 		this.rotZ += dz;
+		transformationDirty = true;
 	}
 	//Method to calculate x offset on the texture for that particular index value. 
 	public float getTextureXOffset() {
@@ -59,6 +67,24 @@ public class Entity {
 		return (float) row / (float) model.getTexture().getNumberOfRows();
 	}
 	
+	//Method to get the transformation matrix for rendering the entity, only worked out again if the entity has 
+	//changed. The position vector can also be changed straight through getPosition (eg. putting the entity on the 
+	//ground), so the translation is checked against it too; the translation is just the last column so only that 
+	//is copied over. 
+	public Matrix4f getTransformationMatrix() {
+		if(transformationDirty) {
+			Maths.composeTransformationMatrix(position.x, position.y, position.z, rotX, rotY, rotZ, scale, 
+					transformationMatrix);
+			transformationDirty = false;
+		}else if(transformationMatrix.m30 != position.x || transformationMatrix.m31 != position.y 
+				|| transformationMatrix.m32 != position.z) {
+			transformationMatrix.m30 = position.x;
+			transformationMatrix.m31 = position.y;
+			transformationMatrix.m32 = position.z;
+		}
+		return transformationMatrix;
+	}
+	
 	//Getters and setters for the entity 
 	public TexturedModel getModel() {
 		return model;
@@ -71,30 +97,35 @@ public class Entity {
 	}
 	public void setPosition(Vector3f position) {
 		this.position = position;
+		transformationDirty = true;
 	}
 	public float getRotX() {
 		return rotX;
 	}
 	public void setRotX(float rotX) {
 		this.rotX = rotX;
+		transformationDirty = true;
 	}
 	public float getRotY() {
 		return rotY;
 	}
 	public void setRotY(float rotY) {
 		this.rotY = rotY;
+		transformationDirty = true;
 	}
 	public float getRotZ() {
 		return rotZ;
 	}
 	public void setRotZ(float rotZ) {
 		this.rotZ = rotZ;
+		transformationDirty = true;
 	}
 	public float getScale() {
 		return scale;
 	}
 	public void setScale(float scale) {
 		this.scale = scale;
+		transformationDirty = true;
 	}
 	
 	
@@ -5,7 +5,7 @@ import org.lwjgl.util.vector.Vector3f;
 
 import models.TexturedModel;
 import renderEngine.DisplayManager;
-import terrains.Terrain;
+import terrains.TerrainWorld;
 
 //Represents a player entity. 
 public class Player extends Entity {
@@ -29,8 +29,8 @@ public class Player extends Entity {
 		super(model, position, rotX, rotY, rotZ, scale);
 	}
 	
-	//Method to move the player entity
-	public void move(Terrain terrain) {
+	//Method to move the player entity, over whichever tiles of the world it is on
+	public void move(TerrainWorld world) {
 		checkInputs();
 		//Calculate rotation if player is turning, multiply y angle by the getFrameTime method (in secs) 
 		super.increaseRotation(0, currentTurnSpeed * DisplayManager.getFrameTimeSeconds(), 0);
@@ -46,7 +46,7 @@ public class Player extends Entity {
 		//Increase y position of the player 
 		super.increasePosition(0, upwardSpeed * DisplayManager.getFrameTimeSeconds(), 0);
 		//get height of terrain at player position
-		float terrainHeight = terrain.getHeightOfTerrain(super.getPosition().x, super.getPosition().z);
+		float terrainHeight = world.getHeight(super.getPosition().x, super.getPosition().z);
 		//if y position of player is below terrain height set upward speed back to 0 and set player position 
 		//to terrain height. If player is on the terrain isInAir is set back to false so they can jump again
 		if(super.getPosition().y < terrainHeight) {
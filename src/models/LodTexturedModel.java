@@ -0,0 +1,88 @@
+package models;
+
+import textures.ModelTexture;
+
+//A textured model that has several levels of detail, each a simpler version of the mesh (see 
+//toolbox.MeshSimplifier) with the same texture. The renderer picks a level for each entity from how big the model 
+//is on the screen, so a model far from the camera doesn't cost as many triangles as one right next to it. 
+public class LodTexturedModel extends TexturedModel {
+
+	//Screen size at which the first level after the full mesh is used, each level after that switches at this 
+	//fraction of the size of the one before. 
+	private static final float FIRST_SCREEN_SIZE = 0.25f;
+	private static final float SCREEN_SIZE_STEP = 0.4f;
+	
+	//A textured model for each level, level 0 is the full mesh. 
+	private TexturedModel[] levels;
+	//Radius of a sphere around the model's origin that holds the whole mesh, used to work out the screen size. 
+	private float radius;
+	//Smallest screen size each level (after level 0) is used down to, ie. level i+1 is used once the model is 
+	//smaller on the screen than screenSizes[i]. Screen size is the fraction of the height of the screen the 
+	//model's bounding sphere covers. 
+	private float[] screenSizes;
+	
+	//Constructor that takes in the raw model of each level (most detailed first), the texture they share and the 
+	//radius of the model. Starts with the default screen sizes. 
+	public LodTexturedModel(RawModel[] levels, ModelTexture texture, float radius) {
+		super(levels[0], texture);
+		this.levels = new TexturedModel[levels.length];
+		for(int i = 0; i < levels.length; i++) {
+			this.levels[i] = new TexturedModel(levels[i], texture);
+		}
+		this.radius = radius;
+		this.screenSizes = new float[levels.length - 1];
+		float screenSize = FIRST_SCREEN_SIZE;
+		for(int i = 0; i < screenSizes.length; i++) {
+			screenSizes[i] = screenSize;
+			screenSize *= SCREEN_SIZE_STEP;
+		}
+	}
+	
+	//Set the screen sizes the levels switch at for this model, needs one less than the number of levels and they 
+	//must get smaller. 
+	public void setScreenSizes(float... screenSizes) {
+		if(screenSizes.length != levels.length - 1) {
+			throw new IllegalArgumentException("Need " + (levels.length - 1) + " screen sizes for " + levels.length 
+					+ " levels");
+		}
+		for(int i = 1; i < screenSizes.length; i++) {
+			if(screenSizes[i] > screenSizes[i - 1]) {
+				throw new IllegalArgumentException("Screen sizes must get smaller for each level");
+			}
+		}
+		this.screenSizes = screenSizes.clone();
+	}
+	
+	//Pick the level to use for a model that covers the given fraction of the screen height. 
+	public int selectLevel(float screenSize) {
+		for(int i = 0; i < screenSizes.length; i++) {
+			if(screenSize >= screenSizes[i]) {
+				return i;
+			}
+		}
+		return screenSizes.length;
+	}
+	
+	//Report of how many triangles each level has, most detailed first. 
+	public String getReport() {
+		StringBuilder report = new StringBuilder("Levels of detail:");
+		for(TexturedModel level : levels) {
+			report.append(" ").append(level.getRawModel().getVertexCount() / 3).append(" triangles");
+		}
+		return report.toString();
+	}
+	
+	//Getters for the properties
+	public TexturedModel getLevel(int level) {
+		return levels[level];
+	}
+	
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	public float getRadius() {
+		return radius;
+	}
+	
+}
@@ -0,0 +1,79 @@
+package models;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+
+//The vertex data of a mesh held in direct buffers, ready to be handed straight to OpenGL. Either views onto a 
+//memory mapped mesh cache file or copied from a MeshData. Can be built on any thread as it doesn't touch OpenGL. 
+public class MeshBuffers {
+
+	private FloatBuffer positions;
+	private FloatBuffer textureCoords;
+	private FloatBuffer normals;
+	private IntBuffer indices;
+	
+	//Simple constructor that takes in all the buffers. 
+	public MeshBuffers(FloatBuffer positions, FloatBuffer textureCoords, FloatBuffer normals, IntBuffer indices) {
+		this.positions = positions;
+		this.textureCoords = textureCoords;
+		this.normals = normals;
+		this.indices = indices;
+	}
+	//Copy the arrays of a MeshData into new direct buffers. 
+	public static MeshBuffers fromData(MeshData data) {
+		return new MeshBuffers(toBuffer(data.getPositions()), toBuffer(data.getTextureCoords()), 
+				toBuffer(data.getNormals()), toBuffer(data.getIndices()));
+	}
+	
+	//Copy the buffers back out into the arrays of a MeshData, eg. so a cached mesh can be simplified. The buffers 
+	//themselves are left as they were. 
+	public MeshData toData() {
+		return new MeshData(toArray(positions), toArray(textureCoords), toArray(normals), toArray(indices));
+	}
+	
+	private static float[] toArray(FloatBuffer buffer) {
+		float[] data = new float[buffer.remaining()];
+		buffer.duplicate().get(data);
+		return data;
+	}
+	
+	private static int[] toArray(IntBuffer buffer) {
+		int[] data = new int[buffer.remaining()];
+		buffer.duplicate().get(data);
+		return data;
+	}
+	
+	private static FloatBuffer toBuffer(float[] data) {
+		FloatBuffer buffer = BufferUtils.createFloatBuffer(data.length);
+		buffer.put(data);
+		buffer.flip();
+		return buffer;
+	}
+	
+	private static IntBuffer toBuffer(int[] data) {
+		IntBuffer buffer = BufferUtils.createIntBuffer(data.length);
+		buffer.put(data);
+		buffer.flip();
+		return buffer;
+	}
+	
+	//Getters for the buffers
+	public FloatBuffer getPositions() {
+		return positions;
+	}
+
+	public FloatBuffer getTextureCoords() {
+		return textureCoords;
+	}
+
+	public FloatBuffer getNormals() {
+		return normals;
+	}
+
+	public IntBuffer getIndices() {
+		return indices;
+	}
+	
+}
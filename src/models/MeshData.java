@@ -0,0 +1,54 @@
+package models;
+
+//Holds the raw vertex data of a mesh on the CPU side, before it has been loaded into a VAO. The arrays are laid 
+//out exactly as Loader.loadtoVAO needs them so the data can be handed straight over. 
+public class MeshData {
+
+	//Positions (3 per vertex), texture coords (2 per vertex), normals (3 per vertex) and the triangle indices. 
+	private float[] positions;
+	private float[] textureCoords;
+	private float[] normals;
+	private int[] indices;
+	
+	//Simple constructor that takes in all the arrays. 
+	public MeshData(float[] positions, float[] textureCoords, float[] normals, int[] indices) {
+		this.positions = positions;
+		this.textureCoords = textureCoords;
+		this.normals = normals;
+		this.indices = indices;
+	}
+	//Number of unique vertices in the mesh (not the number of indices). 
+	public int getVertexCount() {
+		return positions.length / 3;
+	}
+	
+	//Distance from the model's origin to its furthest vertex, ie. the radius of a sphere around the origin that 
+	//holds the whole mesh. 
+	public float getBoundingRadius() {
+		float maxDistanceSquared = 0;
+		for(int i = 0; i < positions.length; i += 3) {
+			float distanceSquared = positions[i] * positions[i] + positions[i + 1] * positions[i + 1] 
+					+ positions[i + 2] * positions[i + 2];
+			maxDistanceSquared = Math.max(maxDistanceSquared, distanceSquared);
+		}
+		return (float) Math.sqrt(maxDistanceSquared);
+	}
+	
+	//Getters for the arrays
+	public float[] getPositions() {
+		return positions;
+	}
+
+	public float[] getTextureCoords() {
+		return textureCoords;
+	}
+
+	public float[] getNormals() {
+		return normals;
+	}
+
+	public int[] getIndices() {
+		return indices;
+	}
+	
+}
@@ -0,0 +1,145 @@
+package models;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+//The box and the sphere around all of a model's vertices, in the model's own coordinates, worked out when the model
+//is loaded. Used to skip entities the camera can't see without looking at their vertices again. The sphere is
+//centred on the middle of the box, which is usually a much tighter fit than a sphere around the model's origin.
+public class ModelBounds {
+
+	private final float minX;
+	private final float minY;
+	private final float minZ;
+	private final float maxX;
+	private final float maxY;
+	private final float maxZ;
+	private final float radius;
+
+	//Constructor that takes in the box and the radius of the sphere around its centre.
+	public ModelBounds(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, float radius) {
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.maxZ = maxZ;
+		this.radius = radius;
+	}
+
+	//Bounds of positions stored as x, y, z one after another.
+	public static ModelBounds fromPositions(float[] positions) {
+		return calculate(positions.length / 3, 3, i -> positions[i]);
+	}
+
+	//Same as above from a buffer, from its position to its limit. The buffer itself is left as it was.
+	public static ModelBounds fromPositions(FloatBuffer positions) {
+		int start = positions.position();
+		return calculate(positions.remaining() / 3, 3, i -> positions.get(start + i));
+	}
+
+	//Bounds of interleaved vertices (see toolbox.VertexPacking), each stride bytes long and starting with its
+	//position as 3 floats. The buffer itself is left as it was.
+	public static ModelBounds fromVertices(ByteBuffer vertices, int stride) {
+		int start = vertices.position();
+		return calculate(vertices.remaining() / stride, stride / 4, i -> vertices.getFloat(start + i * 4));
+	}
+
+	//Works out the box in one pass over the vertices, then the radius around its centre in another. The floats of
+	//vertex v are from v * floatsPerVertex on.
+	private static ModelBounds calculate(int vertexCount, int floatsPerVertex, FloatSource floats) {
+		if (vertexCount == 0) {
+			return new ModelBounds(0, 0, 0, 0, 0, 0, 0);
+		}
+		float minX = Float.POSITIVE_INFINITY;
+		float minY = Float.POSITIVE_INFINITY;
+		float minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY;
+		float maxY = Float.NEGATIVE_INFINITY;
+		float maxZ = Float.NEGATIVE_INFINITY;
+		for (int v = 0; v < vertexCount; v++) {
+			int i = v * floatsPerVertex;
+			float x = floats.get(i);
+			float y = floats.get(i + 1);
+			float z = floats.get(i + 2);
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			minZ = Math.min(minZ, z);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+			maxZ = Math.max(maxZ, z);
+		}
+		float centreX = (minX + maxX) / 2;
+		float centreY = (minY + maxY) / 2;
+		float centreZ = (minZ + maxZ) / 2;
+		float maxDistanceSquared = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			int i = v * floatsPerVertex;
+			float dx = floats.get(i) - centreX;
+			float dy = floats.get(i + 1) - centreY;
+			float dz = floats.get(i + 2) - centreZ;
+			maxDistanceSquared = Math.max(maxDistanceSquared, dx * dx + dy * dy + dz * dz);
+		}
+		return new ModelBounds(minX, minY, minZ, maxX, maxY, maxZ, (float) Math.sqrt(maxDistanceSquared));
+	}
+
+	//Reads the float at an index of wherever the vertices are stored.
+	private interface FloatSource {
+		float get(int index);
+	}
+
+	//Centre of the box (and the sphere).
+	public float getCentreX() {
+		return (minX + maxX) / 2;
+	}
+
+	public float getCentreY() {
+		return (minY + maxY) / 2;
+	}
+
+	public float getCentreZ() {
+		return (minZ + maxZ) / 2;
+	}
+
+	//Half the size of the box along each axis.
+	public float getHalfWidth() {
+		return (maxX - minX) / 2;
+	}
+
+	public float getHalfHeight() {
+		return (maxY - minY) / 2;
+	}
+
+	public float getHalfDepth() {
+		return (maxZ - minZ) / 2;
+	}
+
+	//Getters for the properties
+	public float getMinX() {
+		return minX;
+	}
+
+	public float getMinY() {
+		return minY;
+	}
+
+	public float getMinZ() {
+		return minZ;
+	}
+
+	public float getMaxX() {
+		return maxX;
+	}
+
+	public float getMaxY() {
+		return maxY;
+	}
+
+	public float getMaxZ() {
+		return maxZ;
+	}
+
+	public float getRadius() {
+		return radius;
+	}
+}
@@ -0,0 +1,72 @@
+package models;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL11;
+
+//A mesh packed into a single interleaved vertex buffer (see toolbox.VertexPacking), plus its index buffer and the 
+//OpenGL type of the indices (unsigned shorts or unsigned ints) and how they make up triangles (a list of them, or 
+//strips split up by primitive restart indices). 
+public class PackedMesh {
+
+	private VertexFormat format;
+	private ByteBuffer vertices;
+	private int vertexCount;
+	private ByteBuffer indices;
+	private int indexCount;
+	private int indexType;
+	private int primitiveMode;
+	
+	//Simple constructor that takes in all the packed data, in the packed vertex format. 
+	public PackedMesh(ByteBuffer vertices, int vertexCount, ByteBuffer indices, int indexCount, int indexType) {
+		this(VertexFormat.PACKED, vertices, vertexCount, indices, indexCount, indexType);
+	}
+	
+	//Constructor for vertices in any of the formats. 
+	public PackedMesh(VertexFormat format, ByteBuffer vertices, int vertexCount, ByteBuffer indices, int indexCount, 
+			int indexType) {
+		this(format, vertices, vertexCount, indices, indexCount, indexType, GL11.GL_TRIANGLES);
+	}
+	
+	//Constructor that also takes in the primitive mode, eg. GL_TRIANGLE_STRIP. 
+	public PackedMesh(VertexFormat format, ByteBuffer vertices, int vertexCount, ByteBuffer indices, int indexCount, 
+			int indexType, int primitiveMode) {
+		this.format = format;
+		this.vertices = vertices;
+		this.vertexCount = vertexCount;
+		this.indices = indices;
+		this.indexCount = indexCount;
+		this.indexType = indexType;
+		this.primitiveMode = primitiveMode;
+	}
+	
+	//Getters for the properties
+	public VertexFormat getFormat() {
+		return format;
+	}
+	
+	public ByteBuffer getVertices() {
+		return vertices;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public ByteBuffer getIndices() {
+		return indices;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	public int getIndexType() {
+		return indexType;
+	}
+
+	public int getPrimitiveMode() {
+		return primitiveMode;
+	}
+	
+}
@@ -1,16 +1,49 @@
 package models;
 
+import org.lwjgl.opengl.GL11;
+
 //This class represents the 3d model stored in memory.
 public class RawModel {
 
 	//Need the ID of the 3d model (the VAO) and number of vertices it has. 
 	private int vaoID;
 	private int vertexCount;
+	//Type of the values in the index buffer, GL_UNSIGNED_INT unless the model was packed with short indices. 
+	private int indexType;
+	//Where the model is inside a shared geometry arena - the number of its first vertex, which is added on to every 
+	//index, and where its indices start in bytes. Both are 0 for a model with its own VAO. 
+	private int baseVertex;
+	private long indexOffset;
+	//How the indices make up triangles, GL_TRIANGLES unless the model is made of strips. 
+	private int primitiveMode;
+	//Box & sphere around the model's vertices, set by the loader. Null if the model was made some other way, in 
+	//which case it is never culled. 
+	private ModelBounds bounds;
 	
 	//Simple constructor that takes in the vaoID and vertexCount. 
 	public RawModel (int vaoID, int vertexCount) {
+		this(vaoID, vertexCount, GL11.GL_UNSIGNED_INT);
+	}
+	
+	//Constructor that also takes in the type of the indices. 
+	public RawModel (int vaoID, int vertexCount, int indexType) {
+		this(vaoID, vertexCount, indexType, 0, 0);
+	}
+	
+	//Constructor for a model inside a geometry arena, which also needs where it is in the arena's buffers. 
+	public RawModel (int vaoID, int vertexCount, int indexType, int baseVertex, long indexOffset) {
+		this(vaoID, vertexCount, indexType, baseVertex, indexOffset, GL11.GL_TRIANGLES);
+	}
+	
+	//Constructor that also takes in the primitive mode, eg. GL_TRIANGLE_STRIP. 
+	public RawModel (int vaoID, int vertexCount, int indexType, int baseVertex, long indexOffset, 
+			int primitiveMode) {
 		this.vaoID = vaoID;
 		this.vertexCount = vertexCount;
+		this.indexType = indexType;
+		this.baseVertex = baseVertex;
+		this.indexOffset = indexOffset;
+		this.primitiveMode = primitiveMode;
 	}
 
 	public int getVaoID() {
@@ -21,4 +54,28 @@ public class RawModel {
 		return vertexCount;
 	}
 	
+	public int getIndexType() {
+		return indexType;
+	}
+	
+	public int getBaseVertex() {
+		return baseVertex;
+	}
+	
+	public long getIndexOffset() {
+		return indexOffset;
+	}
+	
+	public int getPrimitiveMode() {
+		return primitiveMode;
+	}
+	
+	public ModelBounds getBounds() {
+		return bounds;
+	}
+	
+	public void setBounds(ModelBounds bounds) {
+		this.bounds = bounds;
+	}
+	
 }
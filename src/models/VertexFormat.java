@@ -0,0 +1,49 @@
+package models;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL33;
+
+import renderEngine.GLStateCache;
+import toolbox.VertexPacking;
+
+//The layouts an interleaved vertex buffer can have. Both give the shaders the same 3 attributes (position, texture
+//coords and normal), they just store them differently.
+public enum VertexFormat {
+
+	//The small format from VertexPacking - float position, half float texture coords and a packed normal.
+	PACKED(VertexPacking.STRIDE),
+	//Plain floats for everything, for meshes where half float texture coords aren't precise enough (eg. terrain,
+	//whose texture coords are tiled across the whole terrain in the shader).
+	FLOAT(VertexPacking.FLOAT_STRIDE);
+
+	private final int stride;
+
+	private VertexFormat(int stride) {
+		this.stride = stride;
+	}
+
+	//Point attributes 0-2 at the vertex buffer bound at the moment and turn them on. Turning them on is stored in
+	//the VAO, so after this the VAO can be bound and drawn without enabling them again.
+	public void setupAttributes() {
+		if (this == PACKED) {
+			GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, stride, VertexPacking.POSITION_OFFSET);
+			GL20.glVertexAttribPointer(1, 2, GL30.GL_HALF_FLOAT, false, stride, VertexPacking.TEXTURE_OFFSET);
+			//Packed normals always have a size of 4, normalised turns the signed 10 bit values back into -1 to 1. 
+			//The shader only reads xyz so the w is ignored.
+			GL20.glVertexAttribPointer(2, 4, GL33.GL_INT_2_10_10_10_REV, true, stride, VertexPacking.NORMAL_OFFSET);
+		} else {
+			GL20.glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, stride, 0);
+			GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, stride, 12);
+			GL20.glVertexAttribPointer(2, 3, GL11.GL_FLOAT, false, stride, 20);
+		}
+		GLStateCache.enableVertexAttribArray(0);
+		GLStateCache.enableVertexAttribArray(1);
+		GLStateCache.enableVertexAttribArray(2);
+	}
+
+	public int getStride() {
+		return stride;
+	}
+}
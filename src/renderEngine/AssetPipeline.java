@@ -0,0 +1,253 @@
+package renderEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import models.LodTexturedModel;
+import models.MeshBuffers;
+import models.MeshData;
+import models.PackedMesh;
+import models.RawModel;
+import terrains.Terrain;
+import terrains.TerrainQuadtree;
+import textures.ModelTexture;
+import textures.TerrainTexture;
+import textures.TerrainTexturePack;
+import textures.TextureAtlas;
+import textures.TextureData;
+import textures.TextureHandle;
+import toolbox.MeshSimplifier;
+import toolbox.VertexPacking;
+
+//Loads assets in parallel around the Loader and OBJLoader. The slow parts (parsing obj files, decoding pngs and
+//building heightmap meshes) run on a pool of worker threads, and only the final upload into OpenGL is queued back
+//to the thread that owns the OpenGL context. Every load returns a future straight away, so all the assets can be
+//started at once and startup only takes as long as the slowest single asset plus the uploads.
+public class AssetPipeline {
+
+	//Each level of detail has this fraction of the triangles of the level before it.
+	private static final float LOD_REDUCTION = 0.5f;
+
+	//Loader that does the actual OpenGL uploads.
+	private Loader loader;
+	//Worker threads for the decoding.
+	private ExecutorService workers;
+	//Uploads waiting to be run on the OpenGL thread, and an executor that just adds to this queue so futures can
+	//hand their last step over to the OpenGL thread.
+	private BlockingQueue<Runnable> uploads = new LinkedBlockingQueue<Runnable>();
+	private Executor glThread = uploads::add;
+	//The thread that owns the OpenGL context, the pipeline is made on it.
+	private Thread glOwner = Thread.currentThread();
+	//Textures being decoded at the moment, so asking for one again before it is done doesn't decode it twice.
+	private Map<String, CompletableFuture<TextureData>> textureDecodes =
+			new ConcurrentHashMap<String, CompletableFuture<TextureData>>();
+
+	//Constructor that uses one worker per spare processor core (the OpenGL thread keeps one for itself). The
+	//pipeline has to be made on the OpenGL thread.
+	public AssetPipeline(Loader loader) {
+		this(loader, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	//Constructor that takes in the number of worker threads to use. The threads are daemons so they never stop the
+	//game from closing.
+	public AssetPipeline(Loader loader, int workerCount) {
+		this.loader = loader;
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+			Thread thread = new Thread(runnable, "asset-worker-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	//Parse an obj model (or map its compiled cache) on a worker and then load it into a VAO.
+	public CompletableFuture<RawModel> loadObjModel(String fileName) {
+		return CompletableFuture.supplyAsync(() -> OBJLoader.prepareObjModel(fileName), workers)
+				.thenApplyAsync((MeshBuffers mesh) -> loader.loadtoVAO(mesh), glThread);
+	}
+
+	//Same as loadObjModel but the vertices are also packed into the smaller interleaved format on the worker (or
+	//mapped from the packed cache), so only the upload is left for the OpenGL thread. The model goes into the
+	//loader's shared geometry arena.
+	public CompletableFuture<RawModel> loadObjModelPacked(String fileName) {
+		return CompletableFuture.supplyAsync(() -> OBJLoader.prepareObjModelPacked(fileName), workers)
+				.thenApplyAsync((PackedMesh mesh) -> loader.loadToArena(mesh), glThread);
+	}
+
+	//Build levels of detail for an obj model on a worker (see MeshSimplifier), with each level packed the same as
+	//loadObjModelPacked. The texture (eg. a loaded texture or a region of an atlas) is loaded at the same time and
+	//each level is loaded into the geometry arena once everything is ready. The model's getReport says how many
+	//triangles each level ended up with.
+	public CompletableFuture<LodTexturedModel> loadLodModel(String fileName, CompletableFuture<ModelTexture> texture,
+			int levelCount) {
+		CompletableFuture<PreparedLevels> levels = CompletableFuture.supplyAsync(() -> prepareLevels(fileName,
+				levelCount), workers);
+		return levels.thenCombineAsync(texture, (PreparedLevels prepared, ModelTexture modelTexture) -> {
+			RawModel[] models = new RawModel[prepared.meshes.length];
+			for (int i = 0; i < models.length; i++) {
+				models[i] = loader.loadToArena(prepared.meshes[i]);
+			}
+			return new LodTexturedModel(models, modelTexture, prepared.radius);
+		}, glThread);
+	}
+
+	//Decode a png texture on a worker and then load it into OpenGL, the future gives the texture id. The texture
+	//goes through the loader's texture cache and is held for the rest of the game.
+	public CompletableFuture<Integer> loadTexture(String fileName) {
+		return acquireTexture(fileName).thenApply(TextureHandle::getID);
+	}
+
+	//Same as loadTexture but gives back a handle from the texture cache that can be released later. A texture that
+	//is already in the cache is handed straight back without being decoded, and asking for one that is still being
+	//decoded shares that decode. It is only decoded again once it has been evicted from the cache.
+	public CompletableFuture<TextureHandle> acquireTexture(String fileName) {
+		if (Thread.currentThread() != glOwner) {
+			//The texture cache can only be looked at on the OpenGL thread
+			return CompletableFuture.supplyAsync(() -> acquireTexture(fileName), glThread)
+					.thenCompose(Function.identity());
+		}
+		if (loader.getTextureCache().contains(fileName)) {
+			return CompletableFuture.completedFuture(loader.getTextureCache().acquire(fileName));
+		}
+		CompletableFuture<TextureData> data = textureDecodes.computeIfAbsent(fileName, name -> CompletableFuture
+				.supplyAsync(() -> Loader.decodeTexture(name), workers));
+		return data.thenApplyAsync((TextureData decoded) -> {
+			TextureHandle handle = loader.getTextureCache().acquire(fileName, decoded);
+			//Once the texture is in the cache the pixels aren't needed anymore
+			textureDecodes.remove(fileName, data);
+			return handle;
+		}, glThread);
+	}
+
+	//Decode a set of model textures on the workers (all at the same time), pack them into atlas pages and then load
+	//the pages into OpenGL. Models can then get their texture from the atlas with createTexture.
+	public CompletableFuture<TextureAtlas> loadTextureAtlas(int pageSize, int padding, String... fileNames) {
+		List<CompletableFuture<TextureData>> decoded = new ArrayList<CompletableFuture<TextureData>>();
+		for (String fileName : fileNames) {
+			decoded.add(CompletableFuture.supplyAsync(() -> Loader.decodeTexture(fileName), workers));
+		}
+		return CompletableFuture.allOf(decoded.toArray(new CompletableFuture<?>[0]))
+				.thenApplyAsync(done -> {
+					List<TextureData> textures = new ArrayList<TextureData>();
+					for (CompletableFuture<TextureData> texture : decoded) {
+						textures.add(texture.join());
+					}
+					return TextureAtlas.build(Arrays.asList(fileNames), textures, pageSize, padding);
+				}, workers)
+				.thenApplyAsync((TextureAtlas atlas) -> {
+					atlas.upload(loader);
+					return atlas;
+				}, glThread);
+	}
+
+	//Same as loadTexture but wrapped up as a terrain texture.
+	public CompletableFuture<TerrainTexture> loadTerrainTexture(String fileName) {
+		return loadTexture(fileName).thenApply(TerrainTexture::new);
+	}
+
+	//Loads the 4 textures of a terrain texture pack at the same time.
+	public CompletableFuture<TerrainTexturePack> loadTerrainTexturePack(String backgroundTexture, String rTexture,
+			String gTexture, String bTexture) {
+		CompletableFuture<TerrainTexture> background = loadTerrainTexture(backgroundTexture);
+		CompletableFuture<TerrainTexture> r = loadTerrainTexture(rTexture);
+		CompletableFuture<TerrainTexture> g = loadTerrainTexture(gTexture);
+		CompletableFuture<TerrainTexture> b = loadTerrainTexture(bTexture);
+		return CompletableFuture.allOf(background, r, g, b)
+				.thenApply(done -> new TerrainTexturePack(background.join(), r.join(), g.join(), b.join()));
+	}
+
+	//Build a terrain mesh from its heightmap and split it into its quadtree of patches on a worker. The patches are
+	//only loaded once they and the textures they need are all ready, the heightmap doesn't have to wait for the
+	//textures to start.
+	public CompletableFuture<Terrain> loadTerrain(int gridX, int gridZ, CompletableFuture<TerrainTexturePack> texturePack,
+			CompletableFuture<TerrainTexture> blendMap, String heightMap) {
+		return loadTerrain(gridX, gridZ, texturePack, blendMap, () -> Terrain.generateTerrain(heightMap));
+	}
+
+	//Same as above but the mesh comes from any generator (eg. one heightmap per tile of a big world), which is run
+	//on a worker.
+	public CompletableFuture<Terrain> loadTerrain(int gridX, int gridZ, CompletableFuture<TerrainTexturePack> texturePack,
+			CompletableFuture<TerrainTexture> blendMap, Supplier<MeshData> generator) {
+		CompletableFuture<MeshData> mesh = CompletableFuture.supplyAsync(generator, workers);
+		CompletableFuture<TerrainQuadtree> quadtree = mesh.thenApplyAsync(TerrainQuadtree::build, workers);
+		return CompletableFuture.allOf(quadtree, texturePack, blendMap).thenApplyAsync(done -> new Terrain(gridX,
+				gridZ, loader, texturePack.join(), blendMap.join(), mesh.join(), quadtree.join()), glThread);
+	}
+
+	//Runs all of the uploads that are waiting, returns how many were run. Must be called on the OpenGL thread,
+	//eg. once a frame if assets are being loaded while the game is running.
+	public int processUploads() {
+		return processUploads(Integer.MAX_VALUE);
+	}
+
+	//Same as above but runs at most maxUploads of them, so loading while the game is running can be spread over
+	//several frames instead of causing one long one.
+	public int processUploads(int maxUploads) {
+		int count = 0;
+		Runnable upload;
+		while (count < maxUploads && (upload = uploads.poll()) != null) {
+			upload.run();
+			count++;
+		}
+		return count;
+	}
+
+	//Waits for an asset to finish loading and returns it. Must be called on the OpenGL thread, as it keeps running
+	//the uploads while it waits (otherwise the asset would never finish).
+	public <T> T await(CompletableFuture<T> future) {
+		while (!future.isDone()) {
+			try {
+				Runnable upload = uploads.poll(1, TimeUnit.MILLISECONDS);
+				if (upload != null) {
+					upload.run();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return future.join();
+	}
+
+	//Simplifies and packs every level of detail of a model, doesn't touch OpenGL.
+	private static PreparedLevels prepareLevels(String fileName, int levelCount) {
+		MeshData mesh = OBJLoader.prepareObjModel(fileName).toData();
+		MeshData[] levels = MeshSimplifier.buildLodChain(mesh, levelCount, LOD_REDUCTION);
+		PackedMesh[] packed = new PackedMesh[levels.length];
+		for (int i = 0; i < levels.length; i++) {
+			packed[i] = VertexPacking.pack(MeshBuffers.fromData(levels[i]));
+		}
+		return new PreparedLevels(packed, mesh.getBoundingRadius());
+	}
+
+	//Stop the worker threads once nothing else needs loading.
+	public void cleanUp() {
+		workers.shutdown();
+	}
+
+	//The packed meshes of all the levels of a model and the radius of the full model, passed from the worker to
+	//the OpenGL thread.
+	private static class PreparedLevels {
+
+		private final PackedMesh[] meshes;
+		private final float radius;
+
+		private PreparedLevels(PackedMesh[] meshes, float radius) {
+			this.meshes = meshes;
+			this.radius = radius;
+		}
+	}
+}
@@ -1,65 +1,131 @@
 package renderEngine;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 
-import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL20;
-import org.lwjgl.opengl.GL30;
-import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GLContext;
 
 import entities.Entity;
 import models.RawModel;
 import models.TexturedModel;
 import shaders.StaticShader;
 import textures.ModelTexture;
-import toolbox.Maths;
 
-//Class that renders the model from the VAO. 
+//Class that renders the model from the VAO. Entities are drawn instanced where OpenGL 3.3 is available: the 
+//transformation matrices and texture offsets of every batch are sent in one upload to an InstanceBuffer, then each 
+//batch is drawn with one instanced draw call. Otherwise (or if instancing is turned off to compare) each entity 
+//loads its matrix & offset into uniforms and is drawn on its own. 
 public class EntityRenderer {
 
+	//Models are drawn in order of texture so models sharing an atlas page are drawn one after another 
+	private static final Comparator<TexturedModel> BY_TEXTURE = 
+			Comparator.comparingInt(model -> model.getTexture().getID());
+	
 	//Declare a static shader to be set in constructor so can be accessed whenever rendering 
 	private StaticShader shader;
+	//The models in texture order (reused every frame). The GLStateCache skips binding the texture or VAO again for 
+	//models on the same atlas page or in the same geometry arena page. 
+	private List<TexturedModel> models = new ArrayList<TexturedModel>();
+	//Per instance data for instanced drawing, and whether entities are drawn instanced 
+	private InstanceBuffer instanceBuffer;
+	private boolean instancingSupported;
+	private boolean instancing;
+	//Draw calls made for entities in the frame being drawn, or the last one once it is done 
+	private int drawCalls = 0;
 	
-	//Constructor for the entity renderer to call the create matrix method as the matrix wont change and will take 
-	//in the static shader. 
-	public EntityRenderer(StaticShader shader, Matrix4f projectionMatrix) {
+	//Constructor for the entity renderer that takes in the static shader. The projection matrix is in the 
+	//FrameUniformBuffer shared by every shader. 
+	public EntityRenderer(StaticShader shader) {
 		this.shader = shader;
-		shader.start();
-		shader.loadProjectionMatrix(projectionMatrix);
-		shader.stop();
+		//Instance attribute divisors are only in the core from OpenGL 3.3 
+		instancingSupported = GLContext.getCapabilities().OpenGL33;
+		instancing = instancingSupported;
+		instanceBuffer = new InstanceBuffer(StaticShader.INSTANCE_ATTRIBUTE, 1024);
 	}
 	
 	//New method to render an entity using the hash map created in the main renderer class. Broken into smaller 
 	//methods below
 	public void render(Map<TexturedModel,List<Entity>> entities) {
-		//Loop through the hash map and prep the textured model for the entities that use that model
-		for(TexturedModel model:entities.keySet()) {
+		//Sort the models by texture, then loop through and prep the textured model for the entities that use it
+		models.clear();
+		models.addAll(entities.keySet());
+		models.sort(BY_TEXTURE);
+		drawCalls = 0;
+		shader.loadUseInstancing(instancing);
+		if(instancing) {
+			renderInstanced(entities);
+			return;
+		}
+		for(TexturedModel model:models) {
 			prepareTexturedModel(model);
 			List<Entity> batch = entities.get(model);
 			//Then for each entity in this batch prep the instance 
 			for(Entity entity:batch) {
 				prepareInstance(entity);
-				//Now rendering the VAO, as now using indices vbo will use Draw Element method. Mode is triangles, no 
-				//of indices to render which is in the model, type of data is unsigned ints and where in the data it 
-				//should start which is the beginning or 0.
-				GL11.glDrawElements(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
+				//Now rendering the VAO, as now using indices vbo will use Draw Element method. Mode of the model 
+				//(triangles), no of indices to render which is in the model, type of the indices (ints or shorts), 
+				//where its indices start and the base vertex added on to each index (both 0 unless the model is in a 
+				//geometry arena).
+				RawModel rawModel = model.getRawModel();
+				GL32.glDrawElementsBaseVertex(rawModel.getPrimitiveMode(), rawModel.getVertexCount(), 
+						rawModel.getIndexType(), rawModel.getIndexOffset(), rawModel.getBaseVertex());
+				drawCalls++;
 			}
 			//once all entities are rendered unbind the textured model so it can loop back to the next model
 			unbindTexturedModel();
 		}
+		//Unbind the VAO once everything is drawn by using 0 instead of an ID. 
+		GLStateCache.bindVertexArray(0);
+	}
+	//Method to render the batches with one instanced draw call each. The instances of all the batches are written 
+	//in the order the batches are drawn and sent together, then each batch draws its own run of them. 
+	private void renderInstanced(Map<TexturedModel,List<Entity>> entities) {
+		int instanceCount = 0;
+		for(TexturedModel model:models) {
+			instanceCount += entities.get(model).size();
+		}
+		instanceBuffer.begin(instanceCount);
+		for(TexturedModel model:models) {
+			for(Entity entity:entities.get(model)) {
+				instanceBuffer.add(entity.getTransformationMatrix(), entity.getTextureXOffset(), 
+						entity.getTextureYOffset());
+			}
+		}
+		instanceBuffer.upload();
+		int firstInstance = 0;
+		for(TexturedModel model:models) {
+			prepareTexturedModel(model);
+			int batchSize = entities.get(model).size();
+			//Point the VAO's instance attributes at this batch's instances, then draw them all at once 
+			instanceBuffer.bindAttributes(firstInstance);
+			RawModel rawModel = model.getRawModel();
+			GL32.glDrawElementsInstancedBaseVertex(rawModel.getPrimitiveMode(), rawModel.getVertexCount(), 
+					rawModel.getIndexType(), rawModel.getIndexOffset(), batchSize, rawModel.getBaseVertex());
+			drawCalls++;
+			firstInstance += batchSize;
+			unbindTexturedModel();
+		}
+		GLStateCache.bindVertexArray(0);
 	}
 	//Method to prepare a textured model
 	public void prepareTexturedModel(TexturedModel model) {
 		//Getting the RawModel for binding the vertex array amongst other things. 
 		RawModel rawModel = model.getRawModel();
-		//First bind the VAO to be able to use it. 
-		GL30.glBindVertexArray(rawModel.getVaoID());
-		//Activate attribute lists where data is stored.
-		GL20.glEnableVertexAttribArray(0);
-		GL20.glEnableVertexAttribArray(1);
-		GL20.glEnableVertexAttribArray(2);
+		//First bind the VAO to be able to use it (dropped by the cache if the last model was in the same one). 
+		GLStateCache.bindVertexArray(rawModel.getVaoID());
+		//Activate attribute lists where data is stored. These are stored in the VAO, so stay on until the VAO 
+		//itself is deleted and the cache drops turning them on again. 
+		GLStateCache.enableVertexAttribArray(0);
+		GLStateCache.enableVertexAttribArray(1);
+		GLStateCache.enableVertexAttribArray(2);
+		//The instance attributes are turned on for each batch when drawing instanced, so make sure they are off 
+		//when drawing one entity at a time 
+		if(!instancing) {
+			instanceBuffer.disableAttributes();
+		}
 		//Get the model texture 
 		ModelTexture texture = model.getTexture();
 		//load up texture atlas attributes 
@@ -72,32 +138,46 @@ public class EntityRenderer {
 		shader.loadFakeLightingVariable(texture.isUseFakeLighting());
 		//load up specular lighting values every time an entity is rendered
 		shader.loadShineVariables(texture.getShineDampener(), texture.getReflectivity());
-		//Activate a texture bank for Open GL. 
-		GL13.glActiveTexture(GL13.GL_TEXTURE0);
-		//Bind the texture, takes in the type and texture id from the TexturedModel. 
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, model.getTexture().getID());
+		//load up where the texture is in its atlas page 
+		shader.loadAtlasTransform(texture);
+		//Bind the texture to texture bank 0, dropped by the cache if the last model was already using it (eg. the 
+		//same atlas page) 
+		GLStateCache.bindTexture(0, texture.getID());
 	}
-	//Method to unbind Textured Model once all the entities using that model are rendered
+	//Method to unbind Textured Model once all the entities using that model are rendered. The VAO is left bound 
+	//in case the next model is in the same geometry arena page. 
 	public void unbindTexturedModel() {
 		//Enable culling again to ensure is enabled for the next model to be rendered.
 		MainRenderer.enableCulling();
-		//Disable attribute lists once finished using them.
-		GL20.glDisableVertexAttribArray(0);
-		GL20.glDisableVertexAttribArray(1);
-		GL20.glDisableVertexAttribArray(2);
-		//Unbind the VAO once finished using it by using 0 instead of an ID. 
-		GL30.glBindVertexArray(0);
 	}
 	//Method to prep the instances of the entities 
 	private void prepareInstance(Entity entity) {
-		//Create a transformation matrix for rendering the model
-		Matrix4f transformationMatrix = Maths.createTransformationMatrix(entity.getPosition(), 
-				entity.getRotX(), entity.getRotY(), entity.getRotZ(), entity.getScale());
-		//Load transformationMatrix into the static shader
-		shader.loadTransformationMatrix(transformationMatrix);
+		//Load the entity's transformation matrix into the static shader, which the entity only works out again 
+		//when it has moved 
+		shader.loadTransformationMatrix(entity.getTransformationMatrix());
 		//Load the offsets - needs to be done per instance
 		shader.loadOffset(entity.getTextureXOffset(), entity.getTextureYOffset());
 	}
+	//Turn instanced drawing on or off, eg. to compare with drawing one entity at a time. Stays off if OpenGL 3.3 
+	//isn't available. 
+	public void setInstancing(boolean instancing) {
+		this.instancing = instancing && instancingSupported;
+	}
+	public boolean isInstancing() {
+		return instancing;
+	}
+	//Get how many draw calls the entities took last frame 
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+	//Get the instance buffer, eg. to check how much has been sent 
+	public InstanceBuffer getInstanceBuffer() {
+		return instanceBuffer;
+	}
+	//Method to clean up when game is closed 
+	public void cleanUp() {
+		instanceBuffer.cleanUp();
+	}
 	
 //	//Old method to render an entity. Not very efficient!
 //	public void render(Entity entity, StaticShader shader) {
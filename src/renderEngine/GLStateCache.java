@@ -0,0 +1,231 @@
+package renderEngine;
+
+import java.util.Arrays;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+
+//Remembers the OpenGL state the engine has set (the program in use, the bound VAO and the vertex attributes turned
+//on in each VAO, the texture bound to each unit, which capabilities like face culling & depth testing are on, and
+//which faces are culled) so calls that wouldn't change anything can be dropped before they reach the driver. The
+//renderers can then just ask for the state they need for each model without checking what was there before.
+//
+//Only works if every change to that state goes through here, so anything deleting a VAO or texture has to tell
+//the cache, as OpenGL can hand the same ID out again. Uniform values are cached by each ShaderProgram, as uniform
+//locations belong to a program, but their calls are counted here too. Counts how many calls were made and dropped
+//each frame. Everything is static like the DisplayManager, as there is only one OpenGL context and it is only used
+//from its own thread.
+public class GLStateCache {
+
+	//State that hasn't been set through the cache yet, so the next call always goes through.
+	private static final int UNKNOWN = -1;
+	//Texture units the cache keeps track of, the terrain uses 5.
+	private static final int TEXTURE_UNITS = 16;
+	//Capabilities the cache keeps track of.
+	private static final int[] CAPABILITIES = {GL11.GL_CULL_FACE, GL11.GL_DEPTH_TEST, GL11.GL_BLEND,
+			GL31.GL_PRIMITIVE_RESTART};
+
+	private static int program = UNKNOWN;
+	private static int vaoID = UNKNOWN;
+	//Bit mask of the vertex attributes turned on in each VAO, by VAO ID.
+	private static int[] enabledAttributes = new int[256];
+	private static int activeTextureUnit = UNKNOWN;
+	private static int[] boundTextures = new int[TEXTURE_UNITS];
+	//1 on, 0 off or UNKNOWN for each of the capabilities above.
+	private static int[] capabilityStates = new int[CAPABILITIES.length];
+	private static int cullFaceMode = UNKNOWN;
+	//Calls made and dropped in the frame so far, and in the last whole frame.
+	private static int callsMade = 0;
+	private static int callsDropped = 0;
+	private static int lastCallsMade = 0;
+	private static int lastCallsDropped = 0;
+
+	static {
+		reset();
+	}
+
+	//Forget everything, so every call goes through until the state is known again. Eg. after code outside the
+	//engine has changed the state.
+	public static void reset() {
+		program = UNKNOWN;
+		vaoID = UNKNOWN;
+		Arrays.fill(enabledAttributes, 0);
+		activeTextureUnit = UNKNOWN;
+		Arrays.fill(boundTextures, UNKNOWN);
+		Arrays.fill(capabilityStates, UNKNOWN);
+		cullFaceMode = UNKNOWN;
+	}
+
+	//Use a shader program, or 0 for none.
+	public static void useProgram(int programID) {
+		if (programID == program) {
+			callsDropped++;
+			return;
+		}
+		GL20.glUseProgram(programID);
+		program = programID;
+		callsMade++;
+	}
+
+	//Bind a VAO, or 0 for none.
+	public static void bindVertexArray(int id) {
+		if (id == vaoID) {
+			callsDropped++;
+			return;
+		}
+		GL30.glBindVertexArray(id);
+		vaoID = id;
+		callsMade++;
+	}
+
+	//Turn a vertex attribute of the bound VAO on. Stays on in that VAO until it is turned off or the VAO deleted.
+	public static void enableVertexAttribArray(int attribute) {
+		int mask = getEnabledAttributes();
+		if ((mask & (1 << attribute)) != 0) {
+			callsDropped++;
+			return;
+		}
+		GL20.glEnableVertexAttribArray(attribute);
+		setEnabledAttributes(mask | (1 << attribute));
+		callsMade++;
+	}
+
+	//Turn a vertex attribute of the bound VAO off.
+	public static void disableVertexAttribArray(int attribute) {
+		int mask = getEnabledAttributes();
+		//Attributes start off in a new VAO, so the mask is right for any VAO bound through the cache
+		if (vaoID != UNKNOWN && (mask & (1 << attribute)) == 0) {
+			callsDropped++;
+			return;
+		}
+		GL20.glDisableVertexAttribArray(attribute);
+		setEnabledAttributes(mask & ~(1 << attribute));
+		callsMade++;
+	}
+
+	//Bind a 2D texture to a texture unit (0 for GL_TEXTURE0 and so on), making that unit the active one if the
+	//texture isn't already bound to it.
+	public static void bindTexture(int unit, int textureID) {
+		if (unit < TEXTURE_UNITS && boundTextures[unit] == textureID) {
+			callsDropped++;
+			return;
+		}
+		if (unit != activeTextureUnit) {
+			GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+			activeTextureUnit = unit;
+			callsMade++;
+		}
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+		if (unit < TEXTURE_UNITS) {
+			boundTextures[unit] = textureID;
+		}
+		callsMade++;
+	}
+
+	//Turn a capability (eg. GL_CULL_FACE or GL_DEPTH_TEST) on or off.
+	public static void setEnabled(int capability, boolean enabled) {
+		int index = indexOf(capability);
+		int state = enabled ? 1 : 0;
+		if (index >= 0 && capabilityStates[index] == state) {
+			callsDropped++;
+			return;
+		}
+		if (enabled) {
+			GL11.glEnable(capability);
+		} else {
+			GL11.glDisable(capability);
+		}
+		if (index >= 0) {
+			capabilityStates[index] = state;
+		}
+		callsMade++;
+	}
+
+	//Set which faces are culled when face culling is on, eg. GL_BACK.
+	public static void cullFace(int mode) {
+		if (mode == cullFaceMode) {
+			callsDropped++;
+			return;
+		}
+		GL11.glCullFace(mode);
+		cullFaceMode = mode;
+		callsMade++;
+	}
+
+	//Forget a VAO that has been deleted. Deleting the bound VAO binds 0 instead.
+	public static void forgetVertexArray(int id) {
+		if (id == vaoID) {
+			vaoID = 0;
+		}
+		if (id >= 0 && id < enabledAttributes.length) {
+			enabledAttributes[id] = 0;
+		}
+	}
+
+	//Forget a texture that has been deleted. Units it was bound to have 0 bound instead.
+	public static void forgetTexture(int textureID) {
+		for (int unit = 0; unit < TEXTURE_UNITS; unit++) {
+			if (boundTextures[unit] == textureID) {
+				boundTextures[unit] = 0;
+			}
+		}
+	}
+
+	//Count a call made or dropped by a shader program's uniform cache.
+	public static void countCall(boolean dropped) {
+		if (dropped) {
+			callsDropped++;
+		} else {
+			callsMade++;
+		}
+	}
+
+	//Start counting a new frame, keeping the counts of the frame just finished.
+	public static void endFrame() {
+		lastCallsMade = callsMade;
+		lastCallsDropped = callsDropped;
+		callsMade = 0;
+		callsDropped = 0;
+	}
+
+	//Report of the counts of the last frame.
+	public static String getStats() {
+		return "GL state cache: " + lastCallsMade + " calls made, " + lastCallsDropped + " dropped last frame";
+	}
+
+	private static int getEnabledAttributes() {
+		return vaoID >= 0 && vaoID < enabledAttributes.length ? enabledAttributes[vaoID] : 0;
+	}
+
+	//Remember the attributes turned on in the bound VAO, making room for its ID if needed.
+	private static void setEnabledAttributes(int mask) {
+		if (vaoID < 0) {
+			return;
+		}
+		if (vaoID >= enabledAttributes.length) {
+			enabledAttributes = Arrays.copyOf(enabledAttributes, Math.max(vaoID + 1, enabledAttributes.length * 2));
+		}
+		enabledAttributes[vaoID] = mask;
+	}
+
+	private static int indexOf(int capability) {
+		for (int i = 0; i < CAPABILITIES.length; i++) {
+			if (CAPABILITIES[i] == capability) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	//Getters for the counts of the last whole frame
+	public static int getCallsMade() {
+		return lastCallsMade;
+	}
+
+	public static int getCallsDropped() {
+		return lastCallsDropped;
+	}
+}
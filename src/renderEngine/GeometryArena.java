@@ -0,0 +1,265 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+
+import models.PackedMesh;
+import models.RawModel;
+import models.VertexFormat;
+import toolbox.FreeListAllocator;
+
+//Shared storage for static meshes that all use the same vertex format. Rather than every mesh getting its own VAO
+//and VBOs, meshes are copied into a few big pages, each with one vertex buffer, one index buffer and one VAO. Each
+//mesh's RawModel records which page it is on, its base vertex and where its indices start, and is drawn with
+//glDrawElementsBaseVertex, so drawing lots of different meshes on the same page needs no VAO switches at all.
+//
+//The space in each page is looked after by two FreeListAllocators, one counting vertices and one counting bytes of
+//indices (so meshes with short and int indices can share a page). Meshes can be removed again to free up their
+//space. A new page is only started when a mesh doesn't fit in any of the pages already made.
+//
+//Meshes that all have exactly the same indices (eg. every terrain patch of the same size) can share one copy of them
+//in each page, found by a key naming the index pattern. Only the vertices of each mesh are copied in, its model
+//points at the shared indices with its own base vertex, and the indices are freed once the last mesh using them is.
+//
+//The vertices of a mesh can be changed after it is added (eg. terrain being deformed) by sending just the changed
+//range of them again with glBufferSubData.
+public class GeometryArena {
+
+	//Default size of a page, bigger meshes get a page made to fit them.
+	private static final int PAGE_VERTICES = 1 << 18;
+	private static final int PAGE_INDEX_BYTES = 1 << 23;
+	//Indices are lined up to 4 bytes so both short and int indices can be read from where they start.
+	private static final int INDEX_ALIGNMENT = 4;
+
+	private VertexFormat format;
+	private List<Page> pages = new ArrayList<Page>();
+	//How many vertex ranges have been changed after being added, and how many bytes that sent.
+	private long vertexUpdates = 0;
+	private long vertexUpdateBytes = 0;
+
+	//Constructor that takes in the format of every mesh in the arena. Pages are made when they are first needed.
+	public GeometryArena(VertexFormat format) {
+		this.format = format;
+	}
+
+	//Copy a mesh into the arena and return the model for drawing it. Has to be called on the thread that owns the
+	//OpenGL context.
+	public RawModel add(PackedMesh mesh) {
+		return add(mesh, null);
+	}
+
+	//Same as above but the mesh's indices are shared with every other mesh added with the same key, which must only
+	//be used for meshes with exactly the same indices. A null key doesn't share them.
+	public RawModel add(PackedMesh mesh, String sharedIndicesKey) {
+		if (mesh.getFormat() != format) {
+			throw new IllegalArgumentException("Mesh is " + mesh.getFormat() + " but the arena holds " + format);
+		}
+		int vertexCount = mesh.getVertexCount();
+		int indexBytes = mesh.getIndices().remaining();
+		//Try each page in turn, starting a new one if none of them have room
+		for (Page page : pages) {
+			RawModel model = page.add(mesh, vertexCount, indexBytes, sharedIndicesKey);
+			if (model != null) {
+				return model;
+			}
+		}
+		Page page = new Page(Math.max(PAGE_VERTICES, vertexCount), Math.max(PAGE_INDEX_BYTES, indexBytes));
+		pages.add(page);
+		return page.add(mesh, vertexCount, indexBytes, sharedIndicesKey);
+	}
+
+	//Free up the space of a model that was added to the arena. The model can't be drawn after this.
+	public void remove(RawModel model) {
+		for (Page page : pages) {
+			if (page.vaoID == model.getVaoID()) {
+				page.vertices.free(model.getBaseVertex());
+				page.releaseIndices((int) model.getIndexOffset());
+				return;
+			}
+		}
+		throw new IllegalArgumentException("Model is not in this arena");
+	}
+
+	//Change some of the vertices of a model that was added to the arena, from firstVertex on (counted from the
+	//model's base vertex). The buffer holds whole vertices in the arena's format. Has to be called on the thread
+	//that owns the OpenGL context.
+	public void update(RawModel model, int firstVertex, ByteBuffer vertices) {
+		if (vertices.remaining() % format.getStride() != 0) {
+			throw new IllegalArgumentException(vertices.remaining() + " bytes isn't a whole number of " + format
+					+ " vertices");
+		}
+		for (Page page : pages) {
+			if (page.vaoID == model.getVaoID()) {
+				GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, page.vertexBufferID);
+				GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER,
+						((long) model.getBaseVertex() + firstVertex) * format.getStride(), vertices);
+				GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+				vertexUpdates++;
+				vertexUpdateBytes += vertices.remaining();
+				return;
+			}
+		}
+		throw new IllegalArgumentException("Model is not in this arena");
+	}
+
+	//Delete all the pages when the game is closed.
+	public void cleanUp() {
+		for (Page page : pages) {
+			GL30.glDeleteVertexArrays(page.vaoID);
+			GLStateCache.forgetVertexArray(page.vaoID);
+			GL15.glDeleteBuffers(page.vertexBufferID);
+			GL15.glDeleteBuffers(page.indexBufferID);
+		}
+		pages.clear();
+	}
+
+	//Bytes of indices that would be in the arena if the shared ones weren't shared.
+	public long getSharedIndexBytesSaved() {
+		long saved = 0;
+		for (Page page : pages) {
+			for (SharedIndices indices : page.sharedByOffset.values()) {
+				saved += (long) indices.bytes * (indices.references - 1);
+			}
+		}
+		return saved;
+	}
+
+	//Report of how full and how fragmented each page is.
+	public String getStats() {
+		StringBuilder stats = new StringBuilder(format + " geometry arena: " + pages.size() + " pages, "
+				+ getSharedIndexBytesSaved() / 1024 + " KB of indices saved by sharing, " + vertexUpdates
+				+ " vertex updates (" + vertexUpdateBytes / 1024 + " KB)");
+		for (int i = 0; i < pages.size(); i++) {
+			stats.append("\n  page " + i + " vertices " + pages.get(i).vertices.getStats());
+			stats.append("\n  page " + i + " index bytes " + pages.get(i).indices.getStats());
+		}
+		return stats.toString();
+	}
+
+	public long getVertexUpdates() {
+		return vertexUpdates;
+	}
+
+	public long getVertexUpdateBytes() {
+		return vertexUpdateBytes;
+	}
+
+	public int getPageCount() {
+		return pages.size();
+	}
+
+	public FreeListAllocator getVertexAllocator(int page) {
+		return pages.get(page).vertices;
+	}
+
+	public FreeListAllocator getIndexAllocator(int page) {
+		return pages.get(page).indices;
+	}
+
+	//A VAO with a vertex and an index buffer, and the allocators for the space in them.
+	private class Page {
+
+		private final int vaoID;
+		private final int vertexBufferID;
+		private final int indexBufferID;
+		private final FreeListAllocator vertices;
+		private final FreeListAllocator indices;
+		//Shared indices in this page by key, and by where they start (for freeing them).
+		private final Map<String, SharedIndices> sharedByKey = new HashMap<String, SharedIndices>();
+		private final Map<Integer, SharedIndices> sharedByOffset = new HashMap<Integer, SharedIndices>();
+
+		//Create the empty buffers and set up the VAO to read the vertex format from the vertex buffer.
+		private Page(int vertexCapacity, int indexCapacity) {
+			vertices = new FreeListAllocator(vertexCapacity);
+			indices = new FreeListAllocator(indexCapacity);
+			vaoID = GL30.glGenVertexArrays();
+			GLStateCache.bindVertexArray(vaoID);
+			vertexBufferID = GL15.glGenBuffers();
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vertexBufferID);
+			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, (long) vertexCapacity * format.getStride(),
+					GL15.GL_STATIC_DRAW);
+			format.setupAttributes();
+			//The index buffer binding is stored in the VAO, so it stays bound to it
+			indexBufferID = GL15.glGenBuffers();
+			GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indexBufferID);
+			GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indexCapacity, GL15.GL_STATIC_DRAW);
+			GLStateCache.bindVertexArray(0);
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		}
+
+		//Copy a mesh into this page, or return null if there isn't room for it. If its indices are shared and
+		//already in this page only the vertices are copied.
+		private RawModel add(PackedMesh mesh, int vertexCount, int indexBytes, String sharedIndicesKey) {
+			int baseVertex = vertices.allocate(vertexCount);
+			if (baseVertex < 0) {
+				return null;
+			}
+			SharedIndices shared = sharedIndicesKey == null ? null : sharedByKey.get(sharedIndicesKey);
+			int indexOffset;
+			if (shared != null) {
+				if (shared.bytes != indexBytes) {
+					vertices.free(baseVertex);
+					throw new IllegalArgumentException("Mesh has " + indexBytes + " bytes of indices but "
+							+ sharedIndicesKey + " has " + shared.bytes);
+				}
+				indexOffset = shared.offset;
+				shared.references++;
+			} else {
+				indexOffset = indices.allocate(indexBytes, INDEX_ALIGNMENT);
+				if (indexOffset < 0) {
+					vertices.free(baseVertex);
+					return null;
+				}
+				//Bind the VAO to get at its index buffer, rather than binding the index buffer without a VAO
+				GLStateCache.bindVertexArray(vaoID);
+				GL15.glBufferSubData(GL15.GL_ELEMENT_ARRAY_BUFFER, indexOffset, mesh.getIndices());
+				GLStateCache.bindVertexArray(0);
+				if (sharedIndicesKey != null) {
+					shared = new SharedIndices(sharedIndicesKey, indexOffset, indexBytes);
+					sharedByKey.put(sharedIndicesKey, shared);
+					sharedByOffset.put(indexOffset, shared);
+				}
+			}
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vertexBufferID);
+			GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, (long) baseVertex * format.getStride(), mesh.getVertices());
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+			return new RawModel(vaoID, mesh.getIndexCount(), mesh.getIndexType(), baseVertex, indexOffset,
+					mesh.getPrimitiveMode());
+		}
+
+		//Free the indices a model was using, unless they are shared and still used by another model.
+		private void releaseIndices(int indexOffset) {
+			SharedIndices shared = sharedByOffset.get(indexOffset);
+			if (shared != null) {
+				shared.references--;
+				if (shared.references > 0) {
+					return;
+				}
+				sharedByKey.remove(shared.key);
+				sharedByOffset.remove(indexOffset);
+			}
+			indices.free(indexOffset);
+		}
+	}
+
+	//One copy of some indices in a page and how many models are using it.
+	private static class SharedIndices {
+
+		private final String key;
+		private final int offset;
+		private final int bytes;
+		private int references = 1;
+
+		private SharedIndices(String key, int offset, int bytes) {
+			this.key = key;
+			this.offset = offset;
+			this.bytes = bytes;
+		}
+	}
+}
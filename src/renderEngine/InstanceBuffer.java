@@ -0,0 +1,118 @@
+package renderEngine;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.util.vector.Matrix4f;
+
+//Buffer of per instance data for drawing many entities of the same model with one instanced draw call. Each
+//instance is its transformation matrix (a column at a time, the same as a matrix uniform) followed by its texture
+//atlas offset. The instances of every batch in a frame are written into one FloatBuffer and sent in a single upload,
+//then each batch points the instance attributes of its VAO at its own range of them.
+//
+//The buffer is orphaned every frame (glBufferData with no data before the upload), so the driver hands over fresh
+//memory rather than waiting for the GPU to finish drawing last frame's instances.
+public class InstanceBuffer {
+
+	//Floats per instance, 16 for the matrix and 2 for the offset.
+	public static final int INSTANCE_FLOATS = 18;
+	private static final int STRIDE = INSTANCE_FLOATS * 4;
+	//Bytes from the start of an instance to its offset.
+	private static final int OFFSET_OFFSET = 16 * 4;
+
+	private final int vboID;
+	//The matrix takes four attributes from this one, one for each column, and the offset the one after them.
+	private final int firstAttribute;
+	private FloatBuffer data;
+	private int capacity;
+	//How many frames of instances have been sent, and how many bytes that was.
+	private long uploads = 0;
+	private long uploadBytes = 0;
+
+	//Constructor that takes the first attribute number the instances are read from and how many instances to make
+	//room for to begin with. Has to be called on the thread that owns the OpenGL context.
+	public InstanceBuffer(int firstAttribute, int initialCapacity) {
+		this.firstAttribute = firstAttribute;
+		this.capacity = Math.max(initialCapacity, 1);
+		data = BufferUtils.createFloatBuffer(capacity * INSTANCE_FLOATS);
+		vboID = GL15.glGenBuffers();
+	}
+
+	//Start writing the instances of a new frame, making room for at least this many of them.
+	public void begin(int instanceCount) {
+		if (instanceCount > capacity) {
+			capacity = Math.max(instanceCount, capacity * 2);
+			data = BufferUtils.createFloatBuffer(capacity * INSTANCE_FLOATS);
+		}
+		data.clear();
+	}
+
+	//Write the next instance.
+	public void add(Matrix4f transformationMatrix, float offsetX, float offsetY) {
+		transformationMatrix.store(data);
+		data.put(offsetX);
+		data.put(offsetY);
+	}
+
+	//Send the instances written since begin to the GPU, into a freshly orphaned buffer.
+	public void upload() {
+		data.flip();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, (long) capacity * STRIDE, GL15.GL_STREAM_DRAW);
+		GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, data);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		uploads++;
+		uploadBytes += (long) data.limit() * 4;
+	}
+
+	//Point the instance attributes of the VAO that is bound at the instances from firstInstance on, moving on one
+	//instance for every instance drawn rather than every vertex.
+	public void bindAttributes(int firstInstance) {
+		long start = (long) firstInstance * STRIDE;
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		for (int column = 0; column < 4; column++) {
+			GL20.glVertexAttribPointer(firstAttribute + column, 4, GL11.GL_FLOAT, false, STRIDE, start + column * 16);
+		}
+		GL20.glVertexAttribPointer(firstAttribute + 4, 2, GL11.GL_FLOAT, false, STRIDE, start + OFFSET_OFFSET);
+		for (int attribute = firstAttribute; attribute <= firstAttribute + 4; attribute++) {
+			GL33.glVertexAttribDivisor(attribute, 1);
+			GLStateCache.enableVertexAttribArray(attribute);
+		}
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+
+	//Turn the instance attributes of the VAO that is bound off again, eg. for drawing one entity at a time.
+	public void disableAttributes() {
+		for (int attribute = firstAttribute; attribute <= firstAttribute + 4; attribute++) {
+			GLStateCache.disableVertexAttribArray(attribute);
+		}
+	}
+
+	//Delete the buffer when the game is closed.
+	public void cleanUp() {
+		GL15.glDeleteBuffers(vboID);
+	}
+
+	//Report of how much has been sent.
+	public String getStats() {
+		return "Instance buffer: room for " + capacity + " instances, " + uploads + " uploads ("
+				+ uploadBytes / 1024 + " KB)";
+	}
+
+	//Getters for the properties
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getUploads() {
+		return uploads;
+	}
+
+	public long getUploadBytes() {
+		return uploadBytes;
+	}
+}
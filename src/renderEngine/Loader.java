@@ -1,12 +1,16 @@
 package renderEngine;
 
+import java.io.BufferedInputStream;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
@@ -14,20 +18,32 @@ import org.lwjgl.opengl.GL14;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
-import org.newdawn.slick.opengl.Texture;
-import org.newdawn.slick.opengl.TextureLoader;
+import org.newdawn.slick.opengl.PNGImageData;
 
+import models.MeshBuffers;
+import models.ModelBounds;
+import models.PackedMesh;
 import models.RawModel;
+import models.VertexFormat;
+import textures.TextureData;
+import textures.TextureHandle;
 
 //Loads 3D models into memory by storing positional data about the model in a VAO, indices data about the 
 //model in VBOs and textures.   
 public class Loader {
 
+	//Bytes of textures the cache keeps in memory once they are no longer held (256 MB). 
+	private static final long DEFAULT_TEXTURE_BUDGET = 256L * 1024 * 1024;
+
 	//Will want some memory management so that all the VAOs, VBOs and textures that have been created are 
 	//deleted out of memory. 
 	private List<Integer> vaos = new ArrayList<Integer>();
 	private List<Integer> vbos = new ArrayList<Integer>();
 	private List<Integer> textures = new ArrayList<Integer>();
+	//Textures loaded by file name are kept in a cache instead, so they are only loaded once. 
+	private TextureCache textureCache = new TextureCache(this, DEFAULT_TEXTURE_BUDGET);
+	//Static meshes can be put into a shared geometry arena instead of their own VAO, one arena per vertex format. 
+	private Map<VertexFormat, GeometryArena> arenas = new EnumMap<VertexFormat, GeometryArena>(VertexFormat.class);
 	
 	//Method takes in positions and indices of the model's vertices, texture coords and normals, and 
 	//puts this data into a VAO and returns information about the VAO as a RawModel object.
@@ -48,8 +64,70 @@ public class Loader {
 		storeDataInAttributeList(2, 3, normals);
 		//Unbind the VAO once its finished being used. 
 		unbindVAO();
-		//Returns the raw model which has a vaoID and indices of the vertices.
-		return new RawModel(vaoID, indices.length);
+		//Returns the raw model which has a vaoID and indices of the vertices, and the bounds of its positions.
+		RawModel model = new RawModel(vaoID, indices.length);
+		model.setBounds(ModelBounds.fromPositions(positions));
+		return model;
+	}
+	
+	//Same as above but takes the data already in buffers, eg. straight from a memory mapped mesh cache file, so 
+	//there is no need to build float/int arrays first. 
+	public RawModel loadtoVAO(MeshBuffers mesh) {
+		//Get the bounds and count before the buffers are handed over to OpenGL. 
+		ModelBounds bounds = ModelBounds.fromPositions(mesh.getPositions());
+		int vaoID = createVAO();
+		vaos.add(vaoID);
+		int indexCount = mesh.getIndices().remaining();
+		bindIndicesBuffer(mesh.getIndices());
+		storeDataInAttributeList(0, 3, mesh.getPositions());
+		storeDataInAttributeList(1, 2, mesh.getTextureCoords());
+		storeDataInAttributeList(2, 3, mesh.getNormals());
+		unbindVAO();
+		RawModel model = new RawModel(vaoID, indexCount);
+		model.setBounds(bounds);
+		return model;
+	}
+	
+	//Loads a mesh that has been packed by VertexPacking. All the attributes share one interleaved VBO, the texture 
+	//coords are half floats, the normals are packed into one int each and the indices may be shorts, so the model 
+	//takes up much less memory than one loaded with the float VBOs above. The shaders see the same 3 attributes. 
+	public RawModel loadtoVAO(PackedMesh mesh) {
+		ModelBounds bounds = ModelBounds.fromVertices(mesh.getVertices(), mesh.getFormat().getStride());
+		int vaoID = createVAO();
+		vaos.add(vaoID);
+		bindIndicesBuffer(mesh.getIndices());
+		int vboID = GL15.glGenBuffers();
+		vbos.add(vboID);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, mesh.getVertices(), GL15.GL_STATIC_DRAW);
+		//Each attribute reads from the same VBO, the stride steps over a whole vertex and the offset finds the 
+		//attribute within it. 
+		mesh.getFormat().setupAttributes();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		unbindVAO();
+		RawModel model = new RawModel(vaoID, mesh.getIndexCount(), mesh.getIndexType(), 0, 0, 
+				mesh.getPrimitiveMode());
+		model.setBounds(bounds);
+		return model;
+	}
+	
+	//Copies a packed mesh into the shared geometry arena for its vertex format instead of giving it its own VAO, 
+	//so it can be drawn alongside the other meshes in the arena without switching VAOs. 
+	public RawModel loadToArena(PackedMesh mesh) {
+		return loadToArena(mesh, null);
+	}
+	
+	//Same as above but the indices are shared with every other mesh loaded with the same key (see GeometryArena). 
+	public RawModel loadToArena(PackedMesh mesh, String sharedIndicesKey) {
+		ModelBounds bounds = ModelBounds.fromVertices(mesh.getVertices(), mesh.getFormat().getStride());
+		RawModel model = getArena(mesh.getFormat()).add(mesh, sharedIndicesKey);
+		model.setBounds(bounds);
+		return model;
+	}
+	
+	//Gets the geometry arena for a vertex format, making it the first time it is asked for. 
+	public GeometryArena getArena(VertexFormat format) {
+		return arenas.computeIfAbsent(format, GeometryArena::new);
 	}
 	
 	//Method to delete all the created vaos and vbos from memory. 
@@ -57,6 +135,7 @@ public class Loader {
 		//Will loop through vao list and for each vao will delete it.  
 		for (int vao:vaos) {
 			GL30.glDeleteVertexArrays(vao);
+			GLStateCache.forgetVertexArray(vao);
 		}
 		//Will loop through vbo list and for each vbo will delete it. 
 		for (int vbo:vbos) {
@@ -65,31 +144,74 @@ public class Loader {
 		//Will loop through textures list and for each will delete it. 
 		for (int texture:textures) {
 			GL11.glDeleteTextures(texture);
+			GLStateCache.forgetTexture(texture);
+		}
+		//Delete all the cached textures as well. 
+		textureCache.cleanUp();
+		//And the geometry arenas. 
+		for (GeometryArena arena:arenas.values()) {
+			arena.cleanUp();
 		}
 	}
 	//Method to load textures for models. Takes in fileName and returns the id of the texture so it can be used. 
+	//Goes through the texture cache, so asking for the same file again gives the same texture. The texture is held 
+	//for the rest of the game. 
 	public int loadTexture(String fileName) {
-		//Using Slick Utils texture loader, pass in format of file and input stream, always .png files in the 
-		//res folder. Surrounded in a try/catch. 
-		Texture texture = null;
-		try {
-			texture = TextureLoader.getTexture("PNG",new FileInputStream("res/textures/"+fileName+".png"));
-			//use OpenGL's Mipmapping, generate low res first
-			GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
-			//specify when to use ie. use smaller texture image when entity has smaller dimensions than texture. 
-			GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
-			//use level of detail bias to make mipmapping not so obvious. negative number in param gives textures 
-			//rendered at slightly higher resolution.
-			GL11.glTexParameterf(GL11.GL_TEXTURE_2D, GL14.GL_TEXTURE_LOD_BIAS, -0.5f);
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+		return acquireTexture(fileName).getID();
+	}
+	
+	//Get a handle to a texture through the cache. Release the handle once the texture isn't needed anymore so it 
+	//can be deleted if the cache runs short of room. 
+	public TextureHandle acquireTexture(String fileName) {
+		return textureCache.acquire(fileName);
+	}
+	
+	public TextureCache getTextureCache() {
+		return textureCache;
+	}
+	
+	//Decodes a png texture into its pixels without touching OpenGL, so it can be done on any thread. Always .png 
+	//files in the res folder. Uses Slick Utils png decoder, surrounded in a try/catch. 
+	public static TextureData decodeTexture(String fileName) {
+		PNGImageData image = new PNGImageData();
+		try (InputStream in = new BufferedInputStream(new FileInputStream("res/textures/"+fileName+".png"))) {
+			//Not flipped and no forced alpha channel, same as Slick's own texture loader
+			ByteBuffer pixels = image.loadImage(in, false, false, null);
+			return new TextureData(image.getTexWidth(), image.getTexHeight(), image.getDepth() == 32, pixels);
 		} catch (IOException e) {
+			System.err.println("Could not load texture " + fileName);
 			e.printStackTrace();
+			System.exit(-1);
+			return null;
 		}
-		//Get TextureID as int 
-		int textureID = texture.getTextureID();
+	}
+	
+	//Loads decoded texture pixels into OpenGL and returns the id of the texture. Has to be called on the thread 
+	//that owns the OpenGL context. The texture is deleted when the loader is cleaned up. 
+	public int loadTexture(TextureData data) {
+		int textureID = createTexture(data);
 		//Store texture id in the array list so can be deleted when finished using.
 		textures.add(textureID);
+		return textureID;
+	}
+	
+	//Creates the texture in OpenGL without keeping track of it, for the texture cache which deletes its own. 
+	int createTexture(TextureData data) {
+		//Create the texture and bind it so the pixels can be stored into it 
+		int textureID = GL11.glGenTextures();
+		GLStateCache.bindTexture(0, textureID);
+		int format = data.hasAlpha() ? GL11.GL_RGBA : GL11.GL_RGB;
+		//Rows of 3 byte pixels aren't always a multiple of 4 bytes long 
+		GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, format, data.getWidth(), data.getHeight(), 0, format, 
+				GL11.GL_UNSIGNED_BYTE, data.getBuffer());
+		//use OpenGL's Mipmapping, generate low res first
+		GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
+		//specify when to use ie. use smaller texture image when entity has smaller dimensions than texture. 
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
+		//use level of detail bias to make mipmapping not so obvious. negative number in param gives textures 
+		//rendered at slightly higher resolution.
+		GL11.glTexParameterf(GL11.GL_TEXTURE_2D, GL14.GL_TEXTURE_LOD_BIAS, -0.5f);
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL11.GL_REPEAT);
@@ -102,7 +224,7 @@ public class Loader {
 		//Create a new empty VAO.
 		int vaoID = GL30.glGenVertexArrays();
 		//Have to activate the VAO to do anything to it, so bind it. 
-		GL30.glBindVertexArray(vaoID);
+		GLStateCache.bindVertexArray(vaoID);
 		//Return the vaoID. 
 		return vaoID;
 	}
@@ -110,14 +232,18 @@ public class Loader {
 	//This stores the data into one of the attribute lists of the VAO. Takes in the number of the attribute, vector size 
 	//and the data itself.  
 	private void storeDataInAttributeList(int attributeNumber, int coordinateSize, float[] data) {
+		//Calling the FloatBuffer method to store the data. 
+		storeDataInAttributeList(attributeNumber, coordinateSize, storeDataInFloatBuffer(data));
+	}
+	
+	//Stores data that is already in a float buffer into one of the attribute lists of the VAO. 
+	private void storeDataInAttributeList(int attributeNumber, int coordinateSize, FloatBuffer buffer) {
 		//Need to store the data into one of the attribute lists as a vbo, so creating a VBO.
 		int vboID = GL15.glGenBuffers();
 		//Store the vbo into the list so it can be deleted from memory later. 
 		vbos.add(vboID);
 		//Need to bind the VBO to do anything to it like the VAO. Specifies the type and the id. 
 		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
-		//Calling the FloatBuffer method to store the data. 
-		FloatBuffer buffer = storeDataInFloatBuffer(data);
 		//Storing the data into the vbo, takes in type, the data and what it is used for, this case it's 
 		//static data as we are not going to then edit it. 
 		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
@@ -132,24 +258,36 @@ public class Loader {
 	//Method to unbind the VAO when its finished being used. 
 	private void unbindVAO() {
 		//Using a zero to unbind the VAO instead of ID. 
-		GL30.glBindVertexArray(0);
+		GLStateCache.bindVertexArray(0);
 	}
 	
 	//Method to load up indices buffer and bind it to a VAO.
 	private void bindIndicesBuffer(int[] indices) {
+		//Calling the IntBuffer method to store the data.
+		bindIndicesBuffer(storeDataInIntBuffer(indices));
+	}
+	
+	//Load up indices that are already in an int buffer and bind it to a VAO. 
+	private void bindIndicesBuffer(IntBuffer buffer) {
 		//Create empty VBO
 		int vboID = GL15.glGenBuffers();
 		//Add to list of vbos so it can get deleted from memory later. 
 		vbos.add(vboID);
 		//Bind the buffer so it can be used. Type is an indices array buffer not a data buffer.
 		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboID);
-		//Calling the IntBuffer method to store the data.
-		IntBuffer buffer = storeDataInIntBuffer(indices);
 		//Store buffer into the VBO, takes in type, the data and what it is used for, this case it's
 		//static data as we are not going to then edit it. 
 		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
 	}
 	
+	//Load up indices that are already packed into a byte buffer (shorts or ints) and bind it to a VAO. 
+	private void bindIndicesBuffer(ByteBuffer buffer) {
+		int vboID = GL15.glGenBuffers();
+		vbos.add(vboID);
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboID);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+	}
+	
 	//Indices need to be stored as an int buffer, so this method converts int array into an int buffer.
 	private IntBuffer storeDataInIntBuffer(int [] data) {
 		//Creating an empty Int buffer that takes in the size of the data.
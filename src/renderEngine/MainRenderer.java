@@ -8,14 +8,20 @@ import java.util.Map;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
 
 import entities.Camera;
 import entities.Entity;
 import entities.Light;
+import models.LodTexturedModel;
 import models.TexturedModel;
+import shaders.FrameUniformBuffer;
 import shaders.StaticShader;
 import shaders.TerrainShader;
 import terrains.Terrain;
+import toolbox.EntityCuller;
+import toolbox.Frustum;
+import toolbox.Maths;
 
 //Final rendering class to handle all of the rendering in the game. Optimises the original 'Renderer' class 
 //as if multiple of the same model need to be rendered, the binding and unbinding to the VAO doesn't have to 
@@ -30,9 +36,21 @@ public class MainRenderer {
 	private static final float RED = 0.5098f;
 	private static final float GREEN = 1;
 	private static final float BLUE = 0.7059f;
+	//Define constants for the exponential fog, how thick it is and how quickly it thickens with distance. 
+	private static final float FOG_DENSITY = 0.0035f;
+	private static final float FOG_GRADIENT = 5;
 		
-	//Projection matrix created in main renderer for all the rendering 
+	//Projection matrix created in main renderer for all the rendering, and the view matrix worked out each frame 
 	private Matrix4f projectionMatrix;
+	private Matrix4f viewMatrix;
+	//Frames rendered so far, and the frame the view matrix & frustum were last worked out in 
+	private long frame = 0;
+	private long frustumFrame = -1;
+	//The projection & view matrices, camera position, light and fog shared by every shader, sent once a frame 
+	private FrameUniformBuffer frameUniforms;
+	//What the camera can see, updated every frame, and what skips the entities outside it 
+	private Frustum frustum = new Frustum();
+	private EntityCuller culler = new EntityCuller(frustum);
 	//Attributes for entity renderer
 	private StaticShader shader = new StaticShader();
 	private EntityRenderer renderer;
@@ -44,56 +62,85 @@ public class MainRenderer {
 	private Map<TexturedModel, List<Entity>> entities = new HashMap<TexturedModel, List<Entity>>();
 	//List of terrains to render each frame
 	private List<Terrain> terrains = new ArrayList<Terrain>();
+	//Models with levels of detail that have entities this frame, reused every frame 
+	private List<LodTexturedModel> lodModels = new ArrayList<LodTexturedModel>();
 	
 	//Constructor for the main renderer which will create the projection matrix for the renderers. 
 	//GL cull face used to not bother rendering back faces of models as are never seen by the camera.
 	public MainRenderer() {
 		enableCulling();
 		createProjectionMatrix();
-		renderer = new EntityRenderer(shader,projectionMatrix);
-		terrainRenderer = new TerrainRenderer(terrainShader, projectionMatrix);
+		frameUniforms = new FrameUniformBuffer();
+		frameUniforms.loadProjectionMatrix(projectionMatrix);
+		frameUniforms.loadFog(RED, GREEN, BLUE, FOG_DENSITY, FOG_GRADIENT);
+		renderer = new EntityRenderer(shader);
+		terrainRenderer = new TerrainRenderer(terrainShader);
 	}
 	//Method to enable backface culling for solid textures 
 	public static void enableCulling() {
-		GL11.glEnable(GL11.GL_CULL_FACE);
-		GL11.glCullFace(GL11.GL_BACK);
+		GLStateCache.setEnabled(GL11.GL_CULL_FACE, true);
+		GLStateCache.cullFace(GL11.GL_BACK);
 	}
 	//Method to disable backface culling for transparent textures 
 	public static void disableCulling() {
-		GL11.glDisable(GL11.GL_CULL_FACE);
+		GLStateCache.setEnabled(GL11.GL_CULL_FACE, false);
+	}
+	//Work out the view matrix and what the camera can see this frame. Called once a frame after the camera has 
+	//moved and before anything is processed, so entities the camera can't see are never put in a batch. The view 
+	//matrix is used for the rest of the frame, so it is only worked out once. 
+	public void updateFrustum(Camera camera) {
+		viewMatrix = Maths.createViewMatrix(camera);
+		frustum.update(projectionMatrix, viewMatrix);
+		frustumFrame = frame;
 	}
 	//Method that called once to render all the entities once per scene 
 	public void render(Light lightSource, Camera camera) {
 		prepare();
+		//Send the values every shader shares this frame once, rather than to each shader. The view matrix is 
+		//normally worked out by updateFrustum earlier in the frame, but is worked out again here if it wasn't so the 
+		//camera is never drawn from where it was last frame. 
+		if(frustumFrame != frame) {
+			updateFrustum(camera);
+		}
+		frameUniforms.loadViewMatrix(viewMatrix, camera.getPosition());
+		frameUniforms.loadLight(lightSource);
+		frameUniforms.upload();
 		//render the entities 
 		shader.start();
-		shader.loadSkyColour(RED, GREEN, BLUE);
-		shader.loadLight(lightSource);
-		shader.loadViewMatrix(camera);
+		//Move entities into the batch of the level of detail they need before rendering 
+		selectLevelsOfDetail(camera);
 		//renderer now called and given all entities in the hash map
 		renderer.render(entities);
 		shader.stop();
 		//render all the terrains 
 		terrainShader.start();
-		terrainShader.loadSkyColour(RED, GREEN, BLUE);
-		terrainShader.loadLight(lightSource);
-		terrainShader.loadViewMatrix(camera);
-		//terrain renderer called & given all the terrains in the list 
-		terrainRenderer.render(terrains);
+		//terrain renderer called & given all the terrains in the list, and the frustum to pick out the patches to draw 
+		terrainRenderer.render(terrains, frustum, camera.getPosition());
 		terrainShader.stop();
 		//Make sure the hashmap is cleared after the rendering
 		entities.clear();
 		//Make sure the list is cleared after rendering 
 		terrains.clear();
+		culler.endFrame();
+		GLStateCache.endFrame();
+		frame++;
 	}
 	//Method to add terrains to the list to be rendered
 	public void processTerrain(Terrain terrain) {
 		terrains.add(terrain);
 	}
-	//Method to sort entities every frame and put them in the hash map
+	//Method to sort entities every frame and put them in the hash map, unless the camera can't see them 
 	public void processEntity(Entity entity) {
-		//Get the model the entity is using
-		TexturedModel entityModel = entity.getModel();
+		//Culling against last frame's frustum would drop entities the camera can now see, so if updateFrustum hasn't 
+		//been called yet this frame the entity is drawn without culling it 
+		if(frustumFrame == frame && !culler.isVisible(entity)) {
+			return;
+		}
+		//Get the model the entity is using and add it to the batch for that model
+		addToBatch(entity.getModel(), entity);
+	}
+	//Method to add an entity to the batch for a model in the hash map 
+	private void addToBatch(TexturedModel entityModel, Entity entity) {
 		//Get the list that corresponds to that entity from the hash map
 		List<Entity> batch = entities.get(entityModel);
 		//if batch for that textured model already exists then just add entity to the batch
@@ -107,10 +154,34 @@ public class MainRenderer {
 			entities.put(entityModel, newBatch);
 		}
 	}
+	//Method to move the entities of models with levels of detail out of the model's batch and into the batch of 
+	//the level that suits them. The screen size is how much of the screen height the model's bounding sphere 
+	//covers, ie. its radius over the distance to the camera times tan(FOV/2). 
+	private void selectLevelsOfDetail(Camera camera) {
+		lodModels.clear();
+		for(TexturedModel model:entities.keySet()) {
+			if(model instanceof LodTexturedModel) {
+				lodModels.add((LodTexturedModel) model);
+			}
+		}
+		float tanHalfFov = (float) Math.tan(Math.toRadians(FOV / 2f));
+		Vector3f cameraPosition = camera.getPosition();
+		for(LodTexturedModel model:lodModels) {
+			for(Entity entity:entities.remove(model)) {
+				Vector3f position = entity.getPosition();
+				float dx = position.x - cameraPosition.x;
+				float dy = position.y - cameraPosition.y;
+				float dz = position.z - cameraPosition.z;
+				float distance = Math.max((float) Math.sqrt(dx * dx + dy * dy + dz * dz), NEAR_PLANE);
+				float screenSize = model.getRadius() * entity.getScale() / (distance * tanHalfFov);
+				addToBatch(model.getLevel(model.selectLevel(screenSize)), entity);
+			}
+		}
+	}
 	//Called once every frame to prepare OpenGL to render the game. 
 		public void prepare() {
 			//Tell OpenGL which triangles to render, the depth test will test which triangles are in front
-			GL11.glEnable(GL11.GL_DEPTH_TEST);
+			GLStateCache.setEnabled(GL11.GL_DEPTH_TEST, true);
 			//Clear the colour and depth buffer every single frame.
 			GL11.glClear(GL11.GL_COLOR_BUFFER_BIT|GL11.GL_DEPTH_BUFFER_BIT);
 			//(0, 0, 0, 0) is transparent which would be black. 
@@ -119,20 +190,24 @@ public class MainRenderer {
 	//Create a projection matrix to use. Code not that important to understand 
 	private void createProjectionMatrix() {
 		float aspectRatio = (float) Display.getWidth() / (float) Display.getHeight();
-		float y_scale = (float) ((1f / Math.tan(Math.toRadians(FOV / 2f))) * aspectRatio);
-		float x_scale = y_scale / aspectRatio;
-		float frustam_length = FAR_PLANE - NEAR_PLANE;
-			
-		projectionMatrix = new Matrix4f();
-		projectionMatrix.m00 = x_scale;
-		projectionMatrix.m11 = y_scale;
-		projectionMatrix.m22 = -((FAR_PLANE + NEAR_PLANE) / frustam_length);
-		projectionMatrix.m23 = -1;
-		projectionMatrix.m32 = -((2 * NEAR_PLANE * FAR_PLANE) / frustam_length);
-		projectionMatrix.m33 = 0;
+		projectionMatrix = Maths.createProjectionMatrix(FOV, aspectRatio, NEAR_PLANE, FAR_PLANE);
+	}
+	//Get the terrain renderer, eg. to check how many patches it drew 
+	public TerrainRenderer getTerrainRenderer() {
+		return terrainRenderer;
+	}
+	//Get the entity culler, eg. to check how many entities were culled last frame 
+	public EntityCuller getEntityCuller() {
+		return culler;
+	}
+	//Get the entity renderer, eg. to turn instanced drawing off for comparison 
+	public EntityRenderer getEntityRenderer() {
+		return renderer;
 	}
 	//Method to clean up when game is closed
 	public void cleanUp() {
+		frameUniforms.cleanUp();
+		renderer.cleanUp();
 		shader.cleanUp();
 		terrainShader.cleanUp();
 	}
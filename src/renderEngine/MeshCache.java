@@ -0,0 +1,309 @@
+package renderEngine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32;
+
+import org.lwjgl.opengl.GL11;
+
+import models.MeshBuffers;
+import models.MeshData;
+import models.PackedMesh;
+import models.VertexFormat;
+import toolbox.VertexPacking;
+
+//Compiled binary copies of the obj models, stored next to the .obj files in res/obj with a .mesh extension. The
+//file holds the positions, texture coords, normals and indices exactly as Loader.loadtoVAO needs them, so a
+//cached model can be memory mapped and handed straight to the VBOs without any parsing. Models loaded in the packed
+//vertex format (see VertexPacking) have a second file with a .packed.mesh extension, holding the interleaved
+//vertices and indices exactly as Loader.loadtoVAO(PackedMesh) needs them, so they don't have to be packed again
+//either.
+//
+//File layouts (all in the byte order of the machine that wrote them):
+//   .mesh:        header, int vertex count, int index count
+//                 float[vertexCount*3] positions, float[vertexCount*2] texture coords, float[vertexCount*3] normals,
+//                 int[indexCount] indices
+//   .packed.mesh: header, int vertex count, int index count, int index type
+//                 byte[vertexCount*VertexPacking.STRIDE] vertices, short[indexCount] or int[indexCount] indices
+//   header:       int magic, int version, int byte order, long source size, long source last modified time,
+//                 long source CRC
+//
+//A cache is used if the obj file still has the size and last modified time in its header, which only needs the
+//file's attributes. If the time has changed (eg. the file was checked out again) the CRC of the obj is worked out, and
+//if that still matches the cache is used anyway and its last modified time brought up to date.
+//
+//The CRC isn't checked when the size and time both match, as it would cost about as much as loading the cache. So an
+//edit that keeps the obj's size and sets its time back to what it was (eg. touch -r, or a copy that keeps the
+//time of a file the same size) is still given the old cache. Delete the .mesh files after changing objs that way.
+public class MeshCache {
+
+	//Identifies the files as a mesh cache ("MESH") or a packed mesh cache ("PMSH"). The version must be increased
+	//whenever a layout changes or the obj loader (or the vertex packing) starts producing different data, so that old
+	//cache files are rebuilt.
+	private static final int MAGIC = 0x4D455348;
+	private static final int PACKED_MAGIC = 0x504D5348;
+	private static final int VERSION = 5;
+	//Marks which byte order the floats were written in, the cache is rebuilt if it doesn't match this machine.
+	private static final int NATIVE_ORDER = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 2;
+	//Bytes from the start of a file to the source's last modified time, and to the end of each header.
+	private static final int MODIFIED_OFFSET = 4 + 4 + 4 + 8;
+	private static final int HEADER_SIZE = MODIFIED_OFFSET + 8 + 8 + 4 + 4;
+	private static final int PACKED_HEADER_SIZE = HEADER_SIZE + 4;
+
+	//Path of the cache file for an obj file name (same naming as the obj loader uses).
+	public static Path getCachePath(String fileName) {
+		return Paths.get("res/obj/" + fileName + ".mesh");
+	}
+
+	//Path of the packed cache file for an obj file name.
+	public static Path getPackedCachePath(String fileName) {
+		return Paths.get("res/obj/" + fileName + ".packed.mesh");
+	}
+
+	//Try to open the cache for a model. The buffers returned are views straight onto the mapped file, so they can be
+	//given to OpenGL without being copied into a float[] first. Returns null if there is no cache yet or if it is
+	//out of date (wrong version, byte order or source), in which case the obj has to be parsed again.
+	public static MeshBuffers load(String fileName, Source source) {
+		MappedByteBuffer buffer = open(getCachePath(fileName), MAGIC, HEADER_SIZE, source);
+		if (buffer == null) {
+			return null;
+		}
+		int vertexCount = buffer.getInt();
+		int indexCount = buffer.getInt();
+		long expectedSize = HEADER_SIZE + (vertexCount * 8L + indexCount) * 4L;
+		if (vertexCount < 0 || indexCount < 0 || buffer.capacity() != expectedSize) {
+			return null;
+		}
+		//Slice up the mapped file into a view for each array
+		int offset = HEADER_SIZE;
+		FloatBuffer positions = slice(buffer, offset, vertexCount * 3).asFloatBuffer();
+		offset += vertexCount * 3 * 4;
+		FloatBuffer textureCoords = slice(buffer, offset, vertexCount * 2).asFloatBuffer();
+		offset += vertexCount * 2 * 4;
+		FloatBuffer normals = slice(buffer, offset, vertexCount * 3).asFloatBuffer();
+		offset += vertexCount * 3 * 4;
+		IntBuffer indices = slice(buffer, offset, indexCount).asIntBuffer();
+		return new MeshBuffers(positions, textureCoords, normals, indices);
+	}
+
+	//Same as load but for the packed cache, the vertices and indices returned are views straight onto the mapped
+	//file.
+	public static PackedMesh loadPacked(String fileName, Source source) {
+		MappedByteBuffer buffer = open(getPackedCachePath(fileName), PACKED_MAGIC, PACKED_HEADER_SIZE, source);
+		if (buffer == null) {
+			return null;
+		}
+		int vertexCount = buffer.getInt();
+		int indexCount = buffer.getInt();
+		int indexType = buffer.getInt();
+		if (vertexCount < 0 || indexCount < 0 || indexType != VertexPacking.indexType(vertexCount)) {
+			return null;
+		}
+		int indexSize = indexType == GL11.GL_UNSIGNED_SHORT ? 2 : 4;
+		long vertexBytes = (long) vertexCount * VertexPacking.STRIDE;
+		if (buffer.capacity() != PACKED_HEADER_SIZE + vertexBytes + (long) indexCount * indexSize) {
+			return null;
+		}
+		ByteBuffer vertices = sliceBytes(buffer, PACKED_HEADER_SIZE, (int) vertexBytes);
+		ByteBuffer indices = sliceBytes(buffer, PACKED_HEADER_SIZE + (int) vertexBytes, indexCount * indexSize);
+		return new PackedMesh(VertexFormat.PACKED, vertices, vertexCount, indices, indexCount, indexType);
+	}
+
+	//Write the cache file for a model. Written to a temporary file first and then moved over the old one, so a
+	//crash part way through can never leave a half written cache behind.
+	public static void save(String fileName, MeshData data, Source source) {
+		float[] positions = data.getPositions();
+		float[] textureCoords = data.getTextureCoords();
+		float[] normals = data.getNormals();
+		int[] indices = data.getIndices();
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE
+				+ (positions.length + textureCoords.length + normals.length + indices.length) * 4);
+		buffer.order(ByteOrder.nativeOrder());
+		if (!putHeader(buffer, MAGIC, source, fileName)) {
+			return;
+		}
+		buffer.putInt(data.getVertexCount()).putInt(indices.length);
+		buffer.asFloatBuffer().put(positions).put(textureCoords).put(normals);
+		buffer.position(buffer.position() + (positions.length + textureCoords.length + normals.length) * 4);
+		buffer.asIntBuffer().put(indices);
+		buffer.rewind();
+		write(getCachePath(fileName), buffer, fileName);
+	}
+
+	//Write the packed cache file for a model, the same way as save.
+	public static void savePacked(String fileName, PackedMesh mesh, Source source) {
+		if (mesh.getFormat() != VertexFormat.PACKED || mesh.getPrimitiveMode() != GL11.GL_TRIANGLES) {
+			throw new IllegalArgumentException("Only packed lists of triangles can be cached");
+		}
+		ByteBuffer vertices = mesh.getVertices().duplicate();
+		ByteBuffer indices = mesh.getIndices().duplicate();
+		ByteBuffer buffer = ByteBuffer.allocate(PACKED_HEADER_SIZE + vertices.remaining() + indices.remaining());
+		buffer.order(ByteOrder.nativeOrder());
+		if (!putHeader(buffer, PACKED_MAGIC, source, fileName)) {
+			return;
+		}
+		buffer.putInt(mesh.getVertexCount()).putInt(mesh.getIndexCount()).putInt(mesh.getIndexType());
+		buffer.put(vertices).put(indices);
+		buffer.rewind();
+		write(getPackedCachePath(fileName), buffer, fileName);
+	}
+
+	//Map a cache file and check its header against the obj it was made from, leaving the buffer just after the
+	//part of the header every cache has. Returns null if there is no cache or it can't be used.
+	private static MappedByteBuffer open(Path path, int magic, int headerSize, Source source) {
+		if (!Files.isRegularFile(path)) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < headerSize || size > Integer.MAX_VALUE) {
+				return null;
+			}
+			//Map the whole file, the mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.nativeOrder());
+			if (buffer.getInt() != magic || buffer.getInt() != VERSION || buffer.getInt() != NATIVE_ORDER
+					|| buffer.getLong() != source.size) {
+				return null;
+			}
+			long modified = buffer.getLong();
+			long hash = buffer.getLong();
+			if (modified != source.modified) {
+				if (hash != source.getHash()) {
+					return null;
+				}
+				updateModified(path, source);
+			}
+			return buffer;
+		} catch (IOException e) {
+			//A broken cache just means the obj gets parsed again
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	//The obj's contents are the same as when the cache was made, so remember its new last modified time and the next
+	//check won't need the CRC. If the cache can't be written to the CRC is just worked out again next time.
+	private static void updateModified(Path path, Source source) {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			ByteBuffer time = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder()).putLong(0, source.modified);
+			channel.write(time, MODIFIED_OFFSET);
+		} catch (IOException e) {
+			//Nothing lost but the time the CRC takes
+		}
+	}
+
+	//Start a cache file with its header. Gives false if the obj can't be read to work out its CRC, in which case
+	//there is nothing to check the cache against later so it isn't written.
+	private static boolean putHeader(ByteBuffer buffer, int magic, Source source, String fileName) {
+		try {
+			buffer.putInt(magic).putInt(VERSION).putInt(NATIVE_ORDER);
+			buffer.putLong(source.size).putLong(source.modified).putLong(source.getHash());
+			return true;
+		} catch (IOException e) {
+			System.err.println("Could not write mesh cache for " + fileName);
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	//Write a cache file to a temporary file and move it over the old one. Each write gets its own temporary file in
+	//the same folder, so two threads caching the same model can't write into each other's file, and whichever moves
+	//its file last wins with a whole cache.
+	private static void write(Path path, ByteBuffer buffer, String fileName) {
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(path.getParent(), path.getFileName() + ".", ".tmp");
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Could not write mesh cache for " + fileName);
+			e.printStackTrace();
+			deleteTemp(temp);
+		}
+	}
+
+	//Clean up the temporary file of a write that failed, if it got as far as making one.
+	private static void deleteTemp(Path temp) {
+		if (temp == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(temp);
+		} catch (IOException e) {
+			//Left behind, but it is never read
+		}
+	}
+
+	//Cut out part of the mapped file as its own buffer, length is given in 4 byte values.
+	private static ByteBuffer slice(MappedByteBuffer buffer, int offset, int length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + length * 4);
+		return duplicate.slice().order(ByteOrder.nativeOrder());
+	}
+
+	//Same as above with the length in bytes.
+	private static ByteBuffer sliceBytes(MappedByteBuffer buffer, int offset, int length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + length);
+		return duplicate.slice().order(ByteOrder.nativeOrder());
+	}
+
+	//The obj file a cache is made from. Its size and last modified time are read straight away, its CRC only if
+	//it is needed.
+	public static class Source {
+
+		private final Path path;
+		private final long size;
+		private final long modified;
+		private long hash;
+		private boolean hashed = false;
+
+		//Constructor that reads the attributes of the obj file.
+		public Source(Path path) throws IOException {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			this.path = path;
+			this.size = attributes.size();
+			this.modified = attributes.lastModifiedTime().toMillis();
+		}
+
+		//CRC of the whole obj file, only worked out the first time it is asked for.
+		public long getHash() throws IOException {
+			if (!hashed) {
+				try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+					CRC32 crc = new CRC32();
+					crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+					hash = crc.getValue();
+				}
+				hashed = true;
+			}
+			return hash;
+		}
+
+		//Getters for the properties
+		public long getSize() {
+			return size;
+		}
+
+		public long getModified() {
+			return modified;
+		}
+	}
+}
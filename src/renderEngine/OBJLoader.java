@@ -1,141 +1,482 @@
 package renderEngine;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.util.ArrayList;
-import java.util.List;
-
-import org.lwjgl.util.vector.Vector2f;
-import org.lwjgl.util.vector.Vector3f;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import models.MeshBuffers;
+import models.MeshData;
+import models.PackedMesh;
 import models.RawModel;
+import toolbox.FloatList;
+import toolbox.IntList;
+import toolbox.LongIntHashMap;
+import toolbox.VertexCacheOptimiser;
+import toolbox.VertexCacheOptimiser.OptimisedMesh;
+import toolbox.VertexPacking;
 
-//class to load up OBJ files for models
+//class to load up OBJ files for models. Rather than reading the file line by line into Strings and splitting them
+//(which creates lots of short lived objects for every line), the whole file is read from a channel into one byte
+//array and the bytes are scanned directly, with the numbers parsed by hand into growable primitive arrays.
 public class OBJLoader {
 
+	//Powers of ten that can be represented exactly as doubles, used by the hand written float parser.
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	//Bits given to each of the position, texture and normal indices when they are packed into one key for welding.
+	private static final int WELD_BITS = 21;
+	private static final int MAX_WELD_INDEX = (1 << WELD_BITS) - 2;
+	//Most digits that can be collected into a long without overflowing, and the largest whole number a double can 
+	//hold exactly. Anything bigger than these goes through the slow path so the result stays correct.
+	private static final int MAX_LONG_DIGITS = 18;
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	//The 29 bits of a double's mantissa a float doesn't have, and what they are for a double exactly halfway between
+	//two floats.
+	private static final long FLOAT_ROUNDING_MASK = (1L << 29) - 1;
+	private static final long FLOAT_HALFWAY = 1L << 28;
+	//Report of each obj file parsed so far, eg. how much welding saved and how well the vertex cache optimiser did.
+	//Files loaded from the mesh cache aren't parsed so don't have one. Added to from whichever thread did the parsing.
+	private static final Queue<String> loadReports = new ConcurrentLinkedQueue<String>();
+
+	//Loads a model into a VAO.
 	public static RawModel loadObjModel(String fileName, Loader loader) {
-		//new file reader to open the file, will always be in the res folder with extension of .obj
-		//surrounded with try/catch in case file is missing
-		FileReader fr = null;
+		return loader.loadtoVAO(prepareObjModel(fileName));
+	}
+
+	//Loads a model into a VAO using the smaller packed vertex format (see VertexPacking).
+	public static RawModel loadObjModelPacked(String fileName, Loader loader) {
+		return loader.loadtoVAO(prepareObjModelPacked(fileName));
+	}
+
+	//Does all the work of loading a model that doesn't need OpenGL, so it can be done on any thread. Uses the
+	//compiled mesh cache when it is up to date with the obj file, otherwise the obj is parsed and the cache is
+	//written for next time.
+	public static MeshBuffers prepareObjModel(String fileName) {
+		return prepareObjModel(fileName, getSource(fileName));
+	}
+
+	//Same as prepareObjModel but gives back the model in the packed vertex format. Uses the packed mesh cache when
+	//it is up to date, so the packed vertices are mapped straight from the file, otherwise the model is packed and
+	//the packed cache is written for next time.
+	public static PackedMesh prepareObjModelPacked(String fileName) {
+		MeshCache.Source source = getSource(fileName);
+		PackedMesh cached = MeshCache.loadPacked(fileName, source);
+		if (cached != null) {
+			return cached;
+		}
+		PackedMesh packed = VertexPacking.pack(prepareObjModel(fileName, source));
+		MeshCache.savePacked(fileName, packed, source);
+		return packed;
+	}
+
+	private static MeshBuffers prepareObjModel(String fileName, MeshCache.Source source) {
+		//Cached buffers go straight into the VBOs
+		MeshBuffers cached = MeshCache.load(fileName, source);
+		if (cached != null) {
+			return cached;
+		}
+		//The CRC the cache is saved with is worked out before parsing, so it is of the file that was parsed
 		try {
-			fr = new FileReader(new File("res/obj/"+fileName+".obj"));
-		} catch (FileNotFoundException e) {
+			source.getHash();
+		} catch (IOException e) {
+			//The obj is read again below, which reports the problem
+		}
+		//Parse the file into arrays and save them to the cache
+		MeshData data = loadObjData(fileName);
+		MeshCache.save(fileName, data, source);
+		return MeshBuffers.fromData(data);
+	}
+
+	//The size and last modified time of an obj file, for checking its caches against.
+	private static MeshCache.Source getSource(String fileName) {
+		try {
+			return new MeshCache.Source(getObjPath(fileName));
+		} catch (IOException e) {
 			System.err.println("Could not locate object file.");
 			e.printStackTrace();
+			System.exit(-1);
+			return null;
 		}
-		//Buffered reader created to allow reading from file.
-		BufferedReader reader = new BufferedReader(fr);
-		//Line being read
-		String line;
-		//List of vertices read stored into ArrayList as 3d vectors
-		List<Vector3f> vertices = new ArrayList<Vector3f>();
-		//List of texture co-ords stored into ArrayList as 2d vectors.
-		List<Vector2f> textures = new ArrayList<Vector2f>();
-		//Another list of normal vectors, used for lighting
-		List<Vector3f> normals = new ArrayList<Vector3f>();
-		//List of indices as integers
-		List<Integer> indices = new ArrayList<Integer>();
-		//Create float/int arrays as that is how the loader needs the data to load into a VAO
-		float[] verticesArray = null;
-		float[] texturesArray = null;
-		float[] normalsArray = null;
-		int[] indicesArray = null;
-		//All surrounded with a try & catch to deal with any invalid file format.
-		try {
-			//Infinite loop to read through the file until ready to break
-			while(true) {
-				line = reader.readLine();
-				//split each line at a space
-				String[] currentLine = line.split(" ");
-				//Check if line begins with v (indicates a vertex)
-				if (line.startsWith("v ")) {
-					//Read in data from that line and create a new vertex, position [0] of the line is the 'v'
-					Vector3f vertex = new Vector3f(Float.parseFloat(currentLine[1]),
-							Float.parseFloat(currentLine[2]),Float.parseFloat(currentLine[3]));
-					//Add to list of vertices
-					vertices.add(vertex);				
-				//Check if line begins with vt (indicates a texture co-ord)
-				}else if (line.startsWith("vt ")) {
-					//Read in data from that line and create a new texture co-ord, position [0] of the line is the 'v'
-					Vector2f texture = new Vector2f(Float.parseFloat(currentLine[1]),Float.parseFloat(currentLine[2]));
-					//Add to list of textures
-					textures.add(texture);
-				//Check if line begins with vn (indicates a normal)
-				}else if (line.startsWith("vn ")) {
-					//Read in data from that line and create a new normal, position [0] of the line is the 'v'
-					Vector3f normal = new Vector3f(Float.parseFloat(currentLine[1]),
-							Float.parseFloat(currentLine[2]),Float.parseFloat(currentLine[3]));
-					//Add to list of normals
-					normals.add(normal);
-				//check if line begins with f (indicates a face)
-				}else if (line.startsWith("f ")) {
-					//If starts with f we can now break out of the loop as we have read in all the data
-					//First set up Arrays as have size of them 
-					texturesArray = new float[vertices.size()*2];
-					normalsArray = new float[vertices.size()*3];
+	}
+
+	//Reads the obj file and returns the arrays ready to be loaded into a VAO, with the triangles reordered for the 
+	//GPU's vertex cache. Doesn't touch OpenGL at all.
+	public static MeshData loadObjData(String fileName) {
+		OBJParser parser = new OBJParser(fileName, readObj(fileName));
+		MeshData data = parser.parse();
+		//Put the triangles and vertices into a better order for the GPU's vertex cache
+		OptimisedMesh optimised = VertexCacheOptimiser.optimise(data);
+		loadReports.add(parser.getReport() + ", " + optimised.getReport());
+		return optimised.getMesh();
+	}
+
+	//Same as above but only parses and welds the obj file, leaving the triangles in the order the file has them. 
+	//This is the work the old line by line parser did, eg. for timing the parser on its own.
+	public static MeshData parseObjData(String fileName) {
+		return new OBJParser(fileName, readObj(fileName)).parse();
+	}
+
+	//Reads the whole of an obj file in one go, followed by an extra new line so the number parsing loops always stop
+	//there.
+	private static byte[] readObj(String fileName) {
+		//surrounded with try/catch in case file is missing
+		try (FileChannel channel = FileChannel.open(getObjPath(fileName), StandardOpenOption.READ)) {
+			int size = (int) channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate(size + 1);
+			buffer.limit(size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
 					break;
 				}
 			}
-			while (line!=null) {
-				//if the line doesn't start with the f skip it 
-				if (!line.startsWith("f ")) {
-					line = reader.readLine();
-					continue;
-				}
-				//Once line with a face is read break up into 3 parts for each vertex and will give a string array of 3 numbers
-				String[] currentLine = line.split(" ");
-				String[] vertex1 = currentLine[1].split("/");
-				String[] vertex2 = currentLine[2].split("/");
-				String[] vertex3 = currentLine[3].split("/");
-				//Use the process vertex method to parse data and put into correct positions in the arrays
-				//called for each vertex in triangle currently being processed
-				processVertex(vertex1,indices,textures,normals,texturesArray,normalsArray);
-				processVertex(vertex2,indices,textures,normals,texturesArray,normalsArray);
-				processVertex(vertex3,indices,textures,normals,texturesArray,normalsArray);
-				//then continue reading the next line
-				line = reader.readLine();
-			}
-			//close reader once finished
-			reader.close();
-			
-		}catch(Exception e) {
+			byte[] bytes = buffer.array();
+			bytes[buffer.position()] = '\n';
+			return bytes;
+		} catch (IOException e) {
+			System.err.println("Could not locate object file.");
 			e.printStackTrace();
+			System.exit(-1);
+			return null;
 		}
-		//Convert lists into arrays
-		verticesArray = new float[vertices.size()*3];
-		indicesArray = new int[indices.size()];
-		//Loop through vertices list and for each vertex put each component of the vector into the array
-		int vertexPointer = 0;
-		for(Vector3f vertex:vertices) {
-			verticesArray[vertexPointer++] = vertex.x;
-			verticesArray[vertexPointer++] = vertex.y;
-			verticesArray[vertexPointer++] = vertex.z;
-		}
-		//Loop through indices list and for each indices put each component into the array
-		for(int i=0;i<indices.size();i++) {
-			indicesArray[i] = indices.get(i);
-		}
-		//load the arrays into the Vao
-		return loader.loadtoVAO(verticesArray, texturesArray, normalsArray, indicesArray);
 	}
-	//simplify code by separate method to process each vertex string array 
-	private static void processVertex(String[] vertexData, List<Integer> indices, List<Vector2f> textures,
-			List<Vector3f> normals, float[] texturesArray, float[] normalsArray) {
-		//Putting the texture & normal values in the correct array, obj files start at 1 so have to -1
-		int currentVertexPointer = Integer.parseInt(vertexData[0])-1;
-		indices.add(currentVertexPointer);
-		//textures have 2 coords so *2 
-		Vector2f currentTex = textures.get(Integer.parseInt(vertexData[1])-1);
-		texturesArray[currentVertexPointer*2] = currentTex.x;
-		//GL starts from top left whereas blender starts from bottom left
-		texturesArray[currentVertexPointer*2+1] = 1 - currentTex.y;
-		Vector3f currentNorm = normals.get(Integer.parseInt(vertexData[2])-1);
-		//normals are 3d vectors so *3
-		normalsArray[currentVertexPointer*3] = currentNorm.x;
-		normalsArray[currentVertexPointer*3+1] = currentNorm.y;
-		normalsArray[currentVertexPointer*3+2] = currentNorm.z;
+
+	//Path of an obj file, they are always in the res/obj folder with extension of .obj
+	public static Path getObjPath(String fileName) {
+		return Paths.get("res/obj/" + fileName + ".obj");
 	}
-}
 
+	//Report of every obj file parsed so far, one line each, eg. for printing once the models are loaded.
+	public static String getStats() {
+		StringBuilder stats = new StringBuilder("OBJ files parsed: " + loadReports.size());
+		for (String report : loadReports) {
+			stats.append(System.lineSeparator()).append(report);
+		}
+		return stats.toString();
+	}
+
+	//Scans through the bytes of an obj file. Keeps track of where it is up to in the bytes so the parsing methods
+	//below don't need to pass the position around.
+	private static class OBJParser {
+
+		//Name of the file, for reporting. The bytes of the file followed by a new line, and the end of the actual 
+		//file data.
+		private final String fileName;
+		private final byte[] bytes;
+		private final int limit;
+		private int position = 0;
+
+		//Vertex positions, texture coords and normals as they are read in. Sized from a rough guess at the
+		//number of vertices based on the size of the file.
+		private final FloatList vertices;
+		private final FloatList textures;
+		private final FloatList normals;
+		//Each corner of each face is stored as 3 ints - the position, texture and normal index (starting at 0,
+		//or -1 if the face didn't give one).
+		private final IntList faceCorners;
+		//Vertices before welding (one per face corner) and after, and the positions in the file, for the report.
+		private int cornerCount = 0;
+		private int weldedCount = 0;
+		private int positionCount = 0;
+
+		private OBJParser(String fileName, byte[] bytes) {
+			this.fileName = fileName;
+			this.bytes = bytes;
+			this.limit = bytes.length - 1;
+			int estimatedVertices = Math.max(limit / 64, 16);
+			this.vertices = new FloatList(estimatedVertices * 3);
+			this.textures = new FloatList(estimatedVertices * 2);
+			this.normals = new FloatList(estimatedVertices * 3);
+			this.faceCorners = new IntList(estimatedVertices * 6);
+		}
+
+		//Read through every line of the file and then build the arrays the loader needs.
+		private MeshData parse() {
+			while (position < limit) {
+				parseLine();
+			}
+			return buildMeshData();
+		}
+
+		//Check what the line begins with and read in the data for it, anything else (comments, groups, materials)
+		//is skipped over.
+		private void parseLine() {
+			//The new line at the end means the byte after the current one can always be read
+			byte first = bytes[position];
+			byte second = bytes[position + 1];
+			byte third = isEndOfLine(second) ? 0 : bytes[position + 2];
+			//Check if line begins with v (indicates a vertex)
+			if (first == 'v' && isSpace(second)) {
+				position += 2;
+				vertices.add(nextFloat());
+				vertices.add(nextFloat());
+				vertices.add(nextFloat());
+			//Check if line begins with vt (indicates a texture co-ord)
+			} else if (first == 'v' && second == 't' && isSpace(third)) {
+				position += 3;
+				textures.add(nextFloat());
+				textures.add(nextFloat());
+			//Check if line begins with vn (indicates a normal)
+			} else if (first == 'v' && second == 'n' && isSpace(third)) {
+				position += 3;
+				normals.add(nextFloat());
+				normals.add(nextFloat());
+				normals.add(nextFloat());
+			//check if line begins with f (indicates a face)
+			} else if (first == 'f' && isSpace(second)) {
+				position += 2;
+				parseFace();
+			}
+			skipToNextLine();
+		}
+
+		//Read each corner of a face (v/vt/vn) and split the face up into triangles as a fan around the first corner.
+		//Normally the models are already triangulated so this just gives the one triangle.
+		private void parseFace() {
+			int faceStart = faceCorners.size();
+			int corners = 0;
+			while (true) {
+				skipSpaces();
+				int start = position;
+				if (isEndOfLine(bytes[position])) {
+					break;
+				}
+				//obj files start at 1 so have to -1, negative indices count back from the end of the list
+				int vertex = toIndex(nextInt(), vertices.size() / 3);
+				//Not a number, so the rest of the line can't be read as a face
+				if (position == start) {
+					break;
+				}
+				int texture = -1;
+				int normal = -1;
+				if (bytes[position] == '/') {
+					position++;
+					//texture index can be left out, eg. "1//1"
+					if (bytes[position] != '/') {
+						texture = toIndex(nextInt(), textures.size() / 2);
+					}
+					if (bytes[position] == '/') {
+						position++;
+						normal = toIndex(nextInt(), normals.size() / 3);
+					}
+				}
+				//Past the third corner each new corner makes another triangle with the first and previous corners
+				if (corners >= 3) {
+					int previous = faceCorners.size() - 3;
+					copyCorner(faceStart);
+					copyCorner(previous);
+				}
+				faceCorners.add(vertex);
+				faceCorners.add(texture);
+				faceCorners.add(normal);
+				corners++;
+			}
+			//Not enough corners to make a triangle so throw the face away
+			if (corners < 3) {
+				faceCorners.truncate(faceStart);
+			}
+		}
+
+		//Add a copy of a corner that has already been read to the end of the list
+		private void copyCorner(int offset) {
+			faceCorners.add(faceCorners.get(offset));
+			faceCorners.add(faceCorners.get(offset + 1));
+			faceCorners.add(faceCorners.get(offset + 2));
+		}
+
+		//Weld the face corners into vertices. Each unique combination of position, texture and normal index becomes
+		//one vertex, so a position used with different texture coords or normals (eg. along a uv seam) gets a vertex
+		//for each instead of the later one overwriting the earlier. Corners that share all three indices share a
+		//vertex, which keeps the index buffer compact.
+		private MeshData buildMeshData() {
+			cornerCount = faceCorners.size() / 3;
+			positionCount = vertices.size() / 3;
+			if (positionCount > MAX_WELD_INDEX || textures.size() / 2 > MAX_WELD_INDEX
+					|| normals.size() / 3 > MAX_WELD_INDEX) {
+				throw new IllegalArgumentException("Too many vertices to weld in " + fileName);
+			}
+			//Maps the packed (position, texture, normal) key of a corner to the vertex made for it
+			LongIntHashMap welded = new LongIntHashMap(positionCount * 2);
+			//There can't be more vertices than corners, so the arrays are made that big and cut down at the end
+			float[] weldedPositions = new float[cornerCount * 3];
+			float[] weldedTextures = new float[cornerCount * 2];
+			float[] weldedNormals = new float[cornerCount * 3];
+			int[] indicesArray = new int[cornerCount];
+			int vertexCount = 0;
+			for (int i = 0; i < cornerCount; i++) {
+				int position = faceCorners.get(i * 3);
+				int texture = faceCorners.get(i * 3 + 1);
+				int normal = faceCorners.get(i * 3 + 2);
+				//+1 so the missing (-1) texture and normal indices still pack as positive numbers
+				long key = ((long) position << (2 * WELD_BITS)) | ((long) (texture + 1) << WELD_BITS) | (normal + 1);
+				int existing = welded.putIfAbsent(key, vertexCount);
+				if (existing != LongIntHashMap.NO_VALUE) {
+					indicesArray[i] = existing;
+					continue;
+				}
+				indicesArray[i] = vertexCount;
+				weldedPositions[vertexCount * 3] = vertices.get(position * 3);
+				weldedPositions[vertexCount * 3 + 1] = vertices.get(position * 3 + 1);
+				weldedPositions[vertexCount * 3 + 2] = vertices.get(position * 3 + 2);
+				//textures have 2 coords, GL starts from top left whereas blender starts from bottom left. Missing 
+				//textures and normals are left as 0
+				if (texture >= 0) {
+					weldedTextures[vertexCount * 2] = textures.get(texture * 2);
+					weldedTextures[vertexCount * 2 + 1] = 1 - textures.get(texture * 2 + 1);
+				}
+				//normals are 3d vectors
+				if (normal >= 0) {
+					weldedNormals[vertexCount * 3] = normals.get(normal * 3);
+					weldedNormals[vertexCount * 3 + 1] = normals.get(normal * 3 + 1);
+					weldedNormals[vertexCount * 3 + 2] = normals.get(normal * 3 + 2);
+				}
+				vertexCount++;
+			}
+			weldedCount = vertexCount;
+			return new MeshData(Arrays.copyOf(weldedPositions, vertexCount * 3),
+					Arrays.copyOf(weldedTextures, vertexCount * 2), Arrays.copyOf(weldedNormals, vertexCount * 3),
+					indicesArray);
+		}
+
+		//How much welding saved compared to one vertex per face corner.
+		private String getReport() {
+			return "Loaded " + fileName + ": " + cornerCount + " vertices before welding, " + weldedCount + " after ("
+					+ positionCount + " positions)";
+		}
+
+		//Parse an int by hand from the current position. The bytes and position are copied into locals while 
+		//scanning, so the position is only written back to the field once.
+		private int nextInt() {
+			byte[] bytes = this.bytes;
+			int position = this.position;
+			while (isSpace(bytes[position])) {
+				position++;
+			}
+			boolean negative = false;
+			if (bytes[position] == '-') {
+				negative = true;
+				position++;
+			}
+			int value = 0;
+			int digit;
+			//No need to check the position against the limit as the extra new line at the end will stop the loop
+			while ((digit = bytes[position] - '0') >= 0 && digit <= 9) {
+				value = value * 10 + digit;
+				position++;
+			}
+			this.position = position;
+			return negative ? -value : value;
+		}
+
+		//Parse a float by hand from the current position. The digits are collected into a long and then scaled by
+		//a power of ten. While the digits and the power both fit into a double exactly, that one multiply or divide
+		//gives the correctly rounded double. Rounding that to a float is only wrong when the double lands exactly
+		//halfway between two floats (when the digits were just off halfway), so those go through Float.parseFloat,
+		//as does anything unusual (too many digits, huge exponents, nan etc). Every result is exactly what
+		//Float.parseFloat gives.
+		private float nextFloat() {
+			byte[] bytes = this.bytes;
+			int position = this.position;
+			while (isSpace(bytes[position])) {
+				position++;
+			}
+			int start = position;
+			boolean negative = false;
+			if (bytes[position] == '-' || bytes[position] == '+') {
+				negative = bytes[position] == '-';
+				position++;
+			}
+			long mantissa = 0;
+			int exponent = 0;
+			int digitsStart = position;
+			int digit;
+			//Digits before the decimal point
+			while ((digit = bytes[position] - '0') >= 0 && digit <= 9) {
+				mantissa = mantissa * 10 + digit;
+				position++;
+			}
+			int digits = position - digitsStart;
+			//Digits after the decimal point, each one moves the exponent down by one
+			if (bytes[position] == '.') {
+				position++;
+				int fractionStart = position;
+				while ((digit = bytes[position] - '0') >= 0 && digit <= 9) {
+					mantissa = mantissa * 10 + digit;
+					position++;
+				}
+				exponent = fractionStart - position;
+				digits -= exponent;
+			}
+			this.position = position;
+			//Optional exponent, eg. 1.5e-3
+			if (bytes[position] == 'e' || bytes[position] == 'E') {
+				this.position++;
+				exponent += nextInt();
+			}
+			//18 digits always fit in a long, but the value also has to fit into a double without any rounding
+			if (digits == 0 || digits > MAX_LONG_DIGITS || mantissa > MAX_EXACT_MANTISSA || !isSeparator()
+					|| exponent <= -POWERS_OF_TEN.length || exponent >= POWERS_OF_TEN.length) {
+				return slowFloat(start);
+			}
+			double value = mantissa;
+			if (exponent < 0) {
+				value /= POWERS_OF_TEN[-exponent];
+			} else {
+				value *= POWERS_OF_TEN[exponent];
+			}
+			//Within these limits the value is always in the range of normal floats, where the double is halfway 
+			//between two floats when the bits below the float's are a one followed by zeros
+			if ((Double.doubleToRawLongBits(value) & FLOAT_ROUNDING_MASK) == FLOAT_HALFWAY) {
+				return slowFloat(start);
+			}
+			return (float) (negative ? -value : value);
+		}
+
+		//Fallback for numbers the fast path can't handle exactly. Copies the token into a String and parses that.
+		private float slowFloat(int start) {
+			position = start;
+			while (!isSeparator()) {
+				position++;
+			}
+			return Float.parseFloat(new String(bytes, start, position - start, StandardCharsets.US_ASCII));
+		}
+
+		//obj indices start at 1, negative ones are relative to the end of the list read so far
+		private int toIndex(int objIndex, int count) {
+			return objIndex < 0 ? count + objIndex : objIndex - 1;
+		}
+
+		private void skipSpaces() {
+			while (isSpace(bytes[position])) {
+				position++;
+			}
+		}
+
+		private void skipToNextLine() {
+			while (position < limit && bytes[position] != '\n') {
+				position++;
+			}
+			position++;
+		}
+
+		//Whether the current position is the end of a number
+		private boolean isSeparator() {
+			return isSpace(bytes[position]) || isEndOfLine(bytes[position]);
+		}
+
+		private static boolean isSpace(byte b) {
+			return b == ' ' || b == '\t';
+		}
+
+		private static boolean isEndOfLine(byte b) {
+			return b == '\n' || b == '\r';
+		}
+	}
+}
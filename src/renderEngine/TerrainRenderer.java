@@ -1,11 +1,11 @@
 package renderEngine;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL20;
-import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL32;
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
 
@@ -13,74 +13,96 @@ import models.RawModel;
 import shaders.TerrainShader;
 import terrains.Terrain;
 import textures.TerrainTexturePack;
+import toolbox.Frustum;
 import toolbox.Maths;
 
 public class TerrainRenderer {
 
 	private TerrainShader shader;
+	//The index type the primitive restart index is set for. 
+	private int restartIndexType;
+	//The patches to draw for the terrain being rendered, reused for every terrain. 
+	private List<RawModel> chunks = new ArrayList<RawModel>();
+	//How many patches and indices were drawn last frame. 
+	private int chunksDrawn;
+	private int indicesDrawn;
 	
-	//Constructor that takes in the shader & projection matrix just like other renderer classes
-	public TerrainRenderer(TerrainShader shader, Matrix4f projectionMatrix) {
+	//Constructor that takes in the shader just like other renderer classes, the projection matrix is in the 
+	//FrameUniformBuffer shared by every shader 
+	public TerrainRenderer(TerrainShader shader) {
 		this.shader = shader;
 		shader.start();
-		shader.loadProjectionMatrix(projectionMatrix);
 		shader.connectTextureUnits();
 		shader.stop();
 	}
 	
-	//Method for rendering all the terrains, takes in a list of them
-	public void render(List<Terrain> terrains) {
-		//loop through each terrain in the list, prepare & render it 
+	//Method for rendering all the terrains, takes in a list of them. Only the patches of each terrain the camera 
+	//can see are drawn, at the level of detail they need from where the camera is. 
+	public void render(List<Terrain> terrains, Frustum frustum, Vector3f cameraPosition) {
+		restartIndexType = 0;
+		chunksDrawn = 0;
+		indicesDrawn = 0;
+		//Patches drawn as triangle strips are split up with the largest index of their index type 
+		GLStateCache.setEnabled(GL31.GL_PRIMITIVE_RESTART, true);
+		//loop through each terrain in the list, select its patches and render them 
 		for(Terrain terrain:terrains) {
+			chunks.clear();
+			terrain.selectChunks(frustum, cameraPosition, chunks);
+			if(chunks.isEmpty()) {
+				continue;
+			}
 			prepareTerrain(terrain);
 			loadModelMatrix(terrain);
-			GL11.glDrawElements(GL11.GL_TRIANGLES, terrain.getModel().getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
-			unbindTexturedModel();
+			for(RawModel chunk:chunks) {
+				prepareChunk(chunk);
+				GL32.glDrawElementsBaseVertex(chunk.getPrimitiveMode(), chunk.getVertexCount(), chunk.getIndexType(), 
+						chunk.getIndexOffset(), chunk.getBaseVertex());
+				chunksDrawn++;
+				indicesDrawn += chunk.getVertexCount();
+			}
 		}
+		GLStateCache.setEnabled(GL31.GL_PRIMITIVE_RESTART, false);
+		unbindTexturedModel();
 	}
-	//Method to prepare a terrain model
+	//Method to prepare a terrain, binding its textures 
 	public void prepareTerrain(Terrain terrain) {
-		//Getting the RawModel for binding the vertex array amongst other things. 
-		RawModel rawModel = terrain.getModel();
-		//First bind the VAO to be able to use it. 
-		GL30.glBindVertexArray(rawModel.getVaoID());
-		//Activate attribute lists where data is stored.
-		GL20.glEnableVertexAttribArray(0);
-		GL20.glEnableVertexAttribArray(1);
-		GL20.glEnableVertexAttribArray(2);
 		//Call the bind textures method to bind the textures
 		bindTextures(terrain);
 		//Load up specular lighting values - passing in values at this stage.
 		shader.loadShineVariables(1, 0);
-		
+	}
+	//Method to bind the VAO of a patch and set the restart index for its index type. All the patches share the 
+	//float geometry arena's VAO, so the cache drops binding it again. 
+	private void prepareChunk(RawModel chunk) {
+		GLStateCache.bindVertexArray(chunk.getVaoID());
+		//Activate attribute lists where data is stored (stored in the VAO so stays on).
+		GLStateCache.enableVertexAttribArray(0);
+		GLStateCache.enableVertexAttribArray(1);
+		GLStateCache.enableVertexAttribArray(2);
+		if(chunk.getIndexType() != restartIndexType) {
+			GL31.glPrimitiveRestartIndex(chunk.getIndexType() == GL11.GL_UNSIGNED_SHORT ? 0xFFFF : 0xFFFFFFFF);
+			restartIndexType = chunk.getIndexType();
+		}
 	}
 	//Method to bind textures and blend map to the 5 separate texture units
 	private void bindTextures(Terrain terrain) {
 		//Get the texture pack
 		TerrainTexturePack texturePack = terrain.getTexturePack();
-		//Bind each to a texture unit by activating a texture bank and then binding.
-		GL13.glActiveTexture(GL13.GL_TEXTURE0);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texturePack.getBackgroundTexture().getTextureID());
-		GL13.glActiveTexture(GL13.GL_TEXTURE1);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texturePack.getrTexture().getTextureID());
-		GL13.glActiveTexture(GL13.GL_TEXTURE2);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texturePack.getgTexture().getTextureID());
-		GL13.glActiveTexture(GL13.GL_TEXTURE3);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texturePack.getbTexture().getTextureID());
-		GL13.glActiveTexture(GL13.GL_TEXTURE4);
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, terrain.getBlendMap().getTextureID());
+		//Bind each to a texture unit. Terrains sharing a texture pack only bind their blend maps, the cache drops 
+		//binding the rest again. 
+		GLStateCache.bindTexture(0, texturePack.getBackgroundTexture().getTextureID());
+		GLStateCache.bindTexture(1, texturePack.getrTexture().getTextureID());
+		GLStateCache.bindTexture(2, texturePack.getgTexture().getTextureID());
+		GLStateCache.bindTexture(3, texturePack.getbTexture().getTextureID());
+		GLStateCache.bindTexture(4, terrain.getBlendMap().getTextureID());
 	}
 	
 	
 	
-	//Method to unbind Textured Model once all the terrains using that model are rendered
+	//Method to unbind Textured Model once all the terrains are rendered
 	private void unbindTexturedModel() {
-		//Disable attribute lists once finished using them.
-		GL20.glDisableVertexAttribArray(0);
-		GL20.glDisableVertexAttribArray(1);
-		GL20.glDisableVertexAttribArray(2);
 		//Unbind the VAO once finished using it by using 0 instead of an ID. 
-		GL30.glBindVertexArray(0);
+		GLStateCache.bindVertexArray(0);
 	}
 	//Method to prep the instance of the terrain 
 	private void loadModelMatrix(Terrain terrain) {
@@ -90,4 +112,13 @@ public class TerrainRenderer {
 		//Load transformationMatrix into the static shader
 		shader.loadTransformationMatrix(transformationMatrix);
 	}
+
+	//Getters for what was drawn last frame 
+	public int getChunksDrawn() {
+		return chunksDrawn;
+	}
+	
+	public int getIndicesDrawn() {
+		return indicesDrawn;
+	}
 }
@@ -0,0 +1,176 @@
+package renderEngine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.lwjgl.opengl.GL11;
+
+import textures.TextureData;
+import textures.TextureHandle;
+
+//Cache of the textures loaded from files, keyed by file name, so asking for the same texture again gives back the
+//same texture instead of decoding and uploading it a second time. Every request gets a handle and each texture
+//counts how many handles are still held. Textures nobody holds are kept around in case they are asked for again,
+//but once the textures in memory go over the budget the least recently used ones are deleted. Must only be used
+//on the thread that owns the OpenGL context.
+public class TextureCache {
+
+	//Textures are assumed to be stored with 4 bytes a pixel, as drivers normally pad RGB out to RGBA.
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private Loader loader;
+	//Most bytes of textures to keep once they are no longer held, textures that are held always stay.
+	private long budget;
+	//Every texture in memory, in order of when it was last asked for (least recent first).
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	//Counters for how well the cache is doing.
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long residentBytes = 0;
+
+	//Constructor that takes in the loader for uploading the textures and the budget in bytes.
+	public TextureCache(Loader loader, long budget) {
+		this.loader = loader;
+		this.budget = budget;
+	}
+
+	//Get a handle to a texture, decoding and uploading it only if it isn't already in memory.
+	public TextureHandle acquire(String fileName) {
+		Entry entry = entries.get(fileName);
+		if (entry == null) {
+			return add(fileName, Loader.decodeTexture(fileName));
+		}
+		return hit(entry, fileName);
+	}
+
+	//Same as above for a texture that has already been decoded (eg. on a worker thread). If the texture turns out
+	//to be in memory already the decoded pixels just aren't used.
+	public TextureHandle acquire(String fileName, TextureData data) {
+		Entry entry = entries.get(fileName);
+		if (entry == null) {
+			return add(fileName, data);
+		}
+		return hit(entry, fileName);
+	}
+
+	//Whether a texture is in memory at the moment.
+	public boolean contains(String fileName) {
+		return entries.containsKey(fileName);
+	}
+
+	//Called by a handle when it is released. Once nothing holds the texture it can be evicted.
+	public void release(String fileName) {
+		Entry entry = entries.get(fileName);
+		if (entry == null || entry.references == 0) {
+			throw new IllegalStateException("Texture " + fileName + " is not held");
+		}
+		entry.references--;
+		if (entry.references == 0) {
+			evict();
+		}
+	}
+
+	//Change the budget, evicting straight away if the cache is now over it.
+	public void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	//Delete all the textures, held or not, when the game is closed.
+	public void cleanUp() {
+		for (Entry entry : entries.values()) {
+			GL11.glDeleteTextures(entry.textureID);
+			GLStateCache.forgetTexture(entry.textureID);
+		}
+		entries.clear();
+		residentBytes = 0;
+	}
+
+	//Estimated bytes a texture takes up in memory, including all the smaller mipmap levels below it (about a
+	//third more than the full size level on its own).
+	public static long estimateBytes(int width, int height) {
+		long bytes = 0;
+		while (true) {
+			bytes += (long) width * height * BYTES_PER_PIXEL;
+			if (width == 1 && height == 1) {
+				return bytes;
+			}
+			width = Math.max(1, width / 2);
+			height = Math.max(1, height / 2);
+		}
+	}
+
+	//Report of the counters, eg. for printing once loading is done.
+	public String getStats() {
+		return String.format("Texture cache: %d textures, %.1f MB resident (budget %.1f MB), %d hits, %d misses, "
+				+ "%d evictions", entries.size(), residentBytes / 1048576.0, budget / 1048576.0, hits, misses,
+				evictions);
+	}
+
+	private TextureHandle hit(Entry entry, String fileName) {
+		hits++;
+		entry.references++;
+		return new TextureHandle(this, fileName, entry.textureID);
+	}
+
+	private TextureHandle add(String fileName, TextureData data) {
+		misses++;
+		Entry entry = new Entry(loader.createTexture(data), estimateBytes(data.getWidth(), data.getHeight()));
+		entry.references = 1;
+		entries.put(fileName, entry);
+		residentBytes += entry.bytes;
+		evict();
+		return new TextureHandle(this, fileName, entry.textureID);
+	}
+
+	//Delete textures that nobody holds, least recently used first, until the cache is back under its budget.
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (residentBytes > budget && iterator.hasNext()) {
+			Entry entry = iterator.next().getValue();
+			if (entry.references == 0) {
+				GL11.glDeleteTextures(entry.textureID);
+				GLStateCache.forgetTexture(entry.textureID);
+				residentBytes -= entry.bytes;
+				evictions++;
+				iterator.remove();
+			}
+		}
+	}
+
+	//Getters for the counters
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public long getResidentBytes() {
+		return residentBytes;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	//A texture in memory, with how many handles to it are held and its estimated size.
+	private static class Entry {
+
+		private final int textureID;
+		private final long bytes;
+		private int references = 0;
+
+		private Entry(int textureID, long bytes) {
+			this.textureID = textureID;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package shaders;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Light;
+
+//Uniform buffer holding everything that is the same for every shader for a whole frame: the projection and view
+//matrices, where the camera is, the light, and the sky colour & fog. It is filled in once a frame on the CPU and sent
+//in one upload, then every shader program reads it through the FrameData uniform block (bound to the same binding
+//point by ShaderProgram), instead of each shader having its own copies loaded one uniform at a time.
+//
+//The block uses the std140 layout, so the float offsets below have to match this declaration in the shaders:
+//
+//	layout(std140) uniform FrameData {
+//		mat4 projectionMatrix;
+//		mat4 viewMatrix;
+//		vec3 cameraPosition;
+//		float fogDensity;
+//		vec3 lightPosition;
+//		float fogGradient;
+//		vec3 lightColour;
+//		vec3 skyColour;
+//	};
+//
+//A vec3 is lined up to 16 bytes, and a float after one fits in the last 4 bytes of its 16.
+public class FrameUniformBuffer {
+
+	//Name of the block in the shaders, and the binding point the buffer and every program's block share.
+	public static final String BLOCK_NAME = "FrameData";
+	public static final int BINDING = 0;
+	//Where each value starts, in floats from the start of the block.
+	private static final int PROJECTION_MATRIX = 0;
+	private static final int VIEW_MATRIX = 16;
+	private static final int CAMERA_POSITION = 32;
+	private static final int FOG_DENSITY = 35;
+	private static final int LIGHT_POSITION = 36;
+	private static final int FOG_GRADIENT = 39;
+	private static final int LIGHT_COLOUR = 40;
+	private static final int SKY_COLOUR = 44;
+	private static final int SIZE = 48;
+
+	private final int uboID;
+	private FloatBuffer data = BufferUtils.createFloatBuffer(SIZE);
+	//Whether anything has changed since the last upload.
+	private boolean dirty = true;
+	private long uploads = 0;
+
+	//Constructor that creates the buffer and binds it to the binding point. Has to be called on the thread that owns
+	//the OpenGL context.
+	public FrameUniformBuffer() {
+		uboID = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, uboID);
+		GL15.glBufferData(GL31.GL_UNIFORM_BUFFER, SIZE * 4, GL15.GL_DYNAMIC_DRAW);
+		GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
+		GL30.glBindBufferBase(GL31.GL_UNIFORM_BUFFER, BINDING, uboID);
+	}
+
+	//Load the projection matrix, normally only once at the start.
+	public void loadProjectionMatrix(Matrix4f projectionMatrix) {
+		putMatrix(PROJECTION_MATRIX, projectionMatrix);
+	}
+
+	//Load the view matrix and the camera position it was made from, once a frame.
+	public void loadViewMatrix(Matrix4f viewMatrix, Vector3f cameraPosition) {
+		putMatrix(VIEW_MATRIX, viewMatrix);
+		putVector(CAMERA_POSITION, cameraPosition.x, cameraPosition.y, cameraPosition.z);
+	}
+
+	//Load the position and colour of the light.
+	public void loadLight(Light light) {
+		Vector3f position = light.getPosition();
+		Vector3f colour = light.getColour();
+		putVector(LIGHT_POSITION, position.x, position.y, position.z);
+		putVector(LIGHT_COLOUR, colour.x, colour.y, colour.z);
+	}
+
+	//Load the sky colour the fog fades to, and how thick the fog is and how quickly it thickens with distance.
+	public void loadFog(float red, float green, float blue, float density, float gradient) {
+		putVector(SKY_COLOUR, red, green, blue);
+		put(FOG_DENSITY, density);
+		put(FOG_GRADIENT, gradient);
+	}
+
+	//Send the block to the GPU if anything has changed since it was last sent. Called once a frame before drawing.
+	public void upload() {
+		if (!dirty) {
+			return;
+		}
+		data.clear();
+		GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, uboID);
+		GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, 0, data);
+		GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
+		dirty = false;
+		uploads++;
+	}
+
+	//Delete the buffer when the game is closed.
+	public void cleanUp() {
+		GL15.glDeleteBuffers(uboID);
+	}
+
+	//Write a matrix a column at a time, the same as a matrix uniform.
+	private void putMatrix(int start, Matrix4f matrix) {
+		data.position(start);
+		matrix.store(data);
+		data.clear();
+		dirty = true;
+	}
+
+	private void putVector(int start, float x, float y, float z) {
+		put(start, x);
+		put(start + 1, y);
+		put(start + 2, z);
+	}
+
+	private void put(int index, float value) {
+		data.put(index, value);
+		dirty = true;
+	}
+
+	//Getters for the properties
+	public long getUploads() {
+		return uploads;
+	}
+}
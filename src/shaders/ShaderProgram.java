@@ -4,17 +4,23 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
 
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+
+import renderEngine.GLStateCache;
 
 //Abstract class as this program represents a generic shader program that has all the attributes and 
 //methods every shader program would have. A specific shader program will have a concrete implementation of
-//this class. 
+//this class. Each program remembers the last value loaded into each of its uniform variables, so loading the same 
+//value again (eg. the same shine values for every model) is dropped before it reaches OpenGL. 
 public abstract class ShaderProgram {
 
 	//Each specific shader program will have a programID, and the vertexShaderID and fragmentShaderID that
@@ -24,6 +30,12 @@ public abstract class ShaderProgram {
 	private int fragmentShaderID;
 	//Create float buffer for loading up matrices, will be using 4x4 matrices so will use 16 floats. 
 	private static FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16);
+	//Floats kept for each uniform location, enough for a 4x4 matrix. 
+	private static final int UNIFORM_FLOATS = 16;
+	//Last values loaded into each uniform location of this program and whether anything has been loaded there yet, 
+	//grown to fit the largest location used. 
+	private float[] uniformValues = new float[0];
+	private boolean[] uniformLoaded = new boolean[0];
 	
 	//Constructor for the Shader Program, takes in the file path of both the vertexFile and fragmentFile 
 	//to use. 
@@ -39,10 +51,20 @@ public abstract class ShaderProgram {
 		bindAttributes();
 		GL20.glLinkProgram(programID);
 		GL20.glValidateProgram(programID);
+		//Read the per frame values (camera, light, fog) from the one buffer shared by every program 
+		connectFrameUniforms();
 		//Call this abstract in shader program class to ensure all programs will have a constructor for uniform
 		//variable locations.
 		getAllUniformLocations();
 	}
+	//Method to bind the program's FrameData uniform block to the binding point of the FrameUniformBuffer. 
+	//Programs without the block are left alone. 
+	private void connectFrameUniforms() {
+		int blockIndex = GL31.glGetUniformBlockIndex(programID, FrameUniformBuffer.BLOCK_NAME);
+		if(blockIndex != GL31.GL_INVALID_INDEX) {
+			GL31.glUniformBlockBinding(programID, blockIndex, FrameUniformBuffer.BINDING);
+		}
+	}
 	//Abstract class to ensure all shader classes will have a method to get uniform variable locations. 
 	protected abstract void getAllUniformLocations();
 	
@@ -54,12 +76,12 @@ public abstract class ShaderProgram {
 	
 	//Method to start program whenever it is used
 	public void start() {
-		GL20.glUseProgram(programID);
+		GLStateCache.useProgram(programID);
 	}
 	
 	//Method to stop program when finished being used. 
 	public void stop() {
-		GL20.glUseProgram(0);
+		GLStateCache.useProgram(0);
 	}
 	
 	//Method for memory management, call stop to check no program is currently being used, 
@@ -87,20 +109,39 @@ public abstract class ShaderProgram {
 	}
 	//Method to load up values to uniform variable locations, simplest below is a float. 
 	protected void loadFloat(int location, float value) {
+		if(isUnchanged(location, value, 0, 0, 0)) {
+			return;
+		}
 		GL20.glUniform1f(location, value);
 	}
 	//Method to load up values to uniform variable locations, in this case for int. 
 	protected void loadInt(int location, int value) {
+		if(isUnchanged(location, value, 0, 0, 0)) {
+			return;
+		}
 		GL20.glUniform1i(location, value);
 	}
 	//Another method to load up values to uniform variable locations, in this case for 2d vectors 
-		protected void loadVector(int location, Vector2f vector) {
-			GL20.glUniform2f(location, vector.x, vector.y);
+	protected void loadVector(int location, Vector2f vector) {
+		if(isUnchanged(location, vector.x, vector.y, 0, 0)) {
+			return;
 		}
+		GL20.glUniform2f(location, vector.x, vector.y);
+	}
 	//Another method to load up values to uniform variable locations, in this case for 3d vectors 
 	protected void loadVector(int location, Vector3f vector) {
+		if(isUnchanged(location, vector.x, vector.y, vector.z, 0)) {
+			return;
+		}
 		GL20.glUniform3f(location, vector.x, vector.y, vector.z);
 	}
+	//Another method to load up values to uniform variable locations, in this case for 4d vectors 
+	protected void loadVector(int location, Vector4f vector) {
+		if(isUnchanged(location, vector.x, vector.y, vector.z, vector.w)) {
+			return;
+		}
+		GL20.glUniform4f(location, vector.x, vector.y, vector.z, vector.w);
+	}
 	//Another method to load up values to uniform variable locations, in this case for a boolean value (which is 0 or 1 
 	//as shaders don't use true/false. 
 	protected void loadBoolean(int location, boolean value) {
@@ -109,7 +150,7 @@ public abstract class ShaderProgram {
 		if (value) {
 			toLoad = 1;
 		};
-		GL20.glUniform1f(location, toLoad);
+		loadFloat(location, toLoad);
 	}
 	//Method to load a matrix (4x4) and load up values to uniform variable locations
 	protected void loadMatrix(int location, Matrix4f matrix) {
@@ -117,9 +158,64 @@ public abstract class ShaderProgram {
 		matrix.store(matrixBuffer);
 		//Flip float buffer to get it ready to be read from 
 		matrixBuffer.flip();
+		//Skip it if the same matrix was loaded last time, eg. the projection matrix 
+		if(isUnchanged(location, matrixBuffer)) {
+			return;
+		}
 		//Load into the location of the uniform variable. Transpose is false. 
 		GL20.glUniformMatrix4(location, false, matrixBuffer);
 	}
+	//Method to check whether up to 4 values are the same as the ones last loaded into a uniform location. If not 
+	//they are remembered as the values loaded. Uniforms the shader doesn't use have a location of -1, and loading 
+	//them does nothing, so they are always dropped. Counts each call made or dropped. 
+	private boolean isUnchanged(int location, float x, float y, float z, float w) {
+		if(location < 0) {
+			GLStateCache.countCall(true);
+			return true;
+		}
+		ensureUniformCapacity(location);
+		int start = location * UNIFORM_FLOATS;
+		boolean unchanged = uniformLoaded[location] && uniformValues[start] == x && uniformValues[start + 1] == y 
+				&& uniformValues[start + 2] == z && uniformValues[start + 3] == w;
+		if(!unchanged) {
+			uniformValues[start] = x;
+			uniformValues[start + 1] = y;
+			uniformValues[start + 2] = z;
+			uniformValues[start + 3] = w;
+			uniformLoaded[location] = true;
+		}
+		GLStateCache.countCall(unchanged);
+		return unchanged;
+	}
+	//Same as above for the 16 values of a matrix in a buffer, which is left as it was. 
+	private boolean isUnchanged(int location, FloatBuffer matrix) {
+		if(location < 0) {
+			GLStateCache.countCall(true);
+			return true;
+		}
+		ensureUniformCapacity(location);
+		int start = location * UNIFORM_FLOATS;
+		boolean unchanged = uniformLoaded[location];
+		for(int i = 0; i < UNIFORM_FLOATS; i++) {
+			float value = matrix.get(i);
+			if(uniformValues[start + i] != value) {
+				uniformValues[start + i] = value;
+				unchanged = false;
+			}
+		}
+		uniformLoaded[location] = true;
+		GLStateCache.countCall(unchanged);
+		return unchanged;
+	}
+	//Method to grow the uniform value arrays so they have room for a location. 
+	private void ensureUniformCapacity(int location) {
+		if(location < uniformLoaded.length) {
+			return;
+		}
+		int size = Math.max(location + 1, uniformLoaded.length * 2);
+		uniformValues = Arrays.copyOf(uniformValues, size * UNIFORM_FLOATS);
+		uniformLoaded = Arrays.copyOf(uniformLoaded, size);
+	}
 	//Method to load up shader source files. Takes in the file name as a string and an int which indicates 
 	//if it is a vertexShader or fragmentShader. 
 	private static int loadShader(String file, int type) {
@@ -2,35 +2,32 @@ package shaders;
 
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector2f;
-import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
 
-import entities.Camera;
-import entities.Light;
-import toolbox.Maths;
+import textures.ModelTexture;
 
-//Implementation of the Shader Program for static shaders. 
+//Implementation of the Shader Program for static shaders. The camera, light & fog come from the FrameUniformBuffer. 
 public class StaticShader extends ShaderProgram {
 	
 	//Declare the file paths as strings. 
 	private static final String VERTEX_FILE = "src/shaders/vertexShader.txt";
 	private static final String FRAGMENT_FILE = "src/shaders/fragmentShader.txt";
+	//First attribute of the per instance data for instanced drawing. The transformation matrix takes this one and 
+	//the three after it (a column each), and the texture offset the one after that. 
+	public static final int INSTANCE_ATTRIBUTE = 3;
 	//So that uniform variable locations can be stored. 
 	private int location_transformationMatrix; 
-	private int location_projectionMatrix;
-	private int location_viewMatrix;
-	//Both for light locations
-	private int location_lightPosition;
-	private int location_lightColour;
 	//Both for specular lighting locations
 	private int location_shineDampener;
 	private int location_reflectivity;
 	//For transparency 
 	private int location_useFakeLighting;
-	//For Fog
-	private int location_skyColour;
 	//for texture atlas
 	private int location_numberOfRows;
 	private int location_offset;
+	private int location_atlasTransform;
+	//for instanced drawing 
+	private int location_useInstancing;
 
 	//Defined constructor from the abstract shader program class. Pass in the vertex file path strings. 
 	public StaticShader() {
@@ -46,22 +43,22 @@ public class StaticShader extends ShaderProgram {
 		super.bindAttribute(1, "textureCoords");
 		//Binding the VAO listID two to normals variable in shader files
 		super.bindAttribute(2, "normal");
+		//Binding the per instance transformation matrix and texture offset for instanced drawing 
+		super.bindAttribute(INSTANCE_ATTRIBUTE, "instanceTransform");
+		super.bindAttribute(INSTANCE_ATTRIBUTE + 4, "instanceOffset");
 	}
 	//Override method to get the uniform variable names from shader file and store to the 
 	//class variables. 
 	@Override
 	protected void getAllUniformLocations() {
 		location_transformationMatrix = super.getUniformLocation("transformationMatrix");
-		location_projectionMatrix = super.getUniformLocation("projectionMatrix");
-		location_viewMatrix = super.getUniformLocation("viewMatrix");
-		location_lightPosition = super.getUniformLocation("lightPosition");
-		location_lightColour = super.getUniformLocation("lightColour");
 		location_shineDampener = super.getUniformLocation("shineDampener");
 		location_reflectivity = super.getUniformLocation("reflectivity");
 		location_useFakeLighting = super.getUniformLocation("useFakeLighting");
-		location_skyColour = super.getUniformLocation("skyColour");
 		location_numberOfRows = super.getUniformLocation("numberOfRows");
 		location_offset = super.getUniformLocation("offset");
+		location_atlasTransform = super.getUniformLocation("atlasTransform");
+		location_useInstancing = super.getUniformLocation("useInstancing");
 	}
 	
 	//Methods to load up number of rows & offset for texture atlas
@@ -71,11 +68,17 @@ public class StaticShader extends ShaderProgram {
 	public void loadOffset(float x, float y) {
 		super.loadVector(location_offset, new Vector2f(x,y));
 	}
+	//Method to load up where the texture is on a shared atlas page (offset & scale) 
+	public void loadAtlasTransform(ModelTexture texture) {
+		super.loadVector(location_atlasTransform, new Vector4f(texture.getAtlasOffsetX(), texture.getAtlasOffsetY(), 
+				texture.getAtlasScaleX(), texture.getAtlasScaleY()));
+	}
 	
-	//Method to load up sky colour for fog effect.
-	public void loadSkyColour(float r, float g, float b) {
-		super.loadVector(location_skyColour, new Vector3f(r,g,b));
+	//Method to load up whether the transformation & offset come from the instance attributes or the uniforms 
+	public void loadUseInstancing(boolean useInstancing) {
+		super.loadBoolean(location_useInstancing, useInstancing);
 	}
+	
 	//Method to load up use Fake lighting variable.
 	public void loadFakeLightingVariable(boolean useFake) {
 		super.loadBoolean(location_useFakeLighting, useFake);
@@ -90,22 +93,5 @@ public class StaticShader extends ShaderProgram {
 		//Already have this method in the shader class so just use super. to call it here.
 		super.loadMatrix(location_transformationMatrix, matrix);
 	}
-	//Methods to load up the light variables into the class.
-	public void loadLight(Light light) {
-		super.loadVector(location_lightPosition, light.getPosition());
-		super.loadVector(location_lightColour, light.getColour());
-	}
 	
-	//Method to load up a view matrix to the class variable.
-	public void loadViewMatrix(Camera camera) {
-		//Create the view matrix
-		Matrix4f viewMatrix = Maths.createViewMatrix(camera);
-		//Load the matrix
-		super.loadMatrix(location_viewMatrix, viewMatrix);
-	}
-	//Method to load up a projection Matrix to the class variable. 
-	public void loadProjectionMatrix(Matrix4f projection) {
-		//Already have this method in the shader class so just use super. to call it here. 
-		super.loadMatrix(location_projectionMatrix, projection);
-	}
 }
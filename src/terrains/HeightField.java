@@ -0,0 +1,354 @@
+package terrains;
+
+import java.util.Arrays;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import models.MeshData;
+
+//The height of every vertex of a terrain, for collision detection. The heights are kept in one flat array row by row
+//(the same order as the mesh) rather than an array of arrays, so there is one object instead of one per column and
+//neighbouring heights sit next to each other in memory. They can also be quantised to 16 or 8 bits each, stored as
+//a step count up from the lowest height, which halves or quarters the memory at the cost of being out by up to half
+//a step (see getMaxError).
+//
+//getHeight gives exactly the same answer as the old code that built a Vector3f for each corner of the triangle and
+//called Maths.barycentricCalc, but without making any objects, so it can be called as often as needed.
+public class HeightField {
+
+	//Number of vertices along each side.
+	private final int size;
+	//Width of the terrain and of each grid square.
+	private final float terrainSize;
+	private final float gridSquareSize;
+	//Bits per height, 32 for full floats or 16/8 for quantised.
+	private final int bits;
+	//Only one of these is used, depending on the bits.
+	private final float[] heights;
+	private final short[] shortHeights;
+	private final byte[] byteHeights;
+	//A quantised height is offset + steps * scale.
+	private final float offset;
+	private final float scale;
+
+	//Constructor that takes the heights from a terrain mesh (the y of each position) at full precision.
+	public HeightField(MeshData mesh) {
+		this(mesh, 32);
+	}
+
+	//Same as above but with 32, 16 or 8 bits per height.
+	public HeightField(MeshData mesh, int bits) {
+		this(getPositionHeights(mesh), (int) Math.round(Math.sqrt(mesh.getVertexCount())), Terrain.SIZE, bits);
+	}
+
+	//Constructor that takes the heights of size x size vertices row by row, spread across a terrain terrainSize
+	//wide, stored with 32, 16 or 8 bits each. Full precision keeps the array as it is.
+	public HeightField(float[] heights, int size, float terrainSize, int bits) {
+		if (heights.length != size * size) {
+			throw new IllegalArgumentException("Expected " + size * size + " heights but got " + heights.length);
+		}
+		if (bits != 32 && bits != 16 && bits != 8) {
+			throw new IllegalArgumentException("Heights can only be stored with 32, 16 or 8 bits, not " + bits);
+		}
+		this.size = size;
+		this.terrainSize = terrainSize;
+		this.gridSquareSize = terrainSize / ((float) size - 1);
+		this.bits = bits;
+		if (bits == 32) {
+			this.heights = heights;
+			this.shortHeights = null;
+			this.byteHeights = null;
+			this.offset = 0;
+			this.scale = 0;
+			return;
+		}
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		for (float height : heights) {
+			min = Math.min(min, height);
+			max = Math.max(max, height);
+		}
+		int steps = (1 << bits) - 1;
+		this.heights = null;
+		this.offset = min;
+		this.scale = (max - min) / steps;
+		this.shortHeights = bits == 16 ? new short[heights.length] : null;
+		this.byteHeights = bits == 8 ? new byte[heights.length] : null;
+		for (int i = 0; i < heights.length; i++) {
+			//A flat terrain has no steps, everything is the offset
+			int step = scale == 0 ? 0 : Math.min(steps, Math.round((heights[i] - min) / scale));
+			if (bits == 16) {
+				shortHeights[i] = (short) step;
+			} else {
+				byteHeights[i] = (byte) step;
+			}
+		}
+	}
+
+	//Height of the terrain at a position relative to the terrain's corner, 0 off the edge of the terrain. Works out
+	//which triangle of which grid square the position is on and blends the heights of its corners.
+	public float getHeight(float terrainX, float terrainZ) {
+		if (heights != null) {
+			return sample(heights, terrainX, terrainZ);
+		}
+		return sampleQuantised(terrainX, terrainZ);
+	}
+
+	//Heights of lots of positions scattered anywhere at once (eg. when grounding a crowd), each exactly what getHeight
+	//gives for it. The positions are world positions and offsetX, offsetZ is where the terrain's corner is, as
+	//subtracting it here gives the same positions Terrain.getHeightOfTerrain does.
+	public void getHeights(float[] xs, float[] zs, float offsetX, float offsetZ, float[] results) {
+		getHeights(xs, zs, 0, xs.length, offsetX, offsetZ, results);
+	}
+
+	//Same as above but only for the positions from index from up to (not including) to, eg. the ones on this
+	//terrain when the positions are spread across several.
+	public void getHeights(float[] xs, float[] zs, int from, int to, float offsetX, float offsetZ, float[] results) {
+		if (from < 0 || from > to || to > xs.length || to > zs.length || to > results.length) {
+			throw new IllegalArgumentException("Can't get heights " + from + " to " + to + " from " + xs.length
+					+ " x and " + zs.length + " z positions into " + results.length + " results");
+		}
+		for (int i = from; i < to; i++) {
+			float terrainX = xs[i] - offsetX;
+			float terrainZ = zs[i] - offsetZ;
+			int gridX = getSquare(terrainX);
+			int gridZ = getSquare(terrainZ);
+			if (gridX < 0 || gridZ < 0) {
+				results[i] = 0;
+				continue;
+			}
+			float xCoord = remainder(terrainX, gridSquareSize, gridX) / gridSquareSize;
+			float zCoord = remainder(terrainZ, gridSquareSize, gridZ) / gridSquareSize;
+			results[i] = blend(gridZ * size + gridX, xCoord, zCoord);
+		}
+	}
+
+	//Heights of a grid of columns x rows positions at once (eg. when scattering foliage or building a map of the
+	//ground), put into results row by row. Column c of row r is at startX + c * stepX, startZ + r * stepZ in the world,
+	//and offsetX, offsetZ is where the terrain's corner is, as subtracting it here gives the same positions
+	//Terrain.getHeightOfTerrain does. Each result is exactly what getHeight gives for its position.
+	//
+	//Every position in a column shares its grid square along x and where it is inside it, and every position in a
+	//row shares them along z, so they are worked out once per column and once per row. That leaves only the blend of
+	//the corners for each position, with no division or remainder.
+	public void getHeights(float startX, float startZ, float stepX, float stepZ, int columns, int rows, float offsetX,
+			float offsetZ, float[] results) {
+		if (columns < 0 || rows < 0 || results.length < (long) columns * rows) {
+			throw new IllegalArgumentException("Need room for " + columns + " x " + rows + " results but got "
+					+ results.length);
+		}
+		//The grid square of each column (-1 if it is off the terrain) and where the column is inside it
+		int[] columnSquares = new int[columns];
+		float[] columnCoords = new float[columns];
+		for (int column = 0; column < columns; column++) {
+			float terrainX = (startX + column * stepX) - offsetX;
+			columnSquares[column] = getSquare(terrainX);
+			if (columnSquares[column] >= 0) {
+				columnCoords[column] = remainder(terrainX, gridSquareSize, columnSquares[column]) / gridSquareSize;
+			}
+		}
+		for (int row = 0; row < rows; row++) {
+			float terrainZ = (startZ + row * stepZ) - offsetZ;
+			int gridZ = getSquare(terrainZ);
+			int rowStart = row * columns;
+			if (gridZ < 0) {
+				Arrays.fill(results, rowStart, rowStart + columns, 0);
+				continue;
+			}
+			float zCoord = remainder(terrainZ, gridSquareSize, gridZ) / gridSquareSize;
+			int rowIndex = gridZ * size;
+			for (int column = 0; column < columns; column++) {
+				int gridX = columnSquares[column];
+				results[rowStart + column] = gridX < 0 ? 0 : blend(rowIndex + gridX, columnCoords[column], zCoord);
+			}
+		}
+	}
+
+	//Normal of the terrain's surface at a position relative to the terrain's corner, put into dest. It is the normal
+	//of the flat triangle getHeight blends across, or straight up off the edge of the terrain.
+	public Vector3f getNormal(float terrainX, float terrainZ, Vector3f dest) {
+		float squareX = terrainX / gridSquareSize;
+		float squareZ = terrainZ / gridSquareSize;
+		int gridX = (int) squareX;
+		int gridZ = (int) squareZ;
+		if (squareX < 0 || squareZ < 0 || gridX >= size - 1 || gridZ >= size - 1) {
+			dest.set(0, 1, 0);
+			return dest;
+		}
+		float xCoord = remainder(terrainX, gridSquareSize, gridX) / gridSquareSize;
+		float zCoord = remainder(terrainZ, gridSquareSize, gridZ) / gridSquareSize;
+		int index = gridZ * size + gridX;
+		//The slope of the triangle along x & z, in height per grid square
+		float slopeX;
+		float slopeZ;
+		if (xCoord <= (1 - zCoord)) {
+			slopeX = get(index + 1) - get(index);
+			slopeZ = get(index + size) - get(index);
+		} else {
+			slopeX = get(index + size + 1) - get(index + size);
+			slopeZ = get(index + size + 1) - get(index + 1);
+		}
+		dest.set(-slopeX, gridSquareSize, -slopeZ);
+		dest.normalise();
+		return dest;
+	}
+
+	//Height of the vertex at grid coordinates x, z.
+	public float getVertexHeight(int x, int z) {
+		return get(z * size + x);
+	}
+
+	//Change the height of the vertex at grid coordinates x, z, eg. when the terrain is deformed. Only full precision
+	//heights can be changed, as a new height could be outside the range the quantised ones cover.
+	public void setVertexHeight(int x, int z, float height) {
+		if (heights == null) {
+			throw new IllegalStateException("Heights quantised to " + bits + " bits can't be changed");
+		}
+		heights[z * size + x] = height;
+	}
+
+	//Memory used by the heights, in bytes.
+	public long getMemoryBytes() {
+		return (long) size * size * bits / 8;
+	}
+
+	//Most a stored height can be off from the one it was made from, half a step for quantised heights.
+	public float getMaxError() {
+		return scale / 2;
+	}
+
+	//Height of a position from full precision heights.
+	private float sample(float[] heights, float terrainX, float terrainZ) {
+		float squareX = terrainX / gridSquareSize;
+		float squareZ = terrainZ / gridSquareSize;
+		//Test if this x,z position is actually on the terrain. Past this point the squares aren't negative, so
+		//casting is the same as flooring
+		if (squareX < 0 || squareZ < 0) {
+			return 0;
+		}
+		int gridX = (int) squareX;
+		int gridZ = (int) squareZ;
+		if (gridX >= size - 1 || gridZ >= size - 1) {
+			return 0;
+		}
+		//Position inside the grid square between 0 and 1
+		float xCoord = remainder(terrainX, gridSquareSize, gridX) / gridSquareSize;
+		float zCoord = remainder(terrainZ, gridSquareSize, gridZ) / gridSquareSize;
+		int index = gridZ * size + gridX;
+		//The top left triangle has corners 0,0 1,0 0,1 and the bottom right 1,0 1,1 0,1. The sums are the ones
+		//barycentricCalc does for those corners, so the answer is exactly the same
+		if (xCoord <= (1 - zCoord)) {
+			return barycentric(0, heights[index], 0, 1, heights[index + 1], 0, 0, heights[index + size], 1, xCoord,
+					zCoord);
+		} else {
+			return barycentric(1, heights[index + 1], 0, 1, heights[index + size + 1], 1, 0, heights[index + size], 1,
+					xCoord, zCoord);
+		}
+	}
+
+	//Same as above but from quantised heights.
+	private float sampleQuantised(float terrainX, float terrainZ) {
+		float squareX = terrainX / gridSquareSize;
+		float squareZ = terrainZ / gridSquareSize;
+		if (squareX < 0 || squareZ < 0) {
+			return 0;
+		}
+		int gridX = (int) squareX;
+		int gridZ = (int) squareZ;
+		if (gridX >= size - 1 || gridZ >= size - 1) {
+			return 0;
+		}
+		float xCoord = remainder(terrainX, gridSquareSize, gridX) / gridSquareSize;
+		float zCoord = remainder(terrainZ, gridSquareSize, gridZ) / gridSquareSize;
+		int index = gridZ * size + gridX;
+		if (xCoord <= (1 - zCoord)) {
+			return barycentric(0, get(index), 0, 1, get(index + 1), 0, 0, get(index + size), 1, xCoord, zCoord);
+		} else {
+			return barycentric(1, get(index + 1), 0, 1, get(index + size + 1), 1, 0, get(index + size), 1, xCoord,
+					zCoord);
+		}
+	}
+
+	//Grid square a position along x or z (relative to the terrain's corner) is in, or -1 if it is off the terrain.
+	//Same test as sample, the square isn't negative past the first check so casting is the same as flooring.
+	private int getSquare(float terrainPosition) {
+		float square = terrainPosition / gridSquareSize;
+		if (square < 0) {
+			return -1;
+		}
+		int grid = (int) square;
+		return grid >= size - 1 ? -1 : grid;
+	}
+
+	//Blend of the corners of the grid square whose top left corner is at an index, at a position inside the square.
+	//The same sums as sample and sampleQuantised.
+	private float blend(int index, float xCoord, float zCoord) {
+		if (xCoord <= (1 - zCoord)) {
+			return barycentric(0, get(index), 0, 1, get(index + 1), 0, 0, get(index + size), 1, xCoord, zCoord);
+		} else {
+			return barycentric(1, get(index + 1), 0, 1, get(index + size + 1), 1, 0, get(index + size), 1, xCoord,
+					zCoord);
+		}
+	}
+
+	//Height of the vertex at an index of the flat array.
+	private float get(int index) {
+		if (heights != null) {
+			return heights[index];
+		} else if (shortHeights != null) {
+			return offset + (shortHeights[index] & 0xFFFF) * scale;
+		} else {
+			return offset + (byteHeights[index] & 0xFF) * scale;
+		}
+	}
+
+	//Same as value % divisor for a value that isn't negative, but much quicker than the % operator (which is worked
+	//out with a loop). quotient is the whole number of divisors in the value from dividing them, which can be out by
+	//one from the rounding of the division. Every step is exact in doubles, so the answer is exactly what % gives.
+	private static float remainder(float value, float divisor, int quotient) {
+		double remainder = value - (double) quotient * divisor;
+		if (remainder < 0) {
+			remainder += divisor;
+		} else if (remainder >= divisor) {
+			remainder -= divisor;
+		}
+		return (float) remainder;
+	}
+
+	//Same sums as Maths.barycentricCalc, without needing the points as vectors.
+	private static float barycentric(float x1, float y1, float z1, float x2, float y2, float z2, float x3, float y3,
+			float z3, float positionX, float positionY) {
+		float det = (z2 - z3) * (x1 - x3) + (x3 - x2) * (z1 - z3);
+		float len1 = ((z2 - z3) * (positionX - x3) + (x3 - x2) * (positionY - z3)) / det;
+		float len2 = ((z3 - z1) * (positionX - x3) + (x1 - x3) * (positionY - z3)) / det;
+		float len3 = 1.0f - len1 - len2;
+		return len1 * y1 + len2 * y2 + len3 * y3;
+	}
+
+	//The y of every position of a mesh.
+	private static float[] getPositionHeights(MeshData mesh) {
+		float[] positions = mesh.getPositions();
+		float[] heights = new float[positions.length / 3];
+		for (int i = 0; i < heights.length; i++) {
+			heights[i] = positions[i * 3 + 1];
+		}
+		return heights;
+	}
+
+	//Getters for the properties
+	public int getSize() {
+		return size;
+	}
+
+	public float getTerrainSize() {
+		return terrainSize;
+	}
+
+	public float getGridSquareSize() {
+		return gridSquareSize;
+	}
+
+	public int getBits() {
+		return bits;
+	}
+}
@@ -0,0 +1,249 @@
+package terrains;
+
+//Finds where rays hit a HeightField, eg. for mouse picking, line of sight or keeping the camera out of hills. Marching
+//along the ray a grid square at a time would be far too slow for lots of rays a frame, so the heights are built into
+//a pyramid of min/max levels: level 0 has the lowest and highest height of each grid square, and each level above
+//has the lowest and highest of 2x2 squares of the level below, up to one cell for the whole terrain. A ray is tested
+//against the top cell, and only goes down into the children (nearest first) where it passes through their height
+//range, so whole areas the ray passes over are skipped at once. At the bottom the ray is tested against the two
+//triangles of the grid square, which are the same flat triangles HeightField.getHeight blends across.
+//
+//Everything is in the terrain's own coordinates. Ray directions don't need to be normalised, distances are in
+//lengths of the direction.
+public class HeightFieldRaycaster {
+
+	//Given back when a ray doesn't hit the terrain.
+	public static final float MISS = -1;
+	//The height ranges are widened by this much, and the triangle tests allow this much either side of the edges,
+	//so rounding never lets a ray slip through the gap between two squares.
+	private static final float EPSILON = 1e-4f;
+
+	private final HeightField heights;
+	private final int squares;
+	private final float gridSquareSize;
+	//Cells along each side of each level, and their lowest & highest heights row by row.
+	private final int[] sizes;
+	private final float[][] minHeights;
+	private final float[][] maxHeights;
+
+	//Constructor that builds the pyramid for a height field. If the heights change the pyramid has to be updated.
+	public HeightFieldRaycaster(HeightField heights) {
+		this.heights = heights;
+		this.squares = heights.getSize() - 1;
+		this.gridSquareSize = heights.getGridSquareSize();
+		int levelCount = 1;
+		while ((1 << (levelCount - 1)) < squares) {
+			levelCount++;
+		}
+		sizes = new int[levelCount];
+		minHeights = new float[levelCount][];
+		maxHeights = new float[levelCount][];
+		sizes[0] = squares;
+		for (int level = 1; level < levelCount; level++) {
+			sizes[level] = (sizes[level - 1] + 1) / 2;
+		}
+		for (int level = 0; level < levelCount; level++) {
+			minHeights[level] = new float[sizes[level] * sizes[level]];
+			maxHeights[level] = new float[sizes[level] * sizes[level]];
+		}
+		update(0, 0, squares, squares);
+	}
+
+	//Update the pyramid after the heights of the vertices from minX, minZ to maxX, maxZ (inclusive) have changed.
+	//Only the cells over those vertices are worked out again, on every level.
+	public void update(int minX, int minZ, int maxX, int maxZ) {
+		//The grid squares that have one of the vertices as a corner
+		int startX = Math.max(minX - 1, 0);
+		int startZ = Math.max(minZ - 1, 0);
+		int endX = Math.min(maxX, squares - 1);
+		int endZ = Math.min(maxZ, squares - 1);
+		if (startX > endX || startZ > endZ) {
+			return;
+		}
+		//Level 0 from the corners of each grid square
+		for (int z = startZ; z <= endZ; z++) {
+			for (int x = startX; x <= endX; x++) {
+				float h00 = heights.getVertexHeight(x, z);
+				float h10 = heights.getVertexHeight(x + 1, z);
+				float h01 = heights.getVertexHeight(x, z + 1);
+				float h11 = heights.getVertexHeight(x + 1, z + 1);
+				minHeights[0][z * squares + x] = Math.min(Math.min(h00, h10), Math.min(h01, h11)) - EPSILON;
+				maxHeights[0][z * squares + x] = Math.max(Math.max(h00, h10), Math.max(h01, h11)) + EPSILON;
+			}
+		}
+		//Each level above from up to 2x2 cells of the one below (the cells past the edge are left out)
+		for (int level = 1; level < sizes.length; level++) {
+			int below = sizes[level - 1];
+			int size = sizes[level];
+			startX /= 2;
+			startZ /= 2;
+			endX /= 2;
+			endZ /= 2;
+			for (int z = startZ; z <= endZ; z++) {
+				for (int x = startX; x <= endX; x++) {
+					float min = Float.POSITIVE_INFINITY;
+					float max = Float.NEGATIVE_INFINITY;
+					for (int childZ = z * 2; childZ < Math.min(z * 2 + 2, below); childZ++) {
+						for (int childX = x * 2; childX < Math.min(x * 2 + 2, below); childX++) {
+							min = Math.min(min, minHeights[level - 1][childZ * below + childX]);
+							max = Math.max(max, maxHeights[level - 1][childZ * below + childX]);
+						}
+					}
+					minHeights[level][z * size + x] = min;
+					maxHeights[level][z * size + x] = max;
+				}
+			}
+		}
+	}
+
+	//Distance along a ray to where it first hits the terrain, or MISS if it doesn't within maxDistance.
+	public float raycast(float originX, float originY, float originZ, float directionX, float directionY,
+			float directionZ, float maxDistance) {
+		return intersect(sizes.length - 1, 0, 0, originX, originY, originZ, directionX, directionY, directionZ, 0,
+				maxDistance);
+	}
+
+	//Cast lots of rays at once. The origins and directions are x, y, z for each ray one after another, and the
+	//distance to each hit (or MISS) is put into distances.
+	public void raycast(float[] origins, float[] directions, float maxDistance, float[] distances) {
+		int count = distances.length;
+		if (origins.length < count * 3 || directions.length < count * 3) {
+			throw new IllegalArgumentException("Need " + count * 3 + " origin and direction values but got "
+					+ origins.length + " and " + directions.length);
+		}
+		for (int i = 0; i < count; i++) {
+			int p = i * 3;
+			distances[i] = raycast(origins[p], origins[p + 1], origins[p + 2], directions[p], directions[p + 1],
+					directions[p + 2], maxDistance);
+		}
+	}
+
+	//Test a ray against a cell of a level between distances start and end, going down into the cell's children if
+	//the ray passes through its height range.
+	private float intersect(int level, int cellX, int cellZ, float originX, float originY, float originZ,
+			float directionX, float directionY, float directionZ, float start, float end) {
+		//Clip the ray to the cell's square
+		int span = 1 << level;
+		float minX = cellX * span * gridSquareSize;
+		float maxX = Math.min((cellX + 1) * span, squares) * gridSquareSize;
+		float minZ = cellZ * span * gridSquareSize;
+		float maxZ = Math.min((cellZ + 1) * span, squares) * gridSquareSize;
+		float enter = start;
+		float exit = end;
+		if (directionX != 0) {
+			float near = (minX - originX) / directionX;
+			float far = (maxX - originX) / directionX;
+			enter = Math.max(enter, Math.min(near, far));
+			exit = Math.min(exit, Math.max(near, far));
+		} else if (originX < minX || originX > maxX) {
+			return MISS;
+		}
+		if (directionZ != 0) {
+			float near = (minZ - originZ) / directionZ;
+			float far = (maxZ - originZ) / directionZ;
+			enter = Math.max(enter, Math.min(near, far));
+			exit = Math.min(exit, Math.max(near, far));
+		} else if (originZ < minZ || originZ > maxZ) {
+			return MISS;
+		}
+		if (enter > exit) {
+			return MISS;
+		}
+		//Skip the cell if the ray is above or below all of it while it is over the cell
+		float enterY = originY + directionY * enter;
+		float exitY = originY + directionY * exit;
+		int cell = cellZ * sizes[level] + cellX;
+		if (Math.min(enterY, exitY) > maxHeights[level][cell] || Math.max(enterY, exitY) < minHeights[level][cell]) {
+			return MISS;
+		}
+		if (level == 0) {
+			return intersectSquare(cellX, cellZ, originX, originY, originZ, directionX, directionY, directionZ, start,
+					end);
+		}
+		//The children nearest the ray's start first, so the first hit found is the nearest. A ray can only pass
+		//through one of the two middle children, so their order doesn't matter
+		int nearX = directionX >= 0 ? 0 : 1;
+		int nearZ = directionZ >= 0 ? 0 : 1;
+		int size = sizes[level - 1];
+		for (int child = 0; child < 4; child++) {
+			int childX = cellX * 2 + ((child & 1) ^ nearX);
+			int childZ = cellZ * 2 + ((child >> 1) ^ nearZ);
+			if (childX < size && childZ < size) {
+				float hit = intersect(level - 1, childX, childZ, originX, originY, originZ, directionX, directionY,
+						directionZ, start, end);
+				if (hit != MISS) {
+					return hit;
+				}
+			}
+		}
+		return MISS;
+	}
+
+	//Test a ray against the two triangles of a grid square, split the same way as HeightField.getHeight.
+	private float intersectSquare(int gridX, int gridZ, float originX, float originY, float originZ,
+			float directionX, float directionY, float directionZ, float start, float end) {
+		float h00 = heights.getVertexHeight(gridX, gridZ);
+		float h10 = heights.getVertexHeight(gridX + 1, gridZ);
+		float h01 = heights.getVertexHeight(gridX, gridZ + 1);
+		float h11 = heights.getVertexHeight(gridX + 1, gridZ + 1);
+		//Work from the square's corner so the numbers stay small
+		float x = originX - gridX * gridSquareSize;
+		float z = originZ - gridZ * gridSquareSize;
+		float size = gridSquareSize;
+		float first = intersectTriangle(0, h00, 0, size, h10, 0, 0, h01, size, x, originY, z, directionX, directionY,
+				directionZ);
+		float second = intersectTriangle(size, h10, 0, size, h11, size, 0, h01, size, x, originY, z, directionX,
+				directionY, directionZ);
+		float hit = MISS;
+		if (first >= start && first <= end) {
+			hit = first;
+		}
+		if (second >= start && second <= end && (hit == MISS || second < hit)) {
+			hit = second;
+		}
+		return hit;
+	}
+
+	//Distance along a ray to where it crosses a triangle (from either side), or MISS (the Moller-Trumbore test).
+	private static float intersectTriangle(float x1, float y1, float z1, float x2, float y2, float z2, float x3,
+			float y3, float z3, float originX, float originY, float originZ, float directionX, float directionY,
+			float directionZ) {
+		float edge1X = x2 - x1;
+		float edge1Y = y2 - y1;
+		float edge1Z = z2 - z1;
+		float edge2X = x3 - x1;
+		float edge2Y = y3 - y1;
+		float edge2Z = z3 - z1;
+		//p = direction x edge2
+		float pX = directionY * edge2Z - directionZ * edge2Y;
+		float pY = directionZ * edge2X - directionX * edge2Z;
+		float pZ = directionX * edge2Y - directionY * edge2X;
+		float det = edge1X * pX + edge1Y * pY + edge1Z * pZ;
+		//Ray is parallel to the triangle
+		if (det == 0) {
+			return MISS;
+		}
+		float invDet = 1 / det;
+		float tX = originX - x1;
+		float tY = originY - y1;
+		float tZ = originZ - z1;
+		float u = (tX * pX + tY * pY + tZ * pZ) * invDet;
+		if (u < -EPSILON || u > 1 + EPSILON) {
+			return MISS;
+		}
+		//q = t x edge1
+		float qX = tY * edge1Z - tZ * edge1Y;
+		float qY = tZ * edge1X - tX * edge1Z;
+		float qZ = tX * edge1Y - tY * edge1X;
+		float v = (directionX * qX + directionY * qY + directionZ * qZ) * invDet;
+		if (v < -EPSILON || u + v > 1 + EPSILON) {
+			return MISS;
+		}
+		return (edge2X * qX + edge2Y * qY + edge2Z * qZ) * invDet;
+	}
+
+	//Getters for the properties
+	public int getLevelCount() {
+		return sizes.length;
+	}
+}
@@ -0,0 +1,14 @@
+package terrains;
+
+//Somewhere the heights of the terrain come from, so the world doesn't have to be built from heightmap images. The
+//world is one big grid of samples, and each tile of gridX, gridZ with vertexCount vertices along each side covers
+//samples gridX * (vertexCount - 1) to gridX * (vertexCount - 1) + vertexCount - 1 (see TerrainGenerator). As
+//neighbouring tiles ask for the same samples along their shared edge, they always line up.
+//
+//Sources are called from lots of worker threads at once, and must give the same height for the same sample every
+//time it is asked for.
+public interface HeightSource {
+
+	//Height of the terrain at a sample of the world grid, between -TerrainGenerator.MAX_HEIGHT and MAX_HEIGHT.
+	float getHeight(int sampleX, int sampleZ);
+}
@@ -0,0 +1,139 @@
+package terrains;
+
+//Makes heights from noise rather than an image, so any number of tiles can be made on demand. The noise is gradient
+//(Perlin) noise at several octaves added together (fractal Brownian motion), either as is for rolling hills or as
+//ridged noise (one minus the size of each octave, squared) for sharp mountain ridges. Before the noise is sampled the
+//position is pushed around by another, lower detail lot of noise (domain warping), which bends the hills into less
+//regular shapes.
+//
+//The gradients come from hashing the lattice point with the seed, and only adds, multiplies and floors are used, so
+//the same seed always gives bit for bit the same heights, on any thread and in any order.
+public class ProceduralHeightSource implements HeightSource {
+
+	//Each octave has this many times the detail and this fraction of the height of the one before.
+	private static final double LACUNARITY = 2;
+	private static final double GAIN = 0.5;
+	//Every octave is shifted by this much, otherwise they would all be 0 at the same lattice points and leave a grid
+	//of flat spots across the world.
+	private static final double OCTAVE_SHIFT = 0.3819660112501051;
+	//Octaves of noise used to warp the position.
+	private static final int WARP_OCTAVES = 3;
+	//Added to the seed for the warp noise along x and z, so they don't line up with the height noise.
+	private static final long WARP_X_SEED = 0x632BE59BD9B4E019L;
+	private static final long WARP_Z_SEED = 0x85157AF5D2C3F5A1L;
+	//The 8 directions the gradients at the lattice points can point in.
+	private static final double DIAGONAL = 0.7071067811865476;
+	private static final double[] GRADIENT_X = {1, -1, 0, 0, DIAGONAL, -DIAGONAL, DIAGONAL, -DIAGONAL};
+	private static final double[] GRADIENT_Z = {0, 0, 1, -1, DIAGONAL, DIAGONAL, -DIAGONAL, -DIAGONAL};
+
+	private final long seed;
+	private final int octaves;
+	//Size of the biggest hills in samples, and how far the position is warped in samples.
+	private final double featureSize;
+	private final double warpStrength;
+	private final boolean ridged;
+
+	//Constructor for rolling hills about 256 samples across, a tile of the default size.
+	public ProceduralHeightSource(long seed) {
+		this(seed, 6, 256, 48, false);
+	}
+
+	//Constructor that takes in the seed, how many octaves of noise to add up, how big the biggest hills are and how
+	//far to warp the position (both in samples), and whether to use ridged noise.
+	public ProceduralHeightSource(long seed, int octaves, float featureSize, float warpStrength, boolean ridged) {
+		if (octaves < 1 || featureSize <= 0) {
+			throw new IllegalArgumentException("Need at least one octave and a feature size above 0, got " + octaves
+					+ " and " + featureSize);
+		}
+		this.seed = seed;
+		this.octaves = octaves;
+		this.featureSize = featureSize;
+		this.warpStrength = warpStrength;
+		this.ridged = ridged;
+	}
+
+	@Override
+	public float getHeight(int sampleX, int sampleZ) {
+		double x = sampleX / featureSize;
+		double z = sampleZ / featureSize;
+		//Push the position around by the warp noise
+		if (warpStrength != 0) {
+			double warp = warpStrength / featureSize;
+			double warpX = fractalNoise(x, z, seed + WARP_X_SEED, WARP_OCTAVES, false);
+			double warpZ = fractalNoise(x, z, seed + WARP_Z_SEED, WARP_OCTAVES, false);
+			x += warpX * warp;
+			z += warpZ * warp;
+		}
+		//The noise can go just past 1 in the odd place
+		double height = Math.max(-1, Math.min(1, fractalNoise(x, z, seed, octaves, ridged)));
+		return (float) (height * TerrainGenerator.MAX_HEIGHT);
+	}
+
+	//Octaves of noise added up and scaled back to between -1 and 1.
+	private static double fractalNoise(double x, double z, long seed, int octaves, boolean ridged) {
+		double total = 0;
+		double amplitude = 1;
+		double amplitudes = 0;
+		x += OCTAVE_SHIFT;
+		z += OCTAVE_SHIFT;
+		for (int octave = 0; octave < octaves; octave++) {
+			double noise = gradientNoise(x, z, seed + octave);
+			if (ridged) {
+				//Sharp ridges where the noise crosses 0, moved to between -1 and 1
+				noise = 1 - Math.abs(noise);
+				noise = noise * noise * 2 - 1;
+			}
+			total += noise * amplitude;
+			amplitudes += amplitude;
+			amplitude *= GAIN;
+			x = x * LACUNARITY + OCTAVE_SHIFT;
+			z = z * LACUNARITY + OCTAVE_SHIFT;
+		}
+		return total / amplitudes;
+	}
+
+	//2D Perlin noise, roughly between -1 and 1. The position is in lattice squares.
+	private static double gradientNoise(double x, double z, long seed) {
+		double floorX = Math.floor(x);
+		double floorZ = Math.floor(z);
+		long latticeX = (long) floorX;
+		long latticeZ = (long) floorZ;
+		double fractionX = x - floorX;
+		double fractionZ = z - floorZ;
+		//Dot product of each corner's gradient with the offset from that corner
+		double n00 = corner(latticeX, latticeZ, seed, fractionX, fractionZ);
+		double n10 = corner(latticeX + 1, latticeZ, seed, fractionX - 1, fractionZ);
+		double n01 = corner(latticeX, latticeZ + 1, seed, fractionX, fractionZ - 1);
+		double n11 = corner(latticeX + 1, latticeZ + 1, seed, fractionX - 1, fractionZ - 1);
+		//Blend them with a smooth curve so the noise has no creases along the lattice lines
+		double blendX = fade(fractionX);
+		double blendZ = fade(fractionZ);
+		double top = n00 + (n10 - n00) * blendX;
+		double bottom = n01 + (n11 - n01) * blendX;
+		//Perlin noise only reaches about +-0.7 in 2D, so stretch it to about +-1
+		return (top + (bottom - top) * blendZ) * 1.4142135623730951;
+	}
+
+	private static double corner(long latticeX, long latticeZ, long seed, double offsetX, double offsetZ) {
+		int gradient = (int) (hash(latticeX, latticeZ, seed) >>> 61);
+		return GRADIENT_X[gradient] * offsetX + GRADIENT_Z[gradient] * offsetZ;
+	}
+
+	//6t^5 - 15t^4 + 10t^3
+	private static double fade(double t) {
+		return t * t * t * (t * (t * 6 - 15) + 10);
+	}
+
+	//Mixes a lattice point and seed into well spread out bits (the SplitMix64 finaliser).
+	private static long hash(long x, long z, long seed) {
+		long hash = seed ^ (x * 0x9E3779B97F4A7C15L) ^ (z * 0xC2B2AE3D27D4EB4FL);
+		hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+		return hash ^ (hash >>> 31);
+	}
+
+	//Getters for the properties
+	public long getSeed() {
+		return seed;
+	}
+}
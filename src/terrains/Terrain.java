@@ -3,167 +3,170 @@ package terrains;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 
-import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 
+import models.MeshData;
 import models.RawModel;
+import models.VertexFormat;
 import renderEngine.Loader;
 import textures.TerrainTexture;
 import textures.TerrainTexturePack;
-import toolbox.Maths;
+import toolbox.Frustum;
 
 public class Terrain {
 
-	//final settings for the terrain, eg 800 chunks 
-	private static final float SIZE = 800;
-	private static final float MAX_HEIGHT = 40; //ie min height therefore -40
-	private static final float MAX_PIXEL_COLOUR = 256 * 256 * 256;  // 0-255 on each r g b channel 
+	//final settings for the terrain, eg 800 chunks (the heights are set in the TerrainGenerator) 
+	static final float SIZE = 800;
+	//Vertices along each side of a tile made from a height source. 
+	private static final int VERTEX_COUNT = 257;
+	//Bits each height is stored with for collision detection, 16 or 8 quantises them to save memory (see HeightField). 
+	private static final int HEIGHT_BITS = 32;
 	
-	//Flat terrain just has a x and z value. 
+	//Flat terrain just has a x and z value, and which tile of the world grid it is. 
 	private float x;
 	private float z;
-	//Mesh for the terrain and the texturepack & blendmap for the terrain. 
-	private RawModel model;
+	private int gridX;
+	private int gridZ;
+	//Quadtree of patches the terrain is drawn with and the texturepack & blendmap for the terrain. 
+	private TerrainQuadtree quadtree;
 	private TerrainTexturePack texturePack;
 	private TerrainTexture blendMap;
-	//Store height of each terrain vertex for player/entity collision detection in a table (float array of arrays). 
-	private float[] [] heights;
+	//Store height of each terrain vertex for player/entity collision detection. 
+	private HeightField heights;
+	//Pyramid of the heights for ray casting, only built once the first ray is cast. 
+	private HeightFieldRaycaster raycaster;
+	//Changes the heights after the terrain is made. Keeps the terrain's mesh so the patches can be brought up to date. 
+	private TerrainEditor editor;
 	
 	//Constructor for the terrain, takes in the coordinates, the loader & texture.
 	//The Raw model is generated in this class.
 	public Terrain(int gridX, int gridZ, Loader loader, TerrainTexturePack texturePack, 
 			TerrainTexture blendMap, String heightMap) {
+		this(gridX, gridZ, loader, texturePack, blendMap, generateTerrain(heightMap));
+	}
+	
+	//Constructor for a terrain that has already had its mesh generated, so all that is left is splitting it into 
+	//patches and loading them. 
+	public Terrain(int gridX, int gridZ, Loader loader, TerrainTexturePack texturePack, 
+			TerrainTexture blendMap, MeshData mesh) {
+		this(gridX, gridZ, loader, texturePack, blendMap, mesh, TerrainQuadtree.build(mesh));
+	}
+	
+	//Constructor for a terrain whose mesh and quadtree of patches have both been made already (eg. on a worker 
+	//thread by the asset pipeline), so all that is left is loading the patches. 
+	public Terrain(int gridX, int gridZ, Loader loader, TerrainTexturePack texturePack, 
+			TerrainTexture blendMap, MeshData mesh, TerrainQuadtree quadtree) {
 		this.texturePack = texturePack;
 		this.blendMap = blendMap;
 		//Work out the x & z position by multipling by the size 
+		this.gridX = gridX;
+		this.gridZ = gridZ;
 		this.x = gridX * SIZE;
 		this.z = gridZ * SIZE;
-		//Generate the terrain (using the code below at this stage for a simple flat terrain
-		this.model = generateTerrain(loader, heightMap);
+		//The heights are the y values of the vertex positions, stored for collision detection
+		heights = new HeightField(mesh, HEIGHT_BITS);
+		//The patches go into the float geometry arena, so they all share a VAO. Half float texture coords (as in the 
+		//packed format) wouldn't be precise enough once the shader tiles them across the terrain 
+		this.quadtree = quadtree;
+		quadtree.upload(loader);
+		editor = new TerrainEditor(mesh, heights, quadtree, gridX, gridZ);
 	}
 	
-	//Raw Model code to generate the terrain with a height map.
-	private RawModel generateTerrain(Loader loader, String heightMap){
+	//Code to generate the terrain mesh with a height map. Doesn't touch OpenGL so can be run on any thread. 
+	public static MeshData generateTerrain(String heightMap){
 		//Load heightmap into a buffered image.
 		BufferedImage image = null;
 		try {
 			image = ImageIO.read(new File("res/" + heightMap + ".png"));
 		} catch (IOException e) {
+			System.err.println("Could not load heightmap " + heightMap);
 			e.printStackTrace();
+			System.exit(-1);
 		}
-		//Vertex Count based on height of image used for heightmap 
-		int VERTEX_COUNT = image.getHeight();
-		//set number of vertices to each side of terrain
-		heights = new float[VERTEX_COUNT] [VERTEX_COUNT];
-		int count = VERTEX_COUNT * VERTEX_COUNT;
-		float[] vertices = new float[count * 3];
-		float[] normals = new float[count * 3];
-		float[] textureCoords = new float[count*2];
-		int[] indices = new int[6*(VERTEX_COUNT-1)*(VERTEX_COUNT-1)];
-		int vertexPointer = 0;
-		for(int i=0;i<VERTEX_COUNT;i++){
-			for(int j=0;j<VERTEX_COUNT;j++){
-				//calculating vertices 
-				vertices[vertexPointer*3] = (float)j/((float)VERTEX_COUNT - 1) * SIZE;
-				float height = getHeight(j, i, image);
-				heights[j][i] = height;
-				vertices[vertexPointer*3+1] = height;
-				vertices[vertexPointer*3+2] = (float)i/((float)VERTEX_COUNT - 1) * SIZE;
-				//calculating normals so lighting effects work on the terrain
-				Vector3f normal = calculateNormal(j, i, image);
-				normals[vertexPointer*3] = normal.x;
-				normals[vertexPointer*3+1] = normal.y;
-				normals[vertexPointer*3+2] = normal.z;
-				//calculating texture Coords
-				textureCoords[vertexPointer*2] = (float)j/((float)VERTEX_COUNT - 1);
-				textureCoords[vertexPointer*2+1] = (float)i/((float)VERTEX_COUNT - 1);
-				vertexPointer++;
-			}
-		}
-		int pointer = 0;
-		for(int gz=0;gz<VERTEX_COUNT-1;gz++){
-			for(int gx=0;gx<VERTEX_COUNT-1;gx++){
-				int topLeft = (gz*VERTEX_COUNT)+gx;
-				int topRight = topLeft + 1;
-				int bottomLeft = ((gz+1)*VERTEX_COUNT)+gx;
-				int bottomRight = bottomLeft + 1;
-				indices[pointer++] = topLeft;
-				indices[pointer++] = bottomLeft;
-				indices[pointer++] = topRight;
-				indices[pointer++] = topRight;
-				indices[pointer++] = bottomLeft;
-				indices[pointer++] = bottomRight;
-			}
-		}
-		return loader.loadtoVAO(vertices, textureCoords, normals, indices);
-	}
-	//Method to calculate the normal for a vertex on heightmap based on neighbouring vertices
-	//TODO Optimise this as the height is being calc twice but not large effect as only happens once when 
-	//game starts
-	private Vector3f calculateNormal(int x, int z, BufferedImage image) {
-		//calculating the vertex's neighbours
-		float heightL = getHeight(x-1, z, image);
-		float heightR = getHeight(x+1, z, image);
-		float heightD = getHeight(x, z-1, image);
-		float heightU = getHeight(x, z+1, image);
-		//calculate the normal vector by creating a new vector3f with calculated x & z and y just set at 2f 
-		Vector3f normal = (new Vector3f(heightL-heightR, 2f, heightD-heightU));
-		//normalise vector & then return it
-		normal.normalise();
-		return normal;
+		//One vertex for each pixel of the heightmap 
+		return TerrainGenerator.generate(image);
 	}
 	
-	//Method to return the height represented by a pixel on heightmap
-	private float getHeight(int x, int y, BufferedImage image) {
-		//if out of bounds return 0
-		if(x<0 || x>=image.getHeight() || y<0 || y>=image.getHeight()) {
-			return 0;
-		}
-		//get the pixel height
-		float height =  image.getRGB(x, y);
-		height += MAX_PIXEL_COLOUR/2f;
-		height /= MAX_PIXEL_COLOUR/2f;
-		height *= MAX_HEIGHT;
-		return height;
+	//Code to generate the mesh for a tile of the world from a height source (eg. procedural noise), instead of a 
+	//heightmap. Neighbouring tiles match along their edges. Doesn't touch OpenGL so can be run on any thread. 
+	public static MeshData generateTerrain(HeightSource source, int gridX, int gridZ) {
+		return TerrainGenerator.generate(source, gridX, gridZ, VERTEX_COUNT);
 	}
+	
 	//Method to get the height of terrain given x or z coordinates
 	public float getHeightOfTerrain(float worldX, float worldZ) {
 		//Convert world coordinate into position relative to the terrain
 		float terrainX = worldX - this.x;
 		float terrainZ = worldZ - this.z;
-		//Calculate size of each grid square
-		float gridSquareSize = SIZE / ((float)heights.length - 1);
-		//calculate which grid square the player is in
-		int gridX = (int) Math.floor(terrainX / gridSquareSize);
-		int gridZ = (int) Math.floor(terrainZ / gridSquareSize);
-		//test if this x,z position is actually on the terrain, ie not to the left or above the terrain looking
-		//from straight down
-		if(gridX >= heights.length - 1 || gridZ >= heights.length - 1 || gridX < 0 || gridZ < 0) {
-			return 0;
+		return heights.getHeight(terrainX, terrainZ);
+	}
+	//Heights of the terrain at a grid of columns x rows world coordinates at once, starting at worldX, worldZ and 
+	//stepping along each axis, put into heights row by row. Each is the same as getHeightOfTerrain gives. 
+	public void getHeightsOfTerrain(float worldX, float worldZ, float stepX, float stepZ, int columns, int rows, 
+			float[] heights) {
+		this.heights.getHeights(worldX, worldZ, stepX, stepZ, columns, rows, x, z, heights);
+	}
+	//Heights of the terrain at lots of world coordinates scattered anywhere at once, put into heights. Each is the 
+	//same as getHeightOfTerrain gives. 
+	public void getHeightsOfTerrain(float[] worldXs, float[] worldZs, float[] heights) {
+		this.heights.getHeights(worldXs, worldZs, x, z, heights);
+	}
+	//Distance along a ray (in world coordinates) to where it first hits the terrain, or HeightFieldRaycaster.MISS if 
+	//it doesn't within maxDistance. The distance is in lengths of the direction. 
+	public float raycast(Vector3f origin, Vector3f direction, float maxDistance) {
+		return getRaycaster().raycast(origin.x - x, origin.y, origin.z - z, direction.x, direction.y, direction.z, 
+				maxDistance);
+	}
+	//Ray caster for the terrain in the terrain's own coordinates, eg. for casting lots of rays at once. 
+	public HeightFieldRaycaster getRaycaster() {
+		if(raycaster == null) {
+			raycaster = new HeightFieldRaycaster(heights);
 		}
-		//use modulas to find out distance player is from the 0,0 origin, result gives a x,z coord between 0 and 1
-		float xCoord = (terrainX % gridSquareSize) / gridSquareSize;
-		float zCoord = (terrainZ % gridSquareSize) / gridSquareSize;
-		//Work out which triangle the player is on, ie top left triangle has vertices 0,0 0,1 1,0 so h boundary is 
-		// x < 1-z and so bottom triangle h boundary is modelled by x > 1-z. Use barycentric maths for this one
-		float answer;
-		if(xCoord <= (1 - zCoord)) {
-			answer = Maths.barycentricCalc(
-					new Vector3f(0, heights[gridX][gridZ] , 0), 
-					new Vector3f(1, heights[gridX + 1][gridZ] , 0), 
-					new Vector3f(0, heights[gridX][gridZ + 1] , 1), 
-					new Vector2f(xCoord, zCoord)); 
-		} else {
-			answer = Maths.barycentricCalc(
-					new Vector3f(1, heights[gridX + 1][gridZ] , 0), 
-					new Vector3f(1, heights[gridX + 1][gridZ + 1] , 1), 
-					new Vector3f(0, heights[gridX][gridZ + 1] , 1), 
-					new Vector2f(xCoord, zCoord)); 
+		return raycaster;
+	}
+	//Change the heights of columns x rows vertices from startX, startZ (given row by row), eg. to make a crater. The 
+	//heights and ray casting change straight away, the patches once the edits are uploaded. 
+	public void setHeights(int startX, int startZ, int columns, int rows, float[] heights) {
+		editor.setHeights(startX, startZ, columns, rows, heights);
+		if(raycaster != null) {
+			raycaster.update(startX, startZ, startX + columns - 1, startZ + rows - 1);
 		}
-		return answer;
+	}
+	//Mark vertices as changed without changing their heights, eg. ones along an edge whose normals depend on heights 
+	//of the next tile. 
+	void addEditRegion(int minX, int minZ, int maxX, int maxZ) {
+		editor.addRegion(minX, minZ, maxX, maxZ);
+	}
+	//Send every edit since the last upload to the GPU, all together so several edits in a frame are only sent once. 
+	//Returns how many ranges of vertices were sent. 
+	public int uploadEdits(Loader loader) {
+		return uploadEdits(loader, null);
+	}
+	//Same as above but with where the heights just past the terrain's edges come from (see TerrainEditor). 
+	int uploadEdits(Loader loader, HeightSource surroundings) {
+		return editor.apply(surroundings, loader.getArena(VertexFormat.FLOAT));
+	}
+	
+	public boolean hasEdits() {
+		return editor.hasEdits();
+	}
+	//Add the patches of the terrain that the camera can see to the list, at the level of detail they need from 
+	//where the camera is. 
+	public void selectChunks(Frustum frustum, Vector3f cameraPosition, List<RawModel> chunks) {
+		quadtree.selectChunks(frustum, cameraPosition, x, z, chunks);
+	}
+	//Free up the patches of the terrain once it won't be drawn again (eg. a tile that is too far away). 
+	public void cleanUp(Loader loader) {
+		quadtree.cleanUp(loader);
+	}
+	
+	//Which tile of the world grid a world coordinate is in, along x or z. 
+	public static int getGridCoordinate(float worldCoordinate) {
+		return (int) Math.floor(worldCoordinate / SIZE);
 	}
 	//Getters for the properties, not needed for the static values 
 	public float getX() {
@@ -174,8 +177,20 @@ public class Terrain {
 		return z;
 	}
 
-	public RawModel getModel() {
-		return model;
+	public int getGridX() {
+		return gridX;
+	}
+
+	public int getGridZ() {
+		return gridZ;
+	}
+
+	public HeightField getHeights() {
+		return heights;
+	}
+
+	public TerrainQuadtree getQuadtree() {
+		return quadtree;
 	}
 
 	public TerrainTexturePack getTexturePack() {
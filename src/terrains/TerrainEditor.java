@@ -0,0 +1,121 @@
+package terrains;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import models.MeshData;
+import renderEngine.GeometryArena;
+
+//Changes the heights of a terrain after it has been made, eg. for craters or terraforming. An edit changes a
+//rectangle of vertex heights straight away (so collision detection sees it at once), and remembers the vertices
+//around them whose heights or normals changed. The rest of the work is left until apply, normally once a frame, so
+//several edits in the same frame are only done once: the normals of the changed vertices and their neighbours are
+//worked out again, then the quadtree sends just the changed patch vertices to the geometry arena.
+//
+//The normals are worked out with the same sums as the TerrainGenerator, so an edited terrain ends up exactly the
+//same as generating it again from the edited heights. Doesn't touch OpenGL itself, only the arena does.
+public class TerrainEditor {
+
+	private final MeshData mesh;
+	private final HeightField heights;
+	private final TerrainQuadtree quadtree;
+	private final int vertexCount;
+	//Which tile of the world the terrain is, for finding the samples of the world just past its edges.
+	private final int gridX;
+	private final int gridZ;
+	//Regions of changed vertices since the edits were last applied, {minX, minZ, maxX, maxZ} inclusive.
+	private List<int[]> regions = new ArrayList<int[]>();
+
+	//Constructor that takes the mesh the terrain was made from (which is changed in place), its full precision
+	//heights, the quadtree of patches made from the mesh and which tile of the world the terrain is.
+	public TerrainEditor(MeshData mesh, HeightField heights, TerrainQuadtree quadtree, int gridX, int gridZ) {
+		if (mesh.getVertexCount() != heights.getSize() * heights.getSize()) {
+			throw new IllegalArgumentException("Mesh has " + mesh.getVertexCount() + " vertices but the heights are "
+					+ heights.getSize() + "x" + heights.getSize());
+		}
+		this.mesh = mesh;
+		this.heights = heights;
+		this.quadtree = quadtree;
+		this.vertexCount = heights.getSize();
+		this.gridX = gridX;
+		this.gridZ = gridZ;
+	}
+
+	//Change the heights of columns x rows vertices from startX, startZ, given row by row.
+	public void setHeights(int startX, int startZ, int columns, int rows, float[] newHeights) {
+		if (startX < 0 || startZ < 0 || columns < 0 || rows < 0 || startX + columns > vertexCount
+				|| startZ + rows > vertexCount) {
+			throw new IllegalArgumentException(columns + "x" + rows + " vertices from " + startX + ", " + startZ
+					+ " aren't all on a terrain of " + vertexCount + "x" + vertexCount);
+		}
+		if (newHeights.length < columns * rows) {
+			throw new IllegalArgumentException("Need " + columns * rows + " heights but got " + newHeights.length);
+		}
+		float[] positions = mesh.getPositions();
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				int x = startX + column;
+				int z = startZ + row;
+				float height = newHeights[row * columns + column];
+				heights.setVertexHeight(x, z, height);
+				positions[(z * vertexCount + x) * 3 + 1] = height;
+			}
+		}
+		//The normals of the vertices next to the changed ones change too
+		addRegion(startX - 1, startZ - 1, startX + columns, startZ + rows);
+	}
+
+	//Mark the vertices from minX, minZ to maxX, maxZ (inclusive) as changed, eg. the vertices along an edge whose
+	//normals depend on heights of the next tile that were edited. The part off the terrain is left out.
+	public void addRegion(int minX, int minZ, int maxX, int maxZ) {
+		minX = Math.max(minX, 0);
+		minZ = Math.max(minZ, 0);
+		maxX = Math.min(maxX, vertexCount - 1);
+		maxZ = Math.min(maxZ, vertexCount - 1);
+		if (minX <= maxX && minZ <= maxZ) {
+			regions.add(new int[] {minX, minZ, maxX, maxZ});
+		}
+	}
+
+	//Work out the normals of the changed vertices again and bring the patches up to date. The heights just past the
+	//edges of the terrain come from the surroundings, or are 0 without any (the same as the TerrainGenerator). The
+	//arena is the one the patches are in, or null if they haven't been uploaded. Returns how many ranges of vertices
+	//were sent.
+	public int apply(HeightSource surroundings, GeometryArena arena) {
+		if (regions.isEmpty()) {
+			return 0;
+		}
+		float[] normals = mesh.getNormals();
+		for (int[] region : regions) {
+			for (int z = region[1]; z <= region[3]; z++) {
+				for (int x = region[0]; x <= region[2]; x++) {
+					float heightL = getHeight(x - 1, z, surroundings);
+					float heightR = getHeight(x + 1, z, surroundings);
+					float heightD = getHeight(x, z - 1, surroundings);
+					float heightU = getHeight(x, z + 1, surroundings);
+					TerrainGenerator.calculateNormal(heightL, heightR, heightD, heightU, normals, z * vertexCount + x);
+				}
+			}
+		}
+		int ranges = quadtree.update(mesh, regions, arena);
+		regions.clear();
+		return ranges;
+	}
+
+	//Height of a vertex of the terrain, or of the world sample where it would be if it is past the edge.
+	private float getHeight(int x, int z, HeightSource surroundings) {
+		if (x >= 0 && z >= 0 && x < vertexCount && z < vertexCount) {
+			return mesh.getPositions()[(z * vertexCount + x) * 3 + 1];
+		}
+		if (surroundings == null) {
+			return 0;
+		}
+		//The first vertex of the terrain is sample gridX * (vertexCount - 1) of the world
+		return surroundings.getHeight(gridX * (vertexCount - 1) + x, gridZ * (vertexCount - 1) + z);
+	}
+
+	//Whether there are edits that haven't been applied yet.
+	public boolean hasEdits() {
+		return !regions.isEmpty();
+	}
+}
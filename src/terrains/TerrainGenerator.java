@@ -0,0 +1,257 @@
+package terrains;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import models.MeshData;
+
+//Builds the terrain mesh from a heightmap image or a HeightSource. The pixels are read straight out of the image's
+//raster into one array of heights, rather than calling getRGB for every vertex (which goes through the slow colour
+//model code, and was done 5 times a vertex as the normals read the heights of the neighbours again). Then the
+//positions, normals and texture coords are filled in by separate passes, each split into bands of rows and run in
+//parallel on the fork join pool. Every vertex gets exactly the same values the old one vertex at a time code gave it.
+public class TerrainGenerator {
+
+	//Highest (and lowest, as minus) height of the terrain, and the range of colours in the heightmap.
+	static final float MAX_HEIGHT = 40;
+	static final float MAX_PIXEL_COLOUR = 256 * 256 * 256;
+	//Number of quads across each band of the index buffer. Two rows of a band (16 vertices) fit in even a small 16
+	//entry vertex cache, giving an ACMR of about 0.57 instead of 1 for whole rows.
+	private static final int INDEX_BAND_WIDTH = 7;
+	//Rows per task, small enough to share the work out evenly but big enough that each task is worth starting.
+	private static final int ROWS_PER_TASK = 16;
+	//The index array of each size of mesh, every mesh of the same size shares the same one (so they mustn't be
+	//changed).
+	private static final Map<Integer, int[]> MESH_INDICES = new ConcurrentHashMap<Integer, int[]>();
+
+	//Generate the mesh for a square heightmap image, one vertex per pixel. Doesn't touch OpenGL so can be run on any
+	//thread.
+	public static MeshData generate(BufferedImage image) {
+		return buildMesh(readHeights(image), image.getHeight(), 0);
+	}
+
+	//Generate the mesh for a tile of a world whose heights come from a source, with vertexCount vertices along each
+	//side. The heights are filled in parallel, with an extra one all round so the normals along the edges come from
+	//the neighbouring tiles' heights and match theirs.
+	public static MeshData generate(HeightSource source, int gridX, int gridZ, int vertexCount) {
+		int side = vertexCount + 2;
+		float[] heights = new float[side * side];
+		//The sample just before the first vertex of the tile
+		int startX = gridX * (vertexCount - 1) - 1;
+		int startZ = gridZ * (vertexCount - 1) - 1;
+		forEachRowBand(side, (startRow, endRow) -> {
+			for (int i = startRow; i < endRow; i++) {
+				for (int j = 0; j < side; j++) {
+					heights[i * side + j] = source.getHeight(startX + j, startZ + i);
+				}
+			}
+		});
+		return buildMesh(heights, vertexCount, 1);
+	}
+
+	//Builds the mesh from the heights of its vertices, stored row by row with border extra heights all round. With
+	//no border the normals along the edges treat the heights past them as 0.
+	private static MeshData buildMesh(float[] heights, int vertexCount, int border) {
+		int count = vertexCount * vertexCount;
+		int side = vertexCount + 2 * border;
+		boolean bordered = border > 0;
+		float[] vertices = new float[count * 3];
+		float[] normals = new float[count * 3];
+		float[] textureCoords = new float[count * 2];
+		float last = (float) vertexCount - 1;
+		//Positions, the heights in the middle and the x & z spread out evenly across the terrain
+		forEachRowBand(vertexCount, (startRow, endRow) -> {
+			for (int i = startRow; i < endRow; i++) {
+				for (int j = 0; j < vertexCount; j++) {
+					int vertex = i * vertexCount + j;
+					vertices[vertex * 3] = (float) j / last * Terrain.SIZE;
+					vertices[vertex * 3 + 1] = heights[(i + border) * side + j + border];
+					vertices[vertex * 3 + 2] = (float) i / last * Terrain.SIZE;
+				}
+			}
+		});
+		//Normals so lighting works on the terrain, from the heights either side in x & z
+		forEachRowBand(vertexCount, (startRow, endRow) -> {
+			for (int i = startRow; i < endRow; i++) {
+				for (int j = 0; j < vertexCount; j++) {
+					int vertex = i * vertexCount + j;
+					int height = (i + border) * side + j + border;
+					float heightL = bordered || j > 0 ? heights[height - 1] : 0;
+					float heightR = bordered || j < vertexCount - 1 ? heights[height + 1] : 0;
+					float heightD = bordered || i > 0 ? heights[height - side] : 0;
+					float heightU = bordered || i < vertexCount - 1 ? heights[height + side] : 0;
+					calculateNormal(heightL, heightR, heightD, heightU, normals, vertex);
+				}
+			}
+		});
+		//Texture coords, 0 to 1 across the terrain
+		forEachRowBand(vertexCount, (startRow, endRow) -> {
+			for (int i = startRow; i < endRow; i++) {
+				for (int j = 0; j < vertexCount; j++) {
+					int vertex = i * vertexCount + j;
+					textureCoords[vertex * 2] = (float) j / last;
+					textureCoords[vertex * 2 + 1] = (float) i / last;
+				}
+			}
+		});
+		return new MeshData(vertices, textureCoords, normals, MESH_INDICES.computeIfAbsent(vertexCount,
+				TerrainGenerator::generateIndices));
+	}
+
+	//Works out the normal of a vertex from the heights either side of it in x & z and puts it into normals. Edits
+	//to the terrain use this as well, so they give exactly the same normals as generating the terrain again.
+	static void calculateNormal(float heightL, float heightR, float heightD, float heightU, float[] normals,
+			int vertex) {
+		//Same sums as Vector3f.normalise so the normals don't change
+		float x = heightL - heightR;
+		float y = 2f;
+		float z = heightD - heightU;
+		float scale = 1.0f / (float) Math.sqrt(x * x + y * y + z * z);
+		normals[vertex * 3] = x * scale;
+		normals[vertex * 3 + 1] = y * scale;
+		normals[vertex * 3 + 2] = z * scale;
+	}
+
+	//Builds the indices for a grid of vertexCount x vertexCount vertices. Rather than going along each whole row,
+	//the grid is split into bands of columns and each band is done row by row. A band is narrow enough that the
+	//vertices along the bottom of one row of quads are still in the GPU's vertex cache when the next row uses them
+	//as its top, so nearly every vertex is only transformed once. Each band fills its own part of the array, so the
+	//bands are done in parallel.
+	public static int[] generateIndices(int vertexCount) {
+		return generateIndices(vertexCount, vertexCount);
+	}
+
+	//Same as above for a grid that isn't square, columns x rows vertices stored row by row.
+	public static int[] generateIndices(int columns, int rows) {
+		int quadsAcross = columns - 1;
+		int quadsDown = rows - 1;
+		int[] indices = new int[6 * quadsAcross * quadsDown];
+		int bandCount = (quadsAcross + INDEX_BAND_WIDTH - 1) / INDEX_BAND_WIDTH;
+		forEachRowBand(bandCount, (startBand, endBand) -> {
+			for (int band = startBand; band < endBand; band++) {
+				int bandStart = band * INDEX_BAND_WIDTH;
+				int bandEnd = Math.min(bandStart + INDEX_BAND_WIDTH, quadsAcross);
+				//Every band before this one is full width, so this is where its indices start
+				int pointer = 6 * bandStart * quadsDown;
+				for (int gz = 0; gz < quadsDown; gz++) {
+					for (int gx = bandStart; gx < bandEnd; gx++) {
+						int topLeft = (gz * columns) + gx;
+						int topRight = topLeft + 1;
+						int bottomLeft = ((gz + 1) * columns) + gx;
+						int bottomRight = bottomLeft + 1;
+						indices[pointer++] = topLeft;
+						indices[pointer++] = bottomLeft;
+						indices[pointer++] = topRight;
+						indices[pointer++] = topRight;
+						indices[pointer++] = bottomLeft;
+						indices[pointer++] = bottomRight;
+					}
+				}
+			}
+		});
+		return indices;
+	}
+
+	//Reads the height of every pixel of the heightmap into one array (row by row). The common image types are read
+	//straight from their pixel data, anything else is read a row at a time with getRGB. Either way the colour is
+	//turned into exactly the ARGB int getRGB gives.
+	public static float[] readHeights(BufferedImage image) {
+		int size = image.getHeight();
+		if (image.getWidth() != size) {
+			throw new IllegalArgumentException("Heightmap must be square but is " + image.getWidth() + "x" + size);
+		}
+		float[] heights = new float[size * size];
+		Raster raster = image.getRaster();
+		//Only read the pixel data directly if the raster is the whole of its buffer (eg. not a sub image)
+		boolean direct = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+				&& raster.getDataBuffer().getNumBanks() == 1 && raster.getDataBuffer().getOffset() == 0;
+		int type = image.getType();
+		if (direct && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)) {
+			int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+			//No alpha in the RGB type, so getRGB gives it as fully opaque
+			int alpha = type == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0;
+			forEachRowBand(size, (startRow, endRow) -> {
+				for (int i = startRow * size; i < endRow * size; i++) {
+					heights[i] = toHeight(pixels[i] | alpha);
+				}
+			});
+		} else if (direct && (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)) {
+			byte[] pixels = ((DataBufferByte) raster.getDataBuffer()).getData();
+			boolean hasAlpha = type == BufferedImage.TYPE_4BYTE_ABGR;
+			int bytesPerPixel = hasAlpha ? 4 : 3;
+			forEachRowBand(size, (startRow, endRow) -> {
+				for (int i = startRow * size; i < endRow * size; i++) {
+					int p = i * bytesPerPixel;
+					int alpha = hasAlpha ? pixels[p++] & 0xFF : 0xFF;
+					int blue = pixels[p] & 0xFF;
+					int green = pixels[p + 1] & 0xFF;
+					int red = pixels[p + 2] & 0xFF;
+					heights[i] = toHeight((alpha << 24) | (red << 16) | (green << 8) | blue);
+				}
+			});
+		} else {
+			forEachRowBand(size, (startRow, endRow) -> {
+				int[] row = new int[size];
+				for (int i = startRow; i < endRow; i++) {
+					image.getRGB(0, i, size, 1, row, 0, size);
+					for (int j = 0; j < size; j++) {
+						heights[i * size + j] = toHeight(row[j]);
+					}
+				}
+			});
+		}
+		return heights;
+	}
+
+	//Turns a pixel's ARGB value into a height between -MAX_HEIGHT and MAX_HEIGHT.
+	static float toHeight(int argb) {
+		float height = argb;
+		height += MAX_PIXEL_COLOUR / 2f;
+		height /= MAX_PIXEL_COLOUR / 2f;
+		height *= MAX_HEIGHT;
+		return height;
+	}
+
+	//Split rows 0 to rowCount into bands and run the pass over each band on the fork join pool, waiting until they
+	//are all done. Each band must only write to its own rows.
+	private static void forEachRowBand(int rowCount, RowPass pass) {
+		ForkJoinPool.commonPool().invoke(new RowBandTask(pass, 0, rowCount));
+	}
+
+	//A pass over a band of rows, from startRow up to (not including) endRow.
+	private interface RowPass {
+		void run(int startRow, int endRow);
+	}
+
+	//Keeps halving the band until it is small enough to run on its own.
+	private static class RowBandTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RowPass pass;
+		private final int startRow;
+		private final int endRow;
+
+		private RowBandTask(RowPass pass, int startRow, int endRow) {
+			this.pass = pass;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected void compute() {
+			if (endRow - startRow <= ROWS_PER_TASK) {
+				pass.run(startRow, endRow);
+				return;
+			}
+			int middle = (startRow + endRow) >>> 1;
+			invokeAll(new RowBandTask(pass, startRow, middle), new RowBandTask(pass, middle, endRow));
+		}
+	}
+}
@@ -0,0 +1,533 @@
+package terrains;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.util.vector.Vector3f;
+
+import models.MeshBuffers;
+import models.MeshData;
+import models.PackedMesh;
+import models.RawModel;
+import models.VertexFormat;
+import renderEngine.GeometryArena;
+import renderEngine.Loader;
+import toolbox.Frustum;
+import toolbox.VertexPacking;
+
+//Splits a terrain into a quadtree of patches (geomipmapping), so only the parts the camera can see are drawn and
+//parts further away are drawn with fewer triangles. Every node of the tree covers a square of the terrain and has
+//its own mesh of up to PATCH_QUADS x PATCH_QUADS quads - the leaves sample every vertex of the heightmap, their
+//parents every second vertex, and so on up to the root which covers the whole terrain. Each frame the tree is walked
+//from the root, skipping nodes outside the frustum and stopping at the first node that is far enough away for its
+//level of detail, so the number of triangles drawn depends on the view rather than on the size of the heightmap.
+//
+//Neighbouring patches with different levels of detail don't share all their edge vertices, which would leave thin
+//cracks between them. Instead of stitching the edges every patch has a skirt, a strip hanging straight down from its
+//edge that fills in any gap. The skirt is as deep as the height range of the patch, which is the most its edge can
+//be off from a finer neighbour's.
+//
+//Every patch that isn't cut off by the edge of the terrain has the same number of vertices in the same layout, so
+//they all have exactly the same indices, on every level and every tile. The indices are only made once for each size
+//of patch and only stored once in the geometry arena, each patch just has its own vertices. The indices can also be
+//triangle strips (one for each row of quads and one round the skirt, split up with primitive restarts), which need
+//about a third as many indices as a list of triangles.
+//
+//When the terrain is deformed the patches are brought up to date with update, which only looks at the nodes over the
+//changed vertices and only sends the patch vertices made from them (plus any skirt whose depth changed) to the arena.
+public class TerrainQuadtree {
+
+	//Quads along each side of a patch, every node has at most this many squared.
+	private static final int PATCH_QUADS = 32;
+	//A node is drawn once the camera is this many times the node's width away from it, otherwise its children are
+	//drawn instead. Higher gives more detail further away.
+	private static final float LOD_DISTANCE = 2f;
+	//Skirts are always at least this deep, so flat patches still cover rounding gaps.
+	private static final float MIN_SKIRT_DEPTH = 1f;
+	//Whether patches are drawn as triangle strips rather than lists of triangles.
+	private static final boolean TRIANGLE_STRIPS = true;
+	//Index given for a primitive restart in the strips, it becomes the largest value of the index type.
+	private static final int RESTART = -1;
+	//Runs of changed patch vertices this close together are sent as one range, along with the unchanged vertices
+	//between them, as one bigger upload is cheaper than lots of small ones. It is a row of a patch, so a changed
+	//rectangle inside a patch goes as one range.
+	private static final int MERGE_GAP = PATCH_QUADS + 1;
+	//The indices of each size of patch, made once and used by every patch of that size.
+	private static final Map<String, int[]> PATCH_INDICES = new ConcurrentHashMap<String, int[]>();
+	//The edge loop of each size of patch, by columns x rows, kept by the nodes for update.
+	private static final Map<String, int[]> PATCH_PERIMETERS = new ConcurrentHashMap<String, int[]>();
+
+	private Node root;
+	//Vertices along each side of the terrain mesh the tree was built from.
+	private int vertexCount;
+	private int nodeCount = 0;
+	private int depth = 0;
+	private boolean strips;
+	//Bytes of indices the patches use, and how many of them are shared with patches already in the arena.
+	private long indexBytes = 0;
+	private long indexBytesSaved = 0;
+	//Holds the vertices of each range being sent by update, kept for the next range so it isn't made every time.
+	private ByteBuffer updateBuffer;
+	//Which vertices of the patch being updated have changed, kept for the next patch so it isn't made every time.
+	private boolean[] changed = new boolean[0];
+
+	private TerrainQuadtree() {
+	}
+
+	//Build the tree and the mesh of every node from a full terrain mesh (as made by the TerrainGenerator). Doesn't
+	//touch OpenGL so can be run on a worker thread, the meshes are loaded by upload.
+	public static TerrainQuadtree build(MeshData mesh) {
+		return build(mesh, TRIANGLE_STRIPS);
+	}
+
+	//Same as above but choosing whether to use triangle strips or lists.
+	public static TerrainQuadtree build(MeshData mesh, boolean strips) {
+		int vertexCount = (int) Math.round(Math.sqrt(mesh.getVertexCount()));
+		int quads = vertexCount - 1;
+		TerrainQuadtree tree = new TerrainQuadtree();
+		tree.strips = strips;
+		tree.vertexCount = vertexCount;
+		//The root covers a power of 2 number of patches, the part of it past the edge of the terrain is left out
+		int span = PATCH_QUADS;
+		while (span < quads) {
+			span *= 2;
+			tree.depth++;
+		}
+		tree.root = tree.buildNode(mesh, vertexCount, 0, 0, span);
+		return tree;
+	}
+
+	//Load the mesh of every node into the loader's float geometry arena, so all the patches share a VAO (and the
+	//indices of each size of patch). Has to be called on the thread that owns the OpenGL context.
+	public void upload(Loader loader) {
+		long savedBefore = loader.getArena(VertexFormat.FLOAT).getSharedIndexBytesSaved();
+		upload(root, loader);
+		indexBytesSaved = loader.getArena(VertexFormat.FLOAT).getSharedIndexBytesSaved() - savedBefore;
+	}
+
+	//Free up the space of every patch in the geometry arena, once the terrain won't be drawn again.
+	public void cleanUp(Loader loader) {
+		cleanUp(root, loader.getArena(VertexFormat.FLOAT));
+	}
+
+	//Add the models of the patches to draw for a camera to the list. The offset is where the terrain is in the
+	//world, the tree itself works in the terrain's own coordinates.
+	public void selectChunks(Frustum frustum, Vector3f cameraPosition, float offsetX, float offsetZ,
+			List<RawModel> chunks) {
+		select(root, frustum, cameraPosition.x - offsetX, cameraPosition.y, cameraPosition.z - offsetZ, offsetX,
+				offsetZ, chunks);
+	}
+
+	private void select(Node node, Frustum frustum, float cameraX, float cameraY, float cameraZ, float offsetX,
+			float offsetZ, List<RawModel> chunks) {
+		if (!frustum.intersectsBox(node.minX + offsetX, node.minY, node.minZ + offsetZ, node.maxX + offsetX,
+				node.maxY, node.maxZ + offsetZ)) {
+			return;
+		}
+		//Distance from the camera to the closest point of the node's box
+		float dx = Math.max(0, Math.max(node.minX - cameraX, cameraX - node.maxX));
+		float dy = Math.max(0, Math.max(node.minY - cameraY, cameraY - node.maxY));
+		float dz = Math.max(0, Math.max(node.minZ - cameraZ, cameraZ - node.maxZ));
+		float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+		if (node.children == null || distance > LOD_DISTANCE * node.width) {
+			chunks.add(node.model);
+			return;
+		}
+		for (Node child : node.children) {
+			select(child, frustum, cameraX, cameraY, cameraZ, offsetX, offsetZ, chunks);
+		}
+	}
+
+	//Bring the patches up to date after some vertices of the terrain mesh have changed (their heights, normals or
+	//both), eg. when the terrain is deformed. Each region is {minX, minZ, maxX, maxZ} of the changed vertices,
+	//inclusive. The height ranges and skirts of the nodes over the regions are worked out again, and only the patch
+	//vertices made from changed vertices (and skirts that changed depth) are sent to the arena, in as few ranges as
+	//possible. Before the tree is uploaded the patch meshes are changed instead and the arena can be null. Returns
+	//how many ranges were sent.
+	public int update(MeshData mesh, List<int[]> regions, GeometryArena arena) {
+		if (mesh.getVertexCount() != vertexCount * vertexCount) {
+			throw new IllegalArgumentException("Tree was built from " + vertexCount * vertexCount + " vertices but "
+					+ "the mesh has " + mesh.getVertexCount());
+		}
+		return update(root, mesh, regions, arena);
+	}
+
+	private int update(Node node, MeshData mesh, List<int[]> regions, GeometryArena arena) {
+		if (!overlaps(node, regions)) {
+			return 0;
+		}
+		int ranges = 0;
+		//Children first, as the node's height range comes from theirs
+		if (node.children != null) {
+			for (Node child : node.children) {
+				ranges += update(child, mesh, regions, arena);
+			}
+		}
+		float oldSkirtDepth = node.skirtDepth;
+		updateHeightRange(node, mesh.getPositions(), vertexCount);
+		//Find which of the patch's vertices are made from changed vertices of the mesh, a rectangle of them for each
+		//region over the patch
+		int[] loop = node.loop;
+		int skirtStart = node.columns * node.rows;
+		int patchVertices = skirtStart + loop.length;
+		if (changed.length < patchVertices) {
+			changed = new boolean[patchVertices];
+		}
+		Arrays.fill(changed, 0, patchVertices, false);
+		for (int[] region : regions) {
+			int firstColumn = 0;
+			while (firstColumn < node.columns
+					&& Math.min(node.startX + firstColumn * node.step, node.endX) < region[0]) {
+				firstColumn++;
+			}
+			int lastColumn = node.columns - 1;
+			while (lastColumn >= firstColumn
+					&& Math.min(node.startX + lastColumn * node.step, node.endX) > region[2]) {
+				lastColumn--;
+			}
+			for (int row = 0; row < node.rows; row++) {
+				int z = Math.min(node.startZ + row * node.step, node.endZ);
+				if (z >= region[1] && z <= region[3] && firstColumn <= lastColumn) {
+					Arrays.fill(changed, row * node.columns + firstColumn, row * node.columns + lastColumn + 1, true);
+				}
+			}
+		}
+		boolean skirtChanged = node.skirtDepth != oldSkirtDepth;
+		for (int i = 0; i < loop.length; i++) {
+			changed[skirtStart + i] = skirtChanged || changed[loop[i]];
+		}
+		//Send each run of changed vertices, joining up runs that are close together
+		int vertex = 0;
+		while (vertex < patchVertices) {
+			if (!changed[vertex]) {
+				vertex++;
+				continue;
+			}
+			int start = vertex;
+			int end = vertex + 1;
+			for (int next = end; next < patchVertices && next - end < MERGE_GAP; next++) {
+				if (changed[next]) {
+					end = next + 1;
+				}
+			}
+			int bytes = (end - start) * VertexPacking.FLOAT_STRIDE;
+			if (updateBuffer == null || updateBuffer.capacity() < bytes) {
+				updateBuffer = BufferUtils.createByteBuffer(bytes);
+			}
+			ByteBuffer vertices = updateBuffer;
+			vertices.clear();
+			for (int i = start; i < end; i++) {
+				putVertex(node, loop, i, mesh, vertices);
+			}
+			vertices.flip();
+			if (node.model != null) {
+				arena.update(node.model, start, vertices);
+			} else {
+				//Both buffers are in the native byte order, so the bytes can be copied straight over
+				ByteBuffer patch = node.mesh.getVertices().duplicate();
+				patch.position(start * VertexPacking.FLOAT_STRIDE);
+				patch.put(vertices);
+			}
+			ranges++;
+			vertex = end;
+		}
+		return ranges;
+	}
+
+	//Put a vertex of a node's patch into the buffer, exactly as buildPatch makes it.
+	private void putVertex(Node node, int[] loop, int vertex, MeshData mesh, ByteBuffer buffer) {
+		int skirtStart = node.columns * node.rows;
+		int patchVertex = vertex < skirtStart ? vertex : loop[vertex - skirtStart];
+		int x = Math.min(node.startX + (patchVertex % node.columns) * node.step, node.endX);
+		int z = Math.min(node.startZ + (patchVertex / node.columns) * node.step, node.endZ);
+		int source = z * vertexCount + x;
+		float[] positions = mesh.getPositions();
+		float[] textureCoords = mesh.getTextureCoords();
+		float[] normals = mesh.getNormals();
+		buffer.putFloat(positions[source * 3]);
+		buffer.putFloat(vertex < skirtStart ? positions[source * 3 + 1] : positions[source * 3 + 1] - node.skirtDepth);
+		buffer.putFloat(positions[source * 3 + 2]);
+		buffer.putFloat(textureCoords[source * 2]);
+		buffer.putFloat(textureCoords[source * 2 + 1]);
+		buffer.putFloat(normals[source * 3]);
+		buffer.putFloat(normals[source * 3 + 1]);
+		buffer.putFloat(normals[source * 3 + 2]);
+	}
+
+	//Whether any of the regions overlaps the vertices a node covers.
+	private static boolean overlaps(Node node, List<int[]> regions) {
+		for (int[] region : regions) {
+			if (region[0] <= node.endX && region[2] >= node.startX && region[1] <= node.endZ
+					&& region[3] >= node.startZ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//Make the node covering span quads from x0, z0 (in quads), and its children down to the leaves.
+	private Node buildNode(MeshData mesh, int vertexCount, int x0, int z0, int span) {
+		int quads = vertexCount - 1;
+		Node node = new Node();
+		nodeCount++;
+		node.startX = x0;
+		node.startZ = z0;
+		node.endX = Math.min(x0 + span, quads);
+		node.endZ = Math.min(z0 + span, quads);
+		if (span > PATCH_QUADS) {
+			List<Node> children = new ArrayList<Node>(4);
+			int half = span / 2;
+			for (int z = z0; z < z0 + span && z < quads; z += half) {
+				for (int x = x0; x < x0 + span && x < quads; x += half) {
+					children.add(buildNode(mesh, vertexCount, x, z, half));
+				}
+			}
+			node.children = children.toArray(new Node[children.size()]);
+		}
+		updateHeightRange(node, mesh.getPositions(), vertexCount);
+		//The box around the node, in the terrain's own coordinates
+		float[] positions = mesh.getPositions();
+		node.minX = positions[node.startX * 3];
+		node.maxX = positions[node.endX * 3];
+		node.minZ = positions[node.startZ * vertexCount * 3 + 2];
+		node.maxZ = positions[node.endZ * vertexCount * 3 + 2];
+		node.width = node.maxX - node.minX;
+		node.step = span / PATCH_QUADS;
+		node.columns = (node.endX - x0 + node.step - 1) / node.step + 1;
+		node.rows = (node.endZ - z0 + node.step - 1) / node.step + 1;
+		int columns = node.columns;
+		int rows = node.rows;
+		node.loop = PATCH_PERIMETERS.computeIfAbsent(columns + "x" + rows, key -> getPerimeter(columns, rows));
+		node.indicesKey = "terrain patch " + columns + "x" + rows + (strips ? " strips" : " triangles");
+		int[] indices = PATCH_INDICES.computeIfAbsent(node.indicesKey, key -> buildPatchIndices(columns, rows, strips));
+		node.mesh = buildPatch(mesh, vertexCount, x0, z0, node.endX, node.endZ, node.step, columns, rows, indices,
+				strips ? GL11.GL_TRIANGLE_STRIP : GL11.GL_TRIANGLES, node.skirtDepth);
+		indexBytes += node.mesh.getIndices().remaining();
+		return node;
+	}
+
+	//Work out the height range of a node and how deep its skirt is. The leaves get the range from the heightmap,
+	//everything above them from their children.
+	private static void updateHeightRange(Node node, float[] positions, int vertexCount) {
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		if (node.children != null) {
+			for (Node child : node.children) {
+				min = Math.min(min, child.heightMin);
+				max = Math.max(max, child.maxY);
+			}
+		} else {
+			for (int z = node.startZ; z <= node.endZ; z++) {
+				for (int x = node.startX; x <= node.endX; x++) {
+					float height = positions[(z * vertexCount + x) * 3 + 1];
+					min = Math.min(min, height);
+					max = Math.max(max, height);
+				}
+			}
+		}
+		node.heightMin = min;
+		node.maxY = max;
+		node.skirtDepth = Math.max(max - min, MIN_SKIRT_DEPTH);
+		node.minY = min - node.skirtDepth;
+	}
+
+	//Make the mesh for a patch by taking every step'th vertex from x0, z0 to x1, z1 (the last row and column are
+	//always the edge of the patch, even if they aren't a whole step from the one before) and adding its skirt.
+	private static PackedMesh buildPatch(MeshData mesh, int vertexCount, int x0, int z0, int x1, int z1, int step,
+			int columns, int rows, int[] indices, int mode, float skirtDepth) {
+		int[] loop = getPerimeter(columns, rows);
+		int perimeter = loop.length;
+		int patchVertices = columns * rows + perimeter;
+		float[] positions = new float[patchVertices * 3];
+		float[] textureCoords = new float[patchVertices * 2];
+		float[] normals = new float[patchVertices * 3];
+		for (int row = 0; row < rows; row++) {
+			int z = Math.min(z0 + row * step, z1);
+			for (int column = 0; column < columns; column++) {
+				int x = Math.min(x0 + column * step, x1);
+				copyVertex(mesh, z * vertexCount + x, row * columns + column, positions, textureCoords, normals);
+			}
+		}
+		//Each vertex of the edge gets a copy dropped down by the skirt depth
+		int skirtStart = columns * rows;
+		for (int i = 0; i < perimeter; i++) {
+			System.arraycopy(positions, loop[i] * 3, positions, (skirtStart + i) * 3, 3);
+			System.arraycopy(textureCoords, loop[i] * 2, textureCoords, (skirtStart + i) * 2, 2);
+			System.arraycopy(normals, loop[i] * 3, normals, (skirtStart + i) * 3, 3);
+			positions[(skirtStart + i) * 3 + 1] -= skirtDepth;
+		}
+		return VertexPacking.interleave(MeshBuffers.fromData(new MeshData(positions, textureCoords, normals, indices)),
+				mode);
+	}
+
+	//Make the indices for a patch of columns x rows vertices followed by its skirt, either as a list of triangles or
+	//as triangle strips. Both give the same triangles facing the same way.
+	static int[] buildPatchIndices(int columns, int rows, boolean strips) {
+		int[] loop = getPerimeter(columns, rows);
+		int perimeter = loop.length;
+		int skirtStart = columns * rows;
+		if (!strips) {
+			int[] gridIndices = TerrainGenerator.generateIndices(columns, rows);
+			int[] indices = new int[gridIndices.length + perimeter * 6];
+			System.arraycopy(gridIndices, 0, indices, 0, gridIndices.length);
+			int pointer = gridIndices.length;
+			for (int i = 0; i < perimeter; i++) {
+				int next = (i + 1) % perimeter;
+				indices[pointer++] = loop[i];
+				indices[pointer++] = skirtStart + i;
+				indices[pointer++] = loop[next];
+				indices[pointer++] = loop[next];
+				indices[pointer++] = skirtStart + i;
+				indices[pointer++] = skirtStart + next;
+			}
+			return indices;
+		}
+		//One strip along each row of quads, top then bottom vertex of each column, and one round the skirt, edge then
+		//skirt vertex and back to the start. Every strip after the first starts with a restart
+		int[] indices = new int[(rows - 1) * (columns * 2 + 1) + (perimeter + 1) * 2];
+		int pointer = 0;
+		for (int row = 0; row < rows - 1; row++) {
+			if (row > 0) {
+				indices[pointer++] = RESTART;
+			}
+			for (int column = 0; column < columns; column++) {
+				indices[pointer++] = row * columns + column;
+				indices[pointer++] = (row + 1) * columns + column;
+			}
+		}
+		indices[pointer++] = RESTART;
+		for (int i = 0; i <= perimeter; i++) {
+			indices[pointer++] = loop[i % perimeter];
+			indices[pointer++] = skirtStart + i % perimeter;
+		}
+		return indices;
+	}
+
+	//The edge of a patch as one loop, going round so each side of the skirt faces outwards: along the top edge
+	//towards -x, down the left towards +z, along the bottom towards +x and up the right towards -z.
+	private static int[] getPerimeter(int columns, int rows) {
+		int[] loop = new int[2 * (columns - 1) + 2 * (rows - 1)];
+		int pointer = 0;
+		for (int column = columns - 1; column > 0; column--) {
+			loop[pointer++] = column;
+		}
+		for (int row = 0; row < rows - 1; row++) {
+			loop[pointer++] = row * columns;
+		}
+		for (int column = 0; column < columns - 1; column++) {
+			loop[pointer++] = (rows - 1) * columns + column;
+		}
+		for (int row = rows - 1; row > 0; row--) {
+			loop[pointer++] = row * columns + columns - 1;
+		}
+		return loop;
+	}
+
+	//Copy one vertex of the full terrain mesh into a patch.
+	private static void copyVertex(MeshData mesh, int from, int to, float[] positions, float[] textureCoords,
+			float[] normals) {
+		System.arraycopy(mesh.getPositions(), from * 3, positions, to * 3, 3);
+		System.arraycopy(mesh.getTextureCoords(), from * 2, textureCoords, to * 2, 2);
+		System.arraycopy(mesh.getNormals(), from * 3, normals, to * 3, 3);
+	}
+
+	private void upload(Node node, Loader loader) {
+		node.model = loader.loadToArena(node.mesh, node.indicesKey);
+		//The mesh is in the arena now so it isn't needed anymore
+		node.mesh = null;
+		if (node.children != null) {
+			for (Node child : node.children) {
+				upload(child, loader);
+			}
+		}
+	}
+
+	private void addPatches(Node node, List<PackedMesh> patches) {
+		patches.add(node.mesh);
+		if (node.children != null) {
+			for (Node child : node.children) {
+				addPatches(child, patches);
+			}
+		}
+	}
+
+	private void cleanUp(Node node, GeometryArena arena) {
+		if (node.model != null) {
+			arena.remove(node.model);
+			node.model = null;
+		}
+		if (node.children != null) {
+			for (Node child : node.children) {
+				cleanUp(child, arena);
+			}
+		}
+	}
+
+	//Getters for the properties
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public boolean isStrips() {
+		return strips;
+	}
+
+	//The patch of every node, parents before their children. They are only kept until the tree is uploaded, eg. for
+	//checking the patches without OpenGL.
+	public List<PackedMesh> getPatches() {
+		List<PackedMesh> patches = new ArrayList<PackedMesh>(nodeCount);
+		addPatches(root, patches);
+		return patches;
+	}
+
+	//Bytes of indices all the patches use between them, and how many of those bytes weren't stored again as they
+	//were already in the arena (only known once uploaded).
+	public long getIndexBytes() {
+		return indexBytes;
+	}
+
+	public long getIndexBytesSaved() {
+		return indexBytesSaved;
+	}
+
+	//One square of the terrain, with its box (including the skirt) and its patch.
+	private static class Node {
+
+		private float minX;
+		private float minY;
+		private float minZ;
+		private float maxX;
+		private float maxY;
+		private float maxZ;
+		//Lowest height of the terrain in the node, without the skirt, and how deep the skirt is.
+		private float heightMin;
+		private float skirtDepth;
+		private float width;
+		//Vertices of the terrain mesh the node covers (inclusive), every step'th of which are in its patch of columns
+		//x rows vertices.
+		private int startX;
+		private int startZ;
+		private int endX;
+		private int endZ;
+		private int step;
+		private int columns;
+		private int rows;
+		//Names the indices of the patch, which are shared with every other patch of the same size.
+		private String indicesKey;
+		//The edge of the patch that the skirt hangs from, shared with every other patch of the same size.
+		private int[] loop;
+		private Node[] children;
+		private PackedMesh mesh;
+		private RawModel model;
+	}
+}
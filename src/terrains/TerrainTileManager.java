@@ -0,0 +1,340 @@
+package terrains;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import models.MeshData;
+import renderEngine.AssetPipeline;
+import renderEngine.Loader;
+import textures.TerrainTexture;
+import textures.TerrainTexturePack;
+
+//Streams the tiles of a big world in and out around the player, so only the terrain near the player is in memory.
+//Each tile is one Terrain, and the loaded ones are kept in a TerrainWorld for looking up the ground anywhere. Tiles
+//within the load radius of the player's tile are generated on the asset pipeline's workers (nearest first) and their
+//patches uploaded a few a frame. Tiles the player has moved away from are kept for a while in case the player turns
+//back, and once there are more than the cache size of them the least recently used are freed. Edits to the loaded
+//tiles are sent to the GPU once a frame, and are lost if the tile is freed. A tile that fails to load is dropped from
+//the map on the next update, so it is asked for again if it is still in range.
+//
+//Keeps track of how long tiles take from being asked for to being drawable, how long update takes on the frames
+//where the player crosses into a new tile (when the most new tiles are asked for) and how many tiles are loaded.
+public class TerrainTileManager {
+
+	//Uploads run by each update, more than one tile's patches arriving in the same frame would cause a hitch.
+	private static final int UPLOADS_PER_FRAME = 1;
+
+	//Makes the mesh for a tile of the world. Called on the asset workers so must not touch OpenGL.
+	public interface TileGenerator {
+		MeshData generate(int gridX, int gridZ);
+	}
+
+	private AssetPipeline pipeline;
+	private Loader loader;
+	private CompletableFuture<TerrainTexturePack> texturePack;
+	private CompletableFuture<TerrainTexture> blendMap;
+	private TileGenerator generator;
+	private int loadRadius;
+	private int cacheSize;
+	//Offsets of the tiles within the load radius, nearest first, so the tile the player is on loads first.
+	private int[][] offsets;
+	//Every tile that is loading or loaded, in order of when it was last in range (least recent first).
+	private LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<Long, Tile>(64, 0.75f, true);
+	//The loaded tiles in range of the player, rebuilt every update for the renderer.
+	private List<Terrain> terrains = new ArrayList<Terrain>();
+	//Every loaded tile, in or out of range.
+	private TerrainWorld world = new TerrainWorld();
+	//Tiles that failed to load, added from whichever thread the failure happened on and dropped on the OpenGL
+	//thread by the next update.
+	private ConcurrentLinkedQueue<Tile> failedTiles = new ConcurrentLinkedQueue<Tile>();
+	//The tile the player was on last update.
+	private long playerTile;
+	private boolean hasPlayerTile = false;
+	//Counters for how the streaming is going.
+	private int loadsStarted = 0;
+	private int loadsFinished = 0;
+	private int loadsFailed = 0;
+	private Throwable lastFailure;
+	private int evictions = 0;
+	private int crossings = 0;
+	private long totalLatency = 0;
+	private long maxLatency = 0;
+	private long lastCrossingTime = 0;
+	private long maxCrossingTime = 0;
+	private long maxUpdateTime = 0;
+
+	//Constructor that takes in the pipeline to load with (which must stay open while the world is used), the
+	//textures every tile uses, what makes each tile's mesh, how many tiles away from the player to load and how
+	//many out of range tiles to keep.
+	public TerrainTileManager(AssetPipeline pipeline, Loader loader, CompletableFuture<TerrainTexturePack> texturePack,
+			CompletableFuture<TerrainTexture> blendMap, TileGenerator generator, int loadRadius, int cacheSize) {
+		this.pipeline = pipeline;
+		this.loader = loader;
+		this.texturePack = texturePack;
+		this.blendMap = blendMap;
+		this.generator = generator;
+		this.loadRadius = loadRadius;
+		this.cacheSize = cacheSize;
+		List<int[]> inRange = new ArrayList<int[]>();
+		for (int dz = -loadRadius; dz <= loadRadius; dz++) {
+			for (int dx = -loadRadius; dx <= loadRadius; dx++) {
+				if (dx * dx + dz * dz <= loadRadius * loadRadius) {
+					inRange.add(new int[] {dx, dz});
+				}
+			}
+		}
+		offsets = inRange.toArray(new int[inRange.size()][]);
+		Arrays.sort(offsets, (a, b) -> Integer.compare(a[0] * a[0] + a[1] * a[1], b[0] * b[0] + b[1] * b[1]));
+	}
+
+	//Called once a frame on the OpenGL thread with where the player is. Runs a few waiting uploads, asks for any
+	//tiles in range that aren't loaded yet and frees the least recently used tiles out of range.
+	public void update(Vector3f playerPosition) {
+		long start = System.nanoTime();
+		pipeline.processUploads(UPLOADS_PER_FRAME);
+		world.uploadEdits(loader);
+		dropFailedTiles();
+		int playerX = Terrain.getGridCoordinate(playerPosition.x);
+		int playerZ = Terrain.getGridCoordinate(playerPosition.z);
+		long current = key(playerX, playerZ);
+		boolean crossed = !hasPlayerTile || current != playerTile;
+		playerTile = current;
+		hasPlayerTile = true;
+		//Ask for the tiles in range, touching the ones already there so they count as recently used
+		terrains.clear();
+		for (int[] offset : offsets) {
+			int gridX = playerX + offset[0];
+			int gridZ = playerZ + offset[1];
+			Tile tile = tiles.get(key(gridX, gridZ));
+			if (tile == null) {
+				requestTile(gridX, gridZ);
+			} else if (tile.terrain != null) {
+				terrains.add(tile.terrain);
+			}
+		}
+		evictOutOfRange(playerX, playerZ);
+		//Keep track of how long this took, especially when crossing into a new tile
+		long time = System.nanoTime() - start;
+		maxUpdateTime = Math.max(maxUpdateTime, time);
+		if (crossed) {
+			crossings++;
+			lastCrossingTime = time;
+			maxCrossingTime = Math.max(maxCrossingTime, time);
+		}
+	}
+
+	//Load the tiles around a position and wait until the one the position is on is ready, eg. before the game
+	//starts so the player doesn't start on an empty world. Must be called on the OpenGL thread. Gives back null if
+	//the tile failed to load, it will be asked for again by the next update.
+	public Terrain loadNow(Vector3f position) {
+		update(position);
+		Tile tile = tiles.get(key(Terrain.getGridCoordinate(position.x), Terrain.getGridCoordinate(position.z)));
+		awaitTile(tile);
+		update(position);
+		return tile.terrain;
+	}
+
+	//Wait until every tile that has been asked for is loaded, eg. so entities can be put on the ground before the
+	//game starts. Must be called on the OpenGL thread. Tiles that fail are dropped rather than thrown, see
+	//getLoadsFailed.
+	public void awaitLoading() {
+		for (Tile tile : new ArrayList<Tile>(tiles.values())) {
+			awaitTile(tile);
+		}
+		dropFailedTiles();
+	}
+
+	//Get the tile at some grid coordinates, or null if it isn't loaded. Doesn't count as using the tile.
+	public Terrain getTerrain(int gridX, int gridZ) {
+		return world.getTerrain(gridX, gridZ);
+	}
+
+	//Get the tile a world position is on, or null if it isn't loaded.
+	public Terrain getTerrainAt(float worldX, float worldZ) {
+		return world.getTerrainAt(worldX, worldZ);
+	}
+
+	//Free every loaded tile when the game is closed.
+	public void cleanUp() {
+		for (Tile tile : tiles.values()) {
+			if (tile.terrain != null) {
+				tile.terrain.cleanUp(loader);
+			}
+		}
+		tiles.clear();
+		terrains.clear();
+		world.clear();
+	}
+
+	//Key for a tile in the map, the two grid coordinates packed into one long.
+	public static long key(int gridX, int gridZ) {
+		return TerrainWorld.key(gridX, gridZ);
+	}
+
+	//Report of the counters, eg. for printing every so often while testing.
+	public String getStats() {
+		//Indices each tile's patches use, and how much of that each tile saves by sharing them
+		long indexBytes = 0;
+		long indexBytesSaved = 0;
+		int loaded = 0;
+		for (Tile tile : tiles.values()) {
+			if (tile.terrain != null) {
+				indexBytes += tile.terrain.getQuadtree().getIndexBytes();
+				indexBytesSaved += tile.terrain.getQuadtree().getIndexBytesSaved();
+				loaded++;
+			}
+		}
+		return String.format("Terrain tiles: %d resident (%d drawn), %d loading, %d loaded, %d failed, %d evicted, "
+				+ "load latency avg %.1f ms max %.1f ms, tile crossing %d took %.2f ms (worst %.2f ms), "
+				+ "worst update %.2f ms, indices %d KB a tile of which %d KB shared", getResidentTileCount(),
+				terrains.size(), getLoadingTileCount(), loadsFinished, loadsFailed, evictions, getAverageLoadLatency(),
+				maxLatency / 1e6, crossings, lastCrossingTime / 1e6, maxCrossingTime / 1e6, maxUpdateTime / 1e6,
+				loaded == 0 ? 0 : indexBytes / loaded / 1024, loaded == 0 ? 0 : indexBytesSaved / loaded / 1024);
+	}
+
+	//Start loading a tile on the workers, it is added to the map straight away so it is only asked for once.
+	private void requestTile(int gridX, int gridZ) {
+		Tile tile = new Tile(gridX, gridZ);
+		tiles.put(key(gridX, gridZ), tile);
+		loadsStarted++;
+		long requested = System.nanoTime();
+		tile.loading = pipeline.loadTerrain(gridX, gridZ, texturePack, blendMap,
+				() -> generator.generate(gridX, gridZ));
+		//Runs on the OpenGL thread as soon as the upload is done
+		tile.loading.thenAccept(terrain -> {
+			tile.terrain = terrain;
+			world.add(terrain);
+			loadsFinished++;
+			long latency = System.nanoTime() - requested;
+			totalLatency += latency;
+			maxLatency = Math.max(maxLatency, latency);
+		});
+		//A failure can complete the future on a worker, so the tile is only queued here and dropped on the OpenGL
+		//thread
+		tile.loading.whenComplete((terrain, error) -> {
+			if (error != null) {
+				tile.failure = error;
+				failedTiles.add(tile);
+			}
+		});
+	}
+
+	//Drop the tiles that failed to load from the map, so they count as not asked for and are asked for again the
+	//next time they are in range.
+	private void dropFailedTiles() {
+		Tile tile;
+		while ((tile = failedTiles.poll()) != null) {
+			tiles.remove(key(tile.gridX, tile.gridZ), tile);
+			loadsFailed++;
+			lastFailure = tile.failure;
+		}
+	}
+
+	//Wait for a tile to finish loading or fail, without throwing if it failed.
+	private void awaitTile(Tile tile) {
+		pipeline.await(tile.loading.handle((terrain, error) -> terrain));
+	}
+
+	//Free loaded tiles that are out of range, least recently used first, until only cacheSize of them are left.
+	//Tiles still loading are left alone and can be freed once they are done.
+	private void evictOutOfRange(int playerX, int playerZ) {
+		int outOfRange = 0;
+		for (Tile tile : tiles.values()) {
+			if (tile.terrain != null && !inRange(tile, playerX, playerZ)) {
+				outOfRange++;
+			}
+		}
+		Iterator<Map.Entry<Long, Tile>> iterator = tiles.entrySet().iterator();
+		while (outOfRange > cacheSize && iterator.hasNext()) {
+			Tile tile = iterator.next().getValue();
+			if (tile.terrain != null && !inRange(tile, playerX, playerZ)) {
+				world.remove(tile.terrain);
+				tile.terrain.cleanUp(loader);
+				iterator.remove();
+				outOfRange--;
+				evictions++;
+			}
+		}
+	}
+
+	private boolean inRange(Tile tile, int playerX, int playerZ) {
+		int dx = tile.gridX - playerX;
+		int dz = tile.gridZ - playerZ;
+		return dx * dx + dz * dz <= loadRadius * loadRadius;
+	}
+
+	//Getters for the tiles and the counters
+	public List<Terrain> getTerrains() {
+		return terrains;
+	}
+
+	public TerrainWorld getWorld() {
+		return world;
+	}
+
+	public int getResidentTileCount() {
+		return tiles.size() - getLoadingTileCount();
+	}
+
+	//Tiles still loading are never evicted, so every one started and not finished is still loading.
+	public int getLoadingTileCount() {
+		return loadsStarted - loadsFinished - loadsFailed;
+	}
+
+	public int getLoadsFailed() {
+		return loadsFailed;
+	}
+
+	//Why the last tile that failed to load failed, or null if none have.
+	public Throwable getLastFailure() {
+		return lastFailure;
+	}
+
+	public int getEvictions() {
+		return evictions;
+	}
+
+	public int getCrossings() {
+		return crossings;
+	}
+
+	//Average time from a tile being asked for to it being drawable, in milliseconds.
+	public float getAverageLoadLatency() {
+		return loadsFinished == 0 ? 0 : (float) (totalLatency / 1e6 / loadsFinished);
+	}
+
+	public float getMaxLoadLatency() {
+		return maxLatency / 1e6f;
+	}
+
+	public float getLastCrossingTime() {
+		return lastCrossingTime / 1e6f;
+	}
+
+	public float getMaxCrossingTime() {
+		return maxCrossingTime / 1e6f;
+	}
+
+	//A tile of the world, loading until its terrain is set.
+	private static class Tile {
+
+		private final int gridX;
+		private final int gridZ;
+		private CompletableFuture<Terrain> loading;
+		private Terrain terrain;
+		private Throwable failure;
+
+		private Tile(int gridX, int gridZ) {
+			this.gridX = gridX;
+			this.gridZ = gridZ;
+		}
+	}
+}
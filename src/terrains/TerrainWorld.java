@@ -0,0 +1,328 @@
+package terrains;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Entity;
+import renderEngine.Loader;
+import toolbox.LongObjectHashMap;
+
+//All the tiles of terrain in the world, found by their grid coordinates, so anything that needs the ground (the
+//player, entities, the camera) can ask about any world position without knowing which tile it is on. A position is
+//turned into grid coordinates and the tile looked up in a hash map, so a query costs the same however many tiles
+//there are. The last tile found is remembered, as queries tend to come from the same tile many times in a row.
+//
+//Heights, normals and rays all carry on across the edges between tiles. Positions with no tile loaded under them
+//get a height of 0, the same as positions off the edge of a single terrain.
+//
+//The ground can be edited anywhere in the world (eg. craters), across the edges between tiles. Every tile the edit
+//covers is changed straight away, and the edits are sent to the GPU together by uploadEdits once a frame.
+public class TerrainWorld {
+
+	//Works out the new height of a vertex for an edit, from where it is in the world and its height now.
+	public interface HeightEdit {
+		float getHeight(float worldX, float worldZ, float height);
+	}
+
+	//Positions past the far edge of a tile are pulled back onto it. Subtracting the tile's corner from a world
+	//position just before the next tile can round up to exactly SIZE, which the tile counts as off its edge.
+	private static final float LAST_INSIDE = Math.nextDown(Terrain.SIZE);
+
+	private LongObjectHashMap<Terrain> terrains = new LongObjectHashMap<Terrain>(64);
+	private Terrain lastTerrain;
+	//Tiles with edits that haven't been uploaded yet.
+	private List<Terrain> edited = new ArrayList<Terrain>();
+	//Where the heights of tiles that aren't loaded come from, for the normals along the edges of edited tiles.
+	//Without one they count as 0.
+	private HeightSource heightSource;
+
+	//Add a tile to the world, replacing any tile already at its grid coordinates.
+	public void add(Terrain terrain) {
+		terrains.put(key(terrain.getGridX(), terrain.getGridZ()), terrain);
+		lastTerrain = null;
+	}
+
+	//Take a tile out of the world, eg. when it is freed.
+	public void remove(Terrain terrain) {
+		long key = key(terrain.getGridX(), terrain.getGridZ());
+		if (terrains.get(key) == terrain) {
+			terrains.remove(key);
+		}
+		edited.remove(terrain);
+		lastTerrain = null;
+	}
+
+	//Take every tile out of the world.
+	public void clear() {
+		terrains.clear();
+		edited.clear();
+		lastTerrain = null;
+	}
+
+	//Get the tile at some grid coordinates, or null if there isn't one.
+	public Terrain getTerrain(int gridX, int gridZ) {
+		Terrain last = lastTerrain;
+		if (last != null && last.getGridX() == gridX && last.getGridZ() == gridZ) {
+			return last;
+		}
+		Terrain terrain = terrains.get(key(gridX, gridZ));
+		if (terrain != null) {
+			lastTerrain = terrain;
+		}
+		return terrain;
+	}
+
+	//Get the tile a world position is on, or null if there isn't one.
+	public Terrain getTerrainAt(float worldX, float worldZ) {
+		return getTerrain(Terrain.getGridCoordinate(worldX), Terrain.getGridCoordinate(worldZ));
+	}
+
+	//Height of the ground at a world position.
+	public float getHeight(float worldX, float worldZ) {
+		Terrain terrain = getTerrainAt(worldX, worldZ);
+		if (terrain == null) {
+			return 0;
+		}
+		return terrain.getHeights().getHeight(toLocal(worldX, terrain.getX()), toLocal(worldZ, terrain.getZ()));
+	}
+
+	//Normal of the ground at a world position, put into dest. Straight up where there is no tile.
+	public Vector3f getNormal(float worldX, float worldZ, Vector3f dest) {
+		Terrain terrain = getTerrainAt(worldX, worldZ);
+		if (terrain == null) {
+			dest.set(0, 1, 0);
+			return dest;
+		}
+		return terrain.getHeights().getNormal(toLocal(worldX, terrain.getX()), toLocal(worldZ, terrain.getZ()),
+				dest);
+	}
+
+	//Put an entity on the ground where it is.
+	public void ground(Entity entity) {
+		Vector3f position = entity.getPosition();
+		position.y = getHeight(position.x, position.z);
+	}
+
+	//Put every entity in a list on the ground. The entities are sorted by the tile they are on and the heights of each
+	//tile's entities are got in one batch, giving exactly the heights ground does.
+	public void groundAll(List<? extends Entity> entities) {
+		int count = entities.size();
+		Vector3f[] positions = new Vector3f[count];
+		//The tile each entity is on (-1 for no tile), as an index into tiles, and how many entities are on each
+		int[] entityTiles = new int[count];
+		int[] starts = new int[count + 1];
+		List<Terrain> tiles = new ArrayList<Terrain>();
+		Map<Terrain, Integer> tileIndices = new IdentityHashMap<Terrain, Integer>();
+		Terrain last = null;
+		int lastIndex = -1;
+		for (int i = 0; i < count; i++) {
+			Vector3f position = entities.get(i).getPosition();
+			positions[i] = position;
+			Terrain terrain = getTerrainAt(position.x, position.z);
+			if (terrain == null) {
+				position.y = 0;
+				entityTiles[i] = -1;
+				continue;
+			}
+			if (terrain != last) {
+				Integer index = tileIndices.get(terrain);
+				if (index == null) {
+					index = tiles.size();
+					tiles.add(terrain);
+					tileIndices.put(terrain, index);
+				}
+				last = terrain;
+				lastIndex = index;
+			}
+			entityTiles[i] = lastIndex;
+			starts[lastIndex + 1]++;
+		}
+		for (int tile = 0; tile < tiles.size(); tile++) {
+			starts[tile + 1] += starts[tile];
+		}
+		//Positions relative to their tile's corner, with each tile's together from its start
+		int[] next = Arrays.copyOf(starts, tiles.size());
+		int[] order = new int[count];
+		float[] xs = new float[count];
+		float[] zs = new float[count];
+		for (int i = 0; i < count; i++) {
+			if (entityTiles[i] >= 0) {
+				Terrain terrain = tiles.get(entityTiles[i]);
+				int slot = next[entityTiles[i]]++;
+				order[slot] = i;
+				xs[slot] = toLocal(positions[i].x, terrain.getX());
+				zs[slot] = toLocal(positions[i].z, terrain.getZ());
+			}
+		}
+		float[] heights = new float[count];
+		for (int tile = 0; tile < tiles.size(); tile++) {
+			tiles.get(tile).getHeights().getHeights(xs, zs, starts[tile], starts[tile + 1], 0, 0, heights);
+		}
+		for (int slot = 0; slot < starts[tiles.size()]; slot++) {
+			positions[order[slot]].y = heights[slot];
+		}
+	}
+
+	//Distance along a ray (in world coordinates) to where it first hits the ground, or HeightFieldRaycaster.MISS if
+	//it doesn't within maxDistance. The distance is in lengths of the direction. Steps through the tiles under the
+	//ray in order, nearest first, and casts against each one that is loaded until one is hit.
+	public float raycast(Vector3f origin, Vector3f direction, float maxDistance) {
+		int gridX = Terrain.getGridCoordinate(origin.x);
+		int gridZ = Terrain.getGridCoordinate(origin.z);
+		//How far along the ray the next tile edge is along x & z, and how far apart the edges are
+		int stepX = direction.x > 0 ? 1 : -1;
+		int stepZ = direction.z > 0 ? 1 : -1;
+		float nextX = direction.x == 0 ? Float.POSITIVE_INFINITY
+				: ((gridX + (stepX > 0 ? 1 : 0)) * Terrain.SIZE - origin.x) / direction.x;
+		float nextZ = direction.z == 0 ? Float.POSITIVE_INFINITY
+				: ((gridZ + (stepZ > 0 ? 1 : 0)) * Terrain.SIZE - origin.z) / direction.z;
+		float deltaX = direction.x == 0 ? Float.POSITIVE_INFINITY : Terrain.SIZE / Math.abs(direction.x);
+		float deltaZ = direction.z == 0 ? Float.POSITIVE_INFINITY : Terrain.SIZE / Math.abs(direction.z);
+		float enter = 0;
+		while (enter <= maxDistance) {
+			Terrain terrain = getTerrain(gridX, gridZ);
+			if (terrain != null) {
+				float hit = terrain.raycast(origin, direction, maxDistance);
+				if (hit != HeightFieldRaycaster.MISS) {
+					return hit;
+				}
+			}
+			//Move on to whichever tile the ray reaches next
+			if (nextX < nextZ) {
+				enter = nextX;
+				nextX += deltaX;
+				gridX += stepX;
+			} else {
+				enter = nextZ;
+				nextZ += deltaZ;
+				gridZ += stepZ;
+			}
+			if (Float.isInfinite(enter)) {
+				break;
+			}
+		}
+		return HeightFieldRaycaster.MISS;
+	}
+
+	//Change the heights of every vertex of the world from minX, minZ to maxX, maxZ (world coordinates) to whatever
+	//the edit gives for them. A vertex on the edge between two tiles is in both, and gets the same height in each as
+	//the edit is given the same position for it. The vertices of tiles that aren't loaded are left alone.
+	public void editHeights(float minX, float minZ, float maxX, float maxZ, HeightEdit edit) {
+		//The tiles either side can have vertices next to the edit, whose normals change
+		for (int gridZ = Terrain.getGridCoordinate(minZ) - 1; gridZ <= Terrain.getGridCoordinate(maxZ) + 1; gridZ++) {
+			for (int gridX = Terrain.getGridCoordinate(minX) - 1; gridX <= Terrain.getGridCoordinate(maxX) + 1;
+					gridX++) {
+				Terrain terrain = getTerrain(gridX, gridZ);
+				if (terrain != null) {
+					editTerrain(terrain, minX, minZ, maxX, maxZ, edit);
+				}
+			}
+		}
+	}
+
+	//Push the ground down into a round bowl radius wide around a world position, depth deep in the middle (or up
+	//into a mound if the depth is negative), eg. for a crater.
+	public void deform(float worldX, float worldZ, float radius, float depth) {
+		float radiusSquared = radius * radius;
+		editHeights(worldX - radius, worldZ - radius, worldX + radius, worldZ + radius, (x, z, height) -> {
+			float dx = x - worldX;
+			float dz = z - worldZ;
+			float distance = (dx * dx + dz * dz) / radiusSquared;
+			if (distance >= 1) {
+				return height;
+			}
+			//Smooth all the way to the edge of the bowl, so it doesn't leave a sharp rim
+			float falloff = 1 - distance;
+			return height - depth * falloff * falloff;
+		});
+	}
+
+	//Send the edits of every tile since the last upload to the GPU, all together so several edits in a frame are
+	//only sent once. Called once a frame on the OpenGL thread. Returns how many ranges of vertices were sent.
+	public int uploadEdits(Loader loader) {
+		int ranges = 0;
+		for (Terrain terrain : edited) {
+			int squares = terrain.getHeights().getSize() - 1;
+			ranges += terrain.uploadEdits(loader, (sampleX, sampleZ) -> getSampleHeight(sampleX, sampleZ, squares));
+		}
+		edited.clear();
+		return ranges;
+	}
+
+	//Key for a tile in the map, the two grid coordinates packed into one long.
+	public static long key(int gridX, int gridZ) {
+		return ((long) gridX << 32) | (gridZ & 0xFFFFFFFFL);
+	}
+
+	//Edit the vertices of one tile that are in a rectangle of the world, and mark the ones next to them as changed.
+	private void editTerrain(Terrain terrain, float minX, float minZ, float maxX, float maxZ, HeightEdit edit) {
+		HeightField heights = terrain.getHeights();
+		int squares = heights.getSize() - 1;
+		float gridSquareSize = heights.getGridSquareSize();
+		//Vertices of the tile in the rectangle, worked out from the samples of the world so that tiles either side of
+		//an edge agree on which vertices are in it
+		int firstX = terrain.getGridX() * squares;
+		int firstZ = terrain.getGridZ() * squares;
+		int startX = (int) Math.ceil(minX / gridSquareSize) - firstX;
+		int startZ = (int) Math.ceil(minZ / gridSquareSize) - firstZ;
+		int endX = (int) Math.floor(maxX / gridSquareSize) - firstX;
+		int endZ = (int) Math.floor(maxZ / gridSquareSize) - firstZ;
+		if (startX > squares + 1 || startZ > squares + 1 || endX < -1 || endZ < -1) {
+			return;
+		}
+		int columns = Math.min(endX, squares) - Math.max(startX, 0) + 1;
+		int rows = Math.min(endZ, squares) - Math.max(startZ, 0) + 1;
+		if (columns > 0 && rows > 0) {
+			startX = Math.max(startX, 0);
+			startZ = Math.max(startZ, 0);
+			float[] newHeights = new float[columns * rows];
+			for (int row = 0; row < rows; row++) {
+				for (int column = 0; column < columns; column++) {
+					int x = startX + column;
+					int z = startZ + row;
+					newHeights[row * columns + column] = edit.getHeight((firstX + x) * gridSquareSize,
+							(firstZ + z) * gridSquareSize, heights.getVertexHeight(x, z));
+				}
+			}
+			terrain.setHeights(startX, startZ, columns, rows, newHeights);
+		} else {
+			//Only the vertices along the edge, next to the edit on the tile beside this one
+			terrain.addEditRegion(startX - 1, startZ - 1, endX + 1, endZ + 1);
+		}
+		if (!edited.contains(terrain)) {
+			edited.add(terrain);
+		}
+	}
+
+	//Height of a sample of the world, from the tile it is on if that is loaded. Tiles have squares + 1 vertices
+	//along each side.
+	private float getSampleHeight(int sampleX, int sampleZ, int squares) {
+		int gridX = Math.floorDiv(sampleX, squares);
+		int gridZ = Math.floorDiv(sampleZ, squares);
+		Terrain terrain = getTerrain(gridX, gridZ);
+		if (terrain != null && terrain.getHeights().getSize() == squares + 1) {
+			return terrain.getHeights().getVertexHeight(sampleX - gridX * squares, sampleZ - gridZ * squares);
+		}
+		return heightSource == null ? 0 : heightSource.getHeight(sampleX, sampleZ);
+	}
+
+	//A world coordinate relative to a tile's corner, kept on the tile.
+	private static float toLocal(float world, float corner) {
+		return Math.max(0, Math.min(world - corner, LAST_INSIDE));
+	}
+
+	//Set where the heights of tiles that aren't loaded come from, normally the source the tiles are made from.
+	public void setHeightSource(HeightSource heightSource) {
+		this.heightSource = heightSource;
+	}
+
+	//Getters for the properties
+	public int getTerrainCount() {
+		return terrains.size();
+	}
+}
@@ -13,6 +13,12 @@ public class ModelTexture {
 	private boolean useFakeLighting = false;
 	//Texture atlas properties, assume every texture could be an atlas, minimum will have 1 row (and hence 1 column)
 	private int numberOfRows = 1;
+	//Transform from the model's texture coords to its region of a shared atlas page (see TextureAtlas), an offset 
+	//and a scale. Defaults to the whole texture. 
+	private float atlasOffsetX = 0;
+	private float atlasOffsetY = 0;
+	private float atlasScaleX = 1;
+	private float atlasScaleY = 1;
 	
 	//Simple constructor that passes in the texture id. 
 	public ModelTexture(int id) {
@@ -53,5 +59,24 @@ public class ModelTexture {
 	public void setNumberOfRows(int numberOfRows) {
 		this.numberOfRows = numberOfRows;
 	}	
+	//Getters & setter for the atlas transform. 
+	public void setAtlasTransform(float offsetX, float offsetY, float scaleX, float scaleY) {
+		this.atlasOffsetX = offsetX;
+		this.atlasOffsetY = offsetY;
+		this.atlasScaleX = scaleX;
+		this.atlasScaleY = scaleY;
+	}
+	public float getAtlasOffsetX() {
+		return atlasOffsetX;
+	}
+	public float getAtlasOffsetY() {
+		return atlasOffsetY;
+	}
+	public float getAtlasScaleX() {
+		return atlasScaleX;
+	}
+	public float getAtlasScaleY() {
+		return atlasScaleY;
+	}
 	
 }
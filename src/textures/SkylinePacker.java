@@ -0,0 +1,127 @@
+package textures;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//Packs rectangles into a fixed size page using the skyline bottom-left method. The packer only remembers the top 
+//edge (the skyline) of everything placed so far, as a list of flat segments, and puts each new rectangle wherever 
+//it ends up lowest. Doesn't touch OpenGL or any pixels, it just hands out positions. 
+public class SkylinePacker {
+
+	private int width;
+	private int height;
+	//Segments of the skyline from left to right, they always cover the whole width of the page. 
+	private List<Segment> skyline = new ArrayList<Segment>();
+	//Area of all the rectangles placed so far, in pixels. 
+	private long usedArea = 0;
+	
+	//Constructor that takes in the size of the page. 
+	public SkylinePacker(int width, int height) {
+		this.width = width;
+		this.height = height;
+		skyline.add(new Segment(0, 0, width));
+	}
+	
+	//Find a place for a rectangle and mark it as used. Returns the x and y of the top left corner, or null if there 
+	//is no room left for it on this page. 
+	public int[] insert(int rectWidth, int rectHeight) {
+		int bestIndex = -1;
+		int bestX = 0;
+		int bestY = 0;
+		int bestTop = Integer.MAX_VALUE;
+		int bestWidth = Integer.MAX_VALUE;
+		for(int i = 0; i < skyline.size(); i++) {
+			int y = fit(i, rectWidth, rectHeight);
+			if(y < 0) {
+				continue;
+			}
+			//Lowest top edge wins, then the narrowest segment so the wide gaps are kept for wide rectangles 
+			int top = y + rectHeight;
+			Segment segment = skyline.get(i);
+			if(top < bestTop || (top == bestTop && segment.width < bestWidth)) {
+				bestIndex = i;
+				bestX = segment.x;
+				bestY = y;
+				bestTop = top;
+				bestWidth = segment.width;
+			}
+		}
+		if(bestIndex < 0) {
+			return null;
+		}
+		addSegment(bestIndex, bestX, bestY + rectHeight, rectWidth);
+		usedArea += (long) rectWidth * rectHeight;
+		return new int[] {bestX, bestY};
+	}
+	
+	//Works out how low a rectangle can sit if its left edge is at the start of a segment, ie. the highest point of 
+	//the skyline under it. Returns -1 if it would go off the side or the bottom of the page. 
+	private int fit(int index, int rectWidth, int rectHeight) {
+		int x = skyline.get(index).x;
+		if(x + rectWidth > width) {
+			return -1;
+		}
+		int y = 0;
+		int remaining = rectWidth;
+		for(int i = index; remaining > 0; i++) {
+			Segment segment = skyline.get(i);
+			y = Math.max(y, segment.y);
+			if(y + rectHeight > height) {
+				return -1;
+			}
+			remaining -= segment.width;
+		}
+		return y;
+	}
+	
+	//Raise the skyline where a rectangle has been placed. Segments covered by the rectangle are removed or cut 
+	//short, and neighbouring segments at the same height are joined together. 
+	private void addSegment(int index, int x, int y, int segmentWidth) {
+		skyline.add(index, new Segment(x, y, segmentWidth));
+		int right = x + segmentWidth;
+		for(int i = index + 1; i < skyline.size();) {
+			Segment segment = skyline.get(i);
+			if(segment.x >= right) {
+				break;
+			}
+			int segmentRight = segment.x + segment.width;
+			if(segmentRight <= right) {
+				skyline.remove(i);
+			} else {
+				segment.width = segmentRight - right;
+				segment.x = right;
+				break;
+			}
+		}
+		for(int i = 0; i < skyline.size() - 1;) {
+			Segment segment = skyline.get(i);
+			Segment next = skyline.get(i + 1);
+			if(segment.y == next.y) {
+				segment.width += next.width;
+				skyline.remove(i + 1);
+			} else {
+				i++;
+			}
+		}
+	}
+	
+	//Fraction of the page that has been filled with rectangles. 
+	public float getOccupancy() {
+		return (float) usedArea / ((float) width * height);
+	}
+	
+	//A flat piece of the skyline. 
+	private static class Segment {
+		
+		private int x;
+		private int y;
+		private int width;
+		
+		private Segment(int x, int y, int width) {
+			this.x = x;
+			this.y = y;
+			this.width = width;
+		}
+	}
+	
+}
@@ -0,0 +1,173 @@
+package textures;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.BufferUtils;
+
+import renderEngine.Loader;
+
+//Packs lots of small model textures into a few big atlas pages, so that models with different textures can still
+//share one texture bind. Each texture is given a region of a page and its ModelTexture gets an atlas transform (an
+//offset and scale) that the shader uses to move the model's texture coords into that region, so the meshes
+//themselves don't need to change. Only works for models whose texture coords stay between 0 and 1, as a texture in
+//an atlas can't repeat.
+//
+//Every texture has a border of padding around it, filled by stretching out its edge pixels. Without this the
+//linear filtering and the smaller mipmaps would blend in the pixels of the next texture along.
+public class TextureAtlas {
+
+	private int pageSize;
+	private int padding;
+	//Pixels of each page (always RGBA) until they are uploaded, then the ids of the textures in OpenGL.
+	private List<TextureData> pages = new ArrayList<TextureData>();
+	private int[] pageIDs;
+	//Where each texture went, by name.
+	private Map<String, Region> regions = new HashMap<String, Region>();
+	//Pixels on each page that are used by a texture (not counting padding), for reporting.
+	private long[] usedPixels;
+
+	private TextureAtlas(int pageSize, int padding) {
+		this.pageSize = pageSize;
+		this.padding = padding;
+	}
+
+	//Packs the textures into as many pages as are needed. The biggest textures are placed first as that packs
+	//tightest. Positions are kept to multiples of the padding so the textures line up with the mipmap pixels.
+	//Doesn't touch OpenGL, so can be run on a worker thread.
+	public static TextureAtlas build(List<String> names, List<TextureData> textures, int pageSize, int padding) {
+		TextureAtlas atlas = new TextureAtlas(pageSize, padding);
+		Integer[] order = new Integer[textures.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(
+				Math.max(textures.get(b).getWidth(), textures.get(b).getHeight()),
+				Math.max(textures.get(a).getWidth(), textures.get(a).getHeight())));
+		List<SkylinePacker> packers = new ArrayList<SkylinePacker>();
+		List<Long> used = new ArrayList<Long>();
+		for (int i : order) {
+			TextureData texture = textures.get(i);
+			int width = alignUp(texture.getWidth() + padding * 2, padding);
+			int height = alignUp(texture.getHeight() + padding * 2, padding);
+			if (width > pageSize || height > pageSize) {
+				throw new IllegalArgumentException("Texture " + names.get(i) + " is too big for a " + pageSize
+						+ " atlas page");
+			}
+			//Try each page in turn, starting a new one if none of them have room
+			int page = -1;
+			int[] position = null;
+			for (int p = 0; p < packers.size() && position == null; p++) {
+				position = packers.get(p).insert(width, height);
+				page = p;
+			}
+			if (position == null) {
+				packers.add(new SkylinePacker(pageSize, pageSize));
+				atlas.pages.add(new TextureData(pageSize, pageSize, true,
+						BufferUtils.createByteBuffer(pageSize * pageSize * 4)));
+				used.add(0L);
+				page = packers.size() - 1;
+				position = packers.get(page).insert(width, height);
+			}
+			int x = position[0] + padding;
+			int y = position[1] + padding;
+			atlas.copyIntoPage(texture, atlas.pages.get(page).getBuffer(), x, y);
+			atlas.regions.put(names.get(i), new Region(page, x, y, texture.getWidth(), texture.getHeight()));
+			used.set(page, used.get(page) + (long) texture.getWidth() * texture.getHeight());
+		}
+		atlas.usedPixels = new long[used.size()];
+		for (int page = 0; page < used.size(); page++) {
+			atlas.usedPixels[page] = used.get(page);
+		}
+		return atlas;
+	}
+
+	//Load the pages into OpenGL. Has to be called on the thread that owns the OpenGL context, after which the
+	//pixels aren't needed anymore.
+	public void upload(Loader loader) {
+		pageIDs = new int[pages.size()];
+		for (int page = 0; page < pageIDs.length; page++) {
+			pageIDs[page] = loader.loadTexture(pages.get(page));
+		}
+		pages = null;
+	}
+
+	//Create a model texture for one of the textures in the atlas, using the page it is on and with the transform
+	//to its region already set.
+	public ModelTexture createTexture(String name) {
+		Region region = regions.get(name);
+		if (region == null) {
+			throw new IllegalArgumentException("Texture " + name + " is not in the atlas");
+		}
+		ModelTexture texture = new ModelTexture(pageIDs[region.page]);
+		texture.setAtlasTransform((float) region.x / pageSize, (float) region.y / pageSize,
+				(float) region.width / pageSize, (float) region.height / pageSize);
+		return texture;
+	}
+
+	//Fraction of a page covered by textures (padding isn't counted).
+	public float getOccupancy(int page) {
+		return (float) usedPixels[page] / ((float) pageSize * pageSize);
+	}
+
+	//Report of how many textures are in the atlas and how full each page is.
+	public String getReport() {
+		StringBuilder report = new StringBuilder("Texture atlas: " + regions.size() + " textures on "
+				+ usedPixels.length + " " + pageSize + "x" + pageSize + " pages");
+		for (int page = 0; page < usedPixels.length; page++) {
+			report.append(String.format(", page %d %.1f%% full", page, getOccupancy(page) * 100));
+		}
+		return report.toString();
+	}
+
+	public int getPageCount() {
+		return usedPixels.length;
+	}
+
+	//Copy a texture's pixels into a page at x, y, then stretch its edge pixels out across the padding around it.
+	private void copyIntoPage(TextureData texture, ByteBuffer page, int x, int y) {
+		ByteBuffer pixels = texture.getBuffer();
+		int bytesPerPixel = texture.getBytesPerPixel();
+		int width = texture.getWidth();
+		int height = texture.getHeight();
+		for (int row = -padding; row < height + padding; row++) {
+			//Rows in the padding above and below copy the nearest edge row
+			int sourceRow = Math.min(Math.max(row, 0), height - 1);
+			for (int column = -padding; column < width + padding; column++) {
+				int sourceColumn = Math.min(Math.max(column, 0), width - 1);
+				int source = (sourceRow * width + sourceColumn) * bytesPerPixel;
+				int destination = ((y + row) * pageSize + x + column) * 4;
+				page.put(destination, pixels.get(source));
+				page.put(destination + 1, pixels.get(source + 1));
+				page.put(destination + 2, pixels.get(source + 2));
+				page.put(destination + 3, bytesPerPixel == 4 ? pixels.get(source + 3) : (byte) 255);
+			}
+		}
+	}
+
+	private static int alignUp(int value, int alignment) {
+		return alignment <= 1 ? value : (value + alignment - 1) / alignment * alignment;
+	}
+
+	//Where a texture is in the atlas, in pixels.
+	private static class Region {
+
+		private final int page;
+		private final int x;
+		private final int y;
+		private final int width;
+		private final int height;
+
+		private Region(int page, int x, int y, int width, int height) {
+			this.page = page;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+	}
+}
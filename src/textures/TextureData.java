@@ -0,0 +1,45 @@
+package textures;
+
+import java.nio.ByteBuffer;
+
+//Decoded pixels of a texture image that haven't been loaded into OpenGL yet. Decoding the png doesn't need the 
+//OpenGL context so it can be done on any thread, only the final upload has to happen on the render thread. 
+public class TextureData {
+
+	//Size of the image in pixels (padded up to a power of two by the decoder), whether each pixel has an alpha 
+	//channel (4 bytes per pixel rather than 3) and the pixels themselves. 
+	private int width;
+	private int height;
+	private boolean hasAlpha;
+	private ByteBuffer buffer;
+	
+	//Simple constructor that takes in the size, format and pixel data. 
+	public TextureData(int width, int height, boolean hasAlpha, ByteBuffer buffer) {
+		this.width = width;
+		this.height = height;
+		this.hasAlpha = hasAlpha;
+		this.buffer = buffer;
+	}
+	//Number of bytes used by each pixel. 
+	public int getBytesPerPixel() {
+		return hasAlpha ? 4 : 3;
+	}
+	
+	//Getters for the properties
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean hasAlpha() {
+		return hasAlpha;
+	}
+
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+	
+}
@@ -0,0 +1,43 @@
+package textures;
+
+import renderEngine.TextureCache;
+
+//A reference to a texture held in the texture cache. While any handle to a texture is still held the texture stays 
+//loaded. Once every handle has been released it can be deleted from memory if the cache goes over its budget. 
+public class TextureHandle {
+
+	private TextureCache cache;
+	private String name;
+	private int textureID;
+	private boolean released = false;
+	
+	//Constructor used by the cache when a texture is acquired. 
+	public TextureHandle(TextureCache cache, String name, int textureID) {
+		this.cache = cache;
+		this.name = name;
+		this.textureID = textureID;
+	}
+	
+	//Give the reference back to the cache, the texture ID shouldn't be used through this handle after this. 
+	public void release() {
+		if(released) {
+			throw new IllegalStateException("Texture handle for " + name + " has already been released");
+		}
+		released = true;
+		cache.release(name);
+	}
+	
+	//Getters for the properties
+	public String getName() {
+		return name;
+	}
+	
+	public int getID() {
+		return textureID;
+	}
+	
+	public boolean isReleased() {
+		return released;
+	}
+	
+}
@@ -0,0 +1,88 @@
+package toolbox;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+import entities.Entity;
+import models.ModelBounds;
+
+//Decides which entities the camera might be able to see, so the rest never reach the renderer's batches. The bounds
+//of each entity's model are moved into the world by the entity's transformation matrix. The sphere is tested
+//first as it is cheap and rejects most of what is off screen, then the box (turned into a box lined up with the
+//world axes around the rotated one), which fits long or flat models much more tightly. Both tests only ever let
+//through too much, never too little. Only does maths on the Frustum so works without a display.
+//
+//Counts how many entities are tested and rejected each frame.
+public class EntityCuller {
+
+	private Frustum frustum;
+	//Counts for the frame so far, and for the last whole frame.
+	private int tested = 0;
+	private int rejected = 0;
+	private int lastTested = 0;
+	private int lastRejected = 0;
+
+	//Constructor that takes in the frustum to test against, which is kept up to date by its owner.
+	public EntityCuller(Frustum frustum) {
+		this.frustum = frustum;
+	}
+
+	//Whether any of an entity might be on screen. Entities whose model has no bounds are always drawn.
+	public boolean isVisible(Entity entity) {
+		tested++;
+		ModelBounds bounds = entity.getModel().getRawModel().getBounds();
+		if (bounds == null || intersects(bounds, entity)) {
+			return true;
+		}
+		rejected++;
+		return false;
+	}
+
+	//Start counting a new frame, keeping the counts of the frame just finished.
+	public void endFrame() {
+		lastTested = tested;
+		lastRejected = rejected;
+		tested = 0;
+		rejected = 0;
+	}
+
+	private boolean intersects(ModelBounds bounds, Entity entity) {
+		//The entity's transformation matrix is kept up to date by the entity, so static ones cost no trig here
+		Matrix4f matrix = entity.getTransformationMatrix();
+		//Centre of the bounds in the world
+		float centreX = bounds.getCentreX();
+		float centreY = bounds.getCentreY();
+		float centreZ = bounds.getCentreZ();
+		float x = matrix.m00 * centreX + matrix.m10 * centreY + matrix.m20 * centreZ + matrix.m30;
+		float y = matrix.m01 * centreX + matrix.m11 * centreY + matrix.m21 * centreZ + matrix.m31;
+		float z = matrix.m02 * centreX + matrix.m12 * centreY + matrix.m22 * centreZ + matrix.m32;
+		if (!frustum.intersectsSphere(x, y, z, bounds.getRadius() * Math.abs(entity.getScale()))) {
+			return false;
+		}
+		//How far the rotated and scaled box reaches along each world axis from its centre
+		float width = bounds.getHalfWidth();
+		float height = bounds.getHalfHeight();
+		float depth = bounds.getHalfDepth();
+		float extentX = Math.abs(matrix.m00) * width + Math.abs(matrix.m10) * height + Math.abs(matrix.m20) * depth;
+		float extentY = Math.abs(matrix.m01) * width + Math.abs(matrix.m11) * height + Math.abs(matrix.m21) * depth;
+		float extentZ = Math.abs(matrix.m02) * width + Math.abs(matrix.m12) * height + Math.abs(matrix.m22) * depth;
+		return frustum.intersectsBox(x - extentX, y - extentY, z - extentZ, x + extentX, y + extentY, z + extentZ);
+	}
+
+	//Report of the counts of the last frame.
+	public String getStats() {
+		return "Entities: " + lastTested + " tested, " + lastRejected + " culled, " + getDrawn() + " drawn";
+	}
+
+	//Getters for the counts of the last whole frame
+	public int getTested() {
+		return lastTested;
+	}
+
+	public int getRejected() {
+		return lastRejected;
+	}
+
+	public int getDrawn() {
+		return lastTested - lastRejected;
+	}
+}
@@ -0,0 +1,52 @@
+package toolbox;
+
+import java.util.Arrays;
+
+//Growable list of primitive floats. Used instead of an ArrayList<Float> or ArrayList<Vector3f> so that loading 
+//large meshes doesn't box every value into its own object. 
+public class FloatList {
+
+	//Backing array and the number of values actually stored in it. 
+	private float[] data;
+	private int size;
+	
+	//Constructor that takes in a starting capacity, the array will grow as values are added. 
+	public FloatList(int initialCapacity) {
+		this.data = new float[Math.max(initialCapacity, 4)];
+	}
+	//Add a single value to the end of the list. 
+	public void add(float value) {
+		if(size == data.length) {
+			grow(size + 1);
+		}
+		data[size++] = value;
+	}
+	//Get the value at an index. Only checked against the backing array (not the size) to keep it fast. 
+	public float get(int index) {
+		return data[index];
+	}
+	//Overwrite the value at an index. 
+	public void set(int index, float value) {
+		data[index] = value;
+	}
+	public int size() {
+		return size;
+	}
+	//Throw away everything from the given size onwards.
+	public void truncate(int newSize) {
+		size = Math.min(size, newSize);
+	}
+	//Empty the list but keep the backing array so it can be reused. 
+	public void clear() {
+		size = 0;
+	}
+	//Copy the stored values into a new array of exactly the right length. 
+	public float[] toArray() {
+		return Arrays.copyOf(data, size);
+	}
+	//Grow the backing array by at least half again so adding stays cheap on average. 
+	private void grow(int minCapacity) {
+		int newCapacity = Math.max(minCapacity, data.length + (data.length >> 1));
+		data = Arrays.copyOf(data, newCapacity);
+	}
+}
@@ -0,0 +1,167 @@
+package toolbox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+//Hands out ranges of a fixed size space (eg. the vertices or bytes of a big buffer) and takes them back again. The
+//free space is kept as a list of blocks by where they start, each allocation takes the smallest block it fits in
+//(best fit) and freed ranges are merged back into the blocks either side of them. The free blocks are also kept by
+//size, so the best fit and the largest block are found without going through every block. Doesn't touch OpenGL at all, it
+//only works out offsets, so the same allocator can look after any buffer and can be checked on the CPU.
+public class FreeListAllocator {
+
+	private int capacity;
+	//Free blocks and allocations, both offset -> size.
+	private TreeMap<Integer, Integer> freeBlocks = new TreeMap<Integer, Integer>();
+	//The same free blocks by size, size -> the offsets of every block that size.
+	private TreeMap<Integer, TreeSet<Integer>> freeSizes = new TreeMap<Integer, TreeSet<Integer>>();
+	private Map<Integer, Integer> allocations = new HashMap<Integer, Integer>();
+	private int used = 0;
+
+	//Constructor that starts with the whole space free.
+	public FreeListAllocator(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Allocator capacity must be positive");
+		}
+		this.capacity = capacity;
+		addFreeBlock(0, capacity);
+	}
+
+	//Allocate a range of the given size, returns where it starts or -1 if there isn't a free block big enough.
+	public int allocate(int size) {
+		return allocate(size, 1);
+	}
+
+	//Same as above but the start of the range is a multiple of the alignment. Any space skipped at the front of
+	//the block to line it up stays free.
+	public int allocate(int size, int alignment) {
+		if (size <= 0 || alignment <= 0) {
+			throw new IllegalArgumentException("Allocation size and alignment must be positive");
+		}
+		//Find the smallest block that still fits once it is lined up, the first one by offset if several are that
+		//size. Going up through the sizes from the allocation's own, every block fits once they are alignment - 1
+		//bigger, so only the blocks smaller than that can be skipped over
+		int bestOffset = -1;
+		int bestSize = 0;
+		for (Map.Entry<Integer, TreeSet<Integer>> sizeBlocks : freeSizes.tailMap(size).entrySet()) {
+			int blockSize = sizeBlocks.getKey();
+			for (int blockOffset : sizeBlocks.getValue()) {
+				if (blockSize >= size + alignUp(blockOffset, alignment) - blockOffset) {
+					bestOffset = blockOffset;
+					bestSize = blockSize;
+					break;
+				}
+			}
+			if (bestOffset >= 0) {
+				break;
+			}
+		}
+		if (bestOffset < 0) {
+			return -1;
+		}
+		//Split the block into the padding in front, the allocation and whatever is left behind it
+		removeFreeBlock(bestOffset, bestSize);
+		int offset = alignUp(bestOffset, alignment);
+		if (offset > bestOffset) {
+			addFreeBlock(bestOffset, offset - bestOffset);
+		}
+		int end = offset + size;
+		if (end < bestOffset + bestSize) {
+			addFreeBlock(end, bestOffset + bestSize - end);
+		}
+		allocations.put(offset, size);
+		used += size;
+		return offset;
+	}
+
+	//Free a range given the offset allocate returned, merging it with any free blocks it touches.
+	public void free(int offset) {
+		Integer size = allocations.remove(offset);
+		if (size == null) {
+			throw new IllegalArgumentException("No allocation starts at " + offset);
+		}
+		used -= size;
+		int start = offset;
+		int end = offset + size;
+		//Merge with the block in front if it finishes where this starts
+		Map.Entry<Integer, Integer> before = freeBlocks.floorEntry(offset);
+		if (before != null && before.getKey() + before.getValue() == offset) {
+			start = before.getKey();
+			removeFreeBlock(start, before.getValue());
+		}
+		//And with the block behind if it starts where this finishes
+		Integer after = freeBlocks.get(end);
+		if (after != null) {
+			removeFreeBlock(end, after);
+			end += after;
+		}
+		addFreeBlock(start, end - start);
+	}
+
+	//Size of the allocation starting at an offset, or -1 if nothing is allocated there.
+	public int getAllocationSize(int offset) {
+		Integer size = allocations.get(offset);
+		return size == null ? -1 : size;
+	}
+
+	//Largest allocation that could be made right now.
+	public int getLargestFreeBlock() {
+		return freeSizes.isEmpty() ? 0 : freeSizes.lastKey();
+	}
+
+	//How broken up the free space is, 0 if it is all one block and getting closer to 1 the more it is split into
+	//small pieces that can't hold a large allocation.
+	public float getFragmentation() {
+		int free = getFree();
+		return free == 0 ? 0 : 1 - (float) getLargestFreeBlock() / free;
+	}
+
+	//Report of the space used and how broken up the rest is.
+	public String getStats() {
+		return String.format("%d/%d used in %d allocations, %d free blocks (largest %d), %.1f%% fragmented", used,
+				capacity, allocations.size(), freeBlocks.size(), getLargestFreeBlock(), getFragmentation() * 100);
+	}
+
+	//Add a free block to both the map by offset and the map by size.
+	private void addFreeBlock(int offset, int size) {
+		freeBlocks.put(offset, size);
+		freeSizes.computeIfAbsent(size, key -> new TreeSet<Integer>()).add(offset);
+	}
+
+	//Take a free block out of both maps.
+	private void removeFreeBlock(int offset, int size) {
+		freeBlocks.remove(offset);
+		TreeSet<Integer> offsets = freeSizes.get(size);
+		offsets.remove(offset);
+		if (offsets.isEmpty()) {
+			freeSizes.remove(size);
+		}
+	}
+
+	private static int alignUp(int value, int alignment) {
+		return (value + alignment - 1) / alignment * alignment;
+	}
+
+	//Getters for the properties
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getUsed() {
+		return used;
+	}
+
+	public int getFree() {
+		return capacity - used;
+	}
+
+	public int getAllocationCount() {
+		return allocations.size();
+	}
+
+	public int getFreeBlockCount() {
+		return freeBlocks.size();
+	}
+}
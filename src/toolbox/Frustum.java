@@ -0,0 +1,61 @@
+package toolbox;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+//The 6 planes around what the camera can see, for skipping things that are off screen before they are drawn. The
+//planes are pulled straight out of the projection matrix times the view matrix (the Gribb & Hartmann method), so
+//they are in world space and work with whatever projection the renderer uses. Update it once a frame after the
+//camera has moved.
+public class Frustum {
+
+	//Each plane as a, b, c, d where a point is inside if a*x + b*y + c*z + d >= 0. In the order left, right,
+	//bottom, top, near, far.
+	private float[] planes = new float[24];
+	private Matrix4f clip = new Matrix4f();
+
+	//Work out the planes for a camera.
+	public void update(Matrix4f projectionMatrix, Matrix4f viewMatrix) {
+		Matrix4f.mul(projectionMatrix, viewMatrix, clip);
+		//Each plane is the last row of the matrix plus or minus one of the other rows
+		setPlane(0, clip.m03 + clip.m00, clip.m13 + clip.m10, clip.m23 + clip.m20, clip.m33 + clip.m30);
+		setPlane(1, clip.m03 - clip.m00, clip.m13 - clip.m10, clip.m23 - clip.m20, clip.m33 - clip.m30);
+		setPlane(2, clip.m03 + clip.m01, clip.m13 + clip.m11, clip.m23 + clip.m21, clip.m33 + clip.m31);
+		setPlane(3, clip.m03 - clip.m01, clip.m13 - clip.m11, clip.m23 - clip.m21, clip.m33 - clip.m31);
+		setPlane(4, clip.m03 + clip.m02, clip.m13 + clip.m12, clip.m23 + clip.m22, clip.m33 + clip.m32);
+		setPlane(5, clip.m03 - clip.m02, clip.m13 - clip.m12, clip.m23 - clip.m22, clip.m33 - clip.m32);
+	}
+
+	//Whether any of a box lines up with the camera's view. Only the corner of the box furthest along each plane's
+	//normal needs checking, if even that is behind a plane the whole box is. Boxes right near a corner of the
+	//frustum can be let through when they are really just outside, which only costs drawing them.
+	public boolean intersectsBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		for (int p = 0; p < 24; p += 4) {
+			float x = planes[p] >= 0 ? maxX : minX;
+			float y = planes[p + 1] >= 0 ? maxY : minY;
+			float z = planes[p + 2] >= 0 ? maxZ : minZ;
+			if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//Whether any of a sphere lines up with the camera's view.
+	public boolean intersectsSphere(float x, float y, float z, float radius) {
+		for (int p = 0; p < 24; p += 4) {
+			if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < -radius) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//Store a plane scaled so its normal has a length of 1, so distances to it are in world units.
+	private void setPlane(int plane, float a, float b, float c, float d) {
+		float length = (float) Math.sqrt(a * a + b * b + c * c);
+		planes[plane * 4] = a / length;
+		planes[plane * 4 + 1] = b / length;
+		planes[plane * 4 + 2] = c / length;
+		planes[plane * 4 + 3] = d / length;
+	}
+}
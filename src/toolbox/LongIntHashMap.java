@@ -0,0 +1,109 @@
+package toolbox;
+
+import java.util.Arrays;
+
+//Hash map from long keys to int values that stores everything in primitive arrays. Uses open addressing (linear
+//probing) so there are no entry objects and no boxing of the keys or values, which matters when it is used for
+//every vertex of a mesh. Keys must not be negative as -1 marks an empty slot.
+public class LongIntHashMap {
+
+	//Returned when a key isn't in the map.
+	public static final int NO_VALUE = -1;
+	private static final long EMPTY = -1;
+	//Map is grown once it is half full so the probe sequences stay short.
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+	private int[] values;
+	//Capacity is always a power of two so a mask can be used instead of %.
+	private int mask;
+	private int size;
+	private int resizeThreshold;
+
+	//Constructor that takes in how many entries are expected, so the map doesn't have to grow while filling.
+	public LongIntHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	//Get the value stored for a key, or NO_VALUE if there isn't one.
+	public int get(long key) {
+		int slot = findSlot(key);
+		return keys[slot] == key ? values[slot] : NO_VALUE;
+	}
+
+	//Store the value for the key only if the key isn't already in the map. Returns the value that was already
+	//there, or NO_VALUE if the new value was added. Only needs to search the map once for both cases.
+	public int putIfAbsent(long key, int value) {
+		int slot = findSlot(key);
+		if (keys[slot] == key) {
+			return values[slot];
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size > resizeThreshold) {
+			grow();
+		}
+		return NO_VALUE;
+	}
+
+	//Store the value for the key, replacing any value already there.
+	public void put(long key, int value) {
+		int slot = findSlot(key);
+		if (keys[slot] == key) {
+			values[slot] = value;
+			return;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size > resizeThreshold) {
+			grow();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	//Find the slot holding the key, or the empty slot where it would go.
+	private int findSlot(long key) {
+		int slot = hash(key) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	//Double the capacity and put all the entries back in.
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(keys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = findSlot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new int[capacity];
+		mask = capacity - 1;
+		resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	//Mix up all the bits of the key (the finaliser from MurmurHash3), as keys packed from small indices would
+	//otherwise all land in the same few slots.
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
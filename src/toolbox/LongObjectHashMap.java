@@ -0,0 +1,125 @@
+package toolbox;
+
+//Hash map from long keys to objects, stored in two arrays with open addressing (linear probing) like
+//LongIntHashMap, so looking a key up never boxes it or makes an entry object. Unlike LongIntHashMap any long can be
+//a key (a null value marks an empty slot instead) and entries can be removed, so it suits things that come and go
+//like the tiles of a streamed world. Values can't be null.
+public class LongObjectHashMap<V> {
+
+	//Map is grown once it is half full so the probe sequences stay short.
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+	private V[] values;
+	//Capacity is always a power of two so a mask can be used instead of %.
+	private int mask;
+	private int size;
+	private int resizeThreshold;
+
+	//Constructor that takes in how many entries are expected, so the map doesn't have to grow while filling.
+	public LongObjectHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	//Get the value stored for a key, or null if there isn't one.
+	public V get(long key) {
+		return values[findSlot(key)];
+	}
+
+	//Store the value for the key, returning the value it replaced (or null).
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Values can't be null");
+		}
+		int slot = findSlot(key);
+		V old = values[slot];
+		keys[slot] = key;
+		values[slot] = value;
+		if (old == null && ++size > resizeThreshold) {
+			grow();
+		}
+		return old;
+	}
+
+	//Remove the value for a key, returning it (or null if there wasn't one).
+	public V remove(long key) {
+		int slot = findSlot(key);
+		V old = values[slot];
+		if (old == null) {
+			return null;
+		}
+		values[slot] = null;
+		size--;
+		//Move back any entries after it in the same run that could have gone in the gap, so no probe sequence
+		//is broken by it
+		int gap = slot;
+		int next = (slot + 1) & mask;
+		while (values[next] != null) {
+			int home = hash(keys[next]) & mask;
+			//The entry can fill the gap if its home slot isn't between the gap and where it is now
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				values[next] = null;
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		return old;
+	}
+
+	//Remove everything.
+	public void clear() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	//Find the slot holding the key, or the empty slot where it would go.
+	private int findSlot(long key) {
+		int slot = hash(key) & mask;
+		while (values[slot] != null && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	//Double the capacity and put all the entries back in.
+	private void grow() {
+		long[] oldKeys = keys;
+		V[] oldValues = values;
+		allocate(keys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = findSlot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = (V[]) new Object[capacity];
+		mask = capacity - 1;
+		resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	//Mix up all the bits of the key (the finaliser from MurmurHash3), as keys packed from small coordinates would
+	//otherwise all land in the same few slots.
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
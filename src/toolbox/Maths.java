@@ -26,6 +26,37 @@ public class Maths {
 		Matrix4f.scale(new Vector3f(scale,scale,scale), matrix, matrix);
 		return matrix;
 	}
+	//Method to work out the same transformation matrix as above straight into an existing matrix, without making
+	//any objects. Translating, rotating around x then y then z and scaling all multiply out to a rotation matrix
+	//times the scale with the translation in the last column, so each element is written once from the sines &
+	//cosines of the angles.
+	public static Matrix4f composeTransformationMatrix(float x, float y, float z, float rx, float ry, float rz,
+			float scale, Matrix4f dest) {
+		double radiansX = Math.toRadians(rx);
+		double radiansY = Math.toRadians(ry);
+		double radiansZ = Math.toRadians(rz);
+		float sx = (float) Math.sin(radiansX), cx = (float) Math.cos(radiansX);
+		float sy = (float) Math.sin(radiansY), cy = (float) Math.cos(radiansY);
+		float sz = (float) Math.sin(radiansZ), cz = (float) Math.cos(radiansZ);
+		//LWJGL names the elements column first, so m01 is column 0 row 1
+		dest.m00 = cy * cz * scale;
+		dest.m01 = (cx * sz + sx * sy * cz) * scale;
+		dest.m02 = (sx * sz - cx * sy * cz) * scale;
+		dest.m03 = 0;
+		dest.m10 = -cy * sz * scale;
+		dest.m11 = (cx * cz - sx * sy * sz) * scale;
+		dest.m12 = (sx * cz + cx * sy * sz) * scale;
+		dest.m13 = 0;
+		dest.m20 = sy * scale;
+		dest.m21 = -sx * cy * scale;
+		dest.m22 = cx * cy * scale;
+		dest.m23 = 0;
+		dest.m30 = x;
+		dest.m31 = y;
+		dest.m32 = z;
+		dest.m33 = 1;
+		return dest;
+	}
 	//Method for creating camera view matrices. Doing the opposite of what would what be done with a transformation matrix. 
 	public static Matrix4f createViewMatrix(Camera camera) {
 		//Create a new empty matrix 
@@ -44,6 +75,22 @@ public class Maths {
 		Matrix4f.translate(negativeCameraPos, viewMatrix, viewMatrix);
 		return viewMatrix;
 	}
+	//Method for creating the projection matrix, takes in the field of view (in degrees), the width of the screen 
+	//over its height and the distances to the near & far planes. Doesn't need a display so can be used anywhere. 
+	public static Matrix4f createProjectionMatrix(float fov, float aspectRatio, float nearPlane, float farPlane) {
+		float y_scale = (float) ((1f / Math.tan(Math.toRadians(fov / 2f))) * aspectRatio);
+		float x_scale = y_scale / aspectRatio;
+		float frustam_length = farPlane - nearPlane;
+		
+		Matrix4f projectionMatrix = new Matrix4f();
+		projectionMatrix.m00 = x_scale;
+		projectionMatrix.m11 = y_scale;
+		projectionMatrix.m22 = -((farPlane + nearPlane) / frustam_length);
+		projectionMatrix.m23 = -1;
+		projectionMatrix.m32 = -((2 * nearPlane * farPlane) / frustam_length);
+		projectionMatrix.m33 = 0;
+		return projectionMatrix;
+	}
 	//Barycentric calculation method used for terrain collision detection calculations 
 	public static float barycentricCalc(Vector3f p1, Vector3f p2, Vector3f p3, Vector2f position) {
 		float det = (p2.z - p3.z) * (p1.x - p3.x) + (p3.x - p2.x) * (p1.z - p3.z);
@@ -0,0 +1,465 @@
+package toolbox;
+
+import java.util.Arrays;
+
+import models.MeshData;
+
+//Builds simpler versions of a mesh for levels of detail, using quadric error edge collapses (Garland & Heckbert).
+//Every position keeps a quadric - the sum of the squared distances to the planes of the triangles around it - so
+//the error of moving it somewhere can be worked out cheaply. Each collapse moves one position onto a neighbour (a
+//half edge collapse), so no new vertices are made. The cheapest collapses are done first, in passes, until the mesh
+//is down to the target number of triangles.
+//
+//The collapses are worked out on positions rather than vertices, as a position can have several vertices on it
+//with different texture coords or normals (a seam, or a hard edge). When a position moves, each of its vertices
+//moves onto the vertex at the new position that it shared a triangle with, or failing that the one with the
+//closest texture coords and normal. This keeps the two sides of a seam together so no cracks open up. Positions on
+//the open border of a mesh (eg. the edge of a fern leaf) can only slide along the border, and the border has extra
+//planes in its quadrics so it keeps its shape.
+public class MeshSimplifier {
+
+	//Kinds of position, decides which collapses a position is allowed.
+	private static final byte MANIFOLD = 0;
+	private static final byte BORDER = 1;
+	private static final byte LOCKED = 2;
+	//How much more the planes along the border count than the triangle planes.
+	private static final double BORDER_WEIGHT = 10;
+	//Number of values in a quadric, the symmetric 4x4 matrix is stored as its upper half.
+	private static final int QUADRIC_SIZE = 10;
+	//Triangle normals can't turn more than this (cosine of ~75 degrees) in a collapse, stops triangles flipping over.
+	private static final double MIN_NORMAL_DOT = 0.25;
+	//How much more a difference in texture coords counts than a difference in normal when matching up vertices.
+	private static final float TEXTURE_MATCH_WEIGHT = 16;
+
+	//Builds a chain of levels of detail, level 0 is the mesh itself and each level after it has the triangle count
+	//of the one before multiplied by the reduction (eg. 0.5 halves it each time). Each level is simplified from the
+	//full mesh so errors don't build up from one level to the next.
+	public static MeshData[] buildLodChain(MeshData mesh, int levelCount, float reduction) {
+		MeshData[] levels = new MeshData[levelCount];
+		levels[0] = mesh;
+		int triangleCount = mesh.getIndices().length / 3;
+		float target = triangleCount;
+		for (int i = 1; i < levelCount; i++) {
+			target *= reduction;
+			levels[i] = simplify(mesh, Math.max(1, (int) target));
+		}
+		return levels;
+	}
+
+	//Simplifies a mesh down to (about) the target number of triangles. It may not get all the way there if the
+	//remaining collapses would flip triangles or only corners of the border are left. The result has its unused
+	//vertices removed and is ordered for the vertex cache.
+	public static MeshData simplify(MeshData mesh, int targetTriangleCount) {
+		int vertexCount = mesh.getVertexCount();
+		int[] indices = mesh.getIndices().clone();
+		//Give every distinct position a number, positionOf goes from a vertex to its position and 
+		//positionVertex from a position back to one of its vertices (to read the position from)
+		int[] positionOf = new int[vertexCount];
+		int positionCount = findPositions(mesh.getPositions(), vertexCount, positionOf);
+		int[] positionVertex = new int[positionCount];
+		for (int v = vertexCount - 1; v >= 0; v--) {
+			positionVertex[positionOf[v]] = v;
+		}
+		float[] positions = new float[positionCount * 3];
+		for (int p = 0; p < positionCount; p++) {
+			System.arraycopy(mesh.getPositions(), positionVertex[p] * 3, positions, p * 3, 3);
+		}
+		//The triangles by position, kept in step with the vertex indices
+		int[] triangles = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			triangles[i] = positionOf[indices[i]];
+		}
+		//Vertices at each position, all in one array with an offset for where each position's list starts
+		int[] vertexOffsets = new int[positionCount + 1];
+		int[] positionVertices = groupVertices(positionOf, positionCount, vertexOffsets);
+		byte[] kinds = classifyPositions(positionCount, triangles);
+		double[] quadrics = buildQuadrics(positions, positionCount, triangles);
+		//Where each position and vertex has been collapsed to, reset to themselves at the start of each pass
+		int[] positionRemap = new int[positionCount];
+		int[] vertexRemap = new int[vertexCount];
+		boolean[] touched = new boolean[positionCount];
+		int triangleCount = triangles.length / 3;
+		while (triangleCount > targetTriangleCount) {
+			int[] triangleOffsets = new int[positionCount + 1];
+			int[] positionTriangles = buildAdjacency(triangles, positionCount, triangleOffsets);
+			LongIntHashMap edges = buildEdgeMap(triangles);
+			//Every edge of every triangle is a possible collapse in both directions, sorted cheapest first. The
+			//cost (never negative) and the candidate number are packed into a long so they can be sorted together.
+			int candidateCount = 0;
+			int[] collapseFrom = new int[triangles.length * 2];
+			int[] collapseTo = new int[triangles.length * 2];
+			long[] order = new long[triangles.length * 2];
+			for (int i = 0; i < triangles.length; i++) {
+				int a = triangles[i];
+				int b = triangles[i - i % 3 + (i + 1) % 3];
+				boolean open = edges.get(edgeKey(b, a)) == LongIntHashMap.NO_VALUE;
+				for (int direction = 0; direction < 2; direction++) {
+					int from = direction == 0 ? a : b;
+					int to = direction == 0 ? b : a;
+					if (canCollapse(kinds[from], open)) {
+						float cost = (float) quadricError(quadrics, from, positions, to);
+						collapseFrom[candidateCount] = from;
+						collapseTo[candidateCount] = to;
+						order[candidateCount] = ((long) Float.floatToIntBits(Math.max(cost, 0f)) << 32) | candidateCount;
+						candidateCount++;
+					}
+				}
+			}
+			Arrays.sort(order, 0, candidateCount);
+			//Do as many of the cheapest collapses as possible without touching any position twice in the same pass
+			for (int p = 0; p < positionCount; p++) {
+				positionRemap[p] = p;
+			}
+			for (int v = 0; v < vertexCount; v++) {
+				vertexRemap[v] = v;
+			}
+			Arrays.fill(touched, false);
+			int removed = 0;
+			int collapses = 0;
+			for (int c = 0; c < candidateCount && triangleCount - removed > targetTriangleCount; c++) {
+				int candidate = (int) order[c];
+				int from = collapseFrom[candidate];
+				int to = collapseTo[candidate];
+				if (touched[from] || touched[to]) {
+					continue;
+				}
+				int lost = checkCollapse(positions, triangles, positionTriangles, triangleOffsets, positionRemap, from,
+						to);
+				if (lost < 0) {
+					continue;
+				}
+				remapVertices(mesh, indices, triangles, positionTriangles, triangleOffsets, positionRemap,
+						positionVertices, vertexOffsets, vertexRemap, from, to);
+				positionRemap[from] = to;
+				for (int q = 0; q < QUADRIC_SIZE; q++) {
+					quadrics[to * QUADRIC_SIZE + q] += quadrics[from * QUADRIC_SIZE + q];
+				}
+				touched[from] = true;
+				touched[to] = true;
+				removed += lost;
+				collapses++;
+			}
+			if (collapses == 0) {
+				break;
+			}
+			//Rebuild the triangles without the ones that have collapsed down to a line
+			int count = 0;
+			for (int i = 0; i < triangles.length; i += 3) {
+				int a = positionRemap[triangles[i]];
+				int b = positionRemap[triangles[i + 1]];
+				int c = positionRemap[triangles[i + 2]];
+				if (a != b && b != c && a != c) {
+					triangles[count] = a;
+					triangles[count + 1] = b;
+					triangles[count + 2] = c;
+					indices[count] = vertexRemap[indices[i]];
+					indices[count + 1] = vertexRemap[indices[i + 1]];
+					indices[count + 2] = vertexRemap[indices[i + 2]];
+					count += 3;
+				}
+			}
+			triangles = Arrays.copyOf(triangles, count);
+			indices = Arrays.copyOf(indices, count);
+			triangleCount = count / 3;
+		}
+		return compact(mesh, VertexCacheOptimiser.optimiseIndices(indices, vertexCount));
+	}
+
+	//Picks where each vertex at a position goes when the position collapses onto another. A vertex that shares a
+	//triangle with a vertex at the new position goes onto that one (its triangle disappears in the collapse, and
+	//the vertices on both sides of it matched up). Any others go onto the vertex at the new position with the
+	//closest texture coords and normal.
+	private static void remapVertices(MeshData mesh, int[] indices, int[] triangles, int[] positionTriangles,
+			int[] triangleOffsets, int[] positionRemap, int[] positionVertices, int[] vertexOffsets, 
+			int[] vertexRemap, int from, int to) {
+		for (int j = triangleOffsets[from]; j < triangleOffsets[from + 1]; j++) {
+			int t = positionTriangles[j] * 3;
+			int fromCorner = -1;
+			int toCorner = -1;
+			for (int corner = 0; corner < 3; corner++) {
+				int p = positionRemap[triangles[t + corner]];
+				if (p == from) {
+					fromCorner = corner;
+				} else if (p == to) {
+					toCorner = corner;
+				}
+			}
+			if (fromCorner >= 0 && toCorner >= 0) {
+				vertexRemap[indices[t + fromCorner]] = indices[t + toCorner];
+			}
+		}
+		float[] textureCoords = mesh.getTextureCoords();
+		float[] normals = mesh.getNormals();
+		for (int i = vertexOffsets[from]; i < vertexOffsets[from + 1]; i++) {
+			int v = positionVertices[i];
+			if (vertexRemap[v] != v) {
+				continue;
+			}
+			int best = -1;
+			float bestDistance = Float.MAX_VALUE;
+			for (int k = vertexOffsets[to]; k < vertexOffsets[to + 1]; k++) {
+				int w = positionVertices[k];
+				float du = textureCoords[v * 2] - textureCoords[w * 2];
+				float dv = textureCoords[v * 2 + 1] - textureCoords[w * 2 + 1];
+				float nx = normals[v * 3] - normals[w * 3];
+				float ny = normals[v * 3 + 1] - normals[w * 3 + 1];
+				float nz = normals[v * 3 + 2] - normals[w * 3 + 2];
+				float distance = (du * du + dv * dv) * TEXTURE_MATCH_WEIGHT + nx * nx + ny * ny + nz * nz;
+				if (distance < bestDistance) {
+					bestDistance = distance;
+					best = w;
+				}
+			}
+			vertexRemap[v] = best;
+		}
+	}
+
+	//Numbers the distinct positions of a mesh, filling in which position each vertex is at. Returns the number of
+	//distinct positions.
+	private static int findPositions(float[] positions, int vertexCount, int[] positionOf) {
+		LongIntHashMap firstAtPosition = new LongIntHashMap(vertexCount);
+		int[] firstVertex = new int[vertexCount];
+		int positionCount = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			int position = firstAtPosition.putIfAbsent(positionKey(positions, v), positionCount);
+			//Different positions with the same key are just treated as separate (very unlikely)
+			if (position == LongIntHashMap.NO_VALUE || !samePosition(positions, firstVertex[position], v)) {
+				firstVertex[positionCount] = v;
+				position = positionCount++;
+			}
+			positionOf[v] = position;
+		}
+		return positionCount;
+	}
+
+	//Works out what kind each position is from the open edges (edges with no triangle on the other side) going out
+	//of it. None means it has triangles all the way round, one means it is on the border and more than one means
+	//it is a corner where borders meet (or something non manifold), which is never moved.
+	private static byte[] classifyPositions(int positionCount, int[] triangles) {
+		LongIntHashMap edges = buildEdgeMap(triangles);
+		int[] openEdges = new int[positionCount];
+		for (int i = 0; i < triangles.length; i++) {
+			int a = triangles[i];
+			int b = triangles[i - i % 3 + (i + 1) % 3];
+			if (edges.get(edgeKey(b, a)) == LongIntHashMap.NO_VALUE) {
+				openEdges[a]++;
+			}
+		}
+		byte[] kinds = new byte[positionCount];
+		for (int p = 0; p < positionCount; p++) {
+			kinds[p] = openEdges[p] == 0 ? MANIFOLD : openEdges[p] == 1 ? BORDER : LOCKED;
+		}
+		return kinds;
+	}
+
+	//A position with triangles all the way round can move to any neighbour, a border position can only move along
+	//the border and a locked position can't move at all (though others can still move onto it).
+	private static boolean canCollapse(byte kind, boolean openEdge) {
+		return kind == MANIFOLD || (kind == BORDER && openEdge);
+	}
+
+	//Checks that moving a position onto another won't flip any of the triangles around it over. Returns how many
+	//triangles the collapse gets rid of, or -1 if it isn't allowed. The remap has the collapses already done this
+	//pass, so the triangles are checked as they are now rather than how they were at the start of the pass.
+	private static int checkCollapse(float[] positions, int[] indices, int[] vertexTriangles, int[] triangleOffsets,
+			int[] remap, int from, int to) {
+		int lost = 0;
+		for (int j = triangleOffsets[from]; j < triangleOffsets[from + 1]; j++) {
+			int t = vertexTriangles[j] * 3;
+			int a = remap[indices[t]];
+			int b = remap[indices[t + 1]];
+			int c = remap[indices[t + 2]];
+			//Already collapsed to nothing by an earlier collapse this pass
+			if (a == b || b == c || a == c) {
+				continue;
+			}
+			//Triangles using both vertices of the edge disappear
+			if (a == to || b == to || c == to) {
+				lost++;
+				continue;
+			}
+			double[] before = triangleNormal(positions, a, b, c);
+			double[] after = triangleNormal(positions, a == from ? to : a, b == from ? to : b, c == from ? to : c);
+			double dot = before[0] * after[0] + before[1] * after[1] + before[2] * after[2];
+			double lengths = Math.sqrt((before[0] * before[0] + before[1] * before[1] + before[2] * before[2])
+					* (after[0] * after[0] + after[1] * after[1] + after[2] * after[2]));
+			if (lengths == 0 || dot < MIN_NORMAL_DOT * lengths) {
+				return -1;
+			}
+		}
+		return lost;
+	}
+
+	//Works out the quadric of every position from the planes of the triangles around it, weighted by the area of each
+	//triangle. Open edges also get a plane standing up along the edge so the border doesn't get pulled in.
+	private static double[] buildQuadrics(float[] positions, int vertexCount, int[] indices) {
+		double[] quadrics = new double[vertexCount * QUADRIC_SIZE];
+		LongIntHashMap edges = buildEdgeMap(indices);
+		for (int i = 0; i < indices.length; i += 3) {
+			int a = indices[i];
+			int b = indices[i + 1];
+			int c = indices[i + 2];
+			double[] normal = triangleNormal(positions, a, b, c);
+			double length = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+			if (length == 0) {
+				continue;
+			}
+			//The cross product is twice the area, so the area weighting is half its length
+			double area = length * 0.5;
+			double nx = normal[0] / length;
+			double ny = normal[1] / length;
+			double nz = normal[2] / length;
+			double d = -(nx * positions[a * 3] + ny * positions[a * 3 + 1] + nz * positions[a * 3 + 2]);
+			for (int corner = 0; corner < 3; corner++) {
+				addPlane(quadrics, indices[i + corner], nx, ny, nz, d, area);
+			}
+			//Border planes, at right angles to the triangle along each open edge
+			for (int corner = 0; corner < 3; corner++) {
+				int from = indices[i + corner];
+				int to = indices[i + (corner + 1) % 3];
+				if (edges.get(edgeKey(to, from)) != LongIntHashMap.NO_VALUE) {
+					continue;
+				}
+				double ex = positions[to * 3] - positions[from * 3];
+				double ey = positions[to * 3 + 1] - positions[from * 3 + 1];
+				double ez = positions[to * 3 + 2] - positions[from * 3 + 2];
+				double edgeLength = Math.sqrt(ex * ex + ey * ey + ez * ez);
+				if (edgeLength == 0) {
+					continue;
+				}
+				//Normal of the border plane is the edge crossed with the triangle normal
+				double px = (ey * nz - ez * ny) / edgeLength;
+				double py = (ez * nx - ex * nz) / edgeLength;
+				double pz = (ex * ny - ey * nx) / edgeLength;
+				double pd = -(px * positions[from * 3] + py * positions[from * 3 + 1] + pz * positions[from * 3 + 2]);
+				double weight = edgeLength * edgeLength * BORDER_WEIGHT;
+				addPlane(quadrics, from, px, py, pz, pd, weight);
+				addPlane(quadrics, to, px, py, pz, pd, weight);
+			}
+		}
+		return quadrics;
+	}
+
+	//Adds the squared distance to a plane (ax + by + cz + d = 0) onto a position's quadric.
+	private static void addPlane(double[] quadrics, int vertex, double a, double b, double c, double d,
+			double weight) {
+		int q = vertex * QUADRIC_SIZE;
+		quadrics[q] += weight * a * a;
+		quadrics[q + 1] += weight * a * b;
+		quadrics[q + 2] += weight * a * c;
+		quadrics[q + 3] += weight * a * d;
+		quadrics[q + 4] += weight * b * b;
+		quadrics[q + 5] += weight * b * c;
+		quadrics[q + 6] += weight * b * d;
+		quadrics[q + 7] += weight * c * c;
+		quadrics[q + 8] += weight * c * d;
+		quadrics[q + 9] += weight * d * d;
+	}
+
+	//Error of moving a position onto another, ie. the first position's quadric evaluated at the second.
+	private static double quadricError(double[] quadrics, int vertex, float[] positions, int target) {
+		int q = vertex * QUADRIC_SIZE;
+		double x = positions[target * 3];
+		double y = positions[target * 3 + 1];
+		double z = positions[target * 3 + 2];
+		return quadrics[q] * x * x + 2 * quadrics[q + 1] * x * y + 2 * quadrics[q + 2] * x * z
+				+ 2 * quadrics[q + 3] * x + quadrics[q + 4] * y * y + 2 * quadrics[q + 5] * y * z
+				+ 2 * quadrics[q + 6] * y + quadrics[q + 7] * z * z + 2 * quadrics[q + 8] * z + quadrics[q + 9];
+	}
+
+	//Cross product of two edges of a triangle (not normalised).
+	private static double[] triangleNormal(float[] positions, int a, int b, int c) {
+		double abx = positions[b * 3] - positions[a * 3];
+		double aby = positions[b * 3 + 1] - positions[a * 3 + 1];
+		double abz = positions[b * 3 + 2] - positions[a * 3 + 2];
+		double acx = positions[c * 3] - positions[a * 3];
+		double acy = positions[c * 3 + 1] - positions[a * 3 + 1];
+		double acz = positions[c * 3 + 2] - positions[a * 3 + 2];
+		return new double[] {aby * acz - abz * acy, abz * acx - abx * acz, abx * acy - aby * acx};
+	}
+
+	//Lists the triangles around each position, all in one array with an offset for where each list starts.
+	private static int[] buildAdjacency(int[] indices, int vertexCount, int[] offsets) {
+		for (int index : indices) {
+			offsets[index + 1]++;
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		int[] fill = Arrays.copyOf(offsets, vertexCount);
+		int[] triangles = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			triangles[fill[indices[i]]++] = i / 3;
+		}
+		return triangles;
+	}
+
+	//Lists the vertices at each position, in the same way as buildAdjacency.
+	private static int[] groupVertices(int[] positionOf, int positionCount, int[] offsets) {
+		for (int position : positionOf) {
+			offsets[position + 1]++;
+		}
+		for (int p = 0; p < positionCount; p++) {
+			offsets[p + 1] += offsets[p];
+		}
+		int[] fill = Arrays.copyOf(offsets, positionCount);
+		int[] vertices = new int[positionOf.length];
+		for (int v = 0; v < positionOf.length; v++) {
+			vertices[fill[positionOf[v]]++] = v;
+		}
+		return vertices;
+	}
+
+	//Map of every directed edge of the triangles, so it can be checked whether an edge has a triangle on both sides.
+	private static LongIntHashMap buildEdgeMap(int[] indices) {
+		LongIntHashMap edges = new LongIntHashMap(indices.length);
+		for (int i = 0; i < indices.length; i++) {
+			edges.put(edgeKey(indices[i], indices[i - i % 3 + (i + 1) % 3]), i);
+		}
+		return edges;
+	}
+
+	private static long edgeKey(int from, int to) {
+		return ((long) from << 32) | to;
+	}
+
+	//Key for finding vertices at the same position, the bits of the 3 floats mixed together. Different positions
+	//can end up with the same key so samePosition has to check. Kept positive as the map can't have negative keys.
+	private static long positionKey(float[] positions, int v) {
+		long key = Float.floatToIntBits(positions[v * 3]);
+		key = key * 0x9E3779B97F4A7C15L + Float.floatToIntBits(positions[v * 3 + 1]);
+		key = key * 0x9E3779B97F4A7C15L + Float.floatToIntBits(positions[v * 3 + 2]);
+		return key & Long.MAX_VALUE;
+	}
+
+	private static boolean samePosition(float[] positions, int a, int b) {
+		return positions[a * 3] == positions[b * 3] && positions[a * 3 + 1] == positions[b * 3 + 1]
+				&& positions[a * 3 + 2] == positions[b * 3 + 2];
+	}
+
+	//Copies out only the vertices the indices still use, numbered in the order they are first used.
+	private static MeshData compact(MeshData mesh, int[] indices) {
+		int[] remap = new int[mesh.getVertexCount()];
+		Arrays.fill(remap, -1);
+		int used = 0;
+		int[] newIndices = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			if (remap[indices[i]] < 0) {
+				remap[indices[i]] = used++;
+			}
+			newIndices[i] = remap[indices[i]];
+		}
+		float[] positions = new float[used * 3];
+		float[] textureCoords = new float[used * 2];
+		float[] normals = new float[used * 3];
+		for (int v = 0; v < remap.length; v++) {
+			int n = remap[v];
+			if (n >= 0) {
+				System.arraycopy(mesh.getPositions(), v * 3, positions, n * 3, 3);
+				System.arraycopy(mesh.getTextureCoords(), v * 2, textureCoords, n * 2, 2);
+				System.arraycopy(mesh.getNormals(), v * 3, normals, n * 3, 3);
+			}
+		}
+		return new MeshData(positions, textureCoords, normals, newIndices);
+	}
+}
@@ -0,0 +1,313 @@
+package toolbox;
+
+import java.util.Arrays;
+
+import models.MeshData;
+
+//Reorders the triangles of a mesh so the GPU can reuse more of the vertices it has already transformed. The GPU
+//keeps a small cache of the last vertices it ran through the vertex shader, and a triangle whose corners are still
+//in that cache costs almost nothing. Uses Tom Forsyth's linear speed algorithm, which gives every vertex a score
+//based on how recently it was used and how many triangles still need it, and then greedily picks the triangle with
+//the best score each time. Can also reorder the vertices themselves into the order they are first used, so the
+//vertex data is read through from start to end.
+//
+//The ACMR (average cache miss ratio, vertices transformed per triangle) and ATVR (average transform to vertex
+//ratio, vertices transformed per unique vertex) can be worked out on the CPU to measure how well a mesh is ordered.
+//A perfect ACMR for a regular mesh is about 0.5 and the worst is 3, a perfect ATVR is 1.
+public class VertexCacheOptimiser {
+
+	//Size of the cache used when scoring vertices and when measuring, a little bigger than most real caches hold
+	//so the order still works well on hardware with smaller ones.
+	public static final int CACHE_SIZE = 32;
+	//Settings for the vertex scores, these are the values from Forsyth's paper.
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+	//Scores are worked out ahead of time for every cache position and for the most common numbers of triangles
+	//left on a vertex.
+	private static final int MAX_PRECALCULATED_VALENCE = 64;
+	private static final float[] CACHE_POSITION_SCORES = new float[CACHE_SIZE];
+	private static final float[] VALENCE_SCORES = new float[MAX_PRECALCULATED_VALENCE];
+
+	static {
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			//The 3 vertices of the last triangle get a fixed score so the next triangle isn't just the same edge
+			//again, after that the score drops off the further back in the cache the vertex is
+			if (i < 3) {
+				CACHE_POSITION_SCORES[i] = LAST_TRIANGLE_SCORE;
+			} else {
+				float scaler = 1f / (CACHE_SIZE - 3);
+				CACHE_POSITION_SCORES[i] = (float) Math.pow(1f - (i - 3) * scaler, CACHE_DECAY_POWER);
+			}
+		}
+		for (int i = 1; i < MAX_PRECALCULATED_VALENCE; i++) {
+			VALENCE_SCORES[i] = valenceScore(i);
+		}
+	}
+
+	//Reorders the triangles of a mesh for the vertex cache and then reorders the vertices into the order they are
+	//first used. Gives back a new mesh along with its ACMR & ATVR before and after, the one passed in isn't changed.
+	public static OptimisedMesh optimise(MeshData mesh) {
+		int vertexCount = mesh.getVertexCount();
+		int[] indices = optimiseIndices(mesh.getIndices(), vertexCount);
+		MeshData optimised = reorderVertices(new MeshData(mesh.getPositions(), mesh.getTextureCoords(),
+				mesh.getNormals(), indices));
+		int[] before = mesh.getIndices();
+		int[] after = optimised.getIndices();
+		return new OptimisedMesh(optimised, calculateACMR(before, CACHE_SIZE), calculateACMR(after, CACHE_SIZE),
+				calculateATVR(before, vertexCount, CACHE_SIZE), calculateATVR(after, vertexCount, CACHE_SIZE));
+	}
+
+	//Reorders the triangles in an index array for the vertex cache, returning the new index array. The triangles
+	//themselves (and the winding of each one) are left the same, only the order they are drawn in changes.
+	public static int[] optimiseIndices(int[] indices, int vertexCount) {
+		int triangleCount = indices.length / 3;
+		if (triangleCount == 0) {
+			return indices.clone();
+		}
+		//Count how many triangles use each vertex, then list the triangles of each vertex (all stored in one array
+		//with an offset for where each vertex's triangles start)
+		int[] remaining = new int[vertexCount];
+		for (int i = 0; i < triangleCount * 3; i++) {
+			remaining[indices[i]]++;
+		}
+		int[] triangleOffsets = new int[vertexCount + 1];
+		for (int v = 0; v < vertexCount; v++) {
+			triangleOffsets[v + 1] = triangleOffsets[v] + remaining[v];
+		}
+		int[] vertexTriangles = new int[triangleCount * 3];
+		int[] fill = Arrays.copyOf(triangleOffsets, vertexCount);
+		for (int i = 0; i < triangleCount * 3; i++) {
+			vertexTriangles[fill[indices[i]]++] = i / 3;
+		}
+		//Score every vertex and triangle before anything is in the cache
+		int[] cachePositions = new int[vertexCount];
+		Arrays.fill(cachePositions, -1);
+		float[] vertexScores = new float[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			vertexScores[v] = vertexScore(-1, remaining[v]);
+		}
+		boolean[] added = new boolean[triangleCount];
+		int bestTriangle = -1;
+		float bestScore = -1;
+		for (int t = 0; t < triangleCount; t++) {
+			float score = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]]
+					+ vertexScores[indices[t * 3 + 2]];
+			if (score > bestScore) {
+				bestScore = score;
+				bestTriangle = t;
+			}
+		}
+		//The cache has room for the 3 vertices of the new triangle on top, so nothing is lost before it is scored
+		int[] cache = new int[CACHE_SIZE + 3];
+		int[] newCache = new int[CACHE_SIZE + 3];
+		int cacheCount = 0;
+		int[] output = new int[triangleCount * 3];
+		int searchStart = 0;
+		for (int outputTriangle = 0; outputTriangle < triangleCount; outputTriangle++) {
+			//If none of the vertices in the cache had any triangles left, carry on from the next triangle that
+			//hasn't been added yet
+			if (bestTriangle < 0) {
+				while (added[searchStart]) {
+					searchStart++;
+				}
+				bestTriangle = searchStart;
+			}
+			//Add the triangle and take it off the list of each of its vertices
+			added[bestTriangle] = true;
+			int newCount = 0;
+			for (int corner = 0; corner < 3; corner++) {
+				int v = indices[bestTriangle * 3 + corner];
+				output[outputTriangle * 3 + corner] = v;
+				removeTriangle(vertexTriangles, triangleOffsets[v], remaining[v], bestTriangle);
+				remaining[v]--;
+				//The triangle's vertices move to the front of the cache (once each, in case it is degenerate)
+				if (newCount == 0 || (newCache[0] != v && (newCount == 1 || newCache[1] != v))) {
+					newCache[newCount++] = v;
+				}
+			}
+			//Everything else in the cache moves back behind them
+			int triangleVertices = newCount;
+			for (int i = 0; i < cacheCount; i++) {
+				int v = cache[i];
+				if (v != newCache[0] && (triangleVertices < 2 || v != newCache[1])
+						&& (triangleVertices < 3 || v != newCache[2])) {
+					newCache[newCount++] = v;
+				}
+			}
+			//Update the cache positions and scores, anything that has been pushed out of the end is no longer cached
+			for (int i = 0; i < newCount; i++) {
+				int v = newCache[i];
+				cachePositions[v] = i < CACHE_SIZE ? i : -1;
+				vertexScores[v] = vertexScore(cachePositions[v], remaining[v]);
+			}
+			//Rescore the triangles that use those vertices and find the best one to add next
+			bestTriangle = -1;
+			bestScore = -1;
+			for (int i = 0; i < newCount; i++) {
+				int v = newCache[i];
+				int end = triangleOffsets[v] + remaining[v];
+				for (int j = triangleOffsets[v]; j < end; j++) {
+					int t = vertexTriangles[j];
+					float score = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]]
+							+ vertexScores[indices[t * 3 + 2]];
+					if (score > bestScore) {
+						bestScore = score;
+						bestTriangle = t;
+					}
+				}
+			}
+			//Swap the caches over, keeping only what still fits
+			int[] temp = cache;
+			cache = newCache;
+			newCache = temp;
+			cacheCount = Math.min(newCount, CACHE_SIZE);
+		}
+		return output;
+	}
+
+	//Renumbers the vertices in the order the indices first use them, so the GPU reads the vertex data from start
+	//to end instead of jumping around. Any vertices that aren't used by a triangle are kept at the end.
+	public static MeshData reorderVertices(MeshData mesh) {
+		int vertexCount = mesh.getVertexCount();
+		int[] indices = mesh.getIndices();
+		//Work out the new number of each vertex
+		int[] remap = new int[vertexCount];
+		Arrays.fill(remap, -1);
+		int next = 0;
+		int[] newIndices = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			int v = indices[i];
+			if (remap[v] < 0) {
+				remap[v] = next++;
+			}
+			newIndices[i] = remap[v];
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			if (remap[v] < 0) {
+				remap[v] = next++;
+			}
+		}
+		//Move the vertex data into the new order
+		float[] positions = mesh.getPositions();
+		float[] textureCoords = mesh.getTextureCoords();
+		float[] normals = mesh.getNormals();
+		float[] newPositions = new float[positions.length];
+		float[] newTextureCoords = new float[textureCoords.length];
+		float[] newNormals = new float[normals.length];
+		for (int v = 0; v < vertexCount; v++) {
+			int n = remap[v];
+			System.arraycopy(positions, v * 3, newPositions, n * 3, 3);
+			System.arraycopy(textureCoords, v * 2, newTextureCoords, n * 2, 2);
+			System.arraycopy(normals, v * 3, newNormals, n * 3, 3);
+		}
+		return new MeshData(newPositions, newTextureCoords, newNormals, newIndices);
+	}
+
+	//Average cache miss ratio - the number of vertices the GPU has to transform per triangle, using a first in
+	//first out cache of the given size (how most GPUs have worked).
+	public static float calculateACMR(int[] indices, int cacheSize) {
+		int triangleCount = indices.length / 3;
+		return triangleCount == 0 ? 0 : (float) countCacheMisses(indices, cacheSize) / triangleCount;
+	}
+
+	//Average transform to vertex ratio - the number of times each vertex gets transformed on average. Unlike the
+	//ACMR this doesn't depend on how many triangles share each vertex.
+	public static float calculateATVR(int[] indices, int vertexCount, int cacheSize) {
+		return vertexCount == 0 ? 0 : (float) countCacheMisses(indices, cacheSize) / vertexCount;
+	}
+
+	//Runs the indices through a simulated first in first out cache and counts the misses. Rather than keeping the
+	//cache itself, each vertex remembers the miss count when it went in, it has been pushed out once cacheSize
+	//more misses have happened since then.
+	private static int countCacheMisses(int[] indices, int cacheSize) {
+		int maxIndex = -1;
+		for (int index : indices) {
+			maxIndex = Math.max(maxIndex, index);
+		}
+		int[] insertedAt = new int[maxIndex + 1];
+		Arrays.fill(insertedAt, Integer.MIN_VALUE / 2);
+		int misses = 0;
+		for (int index : indices) {
+			if (misses - insertedAt[index] >= cacheSize) {
+				insertedAt[index] = misses++;
+			}
+		}
+		return misses;
+	}
+
+	//Swap the triangle to the end of the vertex's list of remaining triangles so it drops off the list.
+	private static void removeTriangle(int[] vertexTriangles, int start, int count, int triangle) {
+		int last = start + count - 1;
+		for (int i = start; i <= last; i++) {
+			if (vertexTriangles[i] == triangle) {
+				vertexTriangles[i] = vertexTriangles[last];
+				vertexTriangles[last] = triangle;
+				return;
+			}
+		}
+	}
+
+	//Score of a vertex from where it is in the cache (-1 if it isn't) and how many triangles still use it.
+	//Vertices with only a few triangles left get a boost so they are finished off rather than left behind.
+	private static float vertexScore(int cachePosition, int remainingTriangles) {
+		if (remainingTriangles == 0) {
+			return -1;
+		}
+		float score = cachePosition < 0 ? 0 : CACHE_POSITION_SCORES[cachePosition];
+		if (remainingTriangles < MAX_PRECALCULATED_VALENCE) {
+			return score + VALENCE_SCORES[remainingTriangles];
+		}
+		return score + valenceScore(remainingTriangles);
+	}
+
+	private static float valenceScore(int remainingTriangles) {
+		return VALENCE_BOOST_SCALE * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+	}
+
+	//A mesh that has been optimised, and how well ordered it was before and after (measured with CACHE_SIZE).
+	public static class OptimisedMesh {
+
+		private final MeshData mesh;
+		private final float acmrBefore;
+		private final float acmrAfter;
+		private final float atvrBefore;
+		private final float atvrAfter;
+
+		private OptimisedMesh(MeshData mesh, float acmrBefore, float acmrAfter, float atvrBefore, float atvrAfter) {
+			this.mesh = mesh;
+			this.acmrBefore = acmrBefore;
+			this.acmrAfter = acmrAfter;
+			this.atvrBefore = atvrBefore;
+			this.atvrAfter = atvrAfter;
+		}
+
+		//Report of the ratios, eg. for printing once a model is loaded.
+		public String getReport() {
+			return String.format("ACMR %.3f -> %.3f, ATVR %.3f -> %.3f", acmrBefore, acmrAfter, atvrBefore,
+					atvrAfter);
+		}
+
+		//Getters for the properties
+		public MeshData getMesh() {
+			return mesh;
+		}
+
+		public float getACMRBefore() {
+			return acmrBefore;
+		}
+
+		public float getACMRAfter() {
+			return acmrAfter;
+		}
+
+		public float getATVRBefore() {
+			return atvrBefore;
+		}
+
+		public float getATVRAfter() {
+			return atvrAfter;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package toolbox;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+
+import models.MeshBuffers;
+import models.PackedMesh;
+import models.VertexFormat;
+
+//Packs vertex data into a smaller interleaved format for the GPU. Each vertex is stored as:
+//   3 floats for the position (12 bytes)
+//   2 half floats for the texture coords (4 bytes)
+//   1 int with the normal packed as INT_2_10_10_10_REV, 10 signed bits per component (4 bytes)
+//which is 20 bytes a vertex instead of the 32 used by three separate float VBOs. Indices are stored as unsigned 
+//shorts whenever there are few enough vertices that none of them needs 0xFFFF, the primitive restart index of short 
+//indices. The unpack methods turn the packed values back into floats so the
+//packing can be checked on the CPU. 
+public class VertexPacking {
+
+	//Size of one packed vertex and where each attribute starts within it, in bytes. 
+	public static final int STRIDE = 20;
+	public static final int POSITION_OFFSET = 0;
+	public static final int TEXTURE_OFFSET = 12;
+	public static final int NORMAL_OFFSET = 16;
+	//Size of a vertex interleaved as plain floats (3 position, 2 texture coords, 3 normal). 
+	public static final int FLOAT_STRIDE = 32;
+	//Most vertices that can be indexed with unsigned shorts. One less than 65536, as index 65535 (0xFFFF) would be 
+	//taken as a primitive restart when drawing strips. 
+	public static final int MAX_SHORT_VERTICES = 65535;
+	//Largest value of a signed 10 bit normal component. 
+	private static final float NORMAL_SCALE = 511;
+	
+	//Interleave and pack all the vertices of a mesh and pick the smallest index type that fits. 
+	public static PackedMesh pack(MeshBuffers mesh) {
+		FloatBuffer positions = mesh.getPositions();
+		FloatBuffer textureCoords = mesh.getTextureCoords();
+		FloatBuffer normals = mesh.getNormals();
+		IntBuffer indices = mesh.getIndices();
+		int vertexCount = positions.remaining() / 3;
+		//Use absolute gets so the positions of the buffers are left alone 
+		int positionStart = positions.position();
+		int textureStart = textureCoords.position();
+		int normalStart = normals.position();
+		ByteBuffer vertices = BufferUtils.createByteBuffer(vertexCount * STRIDE);
+		for(int i = 0; i < vertexCount; i++) {
+			vertices.putFloat(positions.get(positionStart + i * 3));
+			vertices.putFloat(positions.get(positionStart + i * 3 + 1));
+			vertices.putFloat(positions.get(positionStart + i * 3 + 2));
+			vertices.putShort(floatToHalf(textureCoords.get(textureStart + i * 2)));
+			vertices.putShort(floatToHalf(textureCoords.get(textureStart + i * 2 + 1)));
+			vertices.putInt(packNormal(normals.get(normalStart + i * 3), normals.get(normalStart + i * 3 + 1), 
+					normals.get(normalStart + i * 3 + 2)));
+		}
+		vertices.flip();
+		return new PackedMesh(VertexFormat.PACKED, vertices, vertexCount, packIndices(indices, vertexCount), 
+				indices.remaining(), indexType(vertexCount));
+	}
+	
+	//Interleaves a mesh into one buffer without packing anything, so each vertex is 8 floats. Still uses short 
+	//indices when they fit. 
+	public static PackedMesh interleave(MeshBuffers mesh) {
+		return interleave(mesh, GL11.GL_TRIANGLES);
+	}
+	
+	//Same as above for indices that make up another primitive mode, eg. triangle strips. Any -1 indices (primitive 
+	//restarts) become the largest value of the index type. 
+	public static PackedMesh interleave(MeshBuffers mesh, int primitiveMode) {
+		FloatBuffer positions = mesh.getPositions();
+		FloatBuffer textureCoords = mesh.getTextureCoords();
+		FloatBuffer normals = mesh.getNormals();
+		IntBuffer indices = mesh.getIndices();
+		int vertexCount = positions.remaining() / 3;
+		int positionStart = positions.position();
+		int textureStart = textureCoords.position();
+		int normalStart = normals.position();
+		ByteBuffer vertices = BufferUtils.createByteBuffer(vertexCount * FLOAT_STRIDE);
+		for(int i = 0; i < vertexCount; i++) {
+			for(int j = 0; j < 3; j++) {
+				vertices.putFloat(positions.get(positionStart + i * 3 + j));
+			}
+			for(int j = 0; j < 2; j++) {
+				vertices.putFloat(textureCoords.get(textureStart + i * 2 + j));
+			}
+			for(int j = 0; j < 3; j++) {
+				vertices.putFloat(normals.get(normalStart + i * 3 + j));
+			}
+		}
+		vertices.flip();
+		return new PackedMesh(VertexFormat.FLOAT, vertices, vertexCount, packIndices(indices, vertexCount), 
+				indices.remaining(), indexType(vertexCount), primitiveMode);
+	}
+	
+	//Index type for a mesh with this many vertices, shorts if every vertex can be reached with one. 
+	public static int indexType(int vertexCount) {
+		return vertexCount <= MAX_SHORT_VERTICES ? GL11.GL_UNSIGNED_SHORT : GL11.GL_UNSIGNED_INT;
+	}
+	
+	//Indices as shorts if every vertex can be reached with one, otherwise keep them as ints 
+	private static ByteBuffer packIndices(IntBuffer indices, int vertexCount) {
+		int indexCount = indices.remaining();
+		int indexStart = indices.position();
+		boolean shortIndices = indexType(vertexCount) == GL11.GL_UNSIGNED_SHORT;
+		ByteBuffer packedIndices = BufferUtils.createByteBuffer(indexCount * (shortIndices ? 2 : 4));
+		for(int i = 0; i < indexCount; i++) {
+			if(shortIndices) {
+				packedIndices.putShort((short) indices.get(indexStart + i));
+			} else {
+				packedIndices.putInt(indices.get(indexStart + i));
+			}
+		}
+		packedIndices.flip();
+		return packedIndices;
+	}
+	
+	//Packs a normal into the INT_2_10_10_10_REV format - x in the lowest 10 bits, then y, then z, and the 2 bit w 
+	//left at 0. Each component is a signed normalised value, so -1..1 maps to -511..511. 
+	public static int packNormal(float x, float y, float z) {
+		return (packComponent(z) << 20) | (packComponent(y) << 10) | packComponent(x);
+	}
+	
+	//Gets one component (0 = x, 1 = y, 2 = z) back out of a packed normal. Uses the same rule as OpenGL, ie. the 
+	//value divided by 511 and clamped so -512 still gives -1. 
+	public static float unpackNormal(int packed, int component) {
+		//Shift the 10 bits to the top of the int and back down again to fill in the sign 
+		int value = (packed << (22 - component * 10)) >> 22;
+		return Math.max(value / NORMAL_SCALE, -1f);
+	}
+	
+	private static int packComponent(float value) {
+		float clamped = Math.max(-1f, Math.min(1f, value));
+		return Math.round(clamped * NORMAL_SCALE) & 0x3FF;
+	}
+	
+	//Converts a float to a 16 bit half float, rounding to the nearest value (ties to even) the same as a GPU 
+	//conversion would. Values too big for a half become infinity and tiny ones become denormals or zero. 
+	public static short floatToHalf(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = (bits >>> 23) & 0xFF;
+		int mantissa = bits & 0x7FFFFF;
+		//NaN and infinity 
+		if(exponent == 0xFF) {
+			return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+		}
+		//Re-bias the exponent from float (127) to half (15) 
+		int halfExponent = exponent - 127 + 15;
+		//Too big for a half so becomes infinity 
+		if(halfExponent >= 0x1F) {
+			return (short) (sign | 0x7C00);
+		}
+		//Too small for a normal half, so becomes a denormal (or zero if it is smaller than that) 
+		if(halfExponent <= 0) {
+			if(halfExponent < -10) {
+				return (short) sign;
+			}
+			//Put the hidden leading 1 back on and shift down to the denormal position 
+			mantissa |= 0x800000;
+			int shift = 14 - halfExponent;
+			int halfMantissa = mantissa >> shift;
+			int remainder = mantissa & ((1 << shift) - 1);
+			int halfway = 1 << (shift - 1);
+			if(remainder > halfway || (remainder == halfway && (halfMantissa & 1) != 0)) {
+				halfMantissa++;
+			}
+			return (short) (sign | halfMantissa);
+		}
+		//Normal half, keep the top 10 bits of the mantissa and round on the 13 that are dropped. A carry out of the 
+		//mantissa correctly bumps the exponent up by one. 
+		int half = (halfExponent << 10) | (mantissa >> 13);
+		int remainder = mantissa & 0x1FFF;
+		if(remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+			half++;
+		}
+		return (short) (sign | half);
+	}
+	
+	//Converts a 16 bit half float back into a float. Every half value can be stored exactly as a float. 
+	public static float halfToFloat(short half) {
+		int bits = half & 0xFFFF;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1F;
+		int mantissa = bits & 0x3FF;
+		if(exponent == 0x1F) {
+			//NaN and infinity 
+			return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+		}
+		if(exponent == 0) {
+			//Denormals (and zero) are just the mantissa scaled down by 2^-24 
+			float value = mantissa * 0x1p-24f;
+			return sign != 0 ? -value : value;
+		}
+		return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+	}
+}